@@ -16,20 +16,32 @@ package com.googlesource.gerrit.plugins.replication.pull;
 
 import com.google.gerrit.extensions.annotations.PluginName;
 import com.google.gerrit.metrics.Counter0;
+import com.google.gerrit.metrics.Counter1;
 import com.google.gerrit.metrics.Description;
 import com.google.gerrit.metrics.Field;
+import com.google.gerrit.metrics.Histogram0;
 import com.google.gerrit.metrics.MetricMaker;
 import com.google.gerrit.metrics.Timer1;
 import com.google.gerrit.server.logging.PluginMetadata;
 import com.google.inject.Inject;
 import com.google.inject.Singleton;
+import java.util.concurrent.TimeUnit;
+import org.eclipse.jgit.transport.URIish;
 
 @Singleton
 public class ApplyObjectMetrics {
   private final Timer1<String> executionTime;
   private final Timer1<String> end2EndTime;
+  private final Timer1<String> apiUrlEnd2EndTime;
 
   private final Counter0 maxApiPayloadSizeReachedCounter;
+  private final Histogram0 preflightSize;
+  private final Counter0 preflightBailOutCounter;
+  private final Counter0 revisionsCacheHitCounter;
+  private final Counter0 revisionsCacheMissCounter;
+  private final Counter1<String> requestUncompressedBytes;
+  private final Counter1<String> requestCompressedBytes;
+  private final Counter0 looseObjectsAvoidedCounter;
 
   @Inject
   ApplyObjectMetrics(@PluginName String pluginName, MetricMaker metricMaker) {
@@ -56,6 +68,21 @@ public class ApplyObjectMetrics {
                 .setCumulative()
                 .setUnit(Description.Units.MILLISECONDS),
             field);
+
+    apiUrlEnd2EndTime =
+        metricMaker.newTimer(
+            "apply_object_api_url_end_2_end_latency",
+            new Description(
+                    "Time spent for e2e replication with the apply object REST API per apiUrl")
+                .setCumulative()
+                .setUnit(Description.Units.MILLISECONDS),
+            Field.ofString(
+                    "api_url",
+                    (metadataBuilder, fieldValue) ->
+                        metadataBuilder
+                            .pluginName(pluginName)
+                            .addPluginMetadata(PluginMetadata.create("api_url", fieldValue)))
+                .build());
     maxApiPayloadSizeReachedCounter =
         metricMaker.newCounter(
             "apply_object_max_api_payload_reached",
@@ -63,6 +90,55 @@ public class ApplyObjectMetrics {
                     "Number of apply object operation with payload larger than maxApiPayloadSize")
                 .setRate()
                 .setUnit("errors"));
+    preflightSize =
+        metricMaker.newHistogram(
+            "apply_object_preflight_size",
+            new Description("Size of the objects of a ref computed from their headers")
+                .setCumulative()
+                .setUnit(Description.Units.BYTES));
+    preflightBailOutCounter =
+        metricMaker.newCounter(
+            "apply_object_preflight_bail_out",
+            new Description(
+                    "Number of refs falling back to fetch before loading the content of their"
+                        + " objects because larger than maxApiPayloadSize")
+                .setRate()
+                .setUnit("errors"));
+    revisionsCacheHitCounter =
+        metricMaker.newCounter(
+            "revisions_cache_hit",
+            new Description("Number of revisions served from the revisions cache")
+                .setRate()
+                .setUnit("revisions"));
+    revisionsCacheMissCounter =
+        metricMaker.newCounter(
+            "revisions_cache_miss",
+            new Description("Number of revisions not found in the revisions cache")
+                .setRate()
+                .setUnit("revisions"));
+    requestUncompressedBytes =
+        metricMaker.newCounter(
+            "apply_object_request_uncompressed_bytes",
+            new Description("Size of the apply object REST API request bodies before compression")
+                .setCumulative()
+                .setUnit(Description.Units.BYTES),
+            field);
+    requestCompressedBytes =
+        metricMaker.newCounter(
+            "apply_object_request_compressed_bytes",
+            new Description(
+                    "Size of the apply object REST API request bodies as sent, after compression")
+                .setCumulative()
+                .setUnit(Description.Units.BYTES),
+            field);
+    looseObjectsAvoidedCounter =
+        metricMaker.newCounter(
+            "apply_object_loose_objects_avoided",
+            new Description(
+                    "Number of objects received with the apply object REST API written into a"
+                        + " pack instead of as loose objects")
+                .setRate()
+                .setUnit("objects"));
   }
 
   /**
@@ -85,8 +161,70 @@ public class ApplyObjectMetrics {
     return end2EndTime.start(name);
   }
 
+  /**
+   * Record the replication latency with the apply object REST API of a single apiUrl.
+   *
+   * @param apiUrl the apiUrl of the source.
+   * @param elapsedNanos the replication latency in nanoseconds.
+   */
+  public void recordEnd2End(URIish apiUrl, long elapsedNanos) {
+    apiUrlEnd2EndTime.record(apiUrlMetricName(apiUrl), elapsedNanos, TimeUnit.NANOSECONDS);
+  }
+
+  public static String apiUrlMetricName(URIish apiUrl) {
+    String hostAndPort =
+        apiUrl.getPort() > 0 ? apiUrl.getHost() + "_" + apiUrl.getPort() : apiUrl.getHost();
+    return String.valueOf(hostAndPort).replaceAll("[^a-zA-Z0-9_-]", "_");
+  }
+
   /** Increment metric when ref size is larger than maxApiPayloadSize. */
   public void incrementMaxPayloadSizeReached() {
     maxApiPayloadSizeReachedCounter.increment();
   }
+
+  /**
+   * Record the size of the objects of a ref, computed before loading their content.
+   *
+   * @param size the size in bytes of the commit, the tree and the blobs of the ref.
+   */
+  public void recordPreflightSize(long size) {
+    preflightSize.record(size);
+  }
+
+  /**
+   * Record the size of an apply object REST API request body sent to a source.
+   *
+   * @param name the source name.
+   * @param uncompressedBytes the size of the body before compression.
+   * @param compressedBytes the size of the body as sent, equal to {@code uncompressedBytes} when
+   *     not compressed.
+   */
+  public void recordRequestBytes(String name, long uncompressedBytes, long compressedBytes) {
+    requestUncompressedBytes.incrementBy(name, uncompressedBytes);
+    requestCompressedBytes.incrementBy(name, compressedBytes);
+  }
+
+  /** Increment metric when the ref is found larger than maxApiPayloadSize before loading it. */
+  public void incrementPreflightBailOut() {
+    preflightBailOutCounter.increment();
+  }
+
+  /**
+   * Increment metric when the objects received are written into a pack.
+   *
+   * @param objects the number of objects written into the pack.
+   */
+  public void incrementLooseObjectsAvoided(long objects) {
+    looseObjectsAvoidedCounter.incrementBy(objects);
+  }
+
+  /** Increment metric when a revision is served from the revisions cache. */
+  public void incrementRevisionsCacheHit() {
+    revisionsCacheHitCounter.increment();
+  }
+
+  /** Increment metric when a revision has to be read from the repository. */
+  public void incrementRevisionsCacheMiss() {
+    revisionsCacheMissCounter.increment();
+  }
 }
@@ -0,0 +1,29 @@
+// Copyright (C) 2025 The Android Open Source Project
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+// http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.googlesource.gerrit.plugins.replication.pull;
+
+import java.util.concurrent.CompletableFuture;
+
+/** Task which does not hold the thread starting it while the REST-API call it makes completes. */
+interface AsyncRunnable extends Runnable {
+
+  /** @return the future completed, never exceptionally, once the task has completed. */
+  CompletableFuture<Void> runAsync();
+
+  @Override
+  default void run() {
+    runAsync().join();
+  }
+}
@@ -30,10 +30,12 @@ import com.googlesource.gerrit.plugins.replication.pull.client.FetchApiClient;
 import com.googlesource.gerrit.plugins.replication.pull.client.HttpResult;
 import java.io.IOException;
 import java.net.URISyntaxException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
 import org.eclipse.jgit.lib.RefUpdate;
 import org.eclipse.jgit.transport.URIish;
 
-public class DeleteProjectTask implements Runnable, Completable {
+public class DeleteProjectTask implements AsyncRunnable, Completable {
   private static final FluentLogger logger = FluentLogger.forEnclosingClass();
 
   interface Factory {
@@ -46,7 +48,7 @@ public class DeleteProjectTask implements Runnable, Completable {
   private final Project.NameKey project;
   private final FetchApiClient.Factory fetchClientFactory;
   private final DynamicItem<EventDispatcher> eventDispatcher;
-  private boolean succeeded;
+  private volatile boolean succeeded;
 
   @Inject
   DeleteProjectTask(
@@ -65,23 +67,33 @@ public class DeleteProjectTask implements Runnable, Completable {
   }
 
   @Override
-  public void run() {
+  public CompletableFuture<Void> runAsync() {
+    CompletableFuture<HttpResult> httpResult;
     try {
-      URIish urIish = new URIish(uri);
-      HttpResult httpResult = fetchClientFactory.create(source).deleteProject(project, urIish);
-      if (!httpResult.isSuccessful()) {
-        throw new IOException(httpResult.getMessage().orElse("Unknown"));
-      }
-      succeeded = true;
-      logger.atFine().log("Successfully deleted project %s on remote %s", project.get(), uri);
-    } catch (URISyntaxException | IOException e) {
-      String errorMessage =
-          String.format("Cannot delete project %s on remote site %s.", project, uri);
-      logger.atWarning().withCause(e).log("%s", errorMessage);
-      repLog.warn(errorMessage);
-    } finally {
-      fireEvent();
+      httpResult = fetchClientFactory.create(source).deleteProjectAsync(project, new URIish(uri));
+    } catch (URISyntaxException e) {
+      httpResult = CompletableFuture.failedFuture(e);
     }
+    return httpResult
+        .thenAccept(
+            result -> {
+              if (!result.isSuccessful()) {
+                throw new CompletionException(
+                    new IOException(result.getMessage().orElse("Unknown")));
+              }
+              succeeded = true;
+              logger.atFine().log(
+                  "Successfully deleted project %s on remote %s", project.get(), uri);
+            })
+        .exceptionally(
+            e -> {
+              String errorMessage =
+                  String.format("Cannot delete project %s on remote site %s.", project, uri);
+              logger.atWarning().withCause(e).log("%s", errorMessage);
+              repLog.warn(errorMessage);
+              return null;
+            })
+        .whenComplete((unused, e) -> fireEvent());
   }
 
   private void fireEvent() {
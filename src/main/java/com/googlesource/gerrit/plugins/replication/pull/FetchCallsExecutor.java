@@ -0,0 +1,91 @@
+// Copyright (C) 2025 The Android Open Source Project
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+// http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.googlesource.gerrit.plugins.replication.pull;
+
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Supplier;
+import org.eclipse.jgit.lib.Config;
+
+/**
+ * Long-lived, bounded executor used by the {@link ReplicationQueue} for fanning out the REST-API
+ * calls of every ref-update event to all the replication sources.
+ *
+ * <p>When both the threads and the queue are saturated, or once the executor is shut down, the
+ * calls are rejected with a {@link RejectedExecutionException}, so that whoever waits for their
+ * completion is failed straight away instead of running them on the submitting thread, which is
+ * the thread that has received the ref-update event, and falls back to fetching its refs. The
+ * rejections of a saturated executor are accounted through the {@code onRejected} callback.
+ */
+class FetchCallsExecutor extends ThreadPoolExecutor {
+  private static final long KEEP_ALIVE_SECONDS = 60L;
+
+  /**
+   * Number of threads of the executor, from {@code replication.fetchCallsThreads}.
+   *
+   * @param cfg the replication configuration.
+   * @param numSources the number of remote sources.
+   */
+  static int threads(Config cfg, int numSources) {
+    return Math.max(
+        1,
+        cfg.getInt(
+            "replication",
+            "fetchCallsThreads",
+            Math.max(numSources, Runtime.getRuntime().availableProcessors())));
+  }
+
+  FetchCallsExecutor(String name, int threads, int queueSize, Runnable onRejected) {
+    super(
+        threads,
+        threads,
+        KEEP_ALIVE_SECONDS,
+        TimeUnit.SECONDS,
+        new LinkedBlockingQueue<>(queueSize),
+        new ThreadFactoryBuilder().setNameFormat(name + "-%d").setDaemon(true).build(),
+        (task, executor) -> {
+          if (executor.isShutdown()) {
+            throw new RejectedExecutionException(name + " is shut down");
+          }
+          onRejected.run();
+          throw new RejectedExecutionException(name + " is saturated");
+        });
+    allowCoreThreadTimeOut(true);
+  }
+
+  /**
+   * Execute the supplier on the executor.
+   *
+   * @return the future result of the supplier, which is failed with a {@link
+   *     RejectedExecutionException} when the executor rejects it, instead of throwing it to the
+   *     caller as {@link CompletableFuture#supplyAsync(Supplier, java.util.concurrent.Executor)}
+   *     does.
+   */
+  <T> CompletableFuture<T> supplyAsync(Supplier<T> supplier) {
+    try {
+      return CompletableFuture.supplyAsync(supplier, this);
+    } catch (RejectedExecutionException e) {
+      return CompletableFuture.failedFuture(e);
+    }
+  }
+
+  long getQueueDepth() {
+    return getQueue().size();
+  }
+}
@@ -23,8 +23,11 @@ import com.google.gson.JsonArray;
 import com.google.gson.JsonObject;
 import com.google.gson.JsonPrimitive;
 import com.google.inject.Inject;
+import com.googlesource.gerrit.plugins.replication.pull.client.CircuitBreaker;
+import com.googlesource.gerrit.plugins.replication.pull.client.CircuitBreakers;
 import java.util.Collection;
 import java.util.List;
+import java.util.Map;
 import org.kohsuke.args4j.Option;
 
 @RequiresCapability(GlobalCapability.ADMINISTRATE_SERVER)
@@ -41,6 +44,10 @@ final class ListCommand extends SshCommand {
 
   @Inject private SourcesCollection sourcesCollection;
 
+  @Inject private ReplicationStrategy replicationStrategy;
+
+  @Inject private CircuitBreakers circuitBreakers;
+
   @Override
   protected void run() {
     for (Source s : sourcesCollection.getAll()) {
@@ -80,6 +87,47 @@ final class ListCommand extends SshCommand {
     }
   }
 
+  private void addStrategyDetails(StringBuilder out, Map<String, String> refClasses) {
+    out.append("Strategy: ")
+        .append(replicationStrategy.isEnabled() ? "adaptive" : "apply-object first")
+        .append("\n");
+    for (Map.Entry<String, String> refClass : refClasses.entrySet()) {
+      out.append("  ")
+          .append(refClass.getKey())
+          .append(": ")
+          .append(refClass.getValue())
+          .append("\n");
+    }
+  }
+
+  private void addStrategyDetails(JsonObject obj, Map<String, String> refClasses) {
+    JsonObject strategy = new JsonObject();
+    strategy.addProperty("Adaptive", replicationStrategy.isEnabled());
+    for (Map.Entry<String, String> refClass : refClasses.entrySet()) {
+      strategy.addProperty(refClass.getKey(), refClass.getValue());
+    }
+    obj.add("Strategy", strategy);
+  }
+
+  private void addCircuitBreakerDetails(StringBuilder out, List<CircuitBreaker> breakers) {
+    for (CircuitBreaker breaker : breakers) {
+      out.append("CircuitBreaker: ").append(breaker.toString()).append("\n");
+    }
+  }
+
+  private void addCircuitBreakerDetails(JsonObject obj, List<CircuitBreaker> breakers) {
+    if (!breakers.isEmpty()) {
+      JsonObject states = new JsonObject();
+      for (CircuitBreaker breaker : breakers) {
+        JsonObject state = new JsonObject();
+        state.addProperty("State", breaker.getState().name());
+        state.addProperty("DeferredRefs", breaker.getDeferredRefsCount());
+        states.add(breaker.getApiUrl().toString(), state);
+      }
+      obj.add("CircuitBreakers", states);
+    }
+  }
+
   private void printRemote(Source s) {
     if (json) {
       JsonObject obj = new JsonObject();
@@ -92,6 +140,8 @@ final class ListCommand extends SshCommand {
         Source.QueueInfo q = s.getQueueInfo();
         addQueueDetails(obj, "InFlight", q.inFlight.values());
         addQueueDetails(obj, "Pending", q.pending.values());
+        addStrategyDetails(obj, replicationStrategy.describe(s.getRemoteConfigName()));
+        addCircuitBreakerDetails(obj, circuitBreakers.getAll(s));
       }
       stdout.print(obj.toString() + "\n");
     } else {
@@ -119,6 +169,8 @@ final class ListCommand extends SshCommand {
         addQueueDetails(out, q.inFlight.values());
         out.append("Pending: ").append(q.pending.size()).append("\n");
         addQueueDetails(out, q.pending.values());
+        addStrategyDetails(out, replicationStrategy.describe(s.getRemoteConfigName()));
+        addCircuitBreakerDetails(out, circuitBreakers.getAll(s));
       }
       stdout.print(out.toString() + "\n");
     }
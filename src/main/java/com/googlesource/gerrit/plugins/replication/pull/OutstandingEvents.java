@@ -0,0 +1,81 @@
+// Copyright (C) 2025 The Android Open Source Project
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+// http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.googlesource.gerrit.plugins.replication.pull;
+
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.Optional;
+import java.util.concurrent.CompletableFuture;
+
+/**
+ * Bound on the ref-update events being replicated at the same time.
+ *
+ * <p>The events received past the bound wait in a queue of the same size for one of the outstanding
+ * events to complete, in the order they were received. The events received when the queue is full
+ * are rejected. Neither of them blocks the thread that has received the event.
+ */
+class OutstandingEvents {
+  private final int maxEvents;
+  private final Deque<CompletableFuture<Void>> waiting = new ArrayDeque<>();
+  private int outstanding;
+
+  OutstandingEvents(int maxEvents) {
+    this.maxEvents = maxEvents;
+  }
+
+  /**
+   * Admit an event for being replicated.
+   *
+   * @return a future completed once the event can be replicated, which is already completed unless
+   *     the event has to wait, or empty if the event is rejected. Once admitted, the completion of
+   *     the replication of the event must be notified with {@link #release()}.
+   */
+  synchronized Optional<CompletableFuture<Void>> admit() {
+    if (waiting.isEmpty() && outstanding < maxEvents) {
+      outstanding++;
+      return Optional.of(CompletableFuture.completedFuture(null));
+    }
+    if (waiting.size() >= maxEvents) {
+      return Optional.empty();
+    }
+    CompletableFuture<Void> turn = new CompletableFuture<>();
+    waiting.add(turn);
+    return Optional.of(turn);
+  }
+
+  /** Notify the completion of the replication of an event, letting the next waiting one through. */
+  void release() {
+    CompletableFuture<Void> next;
+    synchronized (this) {
+      next = waiting.poll();
+      if (next == null) {
+        outstanding--;
+      }
+    }
+    if (next != null) {
+      next.complete(null);
+    }
+  }
+
+  /** Number of events being replicated. */
+  synchronized int getOutstanding() {
+    return outstanding;
+  }
+
+  /** Number of events waiting for being replicated. */
+  synchronized int getWaiting() {
+    return waiting.size();
+  }
+}
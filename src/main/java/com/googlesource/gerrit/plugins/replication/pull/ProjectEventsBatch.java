@@ -0,0 +1,147 @@
+// Copyright (C) 2025 The Android Open Source Project
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+// http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.googlesource.gerrit.plugins.replication.pull;
+
+import com.googlesource.gerrit.plugins.replication.pull.ReplicationQueue.ReferenceBatchUpdatedEvent;
+import com.googlesource.gerrit.plugins.replication.pull.ReplicationQueue.ReferenceUpdatedEvent;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+
+/**
+ * Ref-update events of the same project coalesced into a single outbound replication batch.
+ *
+ * <p>Events can be added until the batch is closed, which happens when its replication starts, or
+ * until the maximum number of refs is reached. The updates of the same ref are collapsed into its
+ * latest one, at the position of its first one, so that only the latest revision of the ref is
+ * read and sent.
+ */
+class ProjectEventsBatch {
+  private final String projectName;
+  private final int maxRefs;
+  private final Map<String, ReferenceUpdatedEvent> refs;
+  private final Set<ReplicationState> states;
+  private long eventCreatedOn;
+  private int numEvents;
+  private boolean closed;
+  private final CompletableFuture<Void> scheduled;
+  private CompletableFuture<Void> future;
+
+  ProjectEventsBatch(ReferenceBatchUpdatedEvent event, ReplicationState state, int maxRefs) {
+    this.projectName = event.projectName();
+    this.maxRefs = maxRefs;
+    this.refs = new LinkedHashMap<>();
+    addRefs(event);
+    this.states = new LinkedHashSet<>();
+    this.states.add(state);
+    this.eventCreatedOn = event.eventCreatedOn();
+    this.numEvents = 1;
+    this.scheduled = new CompletableFuture<>();
+  }
+
+  synchronized boolean tryAdd(ReferenceBatchUpdatedEvent event, ReplicationState state) {
+    if (closed
+        || refs.size()
+                + event.refs().stream()
+                    .map(ReferenceUpdatedEvent::refName)
+                    .distinct()
+                    .filter(refName -> !refs.containsKey(refName))
+                    .count()
+            > maxRefs) {
+      return false;
+    }
+    addRefs(event);
+    states.add(state);
+    eventCreatedOn = Math.min(eventCreatedOn, event.eventCreatedOn());
+    numEvents++;
+    return true;
+  }
+
+  private void addRefs(ReferenceBatchUpdatedEvent event) {
+    for (ReferenceUpdatedEvent ref : event.refs()) {
+      refs.merge(ref.refName(), ref, ProjectEventsBatch::collapse);
+    }
+  }
+
+  /**
+   * Collapse two consecutive updates of the same ref into a single one, from the old revision of
+   * the first to the new revision of the latest.
+   */
+  private static ReferenceUpdatedEvent collapse(
+      ReferenceUpdatedEvent first, ReferenceUpdatedEvent latest) {
+    return ReferenceUpdatedEvent.create(
+        latest.projectName(),
+        latest.refName(),
+        latest.objectId(),
+        latest.eventCreatedOn(),
+        latest.isDelete(),
+        first.isCreate() && !latest.isDelete());
+  }
+
+  /**
+   * Close the batch to further events.
+   *
+   * @param refsOrdering ordering of the refs in the resulting event, which is applied after the
+   *     refs of all the coalesced events are concatenated in the arrival order of their first
+   *     update.
+   * @return the event representing all the refs of the coalesced events.
+   */
+  synchronized ReferenceBatchUpdatedEvent close(Comparator<ReferenceUpdatedEvent> refsOrdering) {
+    closed = true;
+    List<ReferenceUpdatedEvent> sortedRefs = new ArrayList<>(refs.values());
+    sortedRefs.sort(refsOrdering);
+    return ReferenceBatchUpdatedEvent.create(projectName, sortedRefs, eventCreatedOn);
+  }
+
+  synchronized int numEvents() {
+    return numEvents;
+  }
+
+  synchronized int numRefs() {
+    return refs.size();
+  }
+
+  /** The states of all the coalesced events, to which the outcome of the batch is reported. */
+  synchronized ReplicationState[] states() {
+    return states.toArray(new ReplicationState[0]);
+  }
+
+  /**
+   * Allow the replication of the batch to start.
+   *
+   * <p>The batch is created while holding the lock of the pending batches of the project, hence its
+   * replication is not allowed to start until this method is called.
+   */
+  void schedule() {
+    scheduled.complete(null);
+  }
+
+  CompletableFuture<Void> scheduled() {
+    return scheduled;
+  }
+
+  CompletableFuture<Void> future() {
+    return future;
+  }
+
+  void setFuture(CompletableFuture<Void> future) {
+    this.future = future;
+  }
+}
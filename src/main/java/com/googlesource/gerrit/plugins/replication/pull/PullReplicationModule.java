@@ -88,6 +88,7 @@ class PullReplicationModule extends AbstractModule {
     bind(ApplyObject.class);
     install(new FactoryModuleBuilder().build(FetchJob.Factory.class));
     install(new ApplyObjectCacheModule());
+    install(new RevisionDataCacheModule());
 
     install(
         new FactoryModuleBuilder()
@@ -124,6 +125,7 @@ class PullReplicationModule extends AbstractModule {
     DynamicSet.bind(binder(), HeadUpdatedListener.class).to(ReplicationQueue.class);
 
     bind(ReplicationQueue.class).in(Scopes.SINGLETON);
+    bind(ReplicationStrategy.class).in(Scopes.SINGLETON);
     bind(ObservableQueue.class).to(ReplicationQueue.class);
     bind(LifecycleListener.class)
         .annotatedWith(UniqueAnnotations.create())
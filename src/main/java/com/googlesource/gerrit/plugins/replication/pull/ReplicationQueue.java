@@ -17,8 +17,10 @@ package com.googlesource.gerrit.plugins.replication.pull;
 import static java.util.concurrent.TimeUnit.MILLISECONDS;
 
 import com.google.auto.value.AutoValue;
+import com.google.common.base.Suppliers;
 import com.google.common.collect.ImmutableList;
 import com.google.common.collect.Queues;
+import com.google.gerrit.common.Nullable;
 import com.google.gerrit.entities.Project;
 import com.google.gerrit.entities.Project.NameKey;
 import com.google.gerrit.entities.RefNames;
@@ -27,6 +29,7 @@ import com.google.gerrit.extensions.events.LifecycleListener;
 import com.google.gerrit.extensions.events.ProjectDeletedListener;
 import com.google.gerrit.extensions.registration.DynamicItem;
 import com.google.gerrit.metrics.Timer1.Context;
+import com.google.gerrit.server.config.ConfigUtil;
 import com.google.gerrit.server.config.GerritInstanceId;
 import com.google.gerrit.server.config.GerritServerConfig;
 import com.google.gerrit.server.data.RefUpdateAttribute;
@@ -39,10 +42,16 @@ import com.google.inject.Inject;
 import com.google.inject.Provider;
 import com.google.inject.Singleton;
 import com.googlesource.gerrit.plugins.replication.ObservableQueue;
+import com.googlesource.gerrit.plugins.replication.api.ReplicationConfig;
 import com.googlesource.gerrit.plugins.replication.pull.FetchResultProcessing.GitUpdateProcessing;
+import com.googlesource.gerrit.plugins.replication.pull.ReplicationStrategy.Strategy;
+import com.googlesource.gerrit.plugins.replication.pull.RevisionReader.RefRevision;
 import com.googlesource.gerrit.plugins.replication.pull.api.FetchAction.RefInput;
+import com.googlesource.gerrit.plugins.replication.pull.api.data.ApplyPackInput.RefUpdateInput;
 import com.googlesource.gerrit.plugins.replication.pull.api.data.BatchApplyObjectData;
+import com.googlesource.gerrit.plugins.replication.pull.api.data.ConditionalApplyResult;
 import com.googlesource.gerrit.plugins.replication.pull.api.data.RevisionData;
+import com.googlesource.gerrit.plugins.replication.pull.api.data.RevisionObjectData;
 import com.googlesource.gerrit.plugins.replication.pull.api.exception.MissingParentObjectException;
 import com.googlesource.gerrit.plugins.replication.pull.client.FetchApiClient;
 import com.googlesource.gerrit.plugins.replication.pull.client.FetchRestApiClient;
@@ -54,23 +63,31 @@ import com.googlesource.gerrit.plugins.replication.pull.filter.ExcludedRefsFilte
 import java.io.IOException;
 import java.io.UncheckedIOException;
 import java.net.URISyntaxException;
-import java.util.Collections;
+import java.util.ArrayList;
+import java.util.HashMap;
 import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
 import java.util.Optional;
 import java.util.Queue;
 import java.util.Set;
-import java.util.concurrent.ExecutionException;
-import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
 import java.util.concurrent.TimeoutException;
-import java.util.function.Consumer;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.function.Function;
+import java.util.function.Predicate;
+import java.util.function.Supplier;
 import java.util.stream.Collectors;
-import org.eclipse.jgit.errors.CorruptObjectException;
-import org.eclipse.jgit.errors.IncorrectObjectTypeException;
-import org.eclipse.jgit.errors.MissingObjectException;
 import org.eclipse.jgit.errors.RepositoryNotFoundException;
 import org.eclipse.jgit.lib.Config;
 import org.eclipse.jgit.lib.ObjectId;
+import org.eclipse.jgit.revwalk.RevCommit;
 import org.eclipse.jgit.transport.URIish;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -87,6 +104,11 @@ public class ReplicationQueue
   static final Logger repLog = LoggerFactory.getLogger(PULL_REPLICATION_LOG_NAME);
 
   private static final Integer DEFAULT_FETCH_CALLS_TIMEOUT = 0;
+  private static final int DEFAULT_MAX_OUTSTANDING_EVENTS = 1024;
+  private static final int DEFAULT_FETCH_CALLS_QUEUE_SIZE = 1024;
+  private static final int DEFAULT_BATCH_MAX_REFS = 100;
+  private static final String FETCH_CALLS_POOL_NAME = "PullReplication-FetchCalls";
+  private static final String BATCH_WINDOW_QUEUE_NAME = "PullReplication-BatchWindow";
   private static final String BATCH_REF_UPDATED_EVENT_TYPE = BatchRefUpdateEvent.TYPE;
   private static final String REF_UDPATED_EVENT_TYPE = new RefUpdatedEvent().type;
   private static final String ZEROS_OBJECTID = ObjectId.zeroId().getName();
@@ -101,6 +123,18 @@ public class ReplicationQueue
   private final Queue<ReferenceBatchUpdatedEvent> beforeStartupEventsQueue;
   private FetchApiClient.Factory fetchClientFactory;
   private Integer fetchCallsTimeout;
+  private volatile FetchCallsExecutor fetchCallsPool;
+  private volatile OutstandingEvents outstandingEvents;
+  private int maxOutstandingEvents;
+  private final Map<Project.NameKey, ProjectEventsBatch> projectEvents;
+  private final Map<Project.NameKey, Map<String, ReferenceUpdatedEvent>> deferredRefs;
+  private final Set<String> applyPackUnsupportedApiUrls = ConcurrentHashMap.newKeySet();
+  private long batchWindowMs;
+  private volatile ScheduledExecutorService batchWindowScheduler;
+  private int batchMaxRefs;
+  private long batchMaxBytes;
+  private final ReplicationConfig replicationConfig;
+  private final ReplicationStrategy replicationStrategy;
   private ExcludedRefsFilter refsFilter;
   private Provider<RevisionReader> revReaderProvider;
   private final ApplyObjectMetrics applyObjectMetrics;
@@ -125,13 +159,17 @@ public class ReplicationQueue
       @GerritServerConfig Config gerritConfig,
       ApplyObjectsRefsFilter applyObjectsRefsFilter,
       ApplyObjectBannedCreateRefsFilter applyObjectsBannedCreateRefsFilter,
-      ShutdownState shutdownState) {
+      ShutdownState shutdownState,
+      ReplicationConfig replicationConfig,
+      ReplicationStrategy replicationStrategy) {
     workQueue = wq;
     dispatcher = dis;
     sources = rd;
     stateLog = sl;
     this.shutdownState = shutdownState;
     beforeStartupEventsQueue = Queues.newConcurrentLinkedQueue();
+    projectEvents = new ConcurrentHashMap<>();
+    deferredRefs = new ConcurrentHashMap<>();
     this.fetchClientFactory = fetchClientFactory;
     this.refsFilter = refsFilter;
     this.revReaderProvider = revReaderProvider;
@@ -142,12 +180,30 @@ public class ReplicationQueue
         gerritConfig.getBoolean("event", "stream-events", "enableBatchRefUpdatedEvents", false);
     this.applyObjectsRefsFilter = applyObjectsRefsFilter;
     this.applyObjectsBannedCreateRefsFilter = applyObjectsBannedCreateRefsFilter;
+    this.replicationConfig = replicationConfig;
+    this.replicationStrategy = replicationStrategy;
   }
 
   @Override
   public void start() {
     if (!running) {
       sources.get().startup(workQueue);
+      maxOutstandingEvents =
+          Math.max(
+              1,
+              replicationConfig
+                  .getConfig()
+                  .getInt("replication", "maxOutstandingEvents", DEFAULT_MAX_OUTSTANDING_EVENTS));
+      fetchCallsPool = newFetchCallsPool();
+      outstandingEvents = new OutstandingEvents(maxOutstandingEvents);
+      Config cfg = replicationConfig.getConfig();
+      batchWindowMs =
+          ConfigUtil.getTimeUnit(cfg, "replication", null, "batchWindow", 0L, MILLISECONDS);
+      batchMaxRefs = Math.max(1, cfg.getInt("replication", "batchMaxRefs", DEFAULT_BATCH_MAX_REFS));
+      batchMaxBytes = cfg.getLong("replication", "batchMaxBytes", 0L);
+      if (batchWindowMs > 0) {
+        batchWindowScheduler = workQueue.createQueue(1, BATCH_WINDOW_QUEUE_NAME);
+      }
       queueMetrics.start(this);
       fetchCallsTimeout =
           2
@@ -169,9 +225,79 @@ public class ReplicationQueue
     if (discarded > 0) {
       repLog.warn("Canceled {} replication events during shutdown", discarded);
     }
+    ScheduledExecutorService scheduler = batchWindowScheduler;
+    if (scheduler != null) {
+      // The batch windows already started still elapse, so that their batches complete
+      scheduler.shutdown();
+      batchWindowScheduler = null;
+    }
+    drainFetchCallsPool();
+    if (!deferredRefs.isEmpty()) {
+      repLog.warn(
+          "Canceled the deferred replication of the refs of {} projects during shutdown",
+          deferredRefs.size());
+    }
     queueMetrics.stop();
   }
 
+  private FetchCallsExecutor newFetchCallsPool() {
+    Config cfg = replicationConfig.getConfig();
+    int threads = FetchCallsExecutor.threads(cfg, sources.get().getAll().size());
+    int queueSize =
+        Math.max(
+            1, cfg.getInt("replication", "fetchCallsQueueSize", DEFAULT_FETCH_CALLS_QUEUE_SIZE));
+    repLog.info(
+        "Starting {} pool with {} threads and a queue of {} calls",
+        FETCH_CALLS_POOL_NAME,
+        threads,
+        queueSize);
+    return new FetchCallsExecutor(
+        FETCH_CALLS_POOL_NAME, threads, queueSize, queueMetrics::incrementFetchCallsRejected);
+  }
+
+  private void drainFetchCallsPool() {
+    FetchCallsExecutor pool = fetchCallsPool;
+    if (pool == null) {
+      return;
+    }
+    fetchCallsPool = null;
+    pool.shutdown();
+    try {
+      if (!pool.awaitTermination(
+          Optional.ofNullable(fetchCallsTimeout).orElse(DEFAULT_FETCH_CALLS_TIMEOUT),
+          MILLISECONDS)) {
+        int discarded = pool.shutdownNow().size();
+        repLog.warn(
+            "{} pool did not terminate in time, {} calls discarded",
+            FETCH_CALLS_POOL_NAME,
+            discarded);
+      }
+    } catch (InterruptedException e) {
+      pool.shutdownNow();
+      Thread.currentThread().interrupt();
+    }
+  }
+
+  long fetchCallsQueueDepth() {
+    FetchCallsExecutor pool = fetchCallsPool;
+    return pool == null ? 0L : pool.getQueueDepth();
+  }
+
+  long outstandingEventsCount() {
+    OutstandingEvents events = outstandingEvents;
+    return events == null ? 0L : events.getOutstanding();
+  }
+
+  long waitingEventsCount() {
+    OutstandingEvents events = outstandingEvents;
+    return events == null ? 0L : events.getWaiting();
+  }
+
+  long fetchCallsActiveThreads() {
+    FetchCallsExecutor pool = fetchCallsPool;
+    return pool == null ? 0L : pool.getActiveCount();
+  }
+
   @Override
   public boolean isRunning() {
     return running;
@@ -279,12 +405,24 @@ public class ReplicationQueue
 
   private void fire(ReferenceBatchUpdatedEvent event) {
     ReplicationState state = new ReplicationState(new GitUpdateProcessing(dispatcher.get()));
-    fire(event, state);
-    state.markAllFetchTasksScheduled();
+    fire(event, state).whenComplete((unused, e) -> state.markAllFetchTasksScheduled());
   }
 
-  private void fire(ReferenceBatchUpdatedEvent event, ReplicationState state) {
-    if (!running) {
+  /**
+   * Schedule the replication of the event to all sources without waiting for its completion.
+   *
+   * <p>When {@code replication.batchWindow} is set, the events of the same project received while a
+   * batch has not started yet are coalesced into it, and the batches of the same project are
+   * chained one after the other, so that their relative ordering is preserved. Otherwise every
+   * event is replicated straight away, as its own batch. When the number of
+   * outstanding events reaches {@code replication.maxOutstandingEvents}, the event waits for one of
+   * them to complete, or else its refs are deferred to a fetch if as many events are already
+   * waiting.
+   */
+  private CompletableFuture<Void> fire(ReferenceBatchUpdatedEvent event, ReplicationState state) {
+    FetchCallsExecutor pool = fetchCallsPool;
+    OutstandingEvents events = outstandingEvents;
+    if (!running || pool == null || events == null) {
       stateLog.warn(
           String.format(
               "Replication plugin did not finish startup before event, event replication is"
@@ -294,107 +432,622 @@ public class ReplicationQueue
       beforeStartupEventsQueue.add(event);
 
       queueMetrics.incrementQueuedBeforStartup();
+      return CompletableFuture.completedFuture(null);
+    }
+
+    List<Source> allSources = sources.get().getAll();
+    if (allSources.isEmpty()) {
+      repLog.debug("No replication sources configured -> skipping fetch");
+      return CompletableFuture.completedFuture(null);
+    }
+
+    Optional<CompletableFuture<Void>> admitted = events.admit();
+    if (admitted.isEmpty()) {
+      repLog.warn(
+          "Reached the maximum of {} outstanding and {} waiting replication events, event {} is"
+              + " deferred to a fetch",
+          maxOutstandingEvents,
+          maxOutstandingEvents,
+          event);
+      queueMetrics.incrementOutstandingEventsDeferred();
+      defer(event);
+      // The outstanding events may have all completed in the meantime
+      fetchDeferredRefs(pool, events, allSources);
+      return CompletableFuture.completedFuture(null);
+    }
+    if (!admitted.get().isDone()) {
+      repLog.warn(
+          "Reached the maximum of {} outstanding replication events, event {} waits for one to"
+              + " complete",
+          maxOutstandingEvents,
+          event);
+      queueMetrics.incrementOutstandingEventsLimitReached();
+    }
+    return admitted.get().thenCompose(unused -> fire(pool, events, allSources, event, state));
+  }
+
+  private CompletableFuture<Void> fire(
+      FetchCallsExecutor pool,
+      OutstandingEvents events,
+      List<Source> allSources,
+      ReferenceBatchUpdatedEvent event,
+      ReplicationState state) {
+    Project.NameKey project = Project.nameKey(event.projectName());
+    ScheduledExecutorService scheduler = batchWindowScheduler;
+    if (batchWindowMs <= 0 || scheduler == null) {
+      queueMetrics.recordEventsBatch(1, event.refs().size());
+      CompletableFuture<Void> eventFuture =
+          fanOut(pool, allSources, project, event, new ReplicationState[] {state});
+      eventFuture.whenComplete(
+          (unused, e) -> {
+            events.release();
+            fetchDeferredRefs(pool, events, allSources);
+          });
+      return eventFuture;
+    }
+
+    ProjectEventsBatch batch =
+        projectEvents.compute(
+            project,
+            (p, lastBatch) -> {
+              if (lastBatch != null && lastBatch.tryAdd(event, state)) {
+                repLog.debug("Coalescing event {} into the pending batch of {}", event, project);
+                return lastBatch;
+              }
+              return newProjectEventsBatch(
+                  pool, scheduler, allSources, project, event, state, lastBatch);
+            });
+    batch.schedule();
+
+    CompletableFuture<Void> eventFuture = batch.future();
+    eventFuture.whenComplete(
+        (unused, e) -> {
+          projectEvents.remove(project, batch);
+          events.release();
+          fetchDeferredRefs(pool, events, allSources);
+        });
+    return eventFuture;
+  }
+
+  /**
+   * Keep the refs of the event until one of the outstanding events completes. Only the last update
+   * of every ref is kept, hence the deferred refs are bounded by the refs updated in the meantime.
+   */
+  private void defer(ReferenceBatchUpdatedEvent event) {
+    deferredRefs.compute(
+        Project.nameKey(event.projectName()),
+        (project, refs) -> {
+          Map<String, ReferenceUpdatedEvent> deferred =
+              refs == null ? new LinkedHashMap<>() : refs;
+          event.refs().forEach(ref -> deferred.put(ref.refName(), ref));
+          return deferred;
+        });
+  }
+
+  /**
+   * Fetch the deferred refs of one project from all sources, as an outstanding event, which once
+   * completed fetches the deferred refs of the next project. The fetch does not need the revisions
+   * of the refs, which may have been updated again since.
+   */
+  private void fetchDeferredRefs(
+      FetchCallsExecutor pool, OutstandingEvents events, List<Source> allSources) {
+    Iterator<Project.NameKey> deferredProjects = deferredRefs.keySet().iterator();
+    if (!running || !deferredProjects.hasNext()) {
       return;
     }
-    ForkJoinPool fetchCallsPool = null;
+    Project.NameKey project = deferredProjects.next();
+    Map<String, ReferenceUpdatedEvent> deferred = deferredRefs.remove(project);
+    if (deferred == null) {
+      return;
+    }
+    List<ReferenceUpdatedEvent> refs =
+        deferred.values().stream()
+            .sorted(ReplicationQueue::sortByMetaRefAsLast)
+            .collect(Collectors.toList());
+    ReferenceBatchUpdatedEvent event =
+        ReferenceBatchUpdatedEvent.create(
+            project.get(),
+            refs,
+            refs.stream().mapToLong(ReferenceUpdatedEvent::eventCreatedOn).max().orElse(0L));
+    Optional<CompletableFuture<Void>> admitted = events.admit();
+    if (admitted.isEmpty()) {
+      defer(event);
+      return;
+    }
+
+    repLog.info("Fetching the deferred refs of {}: {}", project, refNames(refs));
+    ReplicationState state = new ReplicationState(new GitUpdateProcessing(dispatcher.get()));
+    ReplicationState[] states = new ReplicationState[] {state};
+    admitted
+        .get()
+        .thenCompose(
+            unused ->
+                CompletableFuture.allOf(
+                    allSources.stream()
+                        .map(source -> fallbackToFetch(pool, source, project, refs, states))
+                        .toArray(CompletableFuture[]::new)))
+        .whenComplete(
+            (unused, e) -> {
+              state.markAllFetchTasksScheduled();
+              events.release();
+              fetchDeferredRefs(pool, events, allSources);
+            });
+  }
+
+  /**
+   * Create a new batch of events for the project, which is replicated after the previous batch of
+   * the same project, if any, has completed and the {@code replication.batchWindow} has elapsed.
+   */
+  private ProjectEventsBatch newProjectEventsBatch(
+      FetchCallsExecutor pool,
+      ScheduledExecutorService scheduler,
+      List<Source> allSources,
+      NameKey project,
+      ReferenceBatchUpdatedEvent event,
+      ReplicationState state,
+      @Nullable ProjectEventsBatch previousBatch) {
+    ProjectEventsBatch batch = new ProjectEventsBatch(event, state, batchMaxRefs);
+    CompletableFuture<Void> previousBatchCompleted =
+        Optional.ofNullable(previousBatch)
+            .map(ProjectEventsBatch::future)
+            .orElseGet(() -> CompletableFuture.completedFuture(null));
+    CompletableFuture<Void> batchWindowElapsed = new CompletableFuture<>();
     try {
-      List<Source> allSources = sources.get().getAll();
-      int numSources = allSources.size();
-      if (numSources == 0) {
-        repLog.debug("No replication sources configured -> skipping fetch");
-        return;
-      }
-      fetchCallsPool = new ForkJoinPool(numSources);
-
-      final Consumer<Source> callFunction =
-          callFunction(
-              Project.nameKey(event.projectName()), event.refs(), event.eventCreatedOn(), state);
-      fetchCallsPool
-          .submit(() -> allSources.parallelStream().forEach(callFunction))
-          .get(fetchCallsTimeout, MILLISECONDS);
-    } catch (InterruptedException | ExecutionException | TimeoutException e) {
-      stateLog.error(
-          String.format(
-              "Exception during the pull replication fetch rest api call.  Message:%s",
-              e.getMessage()),
-          e,
-          state);
-    } finally {
-      if (fetchCallsPool != null) {
-        fetchCallsPool.shutdown();
-      }
+      scheduler.schedule(() -> batchWindowElapsed.complete(null), batchWindowMs, MILLISECONDS);
+    } catch (RejectedExecutionException e) {
+      // Stopping: the batch is not held back any longer
+      batchWindowElapsed.complete(null);
     }
+
+    // Starting the batch only submits its calls, hence it does not need a thread of the pool
+    batch.setFuture(
+        CompletableFuture.allOf(previousBatchCompleted, batchWindowElapsed, batch.scheduled())
+            .handle((unused, e) -> null)
+            .thenCompose(
+                unused -> {
+                  ReferenceBatchUpdatedEvent batchEvent =
+                      batch.close(ReplicationQueue::sortByMetaRefAsLast);
+                  queueMetrics.recordEventsBatch(batch.numEvents(), batch.numRefs());
+                  return fanOut(pool, allSources, project, batchEvent, batch.states());
+                })
+            .exceptionally(
+                e -> {
+                  stateLog.error(
+                      String.format(
+                          "Cannot replicate the batch of events of project %s", project.get()),
+                      e,
+                      batch.states());
+                  return null;
+                }));
+    return batch;
   }
 
-  private Consumer<Source> callFunction(
+  private CompletableFuture<Void> fanOut(
+      FetchCallsExecutor pool,
+      List<Source> allSources,
+      NameKey project,
+      ReferenceBatchUpdatedEvent event,
+      ReplicationState[] states) {
+    List<ReferenceUpdatedEvent> refs = event.refs();
+    CompletableFuture<CallFunction> readRevisions =
+        pool.supplyAsync(
+            () -> getCallFunction(pool, project, refs, event.eventCreatedOn(), states));
+
+    return CompletableFuture.allOf(
+            allSources.stream()
+                .map(
+                    source ->
+                        callOrFallbackToFetch(pool, readRevisions, source, project, refs, states))
+                .toArray(CompletableFuture[]::new))
+        .exceptionally(
+            e -> {
+              stateLog.error(
+                  String.format(
+                      "Exception during the pull replication fetch rest api call.  Message:%s",
+                      e.getMessage()),
+                  e,
+                  states);
+              return null;
+            });
+  }
+
+  /** Call the source once the revisions of the refs are read, falling back to fetch on failure. */
+  private CompletableFuture<Void> callOrFallbackToFetch(
+      FetchCallsExecutor pool,
+      CompletableFuture<CallFunction> readRevisions,
+      Source source,
       NameKey project,
       List<ReferenceUpdatedEvent> refs,
-      long eventCreatedOn,
-      ReplicationState state) {
-    CallFunction call = getCallFunction(project, refs, eventCreatedOn, state);
+      ReplicationState[] states) {
+    return call(pool, readRevisions, source, project, refs)
+        .thenCompose(
+            callSuccessful ->
+                callSuccessful
+                    ? CompletableFuture.<Void>completedFuture(null)
+                    : fallbackToFetch(pool, source, project, refs, states));
+  }
 
-    return (source) -> {
-      boolean callSuccessful;
-      try {
-        callSuccessful = call.call(source);
-      } catch (Exception e) {
-        repLog.warn(
-            String.format(
-                "Failed to batch apply object %s on project %s, falling back to git fetch",
-                refs.stream()
-                    .map(event -> String.format("%s:%s", event.refName(), event.objectId()))
-                    .collect(Collectors.joining(",")),
-                project),
-            e);
-        callSuccessful = false;
+  /**
+   * Call the source once the revisions of the refs are read.
+   *
+   * @return the future completed with false, for falling back to fetch, when the call fails, is
+   *     rejected by the saturated pool or does not complete within twice the largest {@code
+   *     remote.NAME.connectionTimeout}.
+   */
+  private CompletableFuture<Boolean> call(
+      FetchCallsExecutor pool,
+      CompletableFuture<CallFunction> readRevisions,
+      Source source,
+      NameKey project,
+      List<ReferenceUpdatedEvent> refs) {
+    CompletableFuture<Boolean> result =
+        readRevisions.thenComposeAsync(call -> call.call(source), pool);
+    if (fetchCallsTimeout > 0) {
+      result = result.orTimeout(fetchCallsTimeout, MILLISECONDS);
+    }
+    return result.exceptionally(
+        e -> {
+          Throwable cause = unwrap(e);
+          String refsStr =
+              refs.stream()
+                  .map(event -> String.format("%s:%s", event.refName(), event.objectId()))
+                  .collect(Collectors.joining(","));
+          if (cause instanceof TimeoutException) {
+            repLog.warn(
+                "Timeout after {} ms waiting for the pull replication rest api calls of {} on"
+                    + " project {} to {}, falling back to git fetch",
+                fetchCallsTimeout,
+                refsStr,
+                project,
+                source.getRemoteConfigName());
+          } else {
+            repLog.warn(
+                String.format(
+                    "Failed to batch apply object %s on project %s, falling back to git fetch",
+                    refsStr, project),
+                cause);
+          }
+          return false;
+        });
+  }
+
+  private CompletableFuture<Void> fallbackToFetch(
+      FetchCallsExecutor pool,
+      Source source,
+      NameKey project,
+      List<ReferenceUpdatedEvent> refs,
+      ReplicationState[] states) {
+    CompletableFuture<Boolean> fetch =
+        source.enableBatchedRefs()
+            ? callBatchFetchAndRecord(pool, source, project, refs, states)
+            : callFetch(pool, source, project, refs, states, FetchRestApiClient.FORCE_ASYNC);
+    return fetch.thenAccept(fetchSuccessful -> {});
+  }
+
+  private CallFunction getCallFunction(
+      FetchCallsExecutor pool,
+      NameKey project,
+      List<ReferenceUpdatedEvent> refs,
+      long eventCreatedOn,
+      ReplicationState[] states) {
+    List<String> refNames = refNames(refs);
+    RefsRead refsRead = new RefsRead(project, refs, states);
+
+    return source -> {
+      Strategy strategy = replicationStrategy.choose(source.getRemoteConfigName(), refNames);
+      if (strategy == Strategy.BATCH_FETCH) {
+        return callBatchFetchAndRecord(pool, source, project, refs, states);
       }
 
-      if (!callSuccessful) {
-        if (source.enableBatchedRefs()) {
-          callBatchFetch(source, project, refs, state);
-        } else {
-          callFetch(source, project, refs, state, FetchRestApiClient.FORCE_ASYNC);
-        }
+      Function<Set<String>, CompletableFuture<Boolean>> applyRefs =
+          appliedRefNames ->
+              applyObjects(
+                  pool,
+                  source,
+                  project,
+                  refs,
+                  refsRead,
+                  strategy,
+                  appliedRefNames,
+                  eventCreatedOn,
+                  states);
+      if (!source.enableConditionalApply()) {
+        return applyRefs.apply(Set.of());
       }
+      // Back on the pool, which reads the refs, rather than on the thread completing the calls
+      return callConditionalApply(source, project, refs, eventCreatedOn)
+          .thenComposeAsync(applyRefs, pool);
     };
   }
 
-  private CallFunction getCallFunction(
+  /**
+   * Send the refs not updated already by the conditional apply, with the apply-object REST-APIs
+   * when their revisions can be sent, or else with a batch fetch.
+   */
+  private CompletableFuture<Boolean> applyObjects(
+      FetchCallsExecutor pool,
+      Source source,
       NameKey project,
       List<ReferenceUpdatedEvent> refs,
+      RefsRead refsRead,
+      Strategy strategy,
+      Set<String> appliedRefNames,
       long eventCreatedOn,
-      ReplicationState state) {
+      ReplicationState[] states) {
+    if (areAllApplied(source, project, refs, appliedRefNames)) {
+      return CompletableFuture.completedFuture(true);
+    }
+
+    refsRead.read().ifPresent(read -> recordPayloads(source.getRemoteConfigName(), read));
+    Optional<List<BatchApplyObjectData>> refsBatch = refsRead.applicable();
+    if (refsBatch.isEmpty()) {
+      return callBatchFetchAndRecord(pool, source, project, refs, states);
+    }
+    boolean withHistory =
+        strategy == Strategy.APPLY_OBJECTS_WITH_HISTORY
+            && refsBatch.get().stream()
+                .map(BatchApplyObjectData::refName)
+                .allMatch(this::isHistoryApplicable);
+    return callBatchSendObjectInOrder(
+        pool,
+        source,
+        project,
+        refsRead.batches().iterator(),
+        appliedRefNames,
+        eventCreatedOn,
+        states,
+        withHistory);
+  }
+
+  private static boolean areAllApplied(
+      Source source,
+      NameKey project,
+      List<ReferenceUpdatedEvent> refs,
+      Set<String> appliedRefNames) {
+    return !appliedRefNames.isEmpty()
+        && refs.stream()
+            .map(ReferenceUpdatedEvent::refName)
+            .filter(refName -> wouldFetch(source, project, refName))
+            .allMatch(appliedRefNames::contains);
+  }
+
+  /** Send the batches one after the other, stopping at the first one failing. */
+  private CompletableFuture<Boolean> callBatchSendObjectInOrder(
+      FetchCallsExecutor pool,
+      Source source,
+      NameKey project,
+      Iterator<List<BatchApplyObjectData>> batches,
+      Set<String> appliedRefNames,
+      long eventCreatedOn,
+      ReplicationState[] states,
+      boolean withHistory) {
+    if (!batches.hasNext()) {
+      return CompletableFuture.completedFuture(true);
+    }
+    return callBatchSendObject(
+            pool,
+            source,
+            project,
+            batches.next(),
+            appliedRefNames,
+            eventCreatedOn,
+            states,
+            withHistory)
+        .thenComposeAsync(
+            successful ->
+                successful
+                    ? callBatchSendObjectInOrder(
+                        pool,
+                        source,
+                        project,
+                        batches,
+                        appliedRefNames,
+                        eventCreatedOn,
+                        states,
+                        withHistory)
+                    : CompletableFuture.completedFuture(false),
+            pool);
+  }
+
+  private CompletableFuture<Boolean> callBatchFetchAndRecord(
+      FetchCallsExecutor pool,
+      Source source,
+      NameKey project,
+      List<ReferenceUpdatedEvent> refs,
+      ReplicationState[] states) {
+    long startNanos = System.nanoTime();
+    return callBatchFetch(pool, source, project, refs, states)
+        .whenComplete(
+            (fetchSuccessful, e) ->
+                replicationStrategy.recordFetch(
+                    source.getRemoteConfigName(), refNames(refs), System.nanoTime() - startNanos));
+  }
 
+  /**
+   * Ask all the apiUrls of the source to update the refs whose new objects they have already, so
+   * that those do not need to be read and sent.
+   *
+   * <p>The NoteDb meta refs are never asked for, as every update of them is a new commit created on
+   * this instance, which the targets cannot have unless the update has been replicated already.
+   *
+   * @return the refs updated, or already up to date, on all the apiUrls of the source.
+   */
+  private CompletableFuture<Set<String>> callConditionalApply(
+      Source source, NameKey project, List<ReferenceUpdatedEvent> refs, long eventCreatedOn) {
+    List<RefUpdateInput> refUpdates =
+        refs.stream()
+            .filter(ref -> !ref.isDelete() && wouldFetch(source, project, ref.refName()))
+            .filter(ref -> !RefNames.isNoteDbMetaRef(ref.refName()))
+            .map(ref -> new RefUpdateInput(ref.refName(), ref.objectId().getName(), null))
+            .collect(Collectors.toList());
+    if (refUpdates.isEmpty()) {
+      return CompletableFuture.completedFuture(Set.of());
+    }
+
+    FetchApiClient fetchClient = fetchClientFactory.create(source);
+    List<CompletableFuture<Optional<Set<String>>>> results =
+        source.getApis().stream()
+            .map(
+                apiUrl ->
+                    callConditionalApply(fetchClient, apiUrl, project, refUpdates, eventCreatedOn))
+            .collect(Collectors.toList());
+
+    return CompletableFuture.allOf(results.toArray(new CompletableFuture<?>[0]))
+        .thenApply(
+            unused -> {
+              Set<String> appliedRefNames = null;
+              for (CompletableFuture<Optional<Set<String>>> result : results) {
+                Optional<Set<String>> apiAppliedRefNames = result.join();
+                if (apiAppliedRefNames.isEmpty()) {
+                  return Set.of();
+                }
+                if (appliedRefNames == null) {
+                  appliedRefNames = new HashSet<>(apiAppliedRefNames.get());
+                } else {
+                  appliedRefNames.retainAll(apiAppliedRefNames.get());
+                }
+              }
+              return appliedRefNames == null ? Set.of() : appliedRefNames;
+            });
+  }
+
+  private CompletableFuture<Optional<Set<String>>> callConditionalApply(
+      FetchApiClient fetchClient,
+      String apiUrl,
+      NameKey project,
+      List<RefUpdateInput> refUpdates,
+      long eventCreatedOn) {
+    URIish uri;
     try {
-      List<BatchApplyObjectData> refsBatch =
-          refs.stream()
-              .map(ref -> toBatchApplyObject(project, ref, state))
-              .collect(Collectors.toList());
-
-      if (!containsLargeOrDeletedRefs(refsBatch)
-          && !hasCreateRefsBannedFromApplyObject(refsBatch)) {
-        return (source -> callBatchSendObject(source, project, refsBatch, eventCreatedOn, state));
-      }
+      uri = new URIish(apiUrl);
+    } catch (URISyntaxException e) {
+      repLog.warn(
+          "Pull replication REST API conditional apply to {} *FAILED* for {}:{}",
+          apiUrl,
+          project,
+          refUpdates,
+          e);
+      return CompletableFuture.completedFuture(Optional.empty());
+    }
+    return fetchClient
+        .callConditionalApplyAsync(project, refUpdates, eventCreatedOn, uri)
+        .thenApply(
+            results -> {
+              if (results.isEmpty()) {
+                return Optional.<Set<String>>empty();
+              }
+
+              repLog.info(
+                  "Pull replication REST API conditional apply to {} for {}:{} - {}",
+                  apiUrl,
+                  project,
+                  refUpdates,
+                  results.get());
+              return Optional.of(
+                  results.get().entrySet().stream()
+                      .filter(result -> result.getValue() != ConditionalApplyResult.NOT_APPLIED)
+                      .map(Map.Entry::getKey)
+                      .collect(Collectors.toSet()));
+            })
+        .exceptionally(
+            e -> {
+              repLog.warn(
+                  "Pull replication REST API conditional apply to {} *FAILED* for {}:{}",
+                  apiUrl,
+                  project,
+                  refUpdates,
+                  unwrap(e));
+              return Optional.empty();
+            });
+  }
+
+  private static boolean wouldFetch(Source source, NameKey project, String refName) {
+    return source.wouldFetchProject(project) && source.wouldFetchRef(refName);
+  }
+
+  private Optional<List<BatchApplyObjectData>> readRefs(
+      NameKey project, List<ReferenceUpdatedEvent> refs, ReplicationState[] states) {
+    try {
+      return Optional.of(toBatchApplyObject(project, refs, states));
     } catch (UncheckedIOException e) {
-      stateLog.error("Falling back to calling fetch", e, state);
+      stateLog.error("Falling back to calling fetch", e, states);
+      return Optional.empty();
+    }
+  }
+
+  private boolean isApplyObjectApplicable(List<BatchApplyObjectData> refsBatch) {
+    return !containsLargeOrDeletedRefs(refsBatch) && !hasCreateRefsBannedFromApplyObject(refsBatch);
+  }
+
+  private void recordPayloads(String sourceName, List<BatchApplyObjectData> refsRead) {
+    refsRead.stream()
+        .filter(ref -> !ref.isDelete())
+        .forEach(
+            ref ->
+                replicationStrategy.recordPayload(
+                    sourceName,
+                    ref.refName(),
+                    ref.revisionData().map(RevisionData::getContentSize).orElse(0L),
+                    ref.revisionData().isEmpty()));
+  }
+
+  private static List<String> refNames(List<ReferenceUpdatedEvent> refs) {
+    return refs.stream().map(ReferenceUpdatedEvent::refName).collect(Collectors.toList());
+  }
+
+  private boolean isHistoryApplicable(String refName) {
+    return RefNames.isNoteDbMetaRef(refName) || applyObjectsRefsFilter.match(refName);
+  }
+
+  private List<List<BatchApplyObjectData>> splitByPayloadSize(
+      List<BatchApplyObjectData> refsBatch) {
+    if (batchMaxBytes <= 0) {
+      return List.of(refsBatch);
+    }
+
+    List<List<BatchApplyObjectData>> batches = new ArrayList<>();
+    List<BatchApplyObjectData> currentBatch = new ArrayList<>();
+    long currentBatchSize = 0L;
+    for (BatchApplyObjectData ref : refsBatch) {
+      long refSize = ref.revisionData().map(RevisionData::getContentSize).orElse(0L);
+      if (!currentBatch.isEmpty() && currentBatchSize + refSize > batchMaxBytes) {
+        batches.add(currentBatch);
+        currentBatch = new ArrayList<>();
+        currentBatchSize = 0L;
+      }
+      currentBatch.add(ref);
+      currentBatchSize += refSize;
     }
-    return ((source) -> callBatchFetch(source, project, refs, state));
+    batches.add(currentBatch);
+    return batches;
   }
 
-  private BatchApplyObjectData toBatchApplyObject(
-      NameKey project, ReferenceUpdatedEvent event, ReplicationState state) {
+  private List<BatchApplyObjectData> toBatchApplyObject(
+      NameKey project, List<ReferenceUpdatedEvent> events, ReplicationState[] states) {
     try {
-      Optional<RevisionData> maybeRevisionData =
-          revReaderProvider.get().read(project, event.objectId(), event.refName(), 0);
-      return BatchApplyObjectData.create(
-          event.refName(), maybeRevisionData, event.isDelete(), event.isCreate());
+      List<Optional<RevisionData>> revisions =
+          revReaderProvider
+              .get()
+              .read(
+                  project,
+                  events.stream()
+                      .map(event -> RefRevision.create(event.refName(), event.objectId()))
+                      .collect(Collectors.toList()));
+      List<BatchApplyObjectData> refsBatch = new ArrayList<>(events.size());
+      for (int i = 0; i < events.size(); i++) {
+        ReferenceUpdatedEvent event = events.get(i);
+        refsBatch.add(
+            BatchApplyObjectData.create(
+                event.refName(), revisions.get(i), event.isDelete(), event.isCreate()));
+      }
+      return refsBatch;
     } catch (IOException e) {
       stateLog.error(
           String.format(
-              "Exception during reading ref: %s, project:%s, message: %s",
-              event.refName(), project.get(), e.getMessage()),
+              "Exception during reading refs: %s, project:%s, message: %s",
+              refNames(events), project.get(), e.getMessage()),
           e,
-          state);
+          states);
       throw new UncheckedIOException(e);
     }
   }
@@ -410,15 +1063,14 @@ public class ReplicationQueue
         .anyMatch(e -> applyObjectsBannedCreateRefsFilter.match(e.refName()));
   }
 
-  private Optional<HttpResult> callSendObject(
+  private CompletableFuture<HttpResult> callSendObject(
       FetchApiClient fetchClient,
       String remoteName,
       URIish uri,
       NameKey project,
       String refName,
       long eventCreatedOn,
-      List<RevisionData> revision)
-      throws IOException {
+      List<RevisionData> revision) {
     String revisionDataStr =
         Optional.ofNullable(revision).orElse(ImmutableList.of()).stream()
             .map(RevisionData::toString)
@@ -430,34 +1082,126 @@ public class ReplicationQueue
         refName,
         revisionDataStr);
     Context<String> apiTimer = applyObjectMetrics.startEnd2End(remoteName);
-    HttpResult result =
-        fetchClient.callSendObjects(project, refName, eventCreatedOn, revision, uri);
+    return fetchClient
+        .callSendObjectsAsync(project, refName, eventCreatedOn, revision, uri)
+        .thenApply(
+            result -> {
+              repLog.info(
+                  "Pull replication REST API apply object to {} COMPLETED for {}:{} - {}, HTTP"
+                      + " Result: {} - time:{} ms",
+                  uri,
+                  project,
+                  refName,
+                  revisionDataStr,
+                  result,
+                  stopApiTimer(apiTimer, uri) / 1000000.0);
+              return result;
+            });
+  }
+
+  private CompletableFuture<HttpResult> callSendPack(
+      FetchApiClient fetchClient,
+      String remoteName,
+      URIish uri,
+      NameKey project,
+      String batchApplyObjectStr,
+      long eventCreatedOn,
+      ThinPack thinPack) {
     repLog.info(
-        "Pull replication REST API apply object to {} COMPLETED for {}:{} - {}, HTTP Result:"
-            + " {} - time:{} ms",
+        "Pull replication REST API apply pack to {} for {}:[{}] - {} bytes",
         uri,
         project,
-        refName,
-        revisionDataStr,
-        result,
-        apiTimer.stop() / 1000000.0);
+        batchApplyObjectStr,
+        thinPack.pack.length);
+    Context<String> apiTimer = applyObjectMetrics.startEnd2End(remoteName);
+    return fetchClient
+        .callSendPackAsync(project, thinPack.refs, eventCreatedOn, thinPack.pack, uri)
+        .thenApply(
+            result -> {
+              repLog.info(
+                  "Pull replication REST API apply pack to {} COMPLETED for {}:[{}], HTTP Result:"
+                      + " {} - time:{} ms",
+                  uri,
+                  project,
+                  batchApplyObjectStr,
+                  result,
+                  stopApiTimer(apiTimer, uri) / 1000000.0);
+              return result;
+            });
+  }
+
+  /**
+   * Read the objects of all the refs of the batch as a single thin pack, built against the parents
+   * of their commits, which the targets are expected to have already.
+   */
+  private Optional<ThinPack> readThinPack(
+      NameKey project, List<BatchApplyObjectData> refsBatch, ReplicationState[] states) {
+    List<RefUpdateInput> refs = new ArrayList<>(refsBatch.size());
+    Set<ObjectId> objectIds = new HashSet<>();
+    Set<ObjectId> parentObjectIds = new HashSet<>();
+    for (BatchApplyObjectData ref : refsBatch) {
+      Optional<RevisionData> revisionData = ref.revisionData();
+      if (revisionData.isEmpty()) {
+        return Optional.empty();
+      }
+
+      RevisionObjectData commitObject = revisionData.get().getCommitObject();
+      ObjectId objectId;
+      List<String> refParentObjectIds = new ArrayList<>();
+      if (commitObject != null) {
+        objectId = ObjectId.fromString(commitObject.getSha1());
+        for (RevCommit parent : RevCommit.parse(commitObject.getContent()).getParents()) {
+          parentObjectIds.add(parent.getId());
+          refParentObjectIds.add(parent.getId().name());
+        }
+      } else {
+        objectId = ObjectId.fromString(revisionData.get().getBlobs().get(0).getSha1());
+      }
+      objectIds.add(objectId);
+      refs.add(new RefUpdateInput(ref.refName(), objectId.name(), refParentObjectIds));
+    }
+
+    try {
+      byte[] pack = revReaderProvider.get().readThinPack(project, objectIds, parentObjectIds);
+      return Optional.of(new ThinPack(refs, pack));
+    } catch (IOException e) {
+      stateLog.error(
+          String.format(
+              "Cannot read the thin pack of refs: %s, project:%s, falling back to batch apply"
+                  + " object",
+              refs, project.get()),
+          e,
+          states);
+      return Optional.empty();
+    }
+  }
 
-    return Optional.of(result);
+  private long stopApiTimer(Context<String> apiTimer, URIish uri) {
+    long elapsedNanos = apiTimer.stop();
+    applyObjectMetrics.recordEnd2End(uri, elapsedNanos);
+    return elapsedNanos;
   }
 
-  private boolean callBatchSendObject(
+  private CompletableFuture<Boolean> callBatchSendObject(
+      FetchCallsExecutor pool,
       Source source,
       NameKey project,
       List<BatchApplyObjectData> refsBatch,
+      Set<String> appliedRefNames,
       long eventCreatedOn,
-      ReplicationState state)
-      throws MissingParentObjectException {
-    boolean batchResultSuccessful = true;
-
+      ReplicationState[] states,
+      boolean withHistory) {
+    Predicate<BatchApplyObjectData> wouldFetch =
+        r -> wouldFetch(source, project, r.refName()) && !appliedRefNames.contains(r.refName());
+    // Same batch instance across all the sources fetching all its refs, so that the request body
+    // is serialized only once.
     List<BatchApplyObjectData> filteredRefsBatch =
-        refsBatch.stream()
-            .filter(r -> source.wouldFetchProject(project) && source.wouldFetchRef(r.refName()))
-            .collect(Collectors.toList());
+        refsBatch.stream().allMatch(wouldFetch)
+            ? refsBatch
+            : refsBatch.stream().filter(wouldFetch).collect(Collectors.toList());
+    if (filteredRefsBatch.isEmpty()) {
+      return CompletableFuture.completedFuture(true);
+    }
 
     String batchApplyObjectStr =
         filteredRefsBatch.stream()
@@ -465,154 +1209,575 @@ public class ReplicationQueue
             .collect(Collectors.joining(","));
     FetchApiClient fetchClient = fetchClientFactory.create(source);
     String remoteName = source.getRemoteConfigName();
-
-    for (String apiUrl : source.getApis()) {
-      try {
-        boolean resultSuccessful = true;
-        Optional<HttpResult> result = Optional.empty();
-        URIish uri = new URIish(apiUrl);
-        if (source.enableBatchedRefs()) {
-          repLog.info(
-              "Pull replication REST API batch apply object to {} for {}:[{}]",
-              apiUrl,
-              project,
-              batchApplyObjectStr);
-          Context<String> apiTimer = applyObjectMetrics.startEnd2End(remoteName);
-          result =
-              Optional.of(
-                  fetchClient.callBatchSendObject(project, filteredRefsBatch, eventCreatedOn, uri));
-          resultSuccessful = HttpResultUtils.isSuccessful(result);
-          repLog.info(
-              "Pull replication REST API batch apply object to {} COMPLETED for {}:[{}], HTTP "
-                  + " Result: {} - time:{} ms",
-              apiUrl,
-              project,
-              batchApplyObjectStr,
-              HttpResultUtils.status(result),
-              apiTimer.stop() / 1000000.0);
-        } else {
-          repLog.info(
-              "REST API batch apply object not enabled for source {}, using REST API apply object"
-                  + " to {} for {}:[{}]",
-              remoteName,
-              apiUrl,
-              project,
-              batchApplyObjectStr);
-          for (BatchApplyObjectData batchApplyObject : filteredRefsBatch) {
-            result =
-                callSendObject(
+    AtomicBoolean parentMissing = new AtomicBoolean();
+    Supplier<Optional<ThinPack>> thinPackSupplier =
+        Suppliers.memoize(() -> readThinPack(project, filteredRefsBatch, states));
+    long startNanos = System.nanoTime();
+
+    Map<String, CompletableFuture<Optional<HttpResult>>> groupedResults =
+        callGroupedBatchSendObject(
+            source, fetchClient, project, filteredRefsBatch, eventCreatedOn, withHistory);
+    return callAllApis(
+            source,
+            apiUrl ->
+                callBatchSendObject(
+                    pool,
+                    source,
                     fetchClient,
-                    remoteName,
-                    uri,
+                    apiUrl,
                     project,
-                    batchApplyObject.refName(),
+                    filteredRefsBatch,
+                    batchApplyObjectStr,
+                    thinPackSupplier,
+                    groupedResults.get(apiUrl),
                     eventCreatedOn,
-                    batchApplyObject.revisionData().map(ImmutableList::of).orElse(null));
+                    states,
+                    withHistory,
+                    parentMissing))
+        .whenComplete(
+            (successful, e) ->
+                replicationStrategy.recordApplyObject(
+                    remoteName,
+                    filteredRefsBatch.stream()
+                        .map(BatchApplyObjectData::refName)
+                        .collect(Collectors.toList()),
+                    Boolean.TRUE.equals(successful),
+                    parentMissing.get(),
+                    System.nanoTime() - startNanos));
+  }
 
-            resultSuccessful = HttpResultUtils.isSuccessful(result);
-            if (!resultSuccessful) {
-              break;
-            }
-          }
-        }
+  private CompletableFuture<Boolean> callBatchSendObject(
+      FetchCallsExecutor pool,
+      Source source,
+      FetchApiClient fetchClient,
+      String apiUrl,
+      NameKey project,
+      List<BatchApplyObjectData> filteredRefsBatch,
+      String batchApplyObjectStr,
+      Supplier<Optional<ThinPack>> thinPackSupplier,
+      @Nullable CompletableFuture<Optional<HttpResult>> groupedResult,
+      long eventCreatedOn,
+      ReplicationState[] states,
+      boolean withHistory,
+      AtomicBoolean parentMissing) {
+    String remoteName = source.getRemoteConfigName();
+    URIish uri;
+    try {
+      uri = new URIish(apiUrl);
+    } catch (URISyntaxException e) {
+      repLog.warn(
+          "Pull replication REST API batch apply object to {} *FAILED* for {}:[{}]",
+          apiUrl,
+          project,
+          batchApplyObjectStr,
+          e);
+      stateLog.error(String.format("Cannot parse pull replication api url:%s", apiUrl), states);
+      return CompletableFuture.completedFuture(false);
+    }
 
-        if (!resultSuccessful
-            && HttpResultUtils.isProjectMissing(result, project)
-            && source.isCreateMissingRepositories()) {
-          result = initProject(project, uri, fetchClient, result);
-          repLog.info(
-              "Missing project {} created, HTTP Result:{}",
+    CompletableFuture<Optional<HttpResult>> result;
+    if (withHistory) {
+      repLog.info(
+          "Pull replication REST API apply objects with history to {} for {}:[{}]",
+          apiUrl,
+          project,
+          batchApplyObjectStr);
+      result = CompletableFuture.completedFuture(Optional.empty());
+    } else if (source.enableBatchedRefs()) {
+      result =
+          callBatchSendObject(
+              source,
+              fetchClient,
+              apiUrl,
+              uri,
               project,
-              HttpResultUtils.status(result));
-        }
+              filteredRefsBatch,
+              batchApplyObjectStr,
+              thinPackSupplier,
+              groupedResult,
+              eventCreatedOn);
+    } else {
+      repLog.info(
+          "REST API batch apply object not enabled for source {}, using REST API apply"
+              + " object to {} for {}:[{}]",
+          remoteName,
+          apiUrl,
+          project,
+          batchApplyObjectStr);
+      result =
+          callSendObjectInOrder(
+              fetchClient, remoteName, uri, project, filteredRefsBatch.iterator(), eventCreatedOn);
+    }
 
-        if (!resultSuccessful && HttpResultUtils.isParentObjectMissing(result)) {
-          resultSuccessful = true;
-          for (BatchApplyObjectData batchApplyObject : filteredRefsBatch) {
-            String refName = batchApplyObject.refName();
-            if ((RefNames.isNoteDbMetaRef(refName) || applyObjectsRefsFilter.match(refName))
-                && batchApplyObject.revisionData().isPresent()) {
-
-              Optional<RevisionData> maybeRevisionData = batchApplyObject.revisionData();
-              List<RevisionData> allRevisions =
-                  fetchWholeMetaHistory(project, refName, maybeRevisionData.get());
-
-              Optional<HttpResult> sendObjectResult =
-                  callSendObject(
-                      fetchClient, remoteName, uri, project, refName, eventCreatedOn, allRevisions);
-              resultSuccessful = HttpResultUtils.isSuccessful(sendObjectResult);
-              if (!resultSuccessful) {
-                break;
+    return result
+        .thenCompose(
+            sendResult -> {
+              if (HttpResultUtils.isSuccessful(sendResult)) {
+                return CompletableFuture.completedFuture(true);
               }
-            } else {
-              throw new MissingParentObjectException(
-                  project, refName, source.getRemoteConfigName());
-            }
-          }
-        }
+              return createMissingProject(pool, source, fetchClient, uri, project, sendResult)
+                  .thenCompose(
+                      r ->
+                          callSendObjectWithHistoryIfNeeded(
+                              pool,
+                              source,
+                              fetchClient,
+                              uri,
+                              project,
+                              filteredRefsBatch,
+                              eventCreatedOn,
+                              withHistory,
+                              parentMissing,
+                              r));
+            })
+        .exceptionally(
+            e -> batchSendObjectFailed(apiUrl, project, batchApplyObjectStr, states, unwrap(e)));
+  }
 
-        batchResultSuccessful &= resultSuccessful;
-      } catch (URISyntaxException e) {
-        repLog.warn(
-            "Pull replication REST API batch apply object to {} *FAILED* for {}:[{}]",
+  /**
+   * Create the project when the send failed because it is missing on the apiUrl, and the source is
+   * configured to do so.
+   *
+   * @return the future result of the creation, or the result of the send when not created.
+   */
+  private CompletableFuture<Optional<HttpResult>> createMissingProject(
+      FetchCallsExecutor pool,
+      Source source,
+      FetchApiClient fetchClient,
+      URIish uri,
+      NameKey project,
+      Optional<HttpResult> sendResult) {
+    if (!HttpResultUtils.isProjectMissing(sendResult, project)
+        || !source.isCreateMissingRepositories()) {
+      return CompletableFuture.completedFuture(sendResult);
+    }
+    return initProject(pool, project, uri, fetchClient, sendResult)
+        .thenApply(
+            r -> {
+              repLog.info(
+                  "Missing project {} created, HTTP Result:{}", project, HttpResultUtils.status(r));
+              return r;
+            });
+  }
+
+  /**
+   * Send the refs with their history when requested, or when the apiUrl misses the parents of their
+   * objects.
+   *
+   * @return the future completed with false when the history is not sent.
+   */
+  private CompletableFuture<Boolean> callSendObjectWithHistoryIfNeeded(
+      FetchCallsExecutor pool,
+      Source source,
+      FetchApiClient fetchClient,
+      URIish uri,
+      NameKey project,
+      List<BatchApplyObjectData> filteredRefsBatch,
+      long eventCreatedOn,
+      boolean withHistory,
+      AtomicBoolean parentMissing,
+      Optional<HttpResult> result) {
+    boolean isParentObjectMissing = HttpResultUtils.isParentObjectMissing(result);
+    if (isParentObjectMissing) {
+      parentMissing.set(true);
+    }
+    if (!withHistory && !isParentObjectMissing) {
+      return CompletableFuture.completedFuture(false);
+    }
+    return callSendObjectWithHistory(
+        pool, source, fetchClient, uri, project, filteredRefsBatch.iterator(), eventCreatedOn);
+  }
+
+  /**
+   * Report the failure of sending the batch to the apiUrl.
+   *
+   * @return false, for falling back to fetch, unless the failure is unexpected.
+   */
+  private boolean batchSendObjectFailed(
+      String apiUrl,
+      NameKey project,
+      String batchApplyObjectStr,
+      ReplicationState[] states,
+      Throwable cause) {
+    repLog.warn(
+        "Pull replication REST API batch apply object to {} *FAILED* for {}:[{}]",
+        apiUrl,
+        project,
+        batchApplyObjectStr,
+        cause);
+    if (cause instanceof URISyntaxException) {
+      stateLog.error(String.format("Cannot parse pull replication api url:%s", apiUrl), states);
+      return false;
+    }
+    if (cause instanceof IOException || cause instanceof IllegalArgumentException) {
+      stateLog.error(
+          String.format(
+              "Exception during the pull replication fetch rest api call. Endpoint"
+                  + " url:%s, message:%s",
+              apiUrl, cause.getMessage()),
+          cause,
+          states);
+      return false;
+    }
+    throw new CompletionException(cause);
+  }
+
+  /**
+   * Send the batch with the apply-pack REST-API, when enabled and supported by the apiUrl, or else
+   * with the batch-apply-object REST-API, as part of the multi-project group of the apiUrl if any.
+   */
+  private CompletableFuture<Optional<HttpResult>> callBatchSendObject(
+      Source source,
+      FetchApiClient fetchClient,
+      String apiUrl,
+      URIish uri,
+      NameKey project,
+      List<BatchApplyObjectData> filteredRefsBatch,
+      String batchApplyObjectStr,
+      Supplier<Optional<ThinPack>> thinPackSupplier,
+      @Nullable CompletableFuture<Optional<HttpResult>> groupedResult,
+      long eventCreatedOn) {
+    return callSendPackIfSupported(
+            source,
+            fetchClient,
             apiUrl,
+            uri,
             project,
             batchApplyObjectStr,
-            e);
-        stateLog.error(String.format("Cannot parse pull replication api url:%s", apiUrl), state);
-        batchResultSuccessful = false;
-      } catch (IOException | IllegalArgumentException e) {
-        repLog.warn(
-            "Pull replication REST API batch apply object to {} *FAILED* for {}:[{}]",
-            apiUrl,
+            thinPackSupplier,
+            eventCreatedOn)
+        .thenCompose(
+            result ->
+                result.isPresent()
+                    ? CompletableFuture.completedFuture(result)
+                    : callBatchApplyObject(
+                        source.getRemoteConfigName(),
+                        fetchClient,
+                        apiUrl,
+                        uri,
+                        project,
+                        filteredRefsBatch,
+                        batchApplyObjectStr,
+                        groupedResult,
+                        eventCreatedOn));
+  }
+
+  /**
+   * Send the batch with the apply-pack REST-API, when enabled and supported by the apiUrl.
+   *
+   * @return the future result of the call, or empty when the batch is to be sent with the
+   *     batch-apply-object REST-API instead.
+   */
+  private CompletableFuture<Optional<HttpResult>> callSendPackIfSupported(
+      Source source,
+      FetchApiClient fetchClient,
+      String apiUrl,
+      URIish uri,
+      NameKey project,
+      String batchApplyObjectStr,
+      Supplier<Optional<ThinPack>> thinPackSupplier,
+      long eventCreatedOn) {
+    if (!source.enableApplyPack() || applyPackUnsupportedApiUrls.contains(apiUrl)) {
+      return CompletableFuture.completedFuture(Optional.empty());
+    }
+    Optional<ThinPack> thinPack = thinPackSupplier.get();
+    if (thinPack.isEmpty()) {
+      return CompletableFuture.completedFuture(Optional.empty());
+    }
+    return callSendPack(
+            fetchClient,
+            source.getRemoteConfigName(),
+            uri,
             project,
             batchApplyObjectStr,
-            e);
-        stateLog.error(
-            String.format(
-                "Exception during the pull replication fetch rest api call. Endpoint url:%s,"
-                    + " message:%s",
-                apiUrl, e.getMessage()),
-            e,
-            state);
-        batchResultSuccessful = false;
+            eventCreatedOn,
+            thinPack.get())
+        .thenApply(
+            result -> {
+              if (result.isEndpointUnsupported(project)) {
+                repLog.info(
+                    "Pull replication REST API apply pack not supported by {}, falling"
+                        + " back to batch apply object",
+                    apiUrl);
+                applyPackUnsupportedApiUrls.add(apiUrl);
+                return Optional.empty();
+              }
+              return Optional.of(result);
+            });
+  }
+
+  /**
+   * Send the batch with the batch-apply-object REST-API, unless it has been sent already as part of
+   * the multi-project group of the apiUrl.
+   */
+  private CompletableFuture<Optional<HttpResult>> callBatchApplyObject(
+      String remoteName,
+      FetchApiClient fetchClient,
+      String apiUrl,
+      URIish uri,
+      NameKey project,
+      List<BatchApplyObjectData> filteredRefsBatch,
+      String batchApplyObjectStr,
+      @Nullable CompletableFuture<Optional<HttpResult>> groupedResult,
+      long eventCreatedOn) {
+    repLog.info(
+        "Pull replication REST API batch apply object to {} for {}:[{}]",
+        apiUrl,
+        project,
+        batchApplyObjectStr);
+    Context<String> apiTimer = applyObjectMetrics.startEnd2End(remoteName);
+    CompletableFuture<Optional<HttpResult>> grouped =
+        groupedResult == null ? CompletableFuture.completedFuture(Optional.empty()) : groupedResult;
+    return grouped
+        .thenCompose(
+            groupResult ->
+                groupResult.isPresent()
+                    ? CompletableFuture.completedFuture(groupResult)
+                    : fetchClient
+                        .callBatchSendObjectAsync(project, filteredRefsBatch, eventCreatedOn, uri)
+                        .thenApply(Optional::of))
+        .thenApply(
+            r -> {
+              repLog.info(
+                  "Pull replication REST API batch apply object to {} COMPLETED for {}:[{}],"
+                      + " HTTP  Result: {} - time:{} ms",
+                  apiUrl,
+                  project,
+                  batchApplyObjectStr,
+                  HttpResultUtils.status(r),
+                  stopApiTimer(apiTimer, uri) / 1000000.0);
+              return r;
+            });
+  }
+
+  /** Send the refs one after the other, stopping at the first one failing. */
+  private CompletableFuture<Optional<HttpResult>> callSendObjectInOrder(
+      FetchApiClient fetchClient,
+      String remoteName,
+      URIish uri,
+      NameKey project,
+      Iterator<BatchApplyObjectData> refs,
+      long eventCreatedOn) {
+    BatchApplyObjectData batchApplyObject = refs.next();
+    return callSendObject(
+            fetchClient,
+            remoteName,
+            uri,
+            project,
+            batchApplyObject.refName(),
+            eventCreatedOn,
+            batchApplyObject.revisionData().map(ImmutableList::of).orElse(null))
+        .thenCompose(
+            result ->
+                result.isSuccessful() && refs.hasNext()
+                    ? callSendObjectInOrder(
+                        fetchClient, remoteName, uri, project, refs, eventCreatedOn)
+                    : CompletableFuture.completedFuture(Optional.of(result)));
+  }
+
+  /**
+   * Send the refs one after the other together with the history missing on the apiUrl, stopping at
+   * the first one failing.
+   *
+   * @return the future failed with {@link MissingParentObjectException} when the history of a ref
+   *     cannot be sent.
+   */
+  private CompletableFuture<Boolean> callSendObjectWithHistory(
+      FetchCallsExecutor pool,
+      Source source,
+      FetchApiClient fetchClient,
+      URIish uri,
+      NameKey project,
+      Iterator<BatchApplyObjectData> refs,
+      long eventCreatedOn) {
+    if (!refs.hasNext()) {
+      return CompletableFuture.completedFuture(true);
+    }
+    BatchApplyObjectData batchApplyObject = refs.next();
+    String refName = batchApplyObject.refName();
+    if (!isHistoryApplicable(refName) || batchApplyObject.revisionData().isEmpty()) {
+      return CompletableFuture.failedFuture(
+          new MissingParentObjectException(project, refName, source.getRemoteConfigName()));
+    }
+
+    return fetchMissingMetaHistory(
+            pool, fetchClient, uri, project, refName, batchApplyObject.revisionData().get())
+        .thenCompose(
+            maybeAllRevisions ->
+                maybeAllRevisions.isEmpty()
+                    ? CompletableFuture.completedFuture(false)
+                    : callSendHistory(
+                        pool,
+                        source,
+                        fetchClient,
+                        uri,
+                        project,
+                        refName,
+                        maybeAllRevisions.get(),
+                        refs,
+                        eventCreatedOn));
+  }
+
+  /** Send the history of the ref and then the following refs, stopping at the first failing. */
+  private CompletableFuture<Boolean> callSendHistory(
+      FetchCallsExecutor pool,
+      Source source,
+      FetchApiClient fetchClient,
+      URIish uri,
+      NameKey project,
+      String refName,
+      List<RevisionData> history,
+      Iterator<BatchApplyObjectData> nextRefs,
+      long eventCreatedOn) {
+    return callSendObject(
+            fetchClient,
+            source.getRemoteConfigName(),
+            uri,
+            project,
+            refName,
+            eventCreatedOn,
+            history)
+        .thenCompose(
+            sendObjectResult ->
+                sendObjectResult.isSuccessful()
+                    ? callSendObjectWithHistory(
+                        pool, source, fetchClient, uri, project, nextRefs, eventCreatedOn)
+                    : CompletableFuture.completedFuture(false));
+  }
+
+  /**
+   * Add the batch to the multi-project groups of the apiUrls sending it with the batch-apply-object
+   * REST-API, before calling any apiUrl, without waiting for the groups to be sent.
+   *
+   * @return the future result of the batch for every apiUrl it was grouped for, which the calls to
+   *     those apiUrls are chained to.
+   */
+  private Map<String, CompletableFuture<Optional<HttpResult>>> callGroupedBatchSendObject(
+      Source source,
+      FetchApiClient fetchClient,
+      NameKey project,
+      List<BatchApplyObjectData> filteredRefsBatch,
+      long eventCreatedOn,
+      boolean withHistory) {
+    if (withHistory || !source.enableBatchedRefs() || source.getMultiProjectBatchWindow() <= 0) {
+      return Map.of();
+    }
+
+    Map<String, CompletableFuture<Optional<HttpResult>>> groupedResults = new HashMap<>();
+    for (String apiUrl : source.getApis()) {
+      if (source.enableApplyPack() && !applyPackUnsupportedApiUrls.contains(apiUrl)) {
+        continue;
+      }
+      try {
+        groupedResults.put(
+            apiUrl,
+            fetchClient.callGroupedBatchSendObject(
+                project, filteredRefsBatch, eventCreatedOn, new URIish(apiUrl)));
+      } catch (URISyntaxException e) {
+        // Reported by the call to the apiUrl
       }
     }
-    return batchResultSuccessful;
+    return groupedResults;
   }
 
-  private List<RevisionData> fetchWholeMetaHistory(
-      NameKey project, String refName, RevisionData revision)
-      throws RepositoryNotFoundException,
-          MissingObjectException,
-          IncorrectObjectTypeException,
-          CorruptObjectException,
-          IOException {
+  /**
+   * Read, on the pool, the history of the ref which is missing on the apiUrl, negotiating it with
+   * the missing-objects REST-API when supported, or else the whole history of the ref.
+   */
+  private CompletableFuture<Optional<List<RevisionData>>> fetchMissingMetaHistory(
+      FetchCallsExecutor pool,
+      FetchApiClient fetchClient,
+      URIish uri,
+      NameKey project,
+      String refName,
+      RevisionData revision) {
     RevisionReader revisionReader = revReaderProvider.get();
-    Optional<RevisionData> revisionDataWithParents =
-        revisionReader.read(project, refName, Integer.MAX_VALUE);
+    return pool.supplyAsync(
+            () -> {
+              try {
+                return revisionReader.readHistoryObjectIds(project, refName);
+              } catch (IOException e) {
+                throw new CompletionException(e);
+              }
+            })
+        .thenCompose(
+            candidateObjectIds ->
+                candidateObjectIds.isEmpty()
+                    ? CompletableFuture.completedFuture(
+                        Optional.<List<RevisionData>>of(ImmutableList.of(revision)))
+                    : negotiateMissingMetaHistory(
+                        pool, fetchClient, uri, project, refName, revision, candidateObjectIds));
+  }
 
-    ImmutableList.Builder<RevisionData> revisionDataBuilder = ImmutableList.builder();
-    List<ObjectId> parentObjectIds =
-        revisionDataWithParents
-            .map(RevisionData::getParentObjetIds)
-            .orElse(Collections.emptyList());
-    for (ObjectId parentObjectId : parentObjectIds) {
-      revisionReader.read(project, parentObjectId, refName, 0).ifPresent(revisionDataBuilder::add);
+  /**
+   * Ask the apiUrl which of the candidate objects of the history of the ref it misses, and read
+   * them on the pool.
+   */
+  private CompletableFuture<Optional<List<RevisionData>>> negotiateMissingMetaHistory(
+      FetchCallsExecutor pool,
+      FetchApiClient fetchClient,
+      URIish uri,
+      NameKey project,
+      String refName,
+      RevisionData revision,
+      List<ObjectId> candidateObjectIds) {
+    return fetchClient
+        .callMissingObjectsAsync(project, refName, candidateObjectIds, uri)
+        .thenApplyAsync(
+            missingObjectIds -> {
+              try {
+                return readMissingMetaHistory(
+                    uri, project, refName, revision, candidateObjectIds, missingObjectIds);
+              } catch (IOException e) {
+                throw new CompletionException(e);
+              }
+            },
+            pool);
+  }
+
+  private Optional<List<RevisionData>> readMissingMetaHistory(
+      URIish uri,
+      NameKey project,
+      String refName,
+      RevisionData revision,
+      List<ObjectId> candidateObjectIds,
+      Optional<List<ObjectId>> missingObjectIds)
+      throws RepositoryNotFoundException, IOException {
+    if (missingObjectIds.isEmpty()) {
+      return fetchWholeMetaHistory(project, refName, revision);
     }
 
-    revisionDataBuilder.add(revision);
+    repLog.info(
+        "Negotiated {} missing objects out of {} for {}:{} on {}",
+        missingObjectIds.get().size(),
+        candidateObjectIds.size(),
+        project,
+        refName,
+        uri);
+    Set<ObjectId> missingObjects = new HashSet<>(missingObjectIds.get());
+    return revReaderProvider
+        .get()
+        .readHistory(project, refName, missingObjects::contains)
+        .map(
+            history -> ImmutableList.<RevisionData>builder().addAll(history).add(revision).build());
+  }
 
-    return revisionDataBuilder.build();
+  private Optional<List<RevisionData>> fetchWholeMetaHistory(
+      NameKey project, String refName, RevisionData revision)
+      throws RepositoryNotFoundException, IOException {
+    return revReaderProvider
+        .get()
+        .readHistory(project, refName)
+        .map(
+            history -> ImmutableList.<RevisionData>builder().addAll(history).add(revision).build());
   }
 
-  private boolean callBatchFetch(
+  private CompletableFuture<Boolean> callBatchFetch(
+      FetchCallsExecutor pool,
       Source source,
       Project.NameKey project,
       List<ReferenceUpdatedEvent> refs,
-      ReplicationState state) {
-
-    boolean resultIsSuccessful = true;
+      ReplicationState[] states) {
 
     List<RefInput> filteredRefs =
         refs.stream()
@@ -623,134 +1788,255 @@ public class ReplicationQueue
     String refsStr = filteredRefs.stream().map(RefInput::refName).collect(Collectors.joining(","));
     FetchApiClient fetchClient = fetchClientFactory.create(source);
 
-    for (String apiUrl : source.getApis()) {
-      try {
-        URIish uri = new URIish(apiUrl);
-        Optional<HttpResult> result = Optional.empty();
-        repLog.info(
-            "Pull replication REST API batch fetch to {} for {}:[{}]", apiUrl, project, refsStr);
-        long startTime = System.currentTimeMillis();
-        result = Optional.of(fetchClient.callBatchFetch(project, filteredRefs, uri));
-        long endTime = System.currentTimeMillis();
-        boolean resultSuccessful = HttpResultUtils.isSuccessful(result);
-        repLog.info(
-            "Pull replication REST API batch fetch to {} COMPLETED for {}:[{}], HTTP Result:"
-                + " {} - time:{} ms",
-            apiUrl,
-            project,
-            refsStr,
-            HttpResultUtils.status(result),
-            endTime - startTime);
-        if (!resultSuccessful
-            && HttpResultUtils.isProjectMissing(result, project)
-            && source.isCreateMissingRepositories()) {
-          result = initProject(project, uri, fetchClient, result);
-          resultSuccessful = HttpResultUtils.isSuccessful(result);
-        }
-        if (!resultSuccessful) {
-          stateLog.warn(
-              String.format(
-                  "Pull replication REST API batch fetch call failed. Endpoint url: %s, reason:%s",
-                  apiUrl, HttpResultUtils.errorMsg(result)),
-              state);
-        }
-        resultIsSuccessful &= resultSuccessful;
-      } catch (URISyntaxException e) {
-        stateLog.error(
-            String.format("Cannot parse pull replication batch api url:%s", apiUrl), state);
-        resultIsSuccessful = false;
-      } catch (Exception e) {
-        stateLog.error(
-            String.format(
-                "Exception during the pull replication batch fetch rest api call. Endpoint url:%s,"
-                    + " message:%s",
-                apiUrl, e.getMessage()),
-            e,
-            state);
-        resultIsSuccessful = false;
-      }
-    }
+    return callAllApis(
+        source,
+        apiUrl ->
+            callBatchFetch(
+                pool, source, fetchClient, apiUrl, project, filteredRefs, refsStr, states));
+  }
 
-    return resultIsSuccessful;
+  private CompletableFuture<Boolean> callBatchFetch(
+      FetchCallsExecutor pool,
+      Source source,
+      FetchApiClient fetchClient,
+      String apiUrl,
+      Project.NameKey project,
+      List<RefInput> filteredRefs,
+      String refsStr,
+      ReplicationState[] states) {
+    URIish uri;
+    try {
+      uri = new URIish(apiUrl);
+    } catch (URISyntaxException e) {
+      stateLog.error(
+          String.format("Cannot parse pull replication batch api url:%s", apiUrl), states);
+      return CompletableFuture.completedFuture(false);
+    }
+    repLog.info(
+        "Pull replication REST API batch fetch to {} for {}:[{}]", apiUrl, project, refsStr);
+    long startTime = System.currentTimeMillis();
+    return fetchClient
+        .callBatchFetchAsync(project, filteredRefs, uri, MILLISECONDS.toNanos(startTime))
+        .thenCompose(
+            httpResult -> {
+              Optional<HttpResult> result = Optional.of(httpResult);
+              repLog.info(
+                  "Pull replication REST API batch fetch to {} COMPLETED for {}:[{}], HTTP"
+                      + " Result: {} - time:{} ms",
+                  apiUrl,
+                  project,
+                  refsStr,
+                  HttpResultUtils.status(result),
+                  System.currentTimeMillis() - startTime);
+              return initProjectIfMissing(pool, source, project, uri, fetchClient, result);
+            })
+        .thenApply(
+            result -> {
+              boolean resultSuccessful = HttpResultUtils.isSuccessful(result);
+              if (!resultSuccessful) {
+                stateLog.warn(
+                    String.format(
+                        "Pull replication REST API batch fetch call failed. Endpoint url: %s,"
+                            + " reason:%s",
+                        apiUrl, HttpResultUtils.errorMsg(result)),
+                    states);
+              }
+              return resultSuccessful;
+            })
+        .exceptionally(
+            e -> {
+              Throwable cause = unwrap(e);
+              stateLog.error(
+                  String.format(
+                      "Exception during the pull replication batch fetch rest api call."
+                          + " Endpoint url:%s, message:%s",
+                      apiUrl, cause.getMessage()),
+                  cause,
+                  states);
+              return false;
+            });
   }
 
-  private boolean callFetch(
+  private CompletableFuture<Boolean> callFetch(
+      FetchCallsExecutor pool,
       Source source,
       Project.NameKey project,
       List<ReferenceUpdatedEvent> refs,
-      ReplicationState state,
+      ReplicationState[] states,
       boolean forceAsyncCall) {
-    boolean resultIsSuccessful = true;
+    FetchApiClient fetchClient = fetchClientFactory.create(source);
+    CompletableFuture<Boolean> resultIsSuccessful = CompletableFuture.completedFuture(true);
     for (ReferenceUpdatedEvent refEvent : refs) {
       String refName = refEvent.refName();
       if (source.wouldFetchProject(project) && source.wouldFetchRef(refName)) {
-        for (String apiUrl : source.getApis()) {
-          try {
-            URIish uri = new URIish(apiUrl);
-            FetchApiClient fetchClient = fetchClientFactory.create(source);
-            repLog.info(
-                "Pull replication REST API fetch to {} for {}:{}", apiUrl, project, refName);
-            long startTime = System.currentTimeMillis();
-            Optional<HttpResult> result =
-                Optional.of(
-                    fetchClient.callFetch(
-                        project,
-                        refName,
-                        uri,
-                        MILLISECONDS.toNanos(System.currentTimeMillis()),
-                        forceAsyncCall));
-            long endTime = System.currentTimeMillis();
-            boolean resultSuccessful = HttpResultUtils.isSuccessful(result);
-            repLog.info(
-                "Pull replication REST API fetch to {} COMPLETED for {}:{}, HTTP Result:"
-                    + " {} - time: {} ms",
-                apiUrl,
-                project,
-                refName,
-                HttpResultUtils.status(result),
-                endTime - startTime);
-            if (!resultSuccessful
-                && HttpResultUtils.isProjectMissing(result, project)
-                && source.isCreateMissingRepositories()) {
-              result = initProject(project, uri, fetchClient, result);
-            }
-            if (!resultSuccessful) {
-              stateLog.warn(
-                  String.format(
-                      "Pull replication rest api fetch call failed. Endpoint url: %s, reason:%s",
-                      apiUrl, HttpResultUtils.errorMsg(result)),
-                  state);
-            }
-
-            resultIsSuccessful &= HttpResultUtils.isSuccessful(result);
-          } catch (URISyntaxException e) {
-            stateLog.error(
-                String.format("Cannot parse pull replication api url:%s", apiUrl), state);
-            resultIsSuccessful = false;
-          } catch (Exception e) {
-            stateLog.error(
-                String.format(
-                    "Exception during the pull replication fetch rest api call. Endpoint url:%s,"
-                        + " message:%s",
-                    apiUrl, e.getMessage()),
-                e,
-                state);
-            resultIsSuccessful = false;
-          }
-        }
+        resultIsSuccessful =
+            resultIsSuccessful.thenCompose(
+                successful ->
+                    callAllApis(
+                            source,
+                            apiUrl ->
+                                callFetch(
+                                    pool,
+                                    source,
+                                    fetchClient,
+                                    apiUrl,
+                                    project,
+                                    refName,
+                                    states,
+                                    forceAsyncCall))
+                        .thenApply(refSuccessful -> successful && refSuccessful));
       }
     }
 
     return resultIsSuccessful;
   }
 
+  private CompletableFuture<Boolean> callFetch(
+      FetchCallsExecutor pool,
+      Source source,
+      FetchApiClient fetchClient,
+      String apiUrl,
+      Project.NameKey project,
+      String refName,
+      ReplicationState[] states,
+      boolean forceAsyncCall) {
+    URIish uri;
+    try {
+      uri = new URIish(apiUrl);
+    } catch (URISyntaxException e) {
+      stateLog.error(String.format("Cannot parse pull replication api url:%s", apiUrl), states);
+      return CompletableFuture.completedFuture(false);
+    }
+    repLog.info("Pull replication REST API fetch to {} for {}:{}", apiUrl, project, refName);
+    long startTime = System.currentTimeMillis();
+    return fetchClient
+        .callFetchAsync(project, refName, uri, MILLISECONDS.toNanos(startTime), forceAsyncCall)
+        .thenCompose(
+            httpResult -> {
+              Optional<HttpResult> result = Optional.of(httpResult);
+              repLog.info(
+                  "Pull replication REST API fetch to {} COMPLETED for {}:{}, HTTP Result:"
+                      + " {} - time: {} ms",
+                  apiUrl,
+                  project,
+                  refName,
+                  HttpResultUtils.status(result),
+                  System.currentTimeMillis() - startTime);
+              return initProjectIfMissing(pool, source, project, uri, fetchClient, result);
+            })
+        .thenApply(
+            result -> {
+              boolean resultSuccessful = HttpResultUtils.isSuccessful(result);
+              if (!resultSuccessful) {
+                stateLog.warn(
+                    String.format(
+                        "Pull replication rest api fetch call failed. Endpoint url: %s,"
+                            + " reason:%s",
+                        apiUrl, HttpResultUtils.errorMsg(result)),
+                    states);
+              }
+              return resultSuccessful;
+            })
+        .exceptionally(
+            e -> {
+              Throwable cause = unwrap(e);
+              stateLog.error(
+                  String.format(
+                      "Exception during the pull replication fetch rest api call. Endpoint"
+                          + " url:%s, message:%s",
+                      apiUrl, cause.getMessage()),
+                  cause,
+                  states);
+              return false;
+            });
+  }
+
+  /**
+   * Execute the asynchronous call against all the apiUrls of the source in parallel, without
+   * holding any thread while the targets are processing the calls.
+   *
+   * @return the future completed with true if the calls to all the apiUrls were successful.
+   */
+  private CompletableFuture<Boolean> callAllApis(
+      Source source, Function<String, CompletableFuture<Boolean>> call) {
+    List<CompletableFuture<Boolean>> results =
+        source.getApis().stream().map(call).collect(Collectors.toList());
+    return CompletableFuture.allOf(results.toArray(new CompletableFuture<?>[0]))
+        .thenApply(unused -> results.stream().allMatch(CompletableFuture::join));
+  }
+
+  private static Throwable unwrap(Throwable e) {
+    return e instanceof CompletionException && e.getCause() != null ? e.getCause() : e;
+  }
+
   public boolean retry(int attempt, int maxRetries) {
     return maxRetries == 0 || attempt < maxRetries;
   }
 
-  private Optional<HttpResult> initProject(
-      Project.NameKey project, URIish uri, FetchApiClient fetchClient, Optional<HttpResult> result)
-      throws IOException, URISyntaxException {
+  /**
+   * Create the project when the fetch failed because it is missing on the apiUrl, and the source is
+   * configured to do so.
+   *
+   * @return the future result of the fetch following the creation, or the given result otherwise.
+   */
+  private CompletableFuture<Optional<HttpResult>> initProjectIfMissing(
+      FetchCallsExecutor pool,
+      Source source,
+      Project.NameKey project,
+      URIish uri,
+      FetchApiClient fetchClient,
+      Optional<HttpResult> result) {
+    if (!HttpResultUtils.isSuccessful(result)
+        && HttpResultUtils.isProjectMissing(result, project)
+        && source.isCreateMissingRepositories()) {
+      return initProject(pool, project, uri, fetchClient, result);
+    }
+    return CompletableFuture.completedFuture(result);
+  }
+
+  /**
+   * Create the missing project on the apiUrl, reading its configuration on the pool, and fetch all
+   * its refs.
+   *
+   * @return the future result of the fetch, or the given result when the project was not created.
+   */
+  private CompletableFuture<Optional<HttpResult>> initProject(
+      FetchCallsExecutor pool,
+      Project.NameKey project,
+      URIish uri,
+      FetchApiClient fetchClient,
+      Optional<HttpResult> result) {
+    return pool.supplyAsync(
+            () -> {
+              try {
+                return callInitProject(project, uri, fetchClient);
+              } catch (IOException e) {
+                throw new CompletionException(e);
+              }
+            })
+        .thenCompose(Function.identity())
+        .thenCompose(
+            initProjectResult -> {
+              if (initProjectResult.isSuccessful()) {
+                return fetchClient
+                    .callFetchAsync(
+                        project,
+                        FetchOne.ALL_REFS,
+                        uri,
+                        MILLISECONDS.toNanos(System.currentTimeMillis()),
+                        false)
+                    .thenApply(Optional::of);
+              }
+              String errorMessage =
+                  initProjectResult.getMessage().map(e -> " - Error: " + e).orElse("");
+              repLog.error("Cannot create project " + project + errorMessage);
+              return CompletableFuture.completedFuture(result);
+            });
+  }
+
+  /** Read the configuration of the project and start its creation on the apiUrl. */
+  private CompletableFuture<HttpResult> callInitProject(
+      Project.NameKey project, URIish uri, FetchApiClient fetchClient) throws IOException {
     RevisionReader revisionReader = revReaderProvider.get();
     RevisionData refsMetaConfigRevisionData =
         revisionReader
@@ -762,21 +2048,19 @@ public class ReplicationQueue
                             "Project %s does not have %s", project, RefNames.REFS_CONFIG)));
 
     List<RevisionData> refsMetaConfigDataList =
-        fetchWholeMetaHistory(project, RefNames.REFS_CONFIG, refsMetaConfigRevisionData);
-    HttpResult initProjectResult =
-        fetchClient.initProject(
-            project,
-            revisionReader.getHeadName(project),
-            uri,
-            System.currentTimeMillis(),
-            refsMetaConfigDataList);
-    if (initProjectResult.isSuccessful()) {
-      result = Optional.of(fetchClient.callFetch(project, FetchOne.ALL_REFS, uri));
-    } else {
-      String errorMessage = initProjectResult.getMessage().map(e -> " - Error: " + e).orElse("");
-      repLog.error("Cannot create project " + project + errorMessage);
-    }
-    return result;
+        fetchWholeMetaHistory(project, RefNames.REFS_CONFIG, refsMetaConfigRevisionData)
+            .orElseThrow(
+                () ->
+                    new IllegalStateException(
+                        String.format(
+                            "History of %s of project %s is too large",
+                            RefNames.REFS_CONFIG, project)));
+    return fetchClient.initProjectAsync(
+        project,
+        revisionReader.getHeadName(project),
+        uri,
+        System.currentTimeMillis(),
+        refsMetaConfigDataList);
   }
 
   private void fireBeforeStartupEvents() {
@@ -867,8 +2151,53 @@ public class ReplicationQueue
     public abstract boolean isCreate();
   }
 
+  /** The objects of a batch of refs, as a thin pack, with the refs to update once applied. */
+  private static class ThinPack {
+    private final List<RefUpdateInput> refs;
+    private final byte[] pack;
+
+    ThinPack(List<RefUpdateInput> refs, byte[] pack) {
+      this.refs = refs;
+      this.pack = pack;
+    }
+  }
+
+  /**
+   * The refs of an event, read on first use and shared by all the sources, together with the ones
+   * which can be sent with the apply-object REST-APIs, split by payload size.
+   */
+  private class RefsRead {
+    private final Supplier<Optional<List<BatchApplyObjectData>>> read;
+    private final Supplier<Optional<List<BatchApplyObjectData>>> applicable;
+    private final Supplier<List<List<BatchApplyObjectData>>> batches;
+
+    RefsRead(NameKey project, List<ReferenceUpdatedEvent> refs, ReplicationState[] states) {
+      read = Suppliers.memoize(() -> readRefs(project, refs, states));
+      applicable =
+          Suppliers.memoize(() -> read().filter(ReplicationQueue.this::isApplyObjectApplicable));
+      batches =
+          Suppliers.memoize(
+              () -> applicable().map(ReplicationQueue.this::splitByPayloadSize).orElse(List.of()));
+    }
+
+    /** The refs read, or empty when any of them cannot be read. */
+    Optional<List<BatchApplyObjectData>> read() {
+      return read.get();
+    }
+
+    /** The refs read, or empty when they cannot be sent with the apply-object REST-APIs. */
+    Optional<List<BatchApplyObjectData>> applicable() {
+      return applicable.get();
+    }
+
+    /** The applicable refs split in batches, each of them within the payload limits. */
+    List<List<BatchApplyObjectData>> batches() {
+      return batches.get();
+    }
+  }
+
   @FunctionalInterface
   private interface CallFunction {
-    boolean call(Source source) throws MissingParentObjectException;
+    CompletableFuture<Boolean> call(Source source);
   }
 }
@@ -19,9 +19,14 @@ import com.google.gerrit.extensions.registration.RegistrationHandle;
 import com.google.gerrit.metrics.CallbackMetric1;
 import com.google.gerrit.metrics.Counter0;
 import com.google.gerrit.metrics.Counter1;
+import com.google.gerrit.metrics.Counter2;
 import com.google.gerrit.metrics.Description;
+import com.google.gerrit.metrics.Description.Units;
 import com.google.gerrit.metrics.Field;
+import com.google.gerrit.metrics.Histogram0;
+import com.google.gerrit.metrics.Histogram2;
 import com.google.gerrit.metrics.MetricMaker;
+import com.google.gerrit.metrics.Timer2;
 import com.google.gerrit.server.logging.PluginMetadata;
 import com.google.inject.Inject;
 import com.google.inject.Singleton;
@@ -29,6 +34,7 @@ import com.google.inject.name.Named;
 import java.util.HashSet;
 import java.util.List;
 import java.util.Set;
+import java.util.concurrent.TimeUnit;
 import java.util.function.Function;
 
 @Singleton
@@ -36,6 +42,9 @@ public class ReplicationQueueMetrics {
   private static final String EVENTS = "events";
   private static final String TASKS = "tasks";
   private static final String REFS = "refs";
+  private static final String CALLS = "calls";
+  private static final String THREADS = "threads";
+  private static final String DECISIONS = "decisions";
   public static final String REPLICATION_QUEUE_METRICS = "ReplicationQueueMetrics";
 
   private final Counter1<String> tasksScheduled;
@@ -47,6 +56,8 @@ public class ReplicationQueueMetrics {
   private final Counter1<String> tasksFailed;
   private final Counter1<String> tasksRetrying;
   private final Counter0 eventsQueuedBeforeStartup;
+  private final Counter0 eventsOutstandingLimitReached;
+  private final Counter0 eventsOutstandingDeferred;
   private final Counter1<String> tasksCancelledMaxRetries;
   private final MetricMaker metricMaker;
   private final Field<String> sourceField;
@@ -56,6 +67,16 @@ public class ReplicationQueueMetrics {
   private final Counter1<String> refsFetchStarted;
   private final Counter1<String> refsFetchCompleted;
   private final Counter1<String> refsFetchFailed;
+  private final Counter0 fetchCallsRejected;
+  private final Counter2<String, String> strategyDecisions;
+  private final Histogram2<String, String> strategyPayloadSize;
+  private final Counter2<String, String> strategyTooLarge;
+  private final Timer2<String, String> strategyApplyObjectLatency;
+  private final Counter2<String, String> strategyApplyObjectFailed;
+  private final Counter2<String, String> strategyApplyObjectParentMissing;
+  private final Timer2<String, String> strategyFetchLatency;
+  private final Histogram0 batchEvents;
+  private final Histogram0 batchRefs;
 
   public class RunnableWithMetrics implements Runnable {
     private final Source source;
@@ -71,7 +92,16 @@ public class ReplicationQueueMetrics {
       incrementTaskStarted(source);
       incrementFetchRefsStarted(source, runnable);
 
+      if (runnable instanceof AsyncRunnable) {
+        // Recorded once the call completes, without holding the thread of the pool meanwhile
+        ((AsyncRunnable) runnable).runAsync().whenComplete((unused, e) -> onCompleted());
+        return;
+      }
       runnable.run();
+      onCompleted();
+    }
+
+    private void onCompleted() {
       if (runnable instanceof Completable) {
         Completable completedRunnable = (Completable) runnable;
         if (completedRunnable.hasSucceeded()) {
@@ -107,6 +137,26 @@ public class ReplicationQueueMetrics {
                     .setCumulative()
                     .setUnit(EVENTS)));
 
+    eventsOutstandingLimitReached =
+        registerMetric(
+            metricMaker.newCounter(
+                "events/outstanding_limit_reached",
+                new Description(
+                        "Replication events that had to wait because the maximum number of"
+                            + " outstanding events was reached")
+                    .setCumulative()
+                    .setUnit(EVENTS)));
+
+    eventsOutstandingDeferred =
+        registerMetric(
+            metricMaker.newCounter(
+                "events/outstanding_deferred",
+                new Description(
+                        "Replication events deferred to a fetch because the maximum number of"
+                            + " outstanding and waiting events was reached")
+                    .setCumulative()
+                    .setUnit(EVENTS)));
+
     tasksScheduled =
         registerMetric(
             metricMaker.newCounter(
@@ -204,6 +254,113 @@ public class ReplicationQueueMetrics {
                     .setUnit(REFS),
                 sourceField));
 
+    batchEvents =
+        registerMetric(
+            metricMaker.newHistogram(
+                "events/batch/events",
+                new Description("Ref-update events coalesced in a single replication batch")
+                    .setCumulative()
+                    .setUnit(EVENTS)));
+    batchRefs =
+        registerMetric(
+            metricMaker.newHistogram(
+                "events/batch/refs",
+                new Description("Refs replicated in a single replication batch")
+                    .setCumulative()
+                    .setUnit(REFS)));
+
+    fetchCallsRejected =
+        registerMetric(
+            metricMaker.newCounter(
+                "fetch_calls/rejected",
+                new Description(
+                        "Fetch REST-API calls rejected because the fan-out pool was"
+                            + " saturated")
+                    .setCumulative()
+                    .setUnit(CALLS)));
+
+    strategyDecisions =
+        registerMetric(
+            metricMaker.newCounter(
+                "strategy/decisions",
+                new Description("Replication strategies chosen for replicating ref-updates")
+                    .setCumulative()
+                    .setUnit(DECISIONS),
+                sourceField,
+                Field.ofString(
+                        "strategy",
+                        (metadataBuilder, fieldValue) ->
+                            metadataBuilder
+                                .pluginName(pluginName)
+                                .addPluginMetadata(PluginMetadata.create("strategy", fieldValue)))
+                    .build()));
+
+    Field<String> refClassField =
+        Field.ofString(
+                "ref_class",
+                (metadataBuilder, fieldValue) ->
+                    metadataBuilder
+                        .pluginName(pluginName)
+                        .addPluginMetadata(PluginMetadata.create("ref_class", fieldValue)))
+            .build();
+    strategyPayloadSize =
+        registerMetric(
+            metricMaker.newHistogram(
+                "strategy/payload_size",
+                new Description("Size of the objects read for replicating a class of refs")
+                    .setCumulative()
+                    .setUnit(Units.BYTES),
+                sourceField,
+                refClassField));
+    strategyTooLarge =
+        registerMetric(
+            metricMaker.newCounter(
+                "strategy/too_large",
+                new Description(
+                        "Refs of a class whose objects are too large for the apply-object"
+                            + " REST-API")
+                    .setCumulative()
+                    .setUnit(REFS),
+                sourceField,
+                refClassField));
+    strategyApplyObjectLatency =
+        registerMetric(
+            metricMaker.newTimer(
+                "strategy/apply_object/latency",
+                new Description("Time spent replicating a class of refs with apply-object")
+                    .setCumulative()
+                    .setUnit(Units.MILLISECONDS),
+                sourceField,
+                refClassField));
+    strategyApplyObjectFailed =
+        registerMetric(
+            metricMaker.newCounter(
+                "strategy/apply_object/failed",
+                new Description("Failed apply-object calls of a class of refs")
+                    .setCumulative()
+                    .setUnit(CALLS),
+                sourceField,
+                refClassField));
+    strategyApplyObjectParentMissing =
+        registerMetric(
+            metricMaker.newCounter(
+                "strategy/apply_object/parent_missing",
+                new Description(
+                        "Apply-object calls of a class of refs whose parent objects were missing")
+                    .setCumulative()
+                    .setUnit(CALLS),
+                sourceField,
+                refClassField));
+    strategyFetchLatency =
+        registerMetric(
+            metricMaker.newTimer(
+                "strategy/fetch/latency",
+                new Description("Time spent fetching synchronously a class of refs")
+                    .setCumulative()
+                    .setUnit(Units.MILLISECONDS),
+                sourceField,
+                refClassField));
+
     this.metricMaker = metricMaker;
   }
 
@@ -220,6 +377,40 @@ public class ReplicationQueueMetrics {
         "In-flight replication tasks per source");
     initCallbackMetrics(
         queue, Source::pendingTasksCount, "tasks/pending", "Pending replication tasks per source");
+    registerMetric(
+        metricMaker.newCallbackMetric(
+            "events/outstanding",
+            Long.class,
+            new Description("Replication events received and not yet replicated to all sources")
+                .setGauge()
+                .setUnit(EVENTS),
+            queue::outstandingEventsCount));
+    registerMetric(
+        metricMaker.newCallbackMetric(
+            "events/waiting",
+            Long.class,
+            new Description(
+                    "Replication events waiting for the number of outstanding events to go below"
+                        + " the maximum")
+                .setGauge()
+                .setUnit(EVENTS),
+            queue::waitingEventsCount));
+    registerMetric(
+        metricMaker.newCallbackMetric(
+            "fetch_calls/queue_depth",
+            Long.class,
+            new Description("Fetch REST-API calls waiting in the fan-out pool queue")
+                .setGauge()
+                .setUnit(CALLS),
+            queue::fetchCallsQueueDepth));
+    registerMetric(
+        metricMaker.newCallbackMetric(
+            "fetch_calls/active_threads",
+            Long.class,
+            new Description("Fan-out pool threads actively executing fetch REST-API calls")
+                .setGauge()
+                .setUnit(THREADS),
+            queue::fetchCallsActiveThreads));
   }
 
   void stop() {
@@ -267,6 +458,58 @@ public class ReplicationQueueMetrics {
     eventsQueuedBeforeStartup.increment();
   }
 
+  public void incrementOutstandingEventsLimitReached() {
+    eventsOutstandingLimitReached.increment();
+  }
+
+  public void incrementOutstandingEventsDeferred() {
+    eventsOutstandingDeferred.increment();
+  }
+
+  public void recordEventsBatch(int numEvents, int numRefs) {
+    batchEvents.record(numEvents);
+    batchRefs.record(numRefs);
+  }
+
+  public void incrementStrategyDecision(String sourceName, String strategy) {
+    strategyDecisions.increment(sourceName, strategy);
+  }
+
+  public void recordStrategyPayload(
+      String sourceName, String refClass, long payloadSize, boolean tooLarge) {
+    String refClassName = metricMaker.sanitizeMetricName(refClass);
+    if (tooLarge) {
+      strategyTooLarge.increment(sourceName, refClassName);
+    } else {
+      strategyPayloadSize.record(sourceName, refClassName, payloadSize);
+    }
+  }
+
+  public void recordStrategyApplyObject(
+      String sourceName,
+      String refClass,
+      boolean failed,
+      boolean parentMissing,
+      long elapsedNanos) {
+    String refClassName = metricMaker.sanitizeMetricName(refClass);
+    strategyApplyObjectLatency.record(sourceName, refClassName, elapsedNanos, TimeUnit.NANOSECONDS);
+    if (failed) {
+      strategyApplyObjectFailed.increment(sourceName, refClassName);
+    }
+    if (parentMissing) {
+      strategyApplyObjectParentMissing.increment(sourceName, refClassName);
+    }
+  }
+
+  public void recordStrategyFetch(String sourceName, String refClass, long elapsedNanos) {
+    strategyFetchLatency.record(
+        sourceName, metricMaker.sanitizeMetricName(refClass), elapsedNanos, TimeUnit.NANOSECONDS);
+  }
+
+  public void incrementFetchCallsRejected() {
+    fetchCallsRejected.increment();
+  }
+
   public void incrementTaskCompleted(Source source) {
     tasksCompleted.increment(source.getRemoteConfigName());
   }
@@ -0,0 +1,299 @@
+// Copyright (C) 2025 The Android Open Source Project
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+// http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.googlesource.gerrit.plugins.replication.pull;
+
+import static java.util.concurrent.TimeUnit.NANOSECONDS;
+
+import com.google.gerrit.entities.RefNames;
+import com.google.inject.Inject;
+import com.google.inject.Singleton;
+import com.googlesource.gerrit.plugins.replication.api.ReplicationConfig;
+import com.googlesource.gerrit.plugins.replication.pull.filter.SyncRefsFilter;
+import java.util.Collection;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.SortedMap;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.stream.Collectors;
+import org.eclipse.jgit.lib.Constants;
+
+/**
+ * Chooses up front, for every source and class of refs, the cheapest way of replicating a
+ * ref-update, based on the outcome of the previous replications of the same class of refs.
+ *
+ * <p>Until enough samples are collected, or when the adaptive strategy is disabled, the
+ * apply-object REST-API is always tried first, falling back to fetch when it fails. One decision
+ * out of {@link #EXPLORE_EVERY} goes back to the apply-object REST-API, so that the statistics keep
+ * following the changes of the refs and of the sources.
+ *
+ * <p>The time spent by the apply-object REST-API is compared only with the time spent by the
+ * synchronous fetches, because the asynchronous ones return as soon as the fetch is scheduled on
+ * the target.
+ */
+@Singleton
+public class ReplicationStrategy {
+  static final String CONFIG_ADAPTIVE_STRATEGY = "adaptiveStrategy";
+  static final String CONFIG_ADAPTIVE_STRATEGY_MIN_SAMPLES = "adaptiveStrategyMinSamples";
+  static final int DEFAULT_ADAPTIVE_STRATEGY_MIN_SAMPLES = 20;
+  static final int EXPLORE_EVERY = 20;
+
+  private static final double SMOOTHING_FACTOR = 0.1;
+  private static final double MAX_FAILURE_RATE = 0.5;
+  private static final double MAX_PARENT_MISSING_RATE = 0.5;
+
+  /** Replication strategies, from the least to the most conservative. */
+  public enum Strategy {
+    /** Send the objects of the refs, fetching them when the target cannot apply them. */
+    APPLY_OBJECT,
+    /** Send the objects of the refs together with the history missing on the target. */
+    APPLY_OBJECTS_WITH_HISTORY,
+    /** Let the target fetch the refs. */
+    BATCH_FETCH
+  }
+
+  private final boolean enabled;
+  private final int minSamples;
+  private final ReplicationQueueMetrics metrics;
+  private final SyncRefsFilter syncRefsFilter;
+  private final Map<String, Map<String, RefClassStats>> sourcesStats = new ConcurrentHashMap<>();
+
+  @Inject
+  ReplicationStrategy(
+      ReplicationConfig replicationConfig,
+      ReplicationQueueMetrics metrics,
+      SyncRefsFilter syncRefsFilter) {
+    this.enabled =
+        replicationConfig.getConfig().getBoolean("replication", CONFIG_ADAPTIVE_STRATEGY, false);
+    this.minSamples =
+        replicationConfig
+            .getConfig()
+            .getInt(
+                "replication",
+                CONFIG_ADAPTIVE_STRATEGY_MIN_SAMPLES,
+                DEFAULT_ADAPTIVE_STRATEGY_MIN_SAMPLES);
+    this.metrics = metrics;
+    this.syncRefsFilter = syncRefsFilter;
+  }
+
+  /**
+   * Choose how to replicate a set of refs from a source.
+   *
+   * <p>The most conservative of the strategies of the classes of the refs is chosen.
+   *
+   * @param sourceName the name of the source.
+   * @param refNames the refs to be replicated.
+   * @return the strategy to be used.
+   */
+  public Strategy choose(String sourceName, Collection<String> refNames) {
+    Strategy strategy = Strategy.APPLY_OBJECT;
+    if (enabled) {
+      for (String refName : refNames) {
+        Strategy refStrategy = stats(sourceName, refClass(refName)).choose(minSamples);
+        if (refStrategy.compareTo(strategy) > 0) {
+          strategy = refStrategy;
+        }
+      }
+    }
+    metrics.incrementStrategyDecision(sourceName, strategy.name().toLowerCase(Locale.US));
+    return strategy;
+  }
+
+  /**
+   * Record the size of the objects read for replicating a ref.
+   *
+   * @param sourceName the name of the source.
+   * @param refName the ref to be replicated.
+   * @param payloadSize the size of the objects, in bytes.
+   * @param tooLarge true if the objects could not be sent with the apply-object REST-API.
+   */
+  public void recordPayload(String sourceName, String refName, long payloadSize, boolean tooLarge) {
+    String refClass = refClass(refName);
+    stats(sourceName, refClass).recordPayload(payloadSize, tooLarge);
+    metrics.recordStrategyPayload(sourceName, refClass, payloadSize, tooLarge);
+  }
+
+  /**
+   * Record the outcome of replicating a set of refs with the apply-object REST-API.
+   *
+   * <p>A failure is recorded only when all the refs are of the same class, because the REST-API
+   * does not tell which of the refs has failed. The time spent is recorded for every class of refs.
+   *
+   * @param sourceName the name of the source.
+   * @param refNames the replicated refs.
+   * @param successful true if the target has applied all the objects.
+   * @param parentMissing true if the target has reported that some parent objects were missing.
+   * @param elapsedNanos the time spent for calling the REST-API.
+   */
+  public void recordApplyObject(
+      String sourceName,
+      Collection<String> refNames,
+      boolean successful,
+      boolean parentMissing,
+      long elapsedNanos) {
+    Set<String> refClasses = refClasses(refNames);
+    boolean attributable = successful || refClasses.size() == 1;
+    for (String refClass : refClasses) {
+      stats(sourceName, refClass)
+          .recordApplyObject(attributable, successful, parentMissing, elapsedNanos);
+      metrics.recordStrategyApplyObject(
+          sourceName,
+          refClass,
+          attributable && !successful,
+          attributable && parentMissing,
+          elapsedNanos);
+    }
+  }
+
+  /**
+   * Record the time spent for replicating a set of refs with the fetch REST-API.
+   *
+   * <p>The time is recorded only when the target fetches the refs synchronously, see {@code
+   * replication.syncRefs}.
+   *
+   * @param sourceName the name of the source.
+   * @param refNames the replicated refs.
+   * @param elapsedNanos the time spent for calling the REST-API.
+   */
+  public void recordFetch(String sourceName, Collection<String> refNames, long elapsedNanos) {
+    if (refNames.stream().noneMatch(syncRefsFilter::match)) {
+      return;
+    }
+    for (String refClass : refClasses(refNames)) {
+      stats(sourceName, refClass).recordFetch(elapsedNanos);
+      metrics.recordStrategyFetch(sourceName, refClass, elapsedNanos);
+    }
+  }
+
+  public boolean isEnabled() {
+    return enabled;
+  }
+
+  /**
+   * Statistics collected for a source.
+   *
+   * @param sourceName the name of the source.
+   * @return the description of the statistics and of the current strategy of every class of refs,
+   *     sorted by class of refs.
+   */
+  public SortedMap<String, String> describe(String sourceName) {
+    SortedMap<String, String> description = new TreeMap<>();
+    sourcesStats
+        .getOrDefault(sourceName, Map.of())
+        .forEach((refClass, stats) -> description.put(refClass, stats.describe(minSamples)));
+    return description;
+  }
+
+  private RefClassStats stats(String sourceName, String refClass) {
+    return sourcesStats
+        .computeIfAbsent(sourceName, s -> new ConcurrentHashMap<>())
+        .computeIfAbsent(refClass, c -> new RefClassStats());
+  }
+
+  private static Set<String> refClasses(Collection<String> refNames) {
+    return refNames.stream().map(ReplicationStrategy::refClass).collect(Collectors.toSet());
+  }
+
+  static String refClass(String refName) {
+    if (refName.startsWith(RefNames.REFS_CHANGES)) {
+      return refName.endsWith(RefNames.META_SUFFIX)
+          ? RefNames.REFS_CHANGES + "*" + RefNames.META_SUFFIX
+          : RefNames.REFS_CHANGES + "*";
+    }
+    if (refName.equals(RefNames.REFS_CONFIG)) {
+      return RefNames.REFS_CONFIG;
+    }
+    int namespaceEnd = refName.indexOf('/', Constants.R_REFS.length());
+    return namespaceEnd > 0 ? refName.substring(0, namespaceEnd + 1) + "*" : refName;
+  }
+
+  private static class RefClassStats {
+    private long samples;
+    private long decisions;
+    private double payloadSize;
+    private double tooLargeRate;
+    private double failureRate;
+    private double parentMissingRate;
+    private double applyObjectMillis;
+    private double fetchMillis = Double.NaN;
+
+    synchronized Strategy choose(int minSamples) {
+      Strategy strategy = evaluate(minSamples);
+      if (strategy != Strategy.APPLY_OBJECT && ++decisions % EXPLORE_EVERY == 0) {
+        return Strategy.APPLY_OBJECT;
+      }
+      return strategy;
+    }
+
+    private Strategy evaluate(int minSamples) {
+      if (samples < minSamples) {
+        return Strategy.APPLY_OBJECT;
+      }
+      if (tooLargeRate > MAX_FAILURE_RATE || failureRate > MAX_FAILURE_RATE) {
+        return Strategy.BATCH_FETCH;
+      }
+      if (!Double.isNaN(fetchMillis)
+          && applyObjectMillis + failureRate * fetchMillis > fetchMillis) {
+        return Strategy.BATCH_FETCH;
+      }
+      if (parentMissingRate > MAX_PARENT_MISSING_RATE) {
+        return Strategy.APPLY_OBJECTS_WITH_HISTORY;
+      }
+      return Strategy.APPLY_OBJECT;
+    }
+
+    synchronized void recordPayload(long size, boolean tooLarge) {
+      payloadSize = average(payloadSize, size);
+      tooLargeRate = average(tooLargeRate, tooLarge ? 1 : 0);
+      if (tooLarge) {
+        samples++;
+      }
+    }
+
+    synchronized void recordApplyObject(
+        boolean attributable, boolean successful, boolean parentMissing, long elapsedNanos) {
+      if (attributable) {
+        samples++;
+        failureRate = average(failureRate, successful ? 0 : 1);
+        parentMissingRate = average(parentMissingRate, parentMissing ? 1 : 0);
+      }
+      applyObjectMillis = average(applyObjectMillis, NANOSECONDS.toMillis(elapsedNanos));
+    }
+
+    synchronized void recordFetch(long elapsedNanos) {
+      long elapsedMillis = NANOSECONDS.toMillis(elapsedNanos);
+      fetchMillis = Double.isNaN(fetchMillis) ? elapsedMillis : average(fetchMillis, elapsedMillis);
+    }
+
+    synchronized String describe(int minSamples) {
+      return String.format(
+          "%s (samples=%d, payload=%.0f bytes, too large=%.0f%%, failed=%.0f%%,"
+              + " parent missing=%.0f%%, apply-object=%.0f ms, fetch=%s)",
+          evaluate(minSamples),
+          samples,
+          payloadSize,
+          tooLargeRate * 100,
+          failureRate * 100,
+          parentMissingRate * 100,
+          applyObjectMillis,
+          Double.isNaN(fetchMillis) ? "n/a" : String.format("%.0f ms", fetchMillis));
+    }
+
+    private static double average(double average, double sample) {
+      return average + SMOOTHING_FACTOR * (sample - average);
+    }
+  }
+}
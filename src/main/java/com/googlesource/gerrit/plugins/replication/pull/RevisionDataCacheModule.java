@@ -0,0 +1,53 @@
+// Copyright (C) 2025 The Android Open Source Project
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+// http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.googlesource.gerrit.plugins.replication.pull;
+
+import com.google.common.cache.Weigher;
+import com.google.gerrit.server.cache.CacheModule;
+import com.googlesource.gerrit.plugins.replication.pull.api.data.RevisionData;
+import java.time.Duration;
+
+/**
+ * Cache of the revisions recently read by the {@link RevisionReader}, shared across all the
+ * sources, the retries and the history requests of the same objects.
+ */
+public class RevisionDataCacheModule extends CacheModule {
+  public static final String REVISIONS_CACHE = "revisions";
+  public static final long REVISIONS_CACHE_MAX_WEIGHT = 32L << 20;
+  public static final Duration REVISIONS_CACHE_EXPIRE_AFTER_ACCESS = Duration.ofMinutes(5);
+
+  @Override
+  protected void configure() {
+    cache(REVISIONS_CACHE, RevisionDataCacheKey.class, RevisionData.class)
+        .maximumWeight(REVISIONS_CACHE_MAX_WEIGHT)
+        .expireFromMemoryAfterAccess(REVISIONS_CACHE_EXPIRE_AFTER_ACCESS)
+        .weigher(RevisionDataWeigher.class);
+  }
+
+  /** Weighs the cached revisions by the size in bytes of their objects content. */
+  public static class RevisionDataWeigher implements Weigher<RevisionDataCacheKey, RevisionData> {
+    private static final int ENTRY_OVERHEAD = 128;
+
+    @Override
+    public int weigh(RevisionDataCacheKey key, RevisionData revision) {
+      long weight =
+          ENTRY_OVERHEAD
+              + key.project().length()
+              + key.objectId().length()
+              + revision.getContentSize();
+      return (int) Math.min(weight, Integer.MAX_VALUE);
+    }
+  }
+}
@@ -15,22 +15,28 @@
 package com.googlesource.gerrit.plugins.replication.pull;
 
 import static com.googlesource.gerrit.plugins.replication.pull.PullReplicationLogger.repLog;
+import static com.googlesource.gerrit.plugins.replication.pull.RevisionDataCacheModule.REVISIONS_CACHE;
 
-import com.google.common.collect.Lists;
+import com.google.auto.value.AutoValue;
+import com.google.common.cache.Cache;
 import com.google.gerrit.common.Nullable;
 import com.google.gerrit.entities.Project;
 import com.google.gerrit.entities.RefNames;
 import com.google.gerrit.server.git.GitRepositoryManager;
 import com.google.inject.Inject;
+import com.google.inject.name.Named;
 import com.googlesource.gerrit.plugins.replication.api.ReplicationConfig;
 import com.googlesource.gerrit.plugins.replication.pull.api.data.RevisionData;
 import com.googlesource.gerrit.plugins.replication.pull.api.data.RevisionObjectData;
+import java.io.ByteArrayOutputStream;
 import java.io.IOException;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collections;
 import java.util.List;
 import java.util.Optional;
+import java.util.Set;
+import java.util.function.Predicate;
 import org.eclipse.jgit.diff.DiffEntry;
 import org.eclipse.jgit.diff.DiffEntry.ChangeType;
 import org.eclipse.jgit.errors.CorruptObjectException;
@@ -38,14 +44,20 @@ import org.eclipse.jgit.errors.IncorrectObjectTypeException;
 import org.eclipse.jgit.errors.LargeObjectException;
 import org.eclipse.jgit.errors.MissingObjectException;
 import org.eclipse.jgit.errors.RepositoryNotFoundException;
+import org.eclipse.jgit.internal.storage.pack.PackWriter;
 import org.eclipse.jgit.lib.Constants;
 import org.eclipse.jgit.lib.FileMode;
+import org.eclipse.jgit.lib.NullProgressMonitor;
 import org.eclipse.jgit.lib.ObjectId;
 import org.eclipse.jgit.lib.ObjectLoader;
+import org.eclipse.jgit.lib.ObjectReader;
 import org.eclipse.jgit.lib.Ref;
 import org.eclipse.jgit.lib.Repository;
 import org.eclipse.jgit.revwalk.RevCommit;
+import org.eclipse.jgit.revwalk.RevObject;
+import org.eclipse.jgit.revwalk.RevSort;
 import org.eclipse.jgit.revwalk.RevTree;
+import org.eclipse.jgit.revwalk.RevWalk;
 import org.eclipse.jgit.treewalk.TreeWalk;
 import org.eclipse.jgit.treewalk.filter.TreeFilter;
 
@@ -54,16 +66,20 @@ public class RevisionReader {
   private static final Long DEFAULT_MAX_PAYLOAD_SIZE_IN_BYTES = 10000L;
   static final String CONFIG_MAX_API_HISTORY_DEPTH = "maxApiHistoryDepth";
   private static final int DEFAULT_MAX_API_HISTORY_DEPTH = 128;
+  static final String CONFIG_MAX_API_HISTORY_PAYLOAD_SIZE = "maxApiHistoryPayloadSize";
   private GitRepositoryManager gitRepositoryManager;
   private Long maxRefSize;
   private final int maxDepth;
+  private final long maxHistorySize;
   private ApplyObjectMetrics metrics;
+  private final Cache<RevisionDataCacheKey, RevisionData> revisionsCache;
 
   @Inject
   public RevisionReader(
       GitRepositoryManager gitRepositoryManager,
       ReplicationConfig cfg,
-      ApplyObjectMetrics metrics) {
+      ApplyObjectMetrics metrics,
+      @Named(REVISIONS_CACHE) Cache<RevisionDataCacheKey, RevisionData> revisionsCache) {
     this.gitRepositoryManager = gitRepositoryManager;
     this.maxRefSize =
         cfg.getConfig()
@@ -71,7 +87,11 @@ public class RevisionReader {
     this.maxDepth =
         cfg.getConfig()
             .getInt("replication", CONFIG_MAX_API_HISTORY_DEPTH, DEFAULT_MAX_API_HISTORY_DEPTH);
+    this.maxHistorySize =
+        cfg.getConfig()
+            .getLong("replication", CONFIG_MAX_API_HISTORY_PAYLOAD_SIZE, maxRefSize * maxDepth);
     this.metrics = metrics;
+    this.revisionsCache = revisionsCache;
   }
 
   public Optional<RevisionData> read(
@@ -94,75 +114,157 @@ public class RevisionReader {
           CorruptObjectException,
           RepositoryNotFoundException,
           IOException {
-    try (Repository git = gitRepositoryManager.openRepository(project)) {
-      Long totalRefSize = 0l;
+    try (Repository git = gitRepositoryManager.openRepository(project);
+        ObjectReader reader = git.newObjectReader();
+        RevWalk walk = new RevWalk(reader);
+        TreeWalk treeWalk = new TreeWalk(reader)) {
+      return readRef(
+          project, git, reader, walk, treeWalk, refName, refObjectId, maxParentObjectIds);
+    }
+  }
+
+  /**
+   * Read the revisions of a batch of refs of the same project, opening the repository once and
+   * sharing the same {@link ObjectReader}, {@link RevWalk} and {@link TreeWalk} across all of them.
+   *
+   * @param project the project of the refs
+   * @param refs the refs to read, with the optional object id to read instead of the current one
+   * @return the revisions of the refs, in the same order of the input, where the refs that do not
+   *     exist or that are too large to be sent as REST-API payload are {@link Optional#empty()}.
+   * @throws IOException if any of the refs could not be read from the repository
+   */
+  public List<Optional<RevisionData>> read(Project.NameKey project, List<RefRevision> refs)
+      throws RepositoryNotFoundException, IOException {
+    try (Repository git = gitRepositoryManager.openRepository(project);
+        ObjectReader reader = git.newObjectReader();
+        RevWalk walk = new RevWalk(reader);
+        TreeWalk treeWalk = new TreeWalk(reader)) {
+      walk.setRetainBody(false);
+      List<Optional<RevisionData>> revisions = new ArrayList<>(refs.size());
+      for (RefRevision ref : refs) {
+        revisions.add(
+            readRef(project, git, reader, walk, treeWalk, ref.refName(), ref.objectId(), 0));
+      }
+      return revisions;
+    }
+  }
 
+  private Optional<RevisionData> readRef(
+      Project.NameKey project,
+      Repository git,
+      ObjectReader reader,
+      RevWalk walk,
+      TreeWalk treeWalk,
+      String refName,
+      @Nullable ObjectId refObjectId,
+      int maxParentObjectIds)
+      throws IOException {
+    try {
       Ref ref = git.exactRef(refName);
       if (ref == null) {
         return Optional.empty();
       }
 
       ObjectId objectId = refObjectId == null ? ref.getObjectId() : refObjectId;
+      return readRevision(project, refName, reader, walk, treeWalk, objectId, maxParentObjectIds);
+    } catch (LargeObjectException e) {
+      metrics.incrementMaxPayloadSizeReached();
+      repLog.trace(
+          "Ref {} size for project {} is greater than configured '{}'",
+          refName,
+          project,
+          CONFIG_MAX_API_PAYLOAD_SIZE);
+      return Optional.empty();
+    }
+  }
 
-      ObjectLoader commitLoader = git.open(objectId);
-      totalRefSize += commitLoader.getSize();
-      verifySize(project, refName, objectId, totalRefSize, commitLoader);
-
-      if (commitLoader.getType() == Constants.OBJ_BLOB) {
-        return Optional.of(
-            new RevisionData(
-                Collections.emptyList(),
-                null,
-                null,
-                Arrays.asList(
-                    new RevisionObjectData(
-                        objectId.name(), Constants.OBJ_BLOB, commitLoader.getCachedBytes()))));
-      }
+  /**
+   * Read the ids of the commits that {@link #readHistory(Project.NameKey, String)} would return,
+   * without loading any of their content.
+   *
+   * @param project the project of the ref
+   * @param refName the ref to read the history of
+   * @return the ids of the ancestors of the ref, ordered so that every commit comes after its
+   *     parents.
+   * @throws IOException if the history could not be read from the repository
+   */
+  public List<ObjectId> readHistoryObjectIds(Project.NameKey project, String refName)
+      throws RepositoryNotFoundException, IOException {
+    try (Repository git = gitRepositoryManager.openRepository(project);
+        RevWalk walk = new RevWalk(git)) {
+      return new ArrayList<>(walkHistory(git, walk, refName));
+    }
+  }
 
-      if (commitLoader.getType() != Constants.OBJ_COMMIT) {
-        repLog.trace(
-            "Ref {} for project {} points to an object type {}",
-            refName,
-            project,
-            commitLoader.getType());
-        return Optional.empty();
-      }
+  /**
+   * Read the history of a ref in a single pass, sharing the same {@link ObjectReader} and {@link
+   * RevWalk} across all the commits.
+   *
+   * <p>The history includes the ancestors of the commit currently pointed by the ref, up to {@code
+   * replication.maxApiHistoryDepth} commits, ordered so that every commit comes after its parents.
+   * The reading stops as soon as the overall payload exceeds {@code
+   * replication.maxApiHistoryPayloadSize} or any of the commits exceeds {@code
+   * replication.maxApiPayloadSize}.
+   *
+   * @param project the project of the ref
+   * @param refName the ref to read the history of
+   * @return the revisions of the ancestors of the ref or {@link Optional#empty()} when the history
+   *     is too large to be sent as REST-API payload.
+   * @throws IOException if the history could not be read from the repository
+   */
+  public Optional<List<RevisionData>> readHistory(Project.NameKey project, String refName)
+      throws RepositoryNotFoundException, IOException {
+    return readHistory(project, refName, commitId -> true);
+  }
 
-      RevCommit commit = RevCommit.parse(commitLoader.getCachedBytes());
-      RevisionObjectData commitRev =
-          new RevisionObjectData(objectId.name(), commit.getType(), commitLoader.getCachedBytes());
-
-      RevTree tree = commit.getTree();
-      ObjectId treeObjectId = commit.getTree().toObjectId();
-      ObjectLoader treeLoader = git.open(treeObjectId);
-      totalRefSize += treeLoader.getSize();
-      verifySize(project, refName, treeObjectId, totalRefSize, treeLoader);
-
-      RevisionObjectData treeRev =
-          new RevisionObjectData(treeObjectId.name(), tree.getType(), treeLoader.getCachedBytes());
-
-      List<RevisionObjectData> blobs = Lists.newLinkedList();
-      try (TreeWalk walk = new TreeWalk(git)) {
-        if (commit.getParentCount() > 0) {
-          List<DiffEntry> diffEntries = readDiffs(git, commit, tree, walk);
-          blobs = readBlobs(project, refName, git, totalRefSize, diffEntries);
-        } else {
-          walk.setRecursive(true);
-          walk.setPostOrderTraversal(true);
-          walk.addTree(tree);
-          blobs = readBlobs(project, refName, git, totalRefSize, walk);
+  /**
+   * Read the history of a ref as {@link #readHistory(Project.NameKey, String)} does, including only
+   * the commits accepted by the filter.
+   *
+   * @param project the project of the ref
+   * @param refName the ref to read the history of
+   * @param commitFilter the commits of the history to be read, typically the ones that are missing
+   *     on the target
+   * @return the revisions of the filtered ancestors of the ref or {@link Optional#empty()} when the
+   *     history is too large to be sent as REST-API payload.
+   * @throws IOException if the history could not be read from the repository
+   */
+  public Optional<List<RevisionData>> readHistory(
+      Project.NameKey project, String refName, Predicate<ObjectId> commitFilter)
+      throws RepositoryNotFoundException, IOException {
+    try (Repository git = gitRepositoryManager.openRepository(project);
+        ObjectReader reader = git.newObjectReader();
+        RevWalk walk = new RevWalk(reader);
+        TreeWalk treeWalk = new TreeWalk(reader)) {
+      List<RevisionData> history = new ArrayList<>();
+      long historySize = 0L;
+      for (RevCommit commit : walkHistory(git, walk, refName)) {
+        if (!commitFilter.test(commit)) {
+          continue;
         }
+        Optional<RevisionData> revision =
+            readRevision(project, refName, reader, walk, treeWalk, commit, 0);
+        if (revision.isEmpty()) {
+          continue;
+        }
+        historySize += revision.get().getContentSize();
+        if (historySize > maxHistorySize) {
+          repLog.warn(
+              "History of {}:{} uses more than {} bytes, over the maximum limit of {} bytes",
+              project,
+              refName,
+              historySize,
+              maxHistorySize);
+          metrics.incrementMaxPayloadSizeReached();
+          return Optional.empty();
+        }
+        history.add(revision.get());
       }
-
-      List<ObjectId> parentObjectIds =
-          getParentObjectIds(git, commit.getParents(), 0, Math.min(maxDepth, maxParentObjectIds));
-      Collections.reverse(parentObjectIds);
-
-      return Optional.of(new RevisionData(parentObjectIds, commitRev, treeRev, blobs));
+      return Optional.of(history);
     } catch (LargeObjectException e) {
       metrics.incrementMaxPayloadSizeReached();
       repLog.trace(
-          "Ref {} size for project {} is greater than configured '{}'",
+          "Ref {} history for project {} has commits greater than configured '{}'",
           refName,
           project,
           CONFIG_MAX_API_PAYLOAD_SIZE);
@@ -170,8 +272,130 @@ public class RevisionReader {
     }
   }
 
+  private List<RevCommit> walkHistory(Repository git, RevWalk walk, String refName)
+      throws IOException {
+    Ref ref = git.exactRef(refName);
+    if (ref == null) {
+      return Collections.emptyList();
+    }
+
+    RevObject tip = walk.parseAny(ref.getObjectId());
+    if (!(tip instanceof RevCommit)) {
+      return Collections.emptyList();
+    }
+
+    walk.sort(RevSort.TOPO);
+    for (RevCommit parent : ((RevCommit) tip).getParents()) {
+      walk.markStart(walk.parseCommit(parent));
+    }
+
+    List<RevCommit> ancestors = new ArrayList<>();
+    RevCommit ancestor;
+    while (ancestors.size() < maxDepth && (ancestor = walk.next()) != null) {
+      ancestors.add(ancestor);
+    }
+    Collections.reverse(ancestors);
+    return ancestors;
+  }
+
+  private Optional<RevisionData> readRevision(
+      Project.NameKey project,
+      String refName,
+      ObjectReader reader,
+      RevWalk walk,
+      TreeWalk treeWalk,
+      ObjectId objectId,
+      int maxParentObjectIds)
+      throws MissingObjectException,
+          IncorrectObjectTypeException,
+          CorruptObjectException,
+          IOException {
+    if (maxParentObjectIds > 0) {
+      return loadRevision(project, refName, reader, walk, treeWalk, objectId, maxParentObjectIds);
+    }
+
+    RevisionDataCacheKey cacheKey = RevisionDataCacheKey.create(project.get(), objectId.name());
+    RevisionData cachedRevision = revisionsCache.getIfPresent(cacheKey);
+    if (cachedRevision != null) {
+      metrics.incrementRevisionsCacheHit();
+      return Optional.of(cachedRevision);
+    }
+
+    metrics.incrementRevisionsCacheMiss();
+    Optional<RevisionData> revision =
+        loadRevision(project, refName, reader, walk, treeWalk, objectId, 0);
+    revision.ifPresent(r -> revisionsCache.put(cacheKey, r));
+    return revision;
+  }
+
+  private Optional<RevisionData> loadRevision(
+      Project.NameKey project,
+      String refName,
+      ObjectReader reader,
+      RevWalk walk,
+      TreeWalk treeWalk,
+      ObjectId objectId,
+      int maxParentObjectIds)
+      throws MissingObjectException,
+          IncorrectObjectTypeException,
+          CorruptObjectException,
+          IOException {
+    long totalRefSize = 0L;
+
+    ObjectLoader commitLoader = reader.open(objectId);
+    totalRefSize += commitLoader.getSize();
+    verifySize(project, refName, objectId, totalRefSize, commitLoader);
+
+    if (commitLoader.getType() == Constants.OBJ_BLOB) {
+      return Optional.of(
+          new RevisionData(
+              Collections.emptyList(),
+              null,
+              null,
+              Arrays.asList(
+                  new RevisionObjectData(
+                      objectId.name(), Constants.OBJ_BLOB, commitLoader.getCachedBytes()))));
+    }
+
+    if (commitLoader.getType() != Constants.OBJ_COMMIT) {
+      repLog.trace(
+          "Ref {} for project {} points to an object type {}",
+          refName,
+          project,
+          commitLoader.getType());
+      return Optional.empty();
+    }
+
+    RevCommit commit = RevCommit.parse(walk, commitLoader.getCachedBytes());
+    RevisionObjectData commitRev =
+        new RevisionObjectData(objectId.name(), commit.getType(), commitLoader.getCachedBytes());
+
+    RevTree tree = commit.getTree();
+    ObjectId treeObjectId = commit.getTree().toObjectId();
+    ObjectLoader treeLoader = reader.open(treeObjectId);
+    totalRefSize += treeLoader.getSize();
+    verifySize(project, refName, treeObjectId, totalRefSize, treeLoader);
+
+    RevisionObjectData treeRev =
+        new RevisionObjectData(treeObjectId.name(), tree.getType(), treeLoader.getCachedBytes());
+
+    List<ObjectId> blobObjectIds =
+        commit.getParentCount() > 0
+            ? readDiffObjectIds(walk, commit, tree, treeWalk)
+            : readTreeObjectIds(tree, treeWalk);
+    verifyPreflightSize(project, refName, objectId, reader, totalRefSize, blobObjectIds);
+    List<RevisionObjectData> blobs =
+        readBlobs(project, refName, reader, totalRefSize, blobObjectIds);
+
+    List<ObjectId> parentObjectIds =
+        getParentObjectIds(walk, commit.getParents(), 0, Math.min(maxDepth, maxParentObjectIds));
+    Collections.reverse(parentObjectIds);
+
+    return Optional.of(new RevisionData(parentObjectIds, commitRev, treeRev, blobs));
+  }
+
   private List<ObjectId> getParentObjectIds(
-      Repository git, RevCommit[] commit, int parentsDepth, int maxParentObjectIds)
+      RevWalk walk, RevCommit[] commit, int parentsDepth, int maxParentObjectIds)
       throws MissingObjectException, IncorrectObjectTypeException, IOException {
     if (commit == null || commit.length == 0) {
       return Collections.emptyList();
@@ -183,11 +407,10 @@ public class RevisionReader {
         parentObjectIds.add(revCommit.getId());
         parentsDepth++;
 
-        ObjectLoader ol = git.open(revCommit.getId(), Constants.OBJ_COMMIT);
-        RevCommit[] commitParents = RevCommit.parse(ol.getCachedBytes()).getParents();
+        RevCommit[] commitParents = walk.parseCommit(revCommit).getParents();
 
         List<ObjectId> nestedParentObjectIds =
-            getParentObjectIds(git, commitParents, parentsDepth, maxParentObjectIds);
+            getParentObjectIds(walk, commitParents, parentsDepth, maxParentObjectIds);
         parentObjectIds.addAll(nestedParentObjectIds);
         parentsDepth += nestedParentObjectIds.size();
       }
@@ -196,50 +419,107 @@ public class RevisionReader {
     return parentObjectIds;
   }
 
-  private List<DiffEntry> readDiffs(Repository git, RevCommit commit, RevTree tree, TreeWalk walk)
+  /**
+   * Reads the ids of the git objects in this revision, compared to its first parent. The following
+   * are filtered out:
+   * <li>DELETE changes
+   * <li>git submodule commits, because the git commit hash is not present in this repo.
+   *
+   * @param walk - the walk used for parsing the parent commit
+   * @param commit - the commit of this revision
+   * @param tree - the tree of this revision
+   * @param treeWalk - the walk used for comparing the trees
+   * @return a List of the ids of the new or modified git objects.
+   * @throws MissingObjectException - if the object can't be found
+   * @throws IOException - if processing failed for another reason
+   */
+  private List<ObjectId> readDiffObjectIds(
+      RevWalk walk, RevCommit commit, RevTree tree, TreeWalk treeWalk)
       throws MissingObjectException,
           IncorrectObjectTypeException,
           CorruptObjectException,
           IOException {
-    walk.setFilter(TreeFilter.ANY_DIFF);
-    walk.reset(getParentTree(git, commit), tree);
-    return DiffEntry.scan(walk, true);
+    treeWalk.setFilter(TreeFilter.ANY_DIFF);
+    treeWalk.setRecursive(false);
+    treeWalk.setPostOrderTraversal(false);
+    treeWalk.reset(getParentTree(walk, commit), tree);
+
+    List<ObjectId> objectIds = new ArrayList<>();
+    for (DiffEntry diffEntry : DiffEntry.scan(treeWalk, true)) {
+      if (!(ChangeType.DELETE.equals(diffEntry.getChangeType()) || gitSubmoduleCommit(diffEntry))) {
+        objectIds.add(diffEntry.getNewId().toObjectId());
+      }
+    }
+    return objectIds;
   }
 
-  private List<RevisionObjectData> readBlobs(
-      Project.NameKey projectName, String refName, Repository git, Long totalRefSize, TreeWalk walk)
+  private List<ObjectId> readTreeObjectIds(RevTree tree, TreeWalk treeWalk)
       throws MissingObjectException,
           IncorrectObjectTypeException,
           CorruptObjectException,
           IOException {
-    List<RevisionObjectData> blobs = Lists.newLinkedList();
-    while (walk.next()) {
-      ObjectId objectId = walk.getObjectId(0);
-      ObjectLoader objectLoader = git.open(objectId);
-      totalRefSize += objectLoader.getSize();
-      verifySize(projectName, refName, objectId, totalRefSize, objectLoader);
+    treeWalk.setFilter(TreeFilter.ALL);
+    treeWalk.setRecursive(true);
+    treeWalk.setPostOrderTraversal(true);
+    treeWalk.reset(tree);
+
+    List<ObjectId> objectIds = new ArrayList<>();
+    while (treeWalk.next()) {
+      objectIds.add(treeWalk.getObjectId(0));
+    }
+    return objectIds;
+  }
 
-      RevisionObjectData rev =
-          new RevisionObjectData(
-              objectId.name(), objectLoader.getType(), objectLoader.getCachedBytes());
-      blobs.add(rev);
+  /**
+   * Verifies the total size of the objects of this revision from their headers, before loading any
+   * of the blobs content.
+   *
+   * @param projectName - the name of the project, used for logging
+   * @param refName - the ref name, used for logging
+   * @param objectId - the object id of the revision
+   * @param reader - the reader of this git repo, used to read the objects sizes
+   * @param totalRefSize - the size of the commit and tree objects already loaded
+   * @param blobObjectIds - the ids of the git objects to be loaded
+   * @throws LargeObjectException - if the total size exceeds the {@code maxApiPayloadSize}
+   * @throws IOException - if the size of any of the objects can't be read
+   */
+  private void verifyPreflightSize(
+      Project.NameKey projectName,
+      String refName,
+      ObjectId objectId,
+      ObjectReader reader,
+      long totalRefSize,
+      List<ObjectId> blobObjectIds)
+      throws LargeObjectException, IOException {
+    long preflightSize = totalRefSize;
+    for (ObjectId blobObjectId : blobObjectIds) {
+      preflightSize += reader.getObjectSize(blobObjectId, ObjectReader.OBJ_ANY);
+    }
+    metrics.recordPreflightSize(preflightSize);
+
+    if (preflightSize > maxRefSize) {
+      repLog.warn(
+          "Objects associated with {}:{} use {} bytes, over the maximum limit of {} bytes",
+          projectName,
+          refName,
+          preflightSize,
+          maxRefSize);
+      metrics.incrementPreflightBailOut();
+      throw new LargeObjectException(objectId);
     }
-    return blobs;
   }
 
   /**
-   * Reads and evaluates the git objects in this revision. The following are filtered out:
-   * <li>DELETE changes
-   * <li>git submodule commits, because the git commit hash is not present in this repo.
+   * Reads the content of the git objects in this revision.
    *
-   *     <p>The method keeps track of the total size of all objects it has processed, and verifies
-   *     it is below the acceptable threshold.
+   * <p>The method keeps track of the total size of all objects it has processed, and verifies it is
+   * below the acceptable threshold.
    *
    * @param projectName - the name of the project, used to check total object size threshold
    * @param refName - the ref name, used to check total object size threshold
-   * @param git - this git repo, used to load the objects
-   * @param totalRefSize - tracks the total size of objects processed
-   * @param diffEntries - a list of the diff entries for this revision
+   * @param reader - the reader of this git repo, used to load the objects
+   * @param totalRefSize - the size of the objects of this revision already loaded
+   * @param objectIds - the ids of the git objects to load
    * @return a List of `RevisionObjectData`, an object that includes the git object SHA, the git
    *     object change type and the object contents.
    * @throws MissingObjectException - if the object can't be found
@@ -248,22 +528,18 @@ public class RevisionReader {
   private List<RevisionObjectData> readBlobs(
       Project.NameKey projectName,
       String refName,
-      Repository git,
-      Long totalRefSize,
-      List<DiffEntry> diffEntries)
+      ObjectReader reader,
+      long totalRefSize,
+      List<ObjectId> objectIds)
       throws MissingObjectException, IOException {
-    List<RevisionObjectData> blobs = Lists.newLinkedList();
-    for (DiffEntry diffEntry : diffEntries) {
-      if (!(ChangeType.DELETE.equals(diffEntry.getChangeType()) || gitSubmoduleCommit(diffEntry))) {
-        ObjectId diffObjectId = diffEntry.getNewId().toObjectId();
-        ObjectLoader objectLoader = git.open(diffObjectId);
-        totalRefSize += objectLoader.getSize();
-        verifySize(projectName, refName, diffObjectId, totalRefSize, objectLoader);
-        RevisionObjectData rev =
-            new RevisionObjectData(
-                diffObjectId.name(), objectLoader.getType(), objectLoader.getCachedBytes());
-        blobs.add(rev);
-      }
+    List<RevisionObjectData> blobs = new ArrayList<>(objectIds.size());
+    for (ObjectId objectId : objectIds) {
+      ObjectLoader objectLoader = reader.open(objectId);
+      totalRefSize += objectLoader.getSize();
+      verifySize(projectName, refName, objectId, totalRefSize, objectLoader);
+      blobs.add(
+          new RevisionObjectData(
+              objectId.name(), objectLoader.getType(), objectLoader.getCachedBytes()));
     }
     return blobs;
   }
@@ -272,19 +548,16 @@ public class RevisionReader {
     return diffEntry.getNewMode().equals(FileMode.GITLINK);
   }
 
-  private RevTree getParentTree(Repository git, RevCommit commit)
+  private RevTree getParentTree(RevWalk walk, RevCommit commit)
       throws MissingObjectException, IOException {
-    RevCommit parent = commit.getParent(0);
-    ObjectLoader parentLoader = git.open(parent.getId());
-    RevCommit parentCommit = RevCommit.parse(parentLoader.getCachedBytes());
-    return parentCommit.getTree();
+    return walk.parseCommit(commit.getParent(0)).getTree();
   }
 
   private void verifySize(
       Project.NameKey projectName,
       String refName,
       ObjectId objectId,
-      Long totalRefSize,
+      long totalRefSize,
       ObjectLoader loader)
       throws LargeObjectException {
     if (loader.isLarge()) {
@@ -321,6 +594,30 @@ public class RevisionReader {
     }
   }
 
+  /**
+   * Read the objects of a batch of commits as a thin pack, built against their parents.
+   *
+   * @param project the project of the commits
+   * @param objectIds the objects to include in the pack, with all the objects reachable from them
+   *     and not reachable from their parents
+   * @param parentObjectIds the parents of the objects, assumed to be already present on the target
+   * @return the thin pack
+   * @throws IOException if the pack could not be read from the repository
+   */
+  public byte[] readThinPack(
+      Project.NameKey project, Set<ObjectId> objectIds, Set<ObjectId> parentObjectIds)
+      throws RepositoryNotFoundException, IOException {
+    try (Repository git = gitRepositoryManager.openRepository(project);
+        PackWriter packWriter = new PackWriter(git)) {
+      packWriter.setThin(true);
+      packWriter.setUseCachedPacks(false);
+      packWriter.preparePack(NullProgressMonitor.INSTANCE, objectIds, parentObjectIds);
+      ByteArrayOutputStream pack = new ByteArrayOutputStream();
+      packWriter.writePack(NullProgressMonitor.INSTANCE, NullProgressMonitor.INSTANCE, pack);
+      return pack.toByteArray();
+    }
+  }
+
   @Nullable
   public String getHeadName(Project.NameKey project) throws IOException {
     try (Repository repo = gitRepositoryManager.openRepository(project)) {
@@ -331,4 +628,17 @@ public class RevisionReader {
       return ref.getTarget().getName();
     }
   }
+
+  /** A ref to be read as part of a batch, see {@link #read(Project.NameKey, List)}. */
+  @AutoValue
+  public abstract static class RefRevision {
+    public static RefRevision create(String refName, @Nullable ObjectId objectId) {
+      return new AutoValue_RevisionReader_RefRevision(refName, objectId);
+    }
+
+    public abstract String refName();
+
+    @Nullable
+    public abstract ObjectId objectId();
+  }
 }
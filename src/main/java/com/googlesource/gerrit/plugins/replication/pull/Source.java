@@ -26,6 +26,7 @@ import com.google.common.collect.ImmutableSet;
 import com.google.common.collect.ImmutableSet.Builder;
 import com.google.common.collect.Lists;
 import com.google.common.flogger.FluentLogger;
+import com.google.common.util.concurrent.MoreExecutors;
 import com.google.gerrit.entities.AccountGroup;
 import com.google.gerrit.entities.BranchNameKey;
 import com.google.gerrit.entities.GroupReference;
@@ -82,10 +83,14 @@ import java.util.Optional;
 import java.util.Set;
 import java.util.concurrent.Callable;
 import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
 import java.util.concurrent.ScheduledExecutorService;
 import java.util.concurrent.ScheduledFuture;
 import java.util.concurrent.TimeUnit;
+import java.util.function.Function;
 import java.util.function.Supplier;
 import java.util.stream.Collectors;
 import org.apache.commons.io.FilenameUtils;
@@ -118,10 +123,13 @@ public class Source {
   private final Provider<CurrentUser> userProvider;
   private final ProjectCache projectCache;
   private volatile ScheduledExecutorService pool;
+  private volatile ScheduledExecutorService apiCallsPool;
   private final PerThreadRequestScope.Scoper threadScoper;
   private final SourceConfiguration config;
   private final DynamicItem<EventDispatcher> eventDispatcher;
   private CloseableHttpClient httpClient;
+  private java.net.http.HttpClient http2Client;
+  private ExecutorService http2Executor;
   private final DeleteProjectTask.Factory deleteProjectFactory;
   private final ReplicationQueueMetrics queueMetrics;
   private static final int DRAINED_CHECK_FREQUENCY_MS = 50;
@@ -238,6 +246,16 @@ public class Source {
     return httpClient;
   }
 
+  public synchronized java.net.http.HttpClient memoizeHttp2(
+      Supplier<ExecutorService> http2ExecutorSupplier,
+      Function<ExecutorService, java.net.http.HttpClient> http2ClientFactory) {
+    if (http2Client == null) {
+      http2Executor = http2ExecutorSupplier.get();
+      http2Client = http2ClientFactory.apply(http2Executor);
+    }
+    return http2Client;
+  }
+
   private void addRecursiveParents(
       AccountGroup.UUID g,
       Builder<AccountGroup.UUID> builder,
@@ -260,6 +278,12 @@ public class Source {
   public void start(WorkQueue workQueue) {
     String poolName = "ReplicateFrom-" + config.getRemoteConfig().getName();
     pool = workQueue.createQueue(config.getPoolThreads(), poolName);
+    if (config.getApis().size() > 1) {
+      apiCallsPool =
+          workQueue.createQueue(
+              config.getApiCallsThreads(),
+              "ReplicateFromApis-" + config.getRemoteConfig().getName());
+    }
   }
 
   public synchronized int shutdown() {
@@ -276,6 +300,10 @@ public class Source {
       }
       pool = null;
     }
+    if (apiCallsPool != null) {
+      apiCallsPool.shutdown();
+      apiCallsPool = null;
+    }
     if (httpClient != null) {
       try {
         httpClient.close();
@@ -284,6 +312,20 @@ public class Source {
         logger.atSevere().withCause(e).log("Error occurred while closing HTTP client connections");
       }
     }
+    if (http2Client != null) {
+      // The JDK client is closeable only from Java 21, otherwise its connections are closed once
+      // idle and its selector thread stops once the client is unreachable
+      if (http2Client instanceof AutoCloseable) {
+        try {
+          ((AutoCloseable) http2Client).close();
+        } catch (Exception e) {
+          logger.atSevere().withCause(e).log("Error occurred while closing HTTP/2 client");
+        }
+      }
+      http2Executor.shutdown();
+      http2Client = null;
+      http2Executor = null;
+    }
 
     return cnt;
   }
@@ -905,6 +947,32 @@ public class Source {
     return config.getApis();
   }
 
+  /**
+   * Executor of the REST-API calls to the apiUrls of the source, running them in parallel when the
+   * source has more than one apiUrl.
+   */
+  public Executor getApiCallsExecutor() {
+    ScheduledExecutorService executor = apiCallsPool;
+    return executor != null ? executor : MoreExecutors.directExecutor();
+  }
+
+  /**
+   * Executor of the background REST-API calls to the apiUrls of the source, which never runs them
+   * on the calling thread.
+   *
+   * @throws RejectedExecutionException when the source is stopped.
+   */
+  public Executor getBackgroundCallsExecutor() {
+    return command -> {
+      ScheduledExecutorService executor = pool;
+      if (executor == null) {
+        throw new RejectedExecutionException(
+            String.format("Source %s is stopped", getRemoteConfigName()));
+      }
+      executor.execute(command);
+    };
+  }
+
   public int getConnectionTimeout() {
     return config.getConnectionTimeout();
   }
@@ -941,6 +1009,50 @@ public class Source {
     return config.enableBatchedRefs();
   }
 
+  public boolean enableApplyPack() {
+    return config.enableApplyPack();
+  }
+
+  public boolean enableConditionalApply() {
+    return config.enableConditionalApply();
+  }
+
+  public boolean enableHttp2() {
+    return config.enableHttp2();
+  }
+
+  public long getCompressionThreshold() {
+    return config.getCompressionThreshold();
+  }
+
+  public int getCircuitBreakerFailureRate() {
+    return config.getCircuitBreakerFailureRate();
+  }
+
+  public int getCircuitBreakerWindowSize() {
+    return config.getCircuitBreakerWindowSize();
+  }
+
+  public long getCircuitBreakerSlowCallThreshold() {
+    return config.getCircuitBreakerSlowCallThreshold();
+  }
+
+  public long getCircuitBreakerOpenDuration() {
+    return config.getCircuitBreakerOpenDuration();
+  }
+
+  public int getCircuitBreakerMaxDeferredRefs() {
+    return config.getCircuitBreakerMaxDeferredRefs();
+  }
+
+  public long getMultiProjectBatchWindow() {
+    return config.getMultiProjectBatchWindow();
+  }
+
+  public int getMultiProjectBatchMaxProjects() {
+    return config.getMultiProjectBatchMaxProjects();
+  }
+
   public long fetchEvery() {
     return config.fetchEvery();
   }
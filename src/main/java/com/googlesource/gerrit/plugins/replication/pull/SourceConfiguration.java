@@ -33,6 +33,11 @@ public class SourceConfiguration implements RemoteConfiguration {
   static final int DEFAULT_CONNECTIONS_PER_ROUTE = 100;
   static final int DEFAULT_DRAIN_SHUTDOWN_TIMEOUT_SECS = 300;
   static final long DEFAULT_PERIODIC_FETCH_DISABLED = 0L;
+  static final long DEFAULT_COMPRESSION_THRESHOLD = 4096L;
+  static final int DEFAULT_CIRCUIT_BREAKER_WINDOW_SIZE = 20;
+  static final int DEFAULT_MULTI_PROJECT_BATCH_MAX_PROJECTS = 20;
+  static final long DEFAULT_CIRCUIT_BREAKER_OPEN_DURATION_MS = TimeUnit.SECONDS.toMillis(30);
+  static final int DEFAULT_CIRCUIT_BREAKER_MAX_DEFERRED_REFS = 10000;
 
   private final int delay;
   private final int rescheduleDelay;
@@ -50,6 +55,7 @@ public class SourceConfiguration implements RemoteConfiguration {
   private final ImmutableList<String> authGroupNames;
   private final RemoteConfig remoteConfig;
   private final ImmutableList<String> apis;
+  private final int apiCallsThreads;
   private final int connectionTimeout;
   private final int idleTimeout;
   private final int maxConnectionsPerRoute;
@@ -60,6 +66,17 @@ public class SourceConfiguration implements RemoteConfiguration {
   private boolean useCGitClient;
   private int refsBatchSize;
   private boolean enableBatchedRefs;
+  private boolean enableApplyPack;
+  private boolean enableConditionalApply;
+  private boolean enableHttp2;
+  private long compressionThreshold;
+  private final int circuitBreakerFailureRate;
+  private final int circuitBreakerWindowSize;
+  private final long circuitBreakerSlowCallThreshold;
+  private final long circuitBreakerOpenDuration;
+  private final int circuitBreakerMaxDeferredRefs;
+  private final long multiProjectBatchWindow;
+  private final int multiProjectBatchMaxProjects;
   private final long fetchEvery;
 
   public SourceConfiguration(RemoteConfig remoteConfig, Config cfg) {
@@ -67,6 +84,16 @@ public class SourceConfiguration implements RemoteConfiguration {
     String name = remoteConfig.getName();
     urls = ImmutableList.copyOf(cfg.getStringList("remote", name, "url"));
     apis = ImmutableList.copyOf(cfg.getStringList("remote", name, "apiUrl"));
+    // Every fetch-calls thread replicating an event can be calling all the apiUrls at the same time
+    apiCallsThreads =
+        Math.max(
+            1,
+            cfg.getInt(
+                "remote",
+                name,
+                "apiCallsThreads",
+                apis.size()
+                    * FetchCallsExecutor.threads(cfg, cfg.getSubsections("remote").size())));
     connectionTimeout =
         cfg.getInt("remote", name, "connectionTimeout", DEFAULT_CONNECTION_TIMEOUT_MS);
     int connectionTimeoutInSec = connectionTimeout / 1000;
@@ -134,6 +161,49 @@ public class SourceConfiguration implements RemoteConfiguration {
           name);
     }
 
+    enableApplyPack = cfg.getBoolean("remote", name, "enableApplyPack", false);
+    enableConditionalApply = cfg.getBoolean("remote", name, "enableConditionalApply", false);
+    enableHttp2 = cfg.getBoolean("remote", name, "enableHttp2", false);
+    compressionThreshold =
+        cfg.getLong("remote", name, "compressionThreshold", DEFAULT_COMPRESSION_THRESHOLD);
+    circuitBreakerFailureRate =
+        Math.min(100, Math.max(0, cfg.getInt("remote", name, "circuitBreakerFailureRate", 0)));
+    circuitBreakerWindowSize =
+        Math.max(
+            1,
+            cfg.getInt(
+                "remote", name, "circuitBreakerWindowSize", DEFAULT_CIRCUIT_BREAKER_WINDOW_SIZE));
+    circuitBreakerSlowCallThreshold =
+        cfg.getTimeUnit(
+            "remote", name, "circuitBreakerSlowCallThreshold", 0L, TimeUnit.MILLISECONDS);
+    circuitBreakerOpenDuration =
+        cfg.getTimeUnit(
+            "remote",
+            name,
+            "circuitBreakerOpenDuration",
+            DEFAULT_CIRCUIT_BREAKER_OPEN_DURATION_MS,
+            TimeUnit.MILLISECONDS);
+    circuitBreakerMaxDeferredRefs =
+        Math.max(
+            0,
+            cfg.getInt(
+                "remote",
+                name,
+                "circuitBreakerMaxDeferredRefs",
+                DEFAULT_CIRCUIT_BREAKER_MAX_DEFERRED_REFS));
+    multiProjectBatchWindow =
+        Math.max(
+            0L,
+            cfg.getTimeUnit("remote", name, "multiProjectBatchWindow", 0L, TimeUnit.MILLISECONDS));
+    multiProjectBatchMaxProjects =
+        Math.max(
+            1,
+            cfg.getInt(
+                "remote",
+                name,
+                "multiProjectBatchMaxProjects",
+                DEFAULT_MULTI_PROJECT_BATCH_MAX_PROJECTS));
+
     fetchEvery =
         cfg.getTimeUnit(
             "remote", name, "fetchEvery", DEFAULT_PERIODIC_FETCH_DISABLED, TimeUnit.SECONDS);
@@ -171,6 +241,10 @@ public class SourceConfiguration implements RemoteConfiguration {
     return apis;
   }
 
+  public int getApiCallsThreads() {
+    return apiCallsThreads;
+  }
+
   public int getConnectionTimeout() {
     return connectionTimeout;
   }
@@ -269,6 +343,50 @@ public class SourceConfiguration implements RemoteConfiguration {
     return enableBatchedRefs;
   }
 
+  public boolean enableApplyPack() {
+    return enableApplyPack;
+  }
+
+  public boolean enableConditionalApply() {
+    return enableConditionalApply;
+  }
+
+  public boolean enableHttp2() {
+    return enableHttp2;
+  }
+
+  public long getCompressionThreshold() {
+    return compressionThreshold;
+  }
+
+  public int getCircuitBreakerFailureRate() {
+    return circuitBreakerFailureRate;
+  }
+
+  public int getCircuitBreakerWindowSize() {
+    return circuitBreakerWindowSize;
+  }
+
+  public long getCircuitBreakerSlowCallThreshold() {
+    return circuitBreakerSlowCallThreshold;
+  }
+
+  public long getCircuitBreakerOpenDuration() {
+    return circuitBreakerOpenDuration;
+  }
+
+  public int getCircuitBreakerMaxDeferredRefs() {
+    return circuitBreakerMaxDeferredRefs;
+  }
+
+  public long getMultiProjectBatchWindow() {
+    return multiProjectBatchWindow;
+  }
+
+  public int getMultiProjectBatchMaxProjects() {
+    return multiProjectBatchMaxProjects;
+  }
+
   public long fetchEvery() {
     return fetchEvery;
   }
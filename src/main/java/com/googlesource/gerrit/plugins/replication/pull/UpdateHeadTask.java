@@ -23,11 +23,12 @@ import com.google.gerrit.server.util.IdGenerator;
 import com.google.inject.Inject;
 import com.google.inject.assistedinject.Assisted;
 import com.googlesource.gerrit.plugins.replication.pull.client.FetchApiClient;
-import com.googlesource.gerrit.plugins.replication.pull.client.HttpResult;
 import java.io.IOException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
 import org.eclipse.jgit.transport.URIish;
 
-public class UpdateHeadTask implements Runnable, Completable {
+public class UpdateHeadTask implements AsyncRunnable, Completable {
   private static final FluentLogger logger = FluentLogger.forEnclosingClass();
   private final FetchApiClient.Factory fetchClientFactory;
   private final Source source;
@@ -35,7 +36,7 @@ public class UpdateHeadTask implements Runnable, Completable {
   private final Project.NameKey project;
   private final String newHead;
   private final int id;
-  private boolean succeeded;
+  private volatile boolean succeeded;
 
   interface Factory {
     UpdateHeadTask create(Source source, URIish apiURI, Project.NameKey project, String newHead);
@@ -58,25 +59,31 @@ public class UpdateHeadTask implements Runnable, Completable {
   }
 
   @Override
-  public void run() {
-    try {
-      HttpResult httpResult =
-          fetchClientFactory.create(source).updateHead(project, newHead, apiURI);
-      if (!httpResult.isSuccessful()) {
-        throw new IOException(httpResult.getMessage().orElse("Unknown"));
-      }
-      succeeded = true;
-      logger.atFine().log(
-          "Successfully updated HEAD of project %s on remote %s",
-          project.get(), apiURI.toASCIIString());
-    } catch (IOException e) {
-      String errorMessage =
-          String.format(
-              "Cannot update HEAD of project %s remote site %s",
-              project.get(), apiURI.toASCIIString());
-      logger.atWarning().withCause(e).log("%s", errorMessage);
-      repLog.warn(errorMessage);
-    }
+  public CompletableFuture<Void> runAsync() {
+    return fetchClientFactory
+        .create(source)
+        .updateHeadAsync(project, newHead, apiURI)
+        .thenAccept(
+            httpResult -> {
+              if (!httpResult.isSuccessful()) {
+                throw new CompletionException(
+                    new IOException(httpResult.getMessage().orElse("Unknown")));
+              }
+              succeeded = true;
+              logger.atFine().log(
+                  "Successfully updated HEAD of project %s on remote %s",
+                  project.get(), apiURI.toASCIIString());
+            })
+        .exceptionally(
+            e -> {
+              String errorMessage =
+                  String.format(
+                      "Cannot update HEAD of project %s remote site %s",
+                      project.get(), apiURI.toASCIIString());
+              logger.atWarning().withCause(e).log("%s", errorMessage);
+              repLog.warn(errorMessage);
+              return null;
+            });
   }
 
   @Override
@@ -52,7 +52,27 @@ public class ApplyObjectAction implements RestModifyView<ProjectResource, Revisi
 
   @Override
   public Response<?> apply(ProjectResource resource, RevisionInput input) throws RestApiException {
+    validate(resource, input);
 
+    try {
+      applyObjectCommand.applyObject(
+          resource.getNameKey(),
+          input.getRefName(),
+          input.getRevisionData(),
+          input.getLabel(),
+          input.getEventCreatedOn());
+      return Response.created();
+    } catch (MissingParentObjectException
+        | NumberFormatException
+        | IOException
+        | RefUpdateException
+        | MissingLatestPatchSetException e) {
+      throw toRestApiException(resource, input, e);
+    }
+  }
+
+  /** Check that the input can be applied to the project by the current user. */
+  void validate(ProjectResource resource, RevisionInput input) throws RestApiException {
     if (!preConditions.canCallFetchApi()) {
       throw new AuthException("Not allowed to call fetch command");
     }
@@ -66,57 +86,28 @@ public class ApplyObjectAction implements RestModifyView<ProjectResource, Revisi
       throw new BadRequestException("Revision data cannot be null");
     }
 
-    try {
-      repLog.info(
-          "Apply object API from {} for {}:{} - {}",
-          input.getLabel(),
-          resource.getNameKey(),
-          input.getRefName(),
-          input.getRevisionData());
+    repLog.info(
+        "Apply object API from {} for {}:{} - {}",
+        input.getLabel(),
+        resource.getNameKey(),
+        input.getRefName(),
+        input.getRevisionData());
 
-      try {
-        input.validate();
-      } catch (IllegalArgumentException e) {
-        BadRequestException bre =
-            new BadRequestException("Ref-update with invalid input: " + e.getMessage(), e);
-        repLog.error(
-            "Apply object API *FAILED* from {} for {}:{} - {}",
-            input.getLabel(),
-            resource.getNameKey(),
-            input.getRefName(),
-            input.getRevisionData(),
-            bre);
-        throw bre;
-      }
+    try {
+      input.validate();
+    } catch (IllegalArgumentException e) {
+      BadRequestException bre =
+          new BadRequestException("Ref-update with invalid input: " + e.getMessage(), e);
+      logFailure(resource, input, bre);
+      throw bre;
+    }
+  }
 
-      applyObjectCommand.applyObject(
-          resource.getNameKey(),
-          input.getRefName(),
-          input.getRevisionData(),
-          input.getLabel(),
-          input.getEventCreatedOn());
-      return Response.created();
-    } catch (MissingParentObjectException e) {
-      repLog.error(
-          "Apply object API *FAILED* from {} for {}:{} - {}",
-          input.getLabel(),
-          resource.getNameKey(),
-          input.getRefName(),
-          input.getRevisionData(),
-          e);
-      throw new ResourceConflictException(e.getMessage(), e);
-    } catch (NumberFormatException | IOException e) {
-      repLog.error(
-          "Apply object API *FAILED* from {} for {}:{} - {}",
-          input.getLabel(),
-          resource.getNameKey(),
-          input.getRefName(),
-          input.getRevisionData(),
-          e);
-      throw RestApiException.wrap(e.getMessage(), e);
-    } catch (RefUpdateException e) {
+  /** Log the failure to apply the input and map it to the outcome of the REST-API. */
+  RestApiException toRestApiException(ProjectResource resource, RevisionInput input, Exception e) {
+    if (e instanceof RefUpdateException) {
       if (RefNames.isRefsDraftsComments(input.getRefName())
-          && e.getResult().equals(RefUpdate.Result.REJECTED)) {
+          && ((RefUpdateException) e).getResult().equals(RefUpdate.Result.REJECTED)) {
         repLog.info(
             "Apply object API *REJECTED* from {} for {}:{} - {}",
             input.getLabel(),
@@ -124,24 +115,28 @@ public class ApplyObjectAction implements RestModifyView<ProjectResource, Revisi
             input.getRefName(),
             input.getRevisionData());
       } else {
-        repLog.error(
-            "Apply object API *FAILED* from {} for {}:{} - {}",
-            input.getLabel(),
-            resource.getNameKey(),
-            input.getRefName(),
-            input.getRevisionData(),
-            e);
+        logFailure(resource, input, e);
       }
-      throw new UnprocessableEntityException(e.getMessage());
-    } catch (MissingLatestPatchSetException e) {
-      repLog.error(
-          "Apply object API *FAILED* from {} for {}:{} - {}",
-          input.getLabel(),
-          resource.getNameKey(),
-          input.getRefName(),
-          input.getRevisionData(),
-          e);
-      throw new PreconditionFailedException(e.getMessage());
+      return new UnprocessableEntityException(e.getMessage());
+    }
+
+    logFailure(resource, input, e);
+    if (e instanceof MissingParentObjectException) {
+      return new ResourceConflictException(e.getMessage(), e);
     }
+    if (e instanceof MissingLatestPatchSetException) {
+      return new PreconditionFailedException(e.getMessage());
+    }
+    return RestApiException.wrap(e.getMessage(), e);
+  }
+
+  private static void logFailure(ProjectResource resource, RevisionInput input, Exception e) {
+    repLog.error(
+        "Apply object API *FAILED* from {} for {}:{} - {}",
+        input.getLabel(),
+        resource.getNameKey(),
+        input.getRefName(),
+        input.getRevisionData(),
+        e);
   }
 }
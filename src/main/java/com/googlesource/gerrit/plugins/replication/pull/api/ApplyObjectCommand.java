@@ -20,6 +20,7 @@ import static java.util.concurrent.TimeUnit.NANOSECONDS;
 
 import com.google.common.cache.Cache;
 import com.google.common.collect.ImmutableSet;
+import com.google.common.collect.Iterators;
 import com.google.common.flogger.FluentLogger;
 import com.google.gerrit.entities.Project;
 import com.google.gerrit.extensions.registration.DynamicItem;
@@ -38,19 +39,28 @@ import com.googlesource.gerrit.plugins.replication.pull.ReplicationState;
 import com.googlesource.gerrit.plugins.replication.pull.ReplicationState.RefFetchResult;
 import com.googlesource.gerrit.plugins.replication.pull.Source;
 import com.googlesource.gerrit.plugins.replication.pull.SourcesCollection;
+import com.googlesource.gerrit.plugins.replication.pull.api.data.ApplyPackInput.RefUpdateInput;
+import com.googlesource.gerrit.plugins.replication.pull.api.data.ConditionalApplyResult;
 import com.googlesource.gerrit.plugins.replication.pull.api.data.RevisionData;
 import com.googlesource.gerrit.plugins.replication.pull.api.data.RevisionObjectData;
 import com.googlesource.gerrit.plugins.replication.pull.api.exception.MissingLatestPatchSetException;
 import com.googlesource.gerrit.plugins.replication.pull.api.exception.MissingParentObjectException;
 import com.googlesource.gerrit.plugins.replication.pull.api.exception.RefUpdateException;
 import com.googlesource.gerrit.plugins.replication.pull.fetch.ApplyObject;
+import com.googlesource.gerrit.plugins.replication.pull.fetch.ApplyObjectGroupCommits;
 import com.googlesource.gerrit.plugins.replication.pull.fetch.RefUpdateState;
 import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.Optional;
 import java.util.Set;
+import org.eclipse.jgit.lib.ObjectId;
 import org.eclipse.jgit.lib.RefUpdate;
-import org.eclipse.jgit.transport.RefSpec;
 
 public class ApplyObjectCommand {
 
@@ -65,6 +75,7 @@ public class ApplyObjectCommand {
 
   private final PullReplicationStateLogger fetchStateLog;
   private final ApplyObject applyObject;
+  private final ApplyObjectGroupCommits groupCommits;
   private final ApplyObjectMetrics metrics;
   private final DynamicItem<EventDispatcher> eventDispatcher;
   private final SourcesCollection sourcesCollection;
@@ -73,12 +84,14 @@ public class ApplyObjectCommand {
   public ApplyObjectCommand(
       PullReplicationStateLogger fetchStateLog,
       ApplyObject applyObject,
+      ApplyObjectGroupCommits groupCommits,
       ApplyObjectMetrics metrics,
       DynamicItem<EventDispatcher> eventDispatcher,
       SourcesCollection sourcesCollection,
       @Named(APPLY_OBJECTS_CACHE) Cache<ApplyObjectsCacheKey, Long> refUpdatesSucceededCache) {
     this.fetchStateLog = fetchStateLog;
     this.applyObject = applyObject;
+    this.groupCommits = groupCommits;
     this.metrics = metrics;
     this.eventDispatcher = eventDispatcher;
     this.sourcesCollection = sourcesCollection;
@@ -119,28 +132,330 @@ public class ApplyObjectCommand {
         Arrays.toString(revisionsData));
     Timer1.Context<String> context = metrics.start(sourceLabel);
 
-    RefUpdateState refUpdateState = applyObject.apply(name, new RefSpec(refName), revisionsData);
-    Boolean isRefUpdateSuccessful = isSuccessful(refUpdateState.getResult());
+    RefUpdateState refUpdateState = groupCommits.apply(name, refName, revisionsData);
+    completeApplyObjects(
+        name,
+        refName,
+        appliedObjectIds(revisionsData),
+        sourceLabel,
+        eventCreatedOn,
+        context,
+        refUpdateState);
+  }
 
-    if (isRefUpdateSuccessful) {
-      for (RevisionData revisionData : revisionsData) {
-        RevisionObjectData commitObj = revisionData.getCommitObject();
-        List<RevisionObjectData> blobs = revisionData.getBlobs();
-
-        if (commitObj != null) {
-          refUpdatesSucceededCache.put(
-              ApplyObjectsCacheKey.create(
-                  revisionData.getCommitObject().getSha1(), refName, name.get()),
-              eventCreatedOn);
-        } else if (blobs != null) {
-          for (RevisionObjectData blob : blobs) {
-            refUpdatesSucceededCache.put(
-                ApplyObjectsCacheKey.create(blob.getSha1(), refName, name.get()), eventCreatedOn);
-          }
+  /**
+   * Same as {@link #applyObjects(Project.NameKey, String, RevisionData[], String, long)}, with the
+   * revisions applied while they are iterated, typically lazily parsed from the request body, so
+   * that only the objects of the revision being inserted are held in memory.
+   */
+  public void applyObjects(
+      Project.NameKey name,
+      String refName,
+      Iterator<RevisionData> revisionsData,
+      String sourceLabel,
+      long eventCreatedOn)
+      throws IOException,
+          RefUpdateException,
+          MissingParentObjectException,
+          ResourceNotFoundException,
+          MissingLatestPatchSetException {
+
+    repLog.info("Apply object from {} for {}:{}", sourceLabel, name, refName);
+    Timer1.Context<String> context = metrics.start(sourceLabel);
+
+    List<String> appliedObjectIds = new ArrayList<>();
+    RefUpdateState refUpdateState =
+        groupCommits.apply(
+            name,
+            refName,
+            Iterators.transform(
+                revisionsData,
+                revisionData -> {
+                  appliedObjectIds.addAll(appliedObjectIds(revisionData));
+                  return revisionData;
+                }));
+    completeApplyObjects(
+        name, refName, appliedObjectIds, sourceLabel, eventCreatedOn, context, refUpdateState);
+  }
+
+  private void completeApplyObjects(
+      Project.NameKey name,
+      String refName,
+      List<String> appliedObjectIds,
+      String sourceLabel,
+      long eventCreatedOn,
+      Timer1.Context<String> context,
+      RefUpdateState refUpdateState)
+      throws RefUpdateException {
+    long elapsed = NANOSECONDS.toMillis(context.stop());
+
+    completeRefUpdate(
+        name, refName, appliedObjectIds, sourceLabel, eventCreatedOn, refUpdateState);
+
+    repLog.info(
+        "Apply object from {} for project {}, ref name {} completed in {}ms",
+        sourceLabel,
+        name,
+        refName,
+        elapsed);
+  }
+
+  /**
+   * Insert the objects of a thin pack and then update the refs to them, in the given order.
+   *
+   * <p>All the refs are validated once the pack is inserted, so that none of them is updated when
+   * the pack is invalid or incomplete. The refs are then updated one by one, exactly as {@link
+   * #applyObject(Project.NameKey, String, RevisionData, String, long)} does, stopping at the first
+   * failure.
+   */
+  public void applyPack(
+      Project.NameKey name,
+      List<RefUpdateInput> refs,
+      InputStream pack,
+      String sourceLabel,
+      long eventCreatedOn)
+      throws IOException,
+          RefUpdateException,
+          MissingParentObjectException,
+          ResourceNotFoundException,
+          MissingLatestPatchSetException {
+    repLog.info("Apply pack from {} for {}:{}", sourceLabel, name, refs);
+    Timer1.Context<String> context = metrics.start(sourceLabel);
+    try {
+      applyObject.insertPack(name, refs, pack);
+      for (RefUpdateInput ref : refs) {
+        ObjectId objectId = ObjectId.fromString(ref.getObjectId());
+        RefUpdateState refUpdateState = applyObject.updateRef(name, ref.getRefName(), objectId);
+        completeRefUpdate(
+            name,
+            ref.getRefName(),
+            List.of(objectId.getName()),
+            sourceLabel,
+            eventCreatedOn,
+            refUpdateState);
+      }
+    } finally {
+      repLog.info(
+          "Apply pack from {} for project {}, refs {} completed in {}ms",
+          sourceLabel,
+          name,
+          refs,
+          NANOSECONDS.toMillis(context.stop()));
+    }
+  }
+
+  /**
+   * Update the refs whose new objects, and all the objects reachable from them, are already present
+   * on this instance, without the need for the source to send them.
+   *
+   * <p>The refs are updated one by one, in the given order, with the same validations of {@link
+   * #applyPack(Project.NameKey, List, InputStream, String, long)}. A ref that cannot be updated is
+   * left untouched, so that its objects can be sent afterwards, and does not prevent the update of
+   * the following refs.
+   *
+   * @return the outcome of every ref, in the given order
+   */
+  public Map<String, ConditionalApplyResult> applyIfPresent(
+      Project.NameKey name, List<RefUpdateInput> refs, String sourceLabel, long eventCreatedOn)
+      throws IOException, ResourceNotFoundException {
+    Map<String, ConditionalApplyResult> results = new LinkedHashMap<>();
+    for (RefUpdateInput ref : refs) {
+      String refName = ref.getRefName();
+      ObjectId objectId = ObjectId.fromString(ref.getObjectId());
+      Optional<RefUpdateState> refUpdateState;
+      try {
+        refUpdateState = applyObject.updateRefIfPresent(name, refName, objectId);
+      } catch (MissingParentObjectException | MissingLatestPatchSetException e) {
+        repLog.info(
+            "Conditional apply from {} for {}:{} not applied: {}",
+            sourceLabel,
+            name,
+            refName,
+            e.getMessage());
+        refUpdateState = Optional.empty();
+      }
+
+      ConditionalApplyResult result;
+      if (refUpdateState.isEmpty()) {
+        result = ConditionalApplyResult.NOT_APPLIED;
+      } else if (!isSuccessful(refUpdateState.get().getResult())) {
+        repLog.info(
+            "Conditional apply from {} for {}:{} not applied: {}",
+            sourceLabel,
+            name,
+            refName,
+            refUpdateState.get().getResult());
+        result = ConditionalApplyResult.NOT_APPLIED;
+      } else if (refUpdateState.get().getResult() == RefUpdate.Result.NO_CHANGE) {
+        result = ConditionalApplyResult.UP_TO_DATE;
+      } else {
+        publishRefUpdate(
+            name,
+            refName,
+            List.of(objectId.getName()),
+            sourceLabel,
+            eventCreatedOn,
+            refUpdateState.get());
+        result = ConditionalApplyResult.UPDATED;
+      }
+      results.put(refName, result);
+    }
+    return results;
+  }
+
+  /**
+   * Start applying the ref-updates of a project in a single transaction, see {@link
+   * ApplyObject#newBatch(Project.NameKey)}.
+   */
+  public Batch newBatch(Project.NameKey name) throws IOException, ResourceNotFoundException {
+    return new Batch(name, applyObject.newBatch(name));
+  }
+
+  /**
+   * Ref-updates of a project applied in a single transaction, whose events are posted once the
+   * batch is committed.
+   */
+  public class Batch implements AutoCloseable {
+    private final Project.NameKey name;
+    private final ApplyObject.Batch objectsBatch;
+    private final List<PendingRefUpdate> pendingRefUpdates = new ArrayList<>();
+    private Timer1.Context<String> context;
+
+    private Batch(Project.NameKey name, ApplyObject.Batch objectsBatch) {
+      this.name = name;
+      this.objectsBatch = objectsBatch;
+    }
+
+    public void add(
+        String refName, RevisionData revisionData, String sourceLabel, long eventCreatedOn)
+        throws IOException, MissingParentObjectException {
+      repLog.info("Apply object from {} for {}:{} - {}", sourceLabel, name, refName, revisionData);
+      if (context == null) {
+        context = metrics.start(sourceLabel);
+      }
+
+      objectsBatch.add(refName, new RevisionData[] {revisionData});
+      pendingRefUpdates.add(
+          new PendingRefUpdate(
+              refName, appliedObjectIds(revisionData), sourceLabel, eventCreatedOn));
+    }
+
+    /**
+     * Update all the refs added to the batch and post their events.
+     *
+     * @return the outcome of the update of every ref, in the same order as they were added
+     */
+    public List<RefUpdateState> commit() throws IOException {
+      if (pendingRefUpdates.isEmpty()) {
+        return List.of();
+      }
+
+      List<RefUpdateState> refUpdateStates = objectsBatch.commit();
+      for (int i = 0; i < refUpdateStates.size(); i++) {
+        PendingRefUpdate refUpdate = pendingRefUpdates.get(i);
+        RefUpdateState refUpdateState = refUpdateStates.get(i);
+        if (!publishRefUpdate(
+            name,
+            refUpdate.refName,
+            refUpdate.appliedObjectIds,
+            refUpdate.sourceLabel,
+            refUpdate.eventCreatedOn,
+            refUpdateState)) {
+          refUpdateFailure(name, refUpdate.refName, refUpdate.sourceLabel, refUpdateState);
         }
       }
+
+      repLog.info(
+          "Apply objects batch from {} for project {}, refs {} completed in {}ms",
+          pendingRefUpdates.get(0).sourceLabel,
+          name,
+          refUpdateStates,
+          NANOSECONDS.toMillis(context.stop()));
+      pendingRefUpdates.clear();
+      context = null;
+      return refUpdateStates;
+    }
+
+    /**
+     * Why a committed ref was rejected because of its latest patch-set ref.
+     *
+     * @return the missing latest patch-set failure, or empty if it was not the cause
+     */
+    public Optional<MissingLatestPatchSetException> getMissingLatestPatchSet(
+        RefUpdateState refUpdateState) {
+      return objectsBatch.getMissingLatestPatchSet(refUpdateState);
+    }
+
+    @Override
+    public void close() {
+      objectsBatch.close();
+    }
+  }
+
+  private static class PendingRefUpdate {
+    private final String refName;
+    private final List<String> appliedObjectIds;
+    private final String sourceLabel;
+    private final long eventCreatedOn;
+
+    private PendingRefUpdate(
+        String refName, List<String> appliedObjectIds, String sourceLabel, long eventCreatedOn) {
+      this.refName = refName;
+      this.appliedObjectIds = appliedObjectIds;
+      this.sourceLabel = sourceLabel;
+      this.eventCreatedOn = eventCreatedOn;
+    }
+  }
+
+  private static List<String> appliedObjectIds(RevisionData... revisionsData) {
+    List<String> appliedObjectIds = new ArrayList<>();
+    for (RevisionData revisionData : revisionsData) {
+      RevisionObjectData commitObj = revisionData.getCommitObject();
+      List<RevisionObjectData> blobs = revisionData.getBlobs();
+
+      if (commitObj != null) {
+        appliedObjectIds.add(commitObj.getSha1());
+      } else if (blobs != null) {
+        blobs.stream().map(RevisionObjectData::getSha1).forEach(appliedObjectIds::add);
+      }
+    }
+    return appliedObjectIds;
+  }
+
+  private void completeRefUpdate(
+      Project.NameKey name,
+      String refName,
+      List<String> appliedObjectIds,
+      String sourceLabel,
+      long eventCreatedOn,
+      RefUpdateState refUpdateState)
+      throws RefUpdateException {
+    if (!publishRefUpdate(
+        name, refName, appliedObjectIds, sourceLabel, eventCreatedOn, refUpdateState)) {
+      throw new RefUpdateException(
+          refUpdateState.getResult(), refUpdateFailure(name, refName, sourceLabel, refUpdateState));
+    }
+  }
+
+  /**
+   * Record the outcome of a ref update into the apply-objects cache and post its event.
+   *
+   * @return true if the ref update was successful, false otherwise.
+   */
+  private boolean publishRefUpdate(
+      Project.NameKey name,
+      String refName,
+      List<String> appliedObjectIds,
+      String sourceLabel,
+      long eventCreatedOn,
+      RefUpdateState refUpdateState) {
+    Boolean isRefUpdateSuccessful = isSuccessful(refUpdateState.getResult());
+    if (isRefUpdateSuccessful) {
+      for (String appliedObjectId : appliedObjectIds) {
+        refUpdatesSucceededCache.put(
+            ApplyObjectsCacheKey.create(appliedObjectId, refName, name.get()), eventCreatedOn);
+      }
     }
-    long elapsed = NANOSECONDS.toMillis(context.stop());
 
     try {
       Context.setLocalEvent(true);
@@ -167,20 +482,17 @@ public class ApplyObjectCommand {
       Context.unsetLocalEvent();
     }
 
-    if (!isRefUpdateSuccessful) {
-      String message =
-          String.format(
-              "RefUpdate failed with result %s for: sourceLabel=%s, project=%s, refName=%s",
-              refUpdateState.getResult().name(), sourceLabel, name, refName);
-      fetchStateLog.error(message);
-      throw new RefUpdateException(refUpdateState.getResult(), message);
-    }
-    repLog.info(
-        "Apply object from {} for project {}, ref name {} completed in {}ms",
-        sourceLabel,
-        name,
-        refName,
-        elapsed);
+    return isRefUpdateSuccessful;
+  }
+
+  private String refUpdateFailure(
+      Project.NameKey name, String refName, String sourceLabel, RefUpdateState refUpdateState) {
+    String message =
+        String.format(
+            "RefUpdate failed with result %s for: sourceLabel=%s, project=%s, refName=%s",
+            refUpdateState.getResult().name(), sourceLabel, name, refName);
+    fetchStateLog.error(message);
+    return message;
   }
 
   private RefFetchResult getStatus(RefUpdateState refUpdateState) {
@@ -189,7 +501,7 @@ public class ApplyObjectCommand {
         : ReplicationState.RefFetchResult.FAILED;
   }
 
-  private Boolean isSuccessful(RefUpdate.Result result) {
+  static Boolean isSuccessful(RefUpdate.Result result) {
     return SUCCESSFUL_RESULTS.contains(result);
   }
 }
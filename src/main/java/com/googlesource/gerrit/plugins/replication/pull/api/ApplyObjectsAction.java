@@ -17,6 +17,8 @@ package com.googlesource.gerrit.plugins.replication.pull.api;
 import static com.googlesource.gerrit.plugins.replication.pull.PullReplicationLogger.repLog;
 
 import com.google.common.base.Strings;
+import com.google.common.collect.Iterators;
+import com.google.gerrit.common.Nullable;
 import com.google.gerrit.extensions.restapi.AuthException;
 import com.google.gerrit.extensions.restapi.BadRequestException;
 import com.google.gerrit.extensions.restapi.PreconditionFailedException;
@@ -27,12 +29,15 @@ import com.google.gerrit.extensions.restapi.RestModifyView;
 import com.google.gerrit.extensions.restapi.UnprocessableEntityException;
 import com.google.gerrit.server.project.ProjectResource;
 import com.google.inject.Inject;
+import com.googlesource.gerrit.plugins.replication.pull.api.data.RevisionData;
+import com.googlesource.gerrit.plugins.replication.pull.api.data.RevisionInput;
 import com.googlesource.gerrit.plugins.replication.pull.api.data.RevisionsInput;
 import com.googlesource.gerrit.plugins.replication.pull.api.exception.MissingLatestPatchSetException;
 import com.googlesource.gerrit.plugins.replication.pull.api.exception.MissingParentObjectException;
 import com.googlesource.gerrit.plugins.replication.pull.api.exception.RefUpdateException;
 import java.io.IOException;
 import java.util.Arrays;
+import java.util.Iterator;
 import java.util.Objects;
 
 public class ApplyObjectsAction implements RestModifyView<ProjectResource, RevisionsInput> {
@@ -130,4 +135,68 @@ public class ApplyObjectsAction implements RestModifyView<ProjectResource, Revis
       throw new PreconditionFailedException(e.getMessage());
     }
   }
+
+  /**
+   * Same as {@link #apply(ProjectResource, RevisionsInput)}, with the revisions of the history
+   * validated and applied while they are iterated, typically lazily parsed from the request body.
+   */
+  public Response<?> apply(
+      ProjectResource resource,
+      @Nullable String label,
+      @Nullable String refName,
+      long eventCreatedOn,
+      @Nullable Iterator<RevisionData> revisionsData)
+      throws RestApiException {
+    if (!preConditions.canCallFetchApi()) {
+      throw new AuthException("not allowed to call fetch command");
+    }
+
+    try {
+      if (Strings.isNullOrEmpty(label)) {
+        throw new BadRequestException("Source label cannot be null or empty");
+      }
+      if (Strings.isNullOrEmpty(refName)) {
+        throw new BadRequestException("Ref-update refname cannot be null or empty");
+      }
+      if (Objects.isNull(revisionsData)) {
+        throw new BadRequestException("Revision data cannot be null");
+      }
+
+      repLog.info("Apply object API from {} for {}:{}", label, resource.getNameKey(), refName);
+
+      command.applyObjects(
+          resource.getNameKey(),
+          refName,
+          Iterators.transform(
+              revisionsData,
+              revisionData -> {
+                RevisionInput.validate(refName, revisionData);
+                return revisionData;
+              }),
+          label,
+          eventCreatedOn);
+      return Response.created();
+    } catch (MissingParentObjectException e) {
+      logApplyFailure(label, resource, refName, e);
+      throw new ResourceConflictException(e.getMessage(), e);
+    } catch (NumberFormatException | IOException e) {
+      logApplyFailure(label, resource, refName, e);
+      throw RestApiException.wrap(e.getMessage(), e);
+    } catch (IllegalArgumentException e) {
+      logApplyFailure(label, resource, refName, e);
+      throw new BadRequestException("Ref-update with invalid input: " + e.getMessage(), e);
+    } catch (RefUpdateException e) {
+      logApplyFailure(label, resource, refName, e);
+      throw new UnprocessableEntityException(e.getMessage());
+    } catch (MissingLatestPatchSetException e) {
+      logApplyFailure(label, resource, refName, e);
+      throw new PreconditionFailedException(e.getMessage());
+    }
+  }
+
+  private static void logApplyFailure(
+      String label, ProjectResource resource, String refName, Exception e) {
+    repLog.error(
+        "Apply object API *FAILED* from {} for {}:{}", label, resource.getNameKey(), refName, e);
+  }
 }
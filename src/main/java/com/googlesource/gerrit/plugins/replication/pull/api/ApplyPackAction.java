@@ -0,0 +1,130 @@
+// Copyright (C) 2025 The Android Open Source Project
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+// http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.googlesource.gerrit.plugins.replication.pull.api;
+
+import static com.googlesource.gerrit.plugins.replication.pull.PullReplicationLogger.repLog;
+
+import com.google.common.base.Strings;
+import com.google.gerrit.entities.RefNames;
+import com.google.gerrit.extensions.restapi.AuthException;
+import com.google.gerrit.extensions.restapi.BadRequestException;
+import com.google.gerrit.extensions.restapi.PreconditionFailedException;
+import com.google.gerrit.extensions.restapi.ResourceConflictException;
+import com.google.gerrit.extensions.restapi.Response;
+import com.google.gerrit.extensions.restapi.RestApiException;
+import com.google.gerrit.extensions.restapi.RestModifyView;
+import com.google.gerrit.extensions.restapi.UnprocessableEntityException;
+import com.google.gerrit.server.project.ProjectResource;
+import com.google.inject.Inject;
+import com.google.inject.Singleton;
+import com.googlesource.gerrit.plugins.replication.pull.api.data.ApplyPackInput;
+import com.googlesource.gerrit.plugins.replication.pull.api.exception.MissingLatestPatchSetException;
+import com.googlesource.gerrit.plugins.replication.pull.api.exception.MissingParentObjectException;
+import com.googlesource.gerrit.plugins.replication.pull.api.exception.PayloadTooLargeException;
+import com.googlesource.gerrit.plugins.replication.pull.api.exception.RefUpdateException;
+import java.io.IOException;
+import java.util.Objects;
+import org.eclipse.jgit.errors.CorruptObjectException;
+import org.eclipse.jgit.errors.TooLargeObjectInPackException;
+import org.eclipse.jgit.errors.TooLargePackException;
+import org.eclipse.jgit.lib.RefUpdate;
+
+/**
+ * Binary alternative to the batch-apply-object API: applies the refs of a batch from a single thin
+ * pack of their objects, instead of their base64 encoded JSON representation.
+ */
+@Singleton
+public class ApplyPackAction implements RestModifyView<ProjectResource, ApplyPackInput> {
+
+  private final ApplyObjectCommand applyObjectCommand;
+  private final FetchPreconditions preConditions;
+
+  @Inject
+  public ApplyPackAction(ApplyObjectCommand applyObjectCommand, FetchPreconditions preConditions) {
+    this.applyObjectCommand = applyObjectCommand;
+    this.preConditions = preConditions;
+  }
+
+  @Override
+  public Response<?> apply(ProjectResource resource, ApplyPackInput input) throws RestApiException {
+
+    if (!preConditions.canCallFetchApi()) {
+      throw new AuthException("Not allowed to call fetch command");
+    }
+    if (Strings.isNullOrEmpty(input.getLabel())) {
+      throw new BadRequestException("Source label cannot be null or empty");
+    }
+    if (Objects.isNull(input.getPack())) {
+      throw new BadRequestException("Pack cannot be null");
+    }
+    try {
+      input.validate();
+    } catch (IllegalArgumentException e) {
+      throw new BadRequestException("Apply pack with invalid input: " + e.getMessage(), e);
+    }
+
+    try {
+      repLog.info(
+          "Apply pack API from {} for {}:{}",
+          input.getLabel(),
+          resource.getNameKey(),
+          input.getRefs());
+      applyObjectCommand.applyPack(
+          resource.getNameKey(),
+          input.getRefs(),
+          input.getPack(),
+          input.getLabel(),
+          input.getEventCreatedOn());
+      return Response.created();
+    } catch (MissingParentObjectException e) {
+      logFailure(resource, input, e);
+      throw new ResourceConflictException(e.getMessage(), e);
+    } catch (TooLargePackException | TooLargeObjectInPackException e) {
+      logFailure(resource, input, e);
+      throw new PayloadTooLargeException(e.getMessage(), e);
+    } catch (CorruptObjectException e) {
+      logFailure(resource, input, e);
+      throw new BadRequestException(e.getMessage(), e);
+    } catch (IOException e) {
+      logFailure(resource, input, e);
+      throw RestApiException.wrap(e.getMessage(), e);
+    } catch (RefUpdateException e) {
+      if (e.getResult().equals(RefUpdate.Result.REJECTED)
+          && input.getRefs().stream()
+              .anyMatch(ref -> RefNames.isRefsDraftsComments(ref.getRefName()))) {
+        repLog.info(
+            "Apply pack API *REJECTED* from {} for {}:{}",
+            input.getLabel(),
+            resource.getNameKey(),
+            input.getRefs());
+      } else {
+        logFailure(resource, input, e);
+      }
+      throw new UnprocessableEntityException(e.getMessage());
+    } catch (MissingLatestPatchSetException e) {
+      logFailure(resource, input, e);
+      throw new PreconditionFailedException(e.getMessage());
+    }
+  }
+
+  private static void logFailure(ProjectResource resource, ApplyPackInput input, Exception e) {
+    repLog.error(
+        "Apply pack API *FAILED* from {} for {}:{}",
+        input.getLabel(),
+        resource.getNameKey(),
+        input.getRefs(),
+        e);
+  }
+}
@@ -16,25 +16,50 @@ package com.googlesource.gerrit.plugins.replication.pull.api;
 
 import static com.googlesource.gerrit.plugins.replication.pull.PullReplicationLogger.repLog;
 
+import com.google.gerrit.entities.Project;
+import com.google.gerrit.extensions.restapi.AuthException;
+import com.google.gerrit.extensions.restapi.BadRequestException;
+import com.google.gerrit.extensions.restapi.PreconditionFailedException;
+import com.google.gerrit.extensions.restapi.ResourceConflictException;
+import com.google.gerrit.extensions.restapi.ResourceNotFoundException;
 import com.google.gerrit.extensions.restapi.Response;
 import com.google.gerrit.extensions.restapi.RestApiException;
 import com.google.gerrit.extensions.restapi.RestModifyView;
+import com.google.gerrit.extensions.restapi.UnprocessableEntityException;
+import com.google.gerrit.httpd.restapi.RestApiServlet;
 import com.google.gerrit.server.project.ProjectResource;
 import com.google.inject.Inject;
 import com.google.inject.Singleton;
 import com.googlesource.gerrit.plugins.replication.pull.api.data.RevisionInput;
+import com.googlesource.gerrit.plugins.replication.pull.api.exception.MissingLatestPatchSetException;
+import com.googlesource.gerrit.plugins.replication.pull.api.exception.MissingParentObjectException;
+import com.googlesource.gerrit.plugins.replication.pull.fetch.RefUpdateState;
+import java.io.IOException;
 import java.util.ArrayList;
+import java.util.Iterator;
 import java.util.List;
+import java.util.Optional;
+import java.util.function.BiConsumer;
 import java.util.stream.Collectors;
+import javax.servlet.http.HttpServletResponse;
 
+/**
+ * Apply the ref-updates of a project received with a single request in a single transaction: the
+ * objects of all the refs are inserted and flushed together and the refs are updated with a single
+ * non-atomic batch ref-update, so that every ref gets its own result, see {@link
+ * ApplyObjectCommand#newBatch(Project.NameKey)}.
+ */
 @Singleton
 class BatchApplyObjectAction implements RestModifyView<ProjectResource, List<RevisionInput>> {
 
   private final ApplyObjectAction applyObjectAction;
+  private final ApplyObjectCommand applyObjectCommand;
 
   @Inject
-  BatchApplyObjectAction(ApplyObjectAction applyObjectAction) {
+  BatchApplyObjectAction(
+      ApplyObjectAction applyObjectAction, ApplyObjectCommand applyObjectCommand) {
     this.applyObjectAction = applyObjectAction;
+    this.applyObjectCommand = applyObjectCommand;
   }
 
   @Override
@@ -47,11 +72,155 @@ class BatchApplyObjectAction implements RestModifyView<ProjectResource, List<Rev
         inputs.stream().map(RevisionInput::getRefName).collect(Collectors.joining(",")));
 
     List<Response<?>> allResponses = new ArrayList<>();
-    for (RevisionInput input : inputs) {
-      Response<?> individualResponse = applyObjectAction.apply(resource, input);
-      allResponses.add(individualResponse);
+    apply(resource, inputs.iterator(), (refName, response) -> allResponses.add(response));
+    return response(allResponses);
+  }
+
+  /**
+   * Apply the inputs while they are being read, typically lazily parsed from the request body, so
+   * that only the objects of the input being inserted are held in memory.
+   */
+  public Response<?> apply(ProjectResource resource, Iterator<RevisionInput> inputs)
+      throws RestApiException {
+    List<String> refNames = new ArrayList<>();
+    List<Response<?>> allResponses = new ArrayList<>();
+    apply(
+        resource,
+        inputs,
+        (refName, response) -> {
+          refNames.add(refName);
+          allResponses.add(response);
+        });
+
+    repLog.info(
+        "Batch Apply object API from {} for refs {}",
+        resource.getNameKey(),
+        String.join(",", refNames));
+    return response(allResponses);
+  }
+
+  /**
+   * Apply the inputs in a single transaction.
+   *
+   * <p>The processing stops at the first input that cannot be applied: the refs of the inputs
+   * before it are updated anyway, and their outcome is reported, before the failure is thrown.
+   *
+   * @param onRefResult consumer of the outcome of every ref, in the same order as the inputs,
+   *     including the input that could not be applied.
+   */
+  void apply(
+      ProjectResource resource,
+      Iterator<RevisionInput> inputs,
+      BiConsumer<String, Response<?>> onRefResult)
+      throws RestApiException {
+    try (ApplyObjectCommand.Batch batch = applyObjectCommand.newBatch(resource.getNameKey())) {
+      while (inputs.hasNext()) {
+        RevisionInput input = inputs.next();
+        try {
+          applyObjectAction.validate(resource, input);
+          batch.add(
+              input.getRefName(),
+              input.getRevisionData(),
+              input.getLabel(),
+              input.getEventCreatedOn());
+        } catch (MissingParentObjectException | NumberFormatException | IOException e) {
+          throw failed(
+              resource,
+              batch,
+              input,
+              applyObjectAction.toRestApiException(resource, input, e),
+              onRefResult);
+        } catch (RestApiException e) {
+          throw failed(resource, batch, input, e, onRefResult);
+        }
+      }
+      commit(resource, batch, onRefResult);
+    } catch (IOException e) {
+      throw RestApiException.wrap(e.getMessage(), e);
+    }
+  }
+
+  private RestApiException failed(
+      ProjectResource resource,
+      ApplyObjectCommand.Batch batch,
+      RevisionInput input,
+      RestApiException e,
+      BiConsumer<String, Response<?>> onRefResult)
+      throws IOException {
+    commit(resource, batch, onRefResult);
+    onRefResult.accept(input.getRefName(), Response.withStatusCode(statusCode(e), e.getMessage()));
+    return e;
+  }
+
+  private void commit(
+      ProjectResource resource,
+      ApplyObjectCommand.Batch batch,
+      BiConsumer<String, Response<?>> onRefResult)
+      throws IOException {
+    for (RefUpdateState refUpdateState : batch.commit()) {
+      String refName = refUpdateState.getRemoteName();
+      Optional<MissingLatestPatchSetException> missingLatestPatchSet =
+          batch.getMissingLatestPatchSet(refUpdateState);
+      if (ApplyObjectCommand.isSuccessful(refUpdateState.getResult())) {
+        onRefResult.accept(refName, Response.created());
+      } else if (missingLatestPatchSet.isPresent()) {
+        repLog.error(
+            "Batch Apply object API *FAILED* for {}:{}",
+            resource.getNameKey(),
+            refName,
+            missingLatestPatchSet.get());
+        onRefResult.accept(
+            refName,
+            Response.withStatusCode(
+                HttpServletResponse.SC_PRECONDITION_FAILED,
+                missingLatestPatchSet.get().getMessage()));
+      } else {
+        repLog.error(
+            "Batch Apply object API *FAILED* for {}:{} - {}",
+            resource.getNameKey(),
+            refName,
+            refUpdateState.getResult());
+        onRefResult.accept(
+            refName,
+            Response.withStatusCode(
+                RestApiServlet.SC_UNPROCESSABLE_ENTITY,
+                String.format(
+                    "RefUpdate failed with result %s for: project=%s, refName=%s",
+                    refUpdateState.getResult().name(), resource.getNameKey(), refName)));
+      }
     }
+  }
+
+  /**
+   * Response with the outcome of every ref, which is successful only when all the refs are
+   * successfully updated.
+   */
+  private static Response<?> response(List<Response<?>> allResponses) {
+    if (allResponses.stream().allMatch(r -> r.statusCode() == HttpServletResponse.SC_CREATED)) {
+      return Response.ok(allResponses);
+    }
+    return Response.withStatusCode(RestApiServlet.SC_UNPROCESSABLE_ENTITY, allResponses);
+  }
 
-    return Response.ok(allResponses);
+  static int statusCode(RestApiException e) {
+    if (e instanceof AuthException) {
+      return HttpServletResponse.SC_FORBIDDEN;
+    }
+    if (e instanceof BadRequestException) {
+      return HttpServletResponse.SC_BAD_REQUEST;
+    }
+    if (e instanceof ResourceNotFoundException) {
+      return HttpServletResponse.SC_NOT_FOUND;
+    }
+    if (e instanceof ResourceConflictException) {
+      return HttpServletResponse.SC_CONFLICT;
+    }
+    if (e instanceof PreconditionFailedException) {
+      return HttpServletResponse.SC_PRECONDITION_FAILED;
+    }
+    if (e instanceof UnprocessableEntityException) {
+      return RestApiServlet.SC_UNPROCESSABLE_ENTITY;
+    }
+    return HttpServletResponse.SC_INTERNAL_SERVER_ERROR;
   }
 }
@@ -126,6 +126,11 @@ public class BearerAuthenticationFilter extends AllRequestFilter {
             && (requestURI.endsWith(String.format("/%s~apply-object", pluginName))
                 || requestURI.endsWith(String.format("/%s~apply-objects", pluginName))
                 || requestURI.endsWith(String.format("/%s~batch-apply-object", pluginName))
+                || requestURI.endsWith(
+                    String.format("/%s/multi-project-batch-apply-object", pluginName))
+                || requestURI.endsWith(String.format("/%s~missing-objects", pluginName))
+                || requestURI.endsWith(String.format("/%s~conditional-apply", pluginName))
+                || requestURI.endsWith(String.format("/%s~apply-pack", pluginName))
                 || requestURI.endsWith(String.format("/%s~fetch", pluginName))
                 || requestURI.endsWith(String.format("/%s~batch-fetch", pluginName))
                 || requestURI.endsWith(String.format("/%s~delete-project", pluginName))
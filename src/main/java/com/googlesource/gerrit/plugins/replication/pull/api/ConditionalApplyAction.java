@@ -0,0 +1,87 @@
+// Copyright (C) 2025 The Android Open Source Project
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+// http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.googlesource.gerrit.plugins.replication.pull.api;
+
+import static com.googlesource.gerrit.plugins.replication.pull.PullReplicationLogger.repLog;
+
+import com.google.common.base.Strings;
+import com.google.gerrit.extensions.restapi.AuthException;
+import com.google.gerrit.extensions.restapi.BadRequestException;
+import com.google.gerrit.extensions.restapi.Response;
+import com.google.gerrit.extensions.restapi.RestApiException;
+import com.google.gerrit.extensions.restapi.RestModifyView;
+import com.google.gerrit.server.project.ProjectResource;
+import com.google.inject.Inject;
+import com.google.inject.Singleton;
+import com.googlesource.gerrit.plugins.replication.pull.api.data.ConditionalApplyInput;
+import com.googlesource.gerrit.plugins.replication.pull.api.data.ConditionalApplyResult;
+import java.io.IOException;
+import java.util.Map;
+
+/**
+ * Precondition step of the apply-object APIs: updates the refs whose new objects are already
+ * present on this instance and tells the source which ones still need their objects to be sent.
+ */
+@Singleton
+public class ConditionalApplyAction
+    implements RestModifyView<ProjectResource, ConditionalApplyInput> {
+
+  private final ApplyObjectCommand applyObjectCommand;
+  private final FetchPreconditions preConditions;
+
+  @Inject
+  public ConditionalApplyAction(
+      ApplyObjectCommand applyObjectCommand, FetchPreconditions preConditions) {
+    this.applyObjectCommand = applyObjectCommand;
+    this.preConditions = preConditions;
+  }
+
+  @Override
+  public Response<?> apply(ProjectResource resource, ConditionalApplyInput input)
+      throws RestApiException {
+    if (!preConditions.canCallFetchApi()) {
+      throw new AuthException("not allowed to call fetch command");
+    }
+
+    if (Strings.isNullOrEmpty(input.getLabel())) {
+      throw new BadRequestException("Source label cannot be null or empty");
+    }
+    try {
+      input.validate();
+    } catch (IllegalArgumentException e) {
+      throw new BadRequestException("Conditional apply with invalid input: " + e.getMessage(), e);
+    }
+
+    try {
+      Map<String, ConditionalApplyResult> results =
+          applyObjectCommand.applyIfPresent(
+              resource.getNameKey(), input.getRefs(), input.getLabel(), input.getEventCreatedOn());
+      repLog.info(
+          "Conditional apply API from {} for {} - {}",
+          input.getLabel(),
+          resource.getNameKey(),
+          results);
+      return Response.ok(results);
+    } catch (IOException e) {
+      repLog.error(
+          "Conditional apply API *FAILED* from {} for {}:{}",
+          input.getLabel(),
+          resource.getNameKey(),
+          input.getRefs(),
+          e);
+      throw RestApiException.wrap(e.getMessage(), e);
+    }
+  }
+}
@@ -0,0 +1,97 @@
+// Copyright (C) 2025 The Android Open Source Project
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+// http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.googlesource.gerrit.plugins.replication.pull.api;
+
+import static com.googlesource.gerrit.plugins.replication.pull.PullReplicationLogger.repLog;
+
+import com.google.common.base.Strings;
+import com.google.gerrit.extensions.restapi.AuthException;
+import com.google.gerrit.extensions.restapi.BadRequestException;
+import com.google.gerrit.extensions.restapi.Response;
+import com.google.gerrit.extensions.restapi.RestApiException;
+import com.google.gerrit.extensions.restapi.RestModifyView;
+import com.google.gerrit.server.project.ProjectResource;
+import com.google.inject.Inject;
+import com.google.inject.Singleton;
+import com.googlesource.gerrit.plugins.replication.pull.api.data.MissingObjectsInput;
+import com.googlesource.gerrit.plugins.replication.pull.fetch.ApplyObject;
+import java.io.IOException;
+import java.util.List;
+import java.util.Objects;
+import java.util.stream.Collectors;
+import org.eclipse.jgit.lib.ObjectId;
+
+/**
+ * Negotiation step of the apply-objects API: tells the source which of the offered objects are
+ * missing on this instance, so that only those need to be sent.
+ */
+@Singleton
+public class MissingObjectsAction implements RestModifyView<ProjectResource, MissingObjectsInput> {
+
+  private final ApplyObject applyObject;
+  private final FetchPreconditions preConditions;
+
+  @Inject
+  public MissingObjectsAction(ApplyObject applyObject, FetchPreconditions preConditions) {
+    this.applyObject = applyObject;
+    this.preConditions = preConditions;
+  }
+
+  @Override
+  public Response<?> apply(ProjectResource resource, MissingObjectsInput input)
+      throws RestApiException {
+    if (!preConditions.canCallFetchApi()) {
+      throw new AuthException("not allowed to call fetch command");
+    }
+
+    if (Strings.isNullOrEmpty(input.getLabel())) {
+      throw new BadRequestException("Source label cannot be null or empty");
+    }
+    if (Objects.isNull(input.getObjectIds())) {
+      throw new BadRequestException("Object ids cannot be null");
+    }
+
+    List<ObjectId> objectIds;
+    try {
+      objectIds =
+          input.getObjectIds().stream().map(ObjectId::fromString).collect(Collectors.toList());
+    } catch (IllegalArgumentException e) {
+      throw new BadRequestException("Invalid object id: " + e.getMessage(), e);
+    }
+
+    try {
+      List<String> missingObjectIds =
+          applyObject.missingObjects(resource.getNameKey(), objectIds).stream()
+              .map(ObjectId::getName)
+              .collect(Collectors.toList());
+      repLog.info(
+          "Missing objects API from {} for {}:{} - {} missing out of {}",
+          input.getLabel(),
+          resource.getNameKey(),
+          input.getRefName(),
+          missingObjectIds.size(),
+          objectIds.size());
+      return Response.ok(missingObjectIds);
+    } catch (IOException e) {
+      repLog.error(
+          "Missing objects API *FAILED* from {} for {}:{}",
+          input.getLabel(),
+          resource.getNameKey(),
+          input.getRefName(),
+          e);
+      throw RestApiException.wrap(e.getMessage(), e);
+    }
+  }
+}
@@ -0,0 +1,116 @@
+// Copyright (C) 2025 The Android Open Source Project
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+// http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.googlesource.gerrit.plugins.replication.pull.api;
+
+import static com.googlesource.gerrit.plugins.replication.pull.PullReplicationLogger.repLog;
+import static javax.servlet.http.HttpServletResponse.SC_CREATED;
+import static javax.servlet.http.HttpServletResponse.SC_NOT_FOUND;
+import static javax.servlet.http.HttpServletResponse.SC_OK;
+
+import com.google.gerrit.entities.Project;
+import com.google.gerrit.extensions.restapi.Response;
+import com.google.gerrit.extensions.restapi.RestApiException;
+import com.google.gerrit.server.CurrentUser;
+import com.google.gerrit.server.project.ProjectCache;
+import com.google.gerrit.server.project.ProjectResource;
+import com.google.gerrit.server.project.ProjectState;
+import com.google.inject.Inject;
+import com.google.inject.Provider;
+import com.google.inject.Singleton;
+import com.googlesource.gerrit.plugins.replication.pull.api.data.ProjectBatchInput;
+import com.googlesource.gerrit.plugins.replication.pull.api.data.ProjectBatchResult;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+
+/**
+ * Apply the ref-updates of many projects received with a single request, so that the bursts of
+ * events across projects, for instance caused by mass operations, do not cost one request per
+ * project.
+ *
+ * <p>The ref-updates of every project are applied in a single transaction as with the
+ * batch-apply-object REST-API of the project, and the failure of a project does not prevent the
+ * others from being applied.
+ */
+@Singleton
+class MultiProjectBatchApplyObjectAction {
+  private final BatchApplyObjectAction batchApplyObjectAction;
+  private final ProjectCache projectCache;
+  private final Provider<CurrentUser> currentUserProvider;
+
+  @Inject
+  MultiProjectBatchApplyObjectAction(
+      BatchApplyObjectAction batchApplyObjectAction,
+      ProjectCache projectCache,
+      Provider<CurrentUser> currentUserProvider) {
+    this.batchApplyObjectAction = batchApplyObjectAction;
+    this.projectCache = projectCache;
+    this.currentUserProvider = currentUserProvider;
+  }
+
+  /**
+   * Apply the ref-updates of every project while they are being read, typically lazily parsed from
+   * the request body.
+   *
+   * @return the outcome of every project, keyed by project name.
+   */
+  public Response<Map<String, ProjectBatchResult>> apply(Iterator<ProjectBatchInput> inputs) {
+    Map<String, ProjectBatchResult> results = new LinkedHashMap<>();
+    while (inputs.hasNext()) {
+      ProjectBatchInput input = inputs.next();
+      ProjectBatchResult result = apply(input);
+      repLog.info(
+          "Multi-project batch apply object API for {} refs {}: status={}",
+          input.getProject(),
+          result.getRefs().keySet(),
+          result.getStatusCode());
+      results.put(input.getProject(), result);
+    }
+    return Response.ok(results);
+  }
+
+  private ProjectBatchResult apply(ProjectBatchInput input) {
+    Map<String, Integer> refs = new LinkedHashMap<>();
+    Optional<ProjectState> projectState = projectCache.get(Project.nameKey(input.getProject()));
+    if (projectState.isEmpty()) {
+      return new ProjectBatchResult(SC_NOT_FOUND, "Not found: " + input.getProject(), refs);
+    }
+
+    ProjectResource resource = new ProjectResource(projectState.get(), currentUserProvider.get());
+    List<Response<?>> failures = new ArrayList<>();
+    try {
+      batchApplyObjectAction.apply(
+          resource,
+          input.getRevisionInputs().iterator(),
+          (refName, response) -> {
+            refs.put(refName, response.statusCode());
+            if (response.statusCode() != SC_CREATED) {
+              failures.add(response);
+            }
+          });
+    } catch (RestApiException e) {
+      return new ProjectBatchResult(BatchApplyObjectAction.statusCode(e), e.getMessage(), refs);
+    }
+
+    if (!failures.isEmpty()) {
+      Response<?> failure = failures.get(0);
+      return new ProjectBatchResult(failure.statusCode(), String.valueOf(failure.value()), refs);
+    }
+    return new ProjectBatchResult(SC_OK, null, refs);
+  }
+}
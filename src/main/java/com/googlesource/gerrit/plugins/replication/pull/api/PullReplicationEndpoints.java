@@ -34,6 +34,11 @@ public interface PullReplicationEndpoints {
   public static final String APPLY_OBJECTS_API_ENDPOINT = "apply-objects";
 
   public static final String BATCH_APPLY_OBJECT_API_ENDPOINT = "batch-apply-object";
+  public static final String MULTI_PROJECT_BATCH_APPLY_OBJECT_API_ENDPOINT =
+      "multi-project-batch-apply-object";
+  public static final String MISSING_OBJECTS_API_ENDPOINT = "missing-objects";
+  public static final String CONDITIONAL_APPLY_API_ENDPOINT = "conditional-apply";
+  public static final String APPLY_PACK_API_ENDPOINT = "apply-pack";
 
   public static final String FETCH_ENDPOINT = "fetch";
   public static final String BATCH_FETCH_ENDPOINT = "batch-fetch";
@@ -22,6 +22,7 @@ import static javax.servlet.http.HttpServletResponse.SC_CREATED;
 import static javax.servlet.http.HttpServletResponse.SC_FORBIDDEN;
 import static javax.servlet.http.HttpServletResponse.SC_NOT_FOUND;
 import static javax.servlet.http.HttpServletResponse.SC_OK;
+import static javax.servlet.http.HttpServletResponse.SC_REQUEST_ENTITY_TOO_LARGE;
 import static javax.servlet.http.HttpServletResponse.SC_UNAUTHORIZED;
 
 import com.google.common.flogger.FluentLogger;
@@ -30,6 +31,7 @@ import com.google.gerrit.extensions.annotations.PluginName;
 import com.google.gerrit.extensions.api.projects.HeadInput;
 import com.google.gerrit.extensions.restapi.AuthException;
 import com.google.gerrit.extensions.restapi.BadRequestException;
+import com.google.gerrit.extensions.restapi.CacheControl;
 import com.google.gerrit.extensions.restapi.IdString;
 import com.google.gerrit.extensions.restapi.ResourceConflictException;
 import com.google.gerrit.extensions.restapi.ResourceNotFoundException;
@@ -50,13 +52,21 @@ import com.google.gson.stream.JsonReader;
 import com.google.gson.stream.MalformedJsonException;
 import com.google.inject.Inject;
 import com.google.inject.Provider;
-import com.google.inject.TypeLiteral;
+import com.googlesource.gerrit.plugins.replication.api.ReplicationConfig;
 import com.googlesource.gerrit.plugins.replication.pull.api.FetchAction.BatchInput;
 import com.googlesource.gerrit.plugins.replication.pull.api.FetchAction.Input;
+import com.googlesource.gerrit.plugins.replication.pull.api.data.ApplyPackInput;
+import com.googlesource.gerrit.plugins.replication.pull.api.data.ConditionalApplyInput;
+import com.googlesource.gerrit.plugins.replication.pull.api.data.ConditionalApplyResult;
+import com.googlesource.gerrit.plugins.replication.pull.api.data.MissingObjectsInput;
+import com.googlesource.gerrit.plugins.replication.pull.api.data.ProjectBatchInput;
+import com.googlesource.gerrit.plugins.replication.pull.api.data.ProjectBatchResult;
 import com.googlesource.gerrit.plugins.replication.pull.api.data.RevisionInput;
-import com.googlesource.gerrit.plugins.replication.pull.api.data.RevisionsInput;
+import com.googlesource.gerrit.plugins.replication.pull.api.exception.PayloadTooLargeException;
 import com.googlesource.gerrit.plugins.replication.pull.api.exception.UnauthorizedAuthException;
+import com.googlesource.gerrit.plugins.replication.pull.api.util.JsonArrayReader;
 import com.googlesource.gerrit.plugins.replication.pull.api.util.PayloadSerDes;
+import com.googlesource.gerrit.plugins.replication.pull.api.util.RevisionsInputReader;
 import java.io.BufferedReader;
 import java.io.EOFException;
 import java.io.IOException;
@@ -78,6 +88,9 @@ import javax.servlet.http.HttpServletResponse;
 public class PullReplicationFilter extends AllRequestFilter implements PullReplicationEndpoints {
   private static final FluentLogger logger = FluentLogger.forEnclosingClass();
 
+  static final String CONFIG_MAX_DECOMPRESSED_REQUEST_SIZE = "maxDecompressedRequestSize";
+  static final long DEFAULT_MAX_DECOMPRESSED_REQUEST_SIZE = 1024L * 1024 * 1024;
+
   private static final Pattern projectNameInGerritUrl = Pattern.compile(".*/projects/([^/]+)/.*");
 
   private FetchAction fetchAction;
@@ -85,6 +98,10 @@ public class PullReplicationFilter extends AllRequestFilter implements PullRepli
   private ApplyObjectAction applyObjectAction;
   private ApplyObjectsAction applyObjectsAction;
   private BatchApplyObjectAction batchApplyObjectAction;
+  private MultiProjectBatchApplyObjectAction multiProjectBatchApplyObjectAction;
+  private MissingObjectsAction missingObjectsAction;
+  private ConditionalApplyAction conditionalApplyAction;
+  private ApplyPackAction applyPackAction;
   private ProjectInitializationAction projectInitializationAction;
   private UpdateHeadAction updateHEADAction;
   private ProjectDeletionAction projectDeletionAction;
@@ -92,6 +109,7 @@ public class PullReplicationFilter extends AllRequestFilter implements PullRepli
   private Gson gson;
   private String pluginName;
   private final Provider<CurrentUser> currentUserProvider;
+  private final long maxDecompressedRequestSize;
 
   @Inject
   public PullReplicationFilter(
@@ -100,17 +118,26 @@ public class PullReplicationFilter extends AllRequestFilter implements PullRepli
       ApplyObjectAction applyObjectAction,
       ApplyObjectsAction applyObjectsAction,
       BatchApplyObjectAction batchApplyObjectAction,
+      MultiProjectBatchApplyObjectAction multiProjectBatchApplyObjectAction,
+      MissingObjectsAction missingObjectsAction,
+      ConditionalApplyAction conditionalApplyAction,
+      ApplyPackAction applyPackAction,
       ProjectInitializationAction projectInitializationAction,
       UpdateHeadAction updateHEADAction,
       ProjectDeletionAction projectDeletionAction,
       ProjectCache projectCache,
       @PluginName String pluginName,
-      Provider<CurrentUser> currentUserProvider) {
+      Provider<CurrentUser> currentUserProvider,
+      ReplicationConfig replicationConfig) {
     this.fetchAction = fetchAction;
     this.batchFetchAction = batchFetchAction;
     this.applyObjectAction = applyObjectAction;
     this.applyObjectsAction = applyObjectsAction;
     this.batchApplyObjectAction = batchApplyObjectAction;
+    this.multiProjectBatchApplyObjectAction = multiProjectBatchApplyObjectAction;
+    this.missingObjectsAction = missingObjectsAction;
+    this.conditionalApplyAction = conditionalApplyAction;
+    this.applyPackAction = applyPackAction;
     this.projectInitializationAction = projectInitializationAction;
     this.updateHEADAction = updateHEADAction;
     this.projectDeletionAction = projectDeletionAction;
@@ -118,6 +145,15 @@ public class PullReplicationFilter extends AllRequestFilter implements PullRepli
     this.pluginName = pluginName;
     this.gson = HttpPayloadGsonProvider.get();
     this.currentUserProvider = currentUserProvider;
+    this.maxDecompressedRequestSize =
+        Math.max(
+            0,
+            replicationConfig
+                .getConfig()
+                .getLong(
+                    "replication",
+                    CONFIG_MAX_DECOMPRESSED_REQUEST_SIZE,
+                    DEFAULT_MAX_DECOMPRESSED_REQUEST_SIZE));
   }
 
   @Override
@@ -129,7 +165,10 @@ public class PullReplicationFilter extends AllRequestFilter implements PullRepli
     }
 
     HttpServletResponse httpResponse = (HttpServletResponse) response;
-    HttpServletRequest httpRequest = (HttpServletRequest) request;
+    // The body is decompressed only when read, hence the requests of the other filters and
+    // servlets are left untouched
+    HttpServletRequest httpRequest =
+        PayloadSerDes.decodeRequest((HttpServletRequest) request, maxDecompressedRequestSize);
     try {
       if (isFetchAction(httpRequest)) {
         failIfcurrentUserIsAnonymous();
@@ -146,8 +185,21 @@ public class PullReplicationFilter extends AllRequestFilter implements PullRepli
       } else if (isBatchApplyObjectsAction(httpRequest)) {
         failIfcurrentUserIsAnonymous();
         PayloadSerDes.writeResponse(httpResponse, doBatchApplyObject(httpRequest));
+      } else if (isMultiProjectBatchApplyObjectAction(httpRequest)) {
+        failIfcurrentUserIsAnonymous();
+        PayloadSerDes.writeResponse(httpResponse, doMultiProjectBatchApplyObject(httpRequest));
+      } else if (isMissingObjectsAction(httpRequest)) {
+        failIfcurrentUserIsAnonymous();
+        PayloadSerDes.writeResponse(httpResponse, doMissingObjects(httpRequest));
+      } else if (isConditionalApplyAction(httpRequest)) {
+        failIfcurrentUserIsAnonymous();
+        PayloadSerDes.writeResponse(httpResponse, doConditionalApply(httpRequest));
+      } else if (isApplyPackAction(httpRequest)) {
+        failIfcurrentUserIsAnonymous();
+        PayloadSerDes.writeResponse(httpResponse, doApplyPack(httpRequest));
       } else if (isInitProjectAction(httpRequest)) {
         failIfcurrentUserIsAnonymous();
+        PayloadSerDes.advertiseRequestEncodings(httpResponse);
         if (!checkAcceptHeader(httpRequest, httpResponse)) {
           return;
         }
@@ -163,40 +215,89 @@ public class PullReplicationFilter extends AllRequestFilter implements PullRepli
       }
 
     } catch (UnauthorizedAuthException e) {
-      RestApiServlet.replyError(
-          httpRequest, httpResponse, SC_UNAUTHORIZED, e.getMessage(), e.caching(), e);
+      replyError(httpRequest, httpResponse, SC_UNAUTHORIZED, e.getMessage(), e.caching(), e);
     } catch (AuthException e) {
-      RestApiServlet.replyError(
-          httpRequest, httpResponse, SC_FORBIDDEN, e.getMessage(), e.caching(), e);
+      replyError(httpRequest, httpResponse, SC_FORBIDDEN, e.getMessage(), e.caching(), e);
     } catch (MalformedJsonException | JsonParseException | IllegalArgumentException e) {
-      logger.atFine().withCause(e).log("REST call failed on JSON parsing");
-      RestApiServlet.replyError(
-          httpRequest, httpResponse, SC_BAD_REQUEST, "Invalid json in request", e);
+      Optional<PayloadTooLargeException> payloadTooLarge = PayloadSerDes.getPayloadTooLarge(e);
+      if (payloadTooLarge.isPresent()) {
+        replyPayloadTooLarge(httpRequest, httpResponse, payloadTooLarge.get());
+      } else {
+        logger.atFine().withCause(e).log("REST call failed on JSON parsing");
+        replyError(
+            httpRequest,
+            httpResponse,
+            SC_BAD_REQUEST,
+            "Invalid json in request",
+            CacheControl.NONE,
+            e);
+      }
     } catch (BadRequestException e) {
-      RestApiServlet.replyError(httpRequest, httpResponse, SC_BAD_REQUEST, e.getMessage(), e);
+      replyError(httpRequest, httpResponse, SC_BAD_REQUEST, e.getMessage(), e.caching(), e);
     } catch (UnprocessableEntityException e) {
-      RestApiServlet.replyError(
+      replyError(
           httpRequest, httpResponse, SC_UNPROCESSABLE_ENTITY, e.getMessage(), e.caching(), e);
     } catch (ResourceConflictException e) {
-      RestApiServlet.replyError(
-          httpRequest, httpResponse, SC_CONFLICT, e.getMessage(), e.caching(), e);
+      replyError(httpRequest, httpResponse, SC_CONFLICT, e.getMessage(), e.caching(), e);
     } catch (ResourceNotFoundException e) {
-      RestApiServlet.replyError(
-          httpRequest, httpResponse, SC_NOT_FOUND, e.getMessage(), e.caching(), e);
+      replyError(httpRequest, httpResponse, SC_NOT_FOUND, e.getMessage(), e.caching(), e);
+    } catch (PayloadTooLargeException e) {
+      replyPayloadTooLarge(httpRequest, httpResponse, e);
     } catch (NoSuchElementException e) {
-      RestApiServlet.replyError(
-          httpRequest, httpResponse, SC_BAD_REQUEST, "Project name not present in the url", e);
+      replyError(
+          httpRequest,
+          httpResponse,
+          SC_BAD_REQUEST,
+          "Project name not present in the url",
+          CacheControl.NONE,
+          e);
     } catch (Exception e) {
-      if (e instanceof IllegalArgumentException
+      Optional<PayloadTooLargeException> payloadTooLarge = PayloadSerDes.getPayloadTooLarge(e);
+      if (payloadTooLarge.isPresent()) {
+        replyPayloadTooLarge(httpRequest, httpResponse, payloadTooLarge.get());
+      } else if (e instanceof IllegalArgumentException
           || e.getCause() instanceof IllegalArgumentException) {
-        RestApiServlet.replyError(
-            httpRequest, httpResponse, SC_BAD_REQUEST, "Invalid repository path in request", e);
+        replyError(
+            httpRequest,
+            httpResponse,
+            SC_BAD_REQUEST,
+            "Invalid repository path in request",
+            CacheControl.NONE,
+            e);
       } else {
         throw new ServletException(e);
       }
     }
   }
 
+  /**
+   * Reply with an error, advertising the encodings accepted for the request bodies as all the
+   * responses of the pull-replication REST-APIs do.
+   */
+  private static void replyError(
+      HttpServletRequest httpRequest,
+      HttpServletResponse httpResponse,
+      int statusCode,
+      String message,
+      CacheControl caching,
+      Exception e)
+      throws IOException {
+    PayloadSerDes.advertiseRequestEncodings(httpResponse);
+    RestApiServlet.replyError(httpRequest, httpResponse, statusCode, message, caching, e);
+  }
+
+  private static void replyPayloadTooLarge(
+      HttpServletRequest httpRequest, HttpServletResponse httpResponse, PayloadTooLargeException e)
+      throws IOException {
+    replyError(
+        httpRequest,
+        httpResponse,
+        SC_REQUEST_ENTITY_TOO_LARGE,
+        e.getMessage(),
+        CacheControl.NONE,
+        e);
+  }
+
   private void failIfcurrentUserIsAnonymous() throws UnauthorizedAuthException {
     CurrentUser currentUser = currentUserProvider.get();
     if (currentUser instanceof AnonymousUser) {
@@ -221,21 +322,65 @@ public class PullReplicationFilter extends AllRequestFilter implements PullRepli
   @SuppressWarnings("unchecked")
   private Response<String> doApplyObjects(HttpServletRequest httpRequest)
       throws RestApiException, IOException, PermissionBackendException {
-    RevisionsInput input = PayloadSerDes.parseRevisionsInput(httpRequest);
     IdString id = getProjectName(httpRequest).get();
-
-    return (Response<String>) applyObjectsAction.apply(parseProjectResource(id), input);
+    ProjectResource resource = parseProjectResource(id);
+
+    try (RevisionsInputReader input = PayloadSerDes.readRevisionsInput(httpRequest)) {
+      return (Response<String>)
+          applyObjectsAction.apply(
+              resource,
+              input.getLabel(),
+              input.getRefName(),
+              input.getEventCreatedOn(),
+              input.getRevisionsData());
+    }
   }
 
   @SuppressWarnings("unchecked")
   private Response<Map<String, Object>> doBatchApplyObject(HttpServletRequest httpRequest)
       throws RestApiException, IOException {
-    TypeLiteral<List<RevisionInput>> collectionType = new TypeLiteral<>() {};
-    List<RevisionInput> inputs = readJson(httpRequest, collectionType.getType());
     IdString id = getProjectName(httpRequest).get();
+    ProjectResource resource = parseProjectResource(id);
 
-    return (Response<Map<String, Object>>)
-        batchApplyObjectAction.apply(parseProjectResource(id), inputs);
+    try (JsonArrayReader<RevisionInput> inputs = PayloadSerDes.readRevisionInputs(httpRequest)) {
+      return (Response<Map<String, Object>>) batchApplyObjectAction.apply(resource, inputs);
+    }
+  }
+
+  private Response<Map<String, ProjectBatchResult>> doMultiProjectBatchApplyObject(
+      HttpServletRequest httpRequest) throws BadRequestException, IOException {
+    try (JsonArrayReader<ProjectBatchInput> inputs =
+        PayloadSerDes.readProjectBatchInputs(httpRequest)) {
+      return multiProjectBatchApplyObjectAction.apply(inputs);
+    }
+  }
+
+  @SuppressWarnings("unchecked")
+  private Response<List<String>> doMissingObjects(HttpServletRequest httpRequest)
+      throws RestApiException, IOException {
+    MissingObjectsInput input = PayloadSerDes.parseMissingObjectsInput(httpRequest);
+    IdString id = getProjectName(httpRequest).get();
+
+    return (Response<List<String>>) missingObjectsAction.apply(parseProjectResource(id), input);
+  }
+
+  @SuppressWarnings("unchecked")
+  private Response<Map<String, ConditionalApplyResult>> doConditionalApply(
+      HttpServletRequest httpRequest) throws RestApiException, IOException {
+    ConditionalApplyInput input = PayloadSerDes.parseConditionalApplyInput(httpRequest);
+    IdString id = getProjectName(httpRequest).get();
+
+    return (Response<Map<String, ConditionalApplyResult>>)
+        conditionalApplyAction.apply(parseProjectResource(id), input);
+  }
+
+  @SuppressWarnings("unchecked")
+  private Response<String> doApplyPack(HttpServletRequest httpRequest)
+      throws RestApiException, IOException {
+    ApplyPackInput input = PayloadSerDes.parseApplyPackInput(httpRequest);
+    IdString id = getProjectName(httpRequest).get();
+
+    return (Response<String>) applyPackAction.apply(parseProjectResource(id), input);
   }
 
   @SuppressWarnings("unchecked")
@@ -299,7 +444,7 @@ public class PullReplicationFilter extends AllRequestFilter implements PullRepli
   private <T> T readJson(HttpServletRequest httpRequest, Type typeToken)
       throws IOException, BadRequestException {
 
-    try (BufferedReader br = httpRequest.getReader();
+    try (BufferedReader br = PayloadSerDes.getReader(httpRequest);
         JsonReader json = new JsonReader(br)) {
       try {
         json.setLenient(true);
@@ -358,6 +503,32 @@ public class PullReplicationFilter extends AllRequestFilter implements PullRepli
         .endsWith(String.format("/%s~" + BATCH_APPLY_OBJECT_API_ENDPOINT, pluginName));
   }
 
+  private boolean isMultiProjectBatchApplyObjectAction(HttpServletRequest httpRequest) {
+    return httpRequest
+            .getRequestURI()
+            .endsWith(
+                String.format("/%s/" + MULTI_PROJECT_BATCH_APPLY_OBJECT_API_ENDPOINT, pluginName))
+        && "POST".equals(httpRequest.getMethod());
+  }
+
+  private boolean isMissingObjectsAction(HttpServletRequest httpRequest) {
+    return httpRequest
+        .getRequestURI()
+        .endsWith(String.format("/%s~" + MISSING_OBJECTS_API_ENDPOINT, pluginName));
+  }
+
+  private boolean isConditionalApplyAction(HttpServletRequest httpRequest) {
+    return httpRequest
+        .getRequestURI()
+        .endsWith(String.format("/%s~" + CONDITIONAL_APPLY_API_ENDPOINT, pluginName));
+  }
+
+  private boolean isApplyPackAction(HttpServletRequest httpRequest) {
+    return httpRequest
+        .getRequestURI()
+        .endsWith(String.format("/%s~" + APPLY_PACK_API_ENDPOINT, pluginName));
+  }
+
   private boolean isFetchAction(HttpServletRequest httpRequest) {
     return httpRequest.getRequestURI().endsWith(String.format("/%s~" + FETCH_ENDPOINT, pluginName));
   }
@@ -0,0 +1,117 @@
+// Copyright (C) 2025 The Android Open Source Project
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+// http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.googlesource.gerrit.plugins.replication.pull.api.data;
+
+import java.io.InputStream;
+import java.util.List;
+import java.util.Objects;
+import org.eclipse.jgit.lib.ObjectId;
+
+/**
+ * Header of the apply-pack API, followed in the request body by a thin pack of the objects of all
+ * the refs, built against their parents.
+ */
+public class ApplyPackInput {
+  private String label;
+
+  private long eventCreatedOn;
+
+  private List<RefUpdateInput> refs;
+
+  private transient InputStream pack;
+
+  public ApplyPackInput(String label, long eventCreatedOn, List<RefUpdateInput> refs) {
+    this.label = label;
+    this.eventCreatedOn = eventCreatedOn;
+    this.refs = refs;
+  }
+
+  public String getLabel() {
+    return label;
+  }
+
+  public long getEventCreatedOn() {
+    return eventCreatedOn;
+  }
+
+  public List<RefUpdateInput> getRefs() {
+    return refs;
+  }
+
+  public InputStream getPack() {
+    return pack;
+  }
+
+  public void setPack(InputStream pack) {
+    this.pack = pack;
+  }
+
+  public void validate() {
+    if (Objects.isNull(refs) || refs.isEmpty()) {
+      throw new IllegalArgumentException("Refs cannot be null or empty");
+    }
+    for (RefUpdateInput ref : refs) {
+      ref.validate();
+    }
+  }
+
+  @Override
+  public String toString() {
+    return "ApplyPackInput { " + label + " - " + refs + "}";
+  }
+
+  public static class RefUpdateInput {
+    private String refName;
+
+    private String objectId;
+
+    private List<String> parentObjectIds;
+
+    public RefUpdateInput(String refName, String objectId, List<String> parentObjectIds) {
+      this.refName = refName;
+      this.objectId = objectId;
+      this.parentObjectIds = parentObjectIds;
+    }
+
+    public String getRefName() {
+      return refName;
+    }
+
+    public String getObjectId() {
+      return objectId;
+    }
+
+    public List<String> getParentObjectIds() {
+      return parentObjectIds;
+    }
+
+    void validate() {
+      if (Objects.isNull(refName) || refName.isEmpty()) {
+        throw new IllegalArgumentException("Ref-update refname cannot be null or empty");
+      }
+      if (Objects.isNull(objectId) || !ObjectId.isId(objectId)) {
+        throw new IllegalArgumentException("Ref " + refName + " has an invalid object id");
+      }
+      if (Objects.nonNull(parentObjectIds) && !parentObjectIds.stream().allMatch(ObjectId::isId)) {
+        throw new IllegalArgumentException("Ref " + refName + " has an invalid parent object id");
+      }
+    }
+
+    @Override
+    public String toString() {
+      return refName + ":" + objectId;
+    }
+  }
+}
@@ -0,0 +1,64 @@
+// Copyright (C) 2025 The Android Open Source Project
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+// http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.googlesource.gerrit.plugins.replication.pull.api.data;
+
+import com.googlesource.gerrit.plugins.replication.pull.api.data.ApplyPackInput.RefUpdateInput;
+import java.util.List;
+import java.util.Objects;
+
+/**
+ * Precondition of the apply-object APIs: the refs to be replicated with their new objects, which
+ * the target applies straight away when it has the objects already, so that they do not need to be
+ * sent.
+ */
+public class ConditionalApplyInput {
+  private String label;
+
+  private long eventCreatedOn;
+
+  private List<RefUpdateInput> refs;
+
+  public ConditionalApplyInput(String label, long eventCreatedOn, List<RefUpdateInput> refs) {
+    this.label = label;
+    this.eventCreatedOn = eventCreatedOn;
+    this.refs = refs;
+  }
+
+  public String getLabel() {
+    return label;
+  }
+
+  public long getEventCreatedOn() {
+    return eventCreatedOn;
+  }
+
+  public List<RefUpdateInput> getRefs() {
+    return refs;
+  }
+
+  public void validate() {
+    if (Objects.isNull(refs) || refs.isEmpty()) {
+      throw new IllegalArgumentException("Refs cannot be null or empty");
+    }
+    for (RefUpdateInput ref : refs) {
+      ref.validate();
+    }
+  }
+
+  @Override
+  public String toString() {
+    return "ConditionalApplyInput { " + label + " - " + refs + "}";
+  }
+}
@@ -0,0 +1,30 @@
+// Copyright (C) 2025 The Android Open Source Project
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+// http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.googlesource.gerrit.plugins.replication.pull.api.data;
+
+/** The outcome of a ref of a {@link ConditionalApplyInput}. */
+public enum ConditionalApplyResult {
+  /** The ref was already pointing to its new object. */
+  UP_TO_DATE,
+
+  /**
+   * The new object of the ref, along with all the objects reachable from it, was already present
+   * and the ref has been updated to it.
+   */
+  UPDATED,
+
+  /** The ref has not been updated, hence its objects need to be sent. */
+  NOT_APPLIED
+}
@@ -0,0 +1,48 @@
+// Copyright (C) 2025 The Android Open Source Project
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+// http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.googlesource.gerrit.plugins.replication.pull.api.data;
+
+import java.util.List;
+
+public class MissingObjectsInput {
+  private String label;
+
+  private String refName;
+
+  private List<String> objectIds;
+
+  public MissingObjectsInput(String label, String refName, List<String> objectIds) {
+    this.label = label;
+    this.refName = refName;
+    this.objectIds = objectIds;
+  }
+
+  public String getLabel() {
+    return label;
+  }
+
+  public String getRefName() {
+    return refName;
+  }
+
+  public List<String> getObjectIds() {
+    return objectIds;
+  }
+
+  @Override
+  public String toString() {
+    return "MissingObjectsInput { " + label + ":" + refName + " - " + objectIds + "}";
+  }
+}
@@ -0,0 +1,37 @@
+// Copyright (C) 2025 The Android Open Source Project
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+// http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.googlesource.gerrit.plugins.replication.pull.api.data;
+
+import java.util.List;
+
+/** The ref-updates of a single project of a multi-project batch-apply-object request. */
+public class ProjectBatchInput {
+  private String project;
+
+  private List<RevisionInput> revisionInputs;
+
+  public ProjectBatchInput(String project, List<RevisionInput> revisionInputs) {
+    this.project = project;
+    this.revisionInputs = revisionInputs;
+  }
+
+  public String getProject() {
+    return project;
+  }
+
+  public List<RevisionInput> getRevisionInputs() {
+    return revisionInputs;
+  }
+}
@@ -0,0 +1,53 @@
+// Copyright (C) 2025 The Android Open Source Project
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+// http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.googlesource.gerrit.plugins.replication.pull.api.data;
+
+import com.google.gerrit.common.Nullable;
+import java.util.Map;
+
+/**
+ * The outcome of the ref-updates of a single project of a multi-project batch-apply-object request.
+ *
+ * <p>The ref-updates of a project are applied in order and stop at the first failure, hence the
+ * refs after the failed one have no status.
+ */
+public class ProjectBatchResult {
+  private int statusCode;
+
+  @Nullable private String message;
+
+  private Map<String, Integer> refs;
+
+  public ProjectBatchResult(int statusCode, @Nullable String message, Map<String, Integer> refs) {
+    this.statusCode = statusCode;
+    this.message = message;
+    this.refs = refs;
+  }
+
+  /** The status code the batch-apply-object REST-API of the project would have responded. */
+  public int getStatusCode() {
+    return statusCode;
+  }
+
+  @Nullable
+  public String getMessage() {
+    return message;
+  }
+
+  /** The status code of every ref-update applied or failed. */
+  public Map<String, Integer> getRefs() {
+    return refs;
+  }
+}
@@ -15,6 +15,9 @@
 package com.googlesource.gerrit.plugins.replication.pull.api.data;
 
 import java.util.List;
+import java.util.Objects;
+import java.util.Optional;
+import java.util.stream.Stream;
 import org.eclipse.jgit.lib.ObjectId;
 
 public class RevisionData {
@@ -53,6 +56,16 @@ public class RevisionData {
     return blobs;
   }
 
+  /** Total size of the encoded content of all the objects of the revision. */
+  public long getContentSize() {
+    return Stream.concat(
+            Stream.of(commitObject, treeObject),
+            Optional.ofNullable(blobs).orElse(List.of()).stream())
+        .filter(Objects::nonNull)
+        .mapToLong(RevisionObjectData::getContentSize)
+        .sum();
+  }
+
   @Override
   public String toString() {
     return "{"
@@ -54,7 +54,7 @@ public class RevisionInput {
     validate(refName, revisionData);
   }
 
-  static void validate(String refName, RevisionData revisionData) {
+  public static void validate(String refName, RevisionData revisionData) {
     // Non-heads refs can point to non-commit objects
     if (!refName.startsWith(Constants.R_HEADS)
         && Objects.isNull(revisionData.getCommitObject())
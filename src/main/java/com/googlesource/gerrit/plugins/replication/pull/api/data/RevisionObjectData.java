@@ -14,26 +14,51 @@
 
 package com.googlesource.gerrit.plugins.replication.pull.api.data;
 
+import com.google.gson.JsonSyntaxException;
+import com.google.gson.TypeAdapter;
+import com.google.gson.annotations.JsonAdapter;
+import com.google.gson.stream.JsonReader;
+import com.google.gson.stream.JsonToken;
+import com.google.gson.stream.JsonWriter;
+import java.io.IOException;
 import java.util.Base64;
 import org.eclipse.jgit.lib.Constants;
 
+/**
+ * Git object sent through the REST-API.
+ *
+ * <p>The content is held as raw bytes and it is base64-encoded only when serialized to JSON.
+ */
+@JsonAdapter(RevisionObjectData.GsonAdapter.class)
 public class RevisionObjectData {
+  private static final byte[] EMPTY_CONTENT = new byte[0];
+
   private final String sha1;
   private final Integer type;
-  private final String content;
+  private final byte[] content;
 
   public RevisionObjectData(String sha1, int type, byte[] content) {
+    this(sha1, Integer.valueOf(type), content);
+  }
+
+  private RevisionObjectData(String sha1, Integer type, byte[] content) {
     this.sha1 = sha1;
     this.type = type;
-    this.content = content == null ? "" : Base64.getEncoder().encodeToString(content);
+    this.content = content == null ? EMPTY_CONTENT : content;
   }
 
   public Integer getType() {
     return type;
   }
 
+  /** Raw content of the object, which is shared and therefore must not be modified. */
   public byte[] getContent() {
-    return Base64.getDecoder().decode(content);
+    return content;
+  }
+
+  /** Size in bytes of the content, as serialized in the REST-API payload. */
+  public int getContentSize() {
+    return 4 * ((content.length + 2) / 3);
   }
 
   public String getSha1() {
@@ -60,4 +85,63 @@ public class RevisionObjectData {
 
     return sha1 + " (" + typeStr + ")";
   }
+
+  static class GsonAdapter extends TypeAdapter<RevisionObjectData> {
+
+    @Override
+    public void write(JsonWriter out, RevisionObjectData value) throws IOException {
+      if (value == null) {
+        out.nullValue();
+        return;
+      }
+      out.beginObject();
+      out.name("sha1").value(value.sha1);
+      out.name("type").value(value.type);
+      out.name("content").value(Base64.getEncoder().encodeToString(value.content));
+      out.endObject();
+    }
+
+    @Override
+    public RevisionObjectData read(JsonReader in) throws IOException {
+      if (in.peek() == JsonToken.NULL) {
+        in.nextNull();
+        return null;
+      }
+      String sha1 = null;
+      Integer type = null;
+      byte[] content = null;
+      in.beginObject();
+      while (in.hasNext()) {
+        String name = in.nextName();
+        if (in.peek() == JsonToken.NULL) {
+          in.nextNull();
+          continue;
+        }
+        switch (name) {
+          case "sha1":
+            sha1 = in.nextString();
+            break;
+          case "type":
+            type = in.nextInt();
+            break;
+          case "content":
+            content = decode(in.nextString());
+            break;
+          default:
+            in.skipValue();
+            break;
+        }
+      }
+      in.endObject();
+      return new RevisionObjectData(sha1, type, content);
+    }
+
+    private static byte[] decode(String content) {
+      try {
+        return Base64.getDecoder().decode(content);
+      } catch (IllegalArgumentException e) {
+        throw new JsonSyntaxException("Invalid base64 object content", e);
+      }
+    }
+  }
 }
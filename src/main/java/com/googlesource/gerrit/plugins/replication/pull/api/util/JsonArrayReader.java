@@ -0,0 +1,113 @@
+// Copyright (C) 2025 The Android Open Source Project
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+// http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.googlesource.gerrit.plugins.replication.pull.api.util;
+
+import com.google.common.flogger.FluentLogger;
+import com.google.gerrit.extensions.restapi.BadRequestException;
+import com.google.gson.Gson;
+import com.google.gson.JsonIOException;
+import com.google.gson.stream.JsonReader;
+import com.google.gson.stream.JsonToken;
+import java.io.BufferedReader;
+import java.io.Closeable;
+import java.io.EOFException;
+import java.io.IOException;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+
+/**
+ * Lazy reader of the elements of a JSON array, each of them parsed only when requested, so that at
+ * most one element at a time is held in memory regardless of the size of the array.
+ *
+ * <p>Parsing errors are reported as {@link com.google.gson.JsonParseException}.
+ */
+public class JsonArrayReader<T> implements Iterator<T>, Closeable {
+  private static final FluentLogger logger = FluentLogger.forEnclosingClass();
+
+  private final BufferedReader br;
+  private final JsonReader json;
+  private final Gson gson;
+  private final Class<T> elementClass;
+  private boolean endOfArray;
+
+  JsonArrayReader(BufferedReader br, Gson gson, Class<T> elementClass)
+      throws BadRequestException, IOException {
+    this(br, newJsonReader(br), gson, elementClass);
+  }
+
+  /**
+   * Reader of the elements of the JSON array the JSON reader is positioned at, for instance the
+   * value of a field of an object being read.
+   */
+  JsonArrayReader(BufferedReader br, JsonReader json, Gson gson, Class<T> elementClass)
+      throws BadRequestException, IOException {
+    this.br = br;
+    this.json = json;
+    this.gson = gson;
+    this.elementClass = elementClass;
+
+    try {
+      if (json.peek() != JsonToken.BEGIN_ARRAY) {
+        throw new BadRequestException("Expected JSON array");
+      }
+    } catch (EOFException e) {
+      throw new BadRequestException("Expected JSON array", e);
+    }
+    json.beginArray();
+  }
+
+  static JsonReader newJsonReader(BufferedReader br) {
+    JsonReader json = new JsonReader(br);
+    json.setLenient(true);
+    return json;
+  }
+
+  @Override
+  public boolean hasNext() {
+    if (endOfArray) {
+      return false;
+    }
+    try {
+      if (json.hasNext()) {
+        return true;
+      }
+      json.endArray();
+      endOfArray = true;
+      return false;
+    } catch (IOException e) {
+      throw new JsonIOException(e);
+    }
+  }
+
+  @Override
+  public T next() {
+    if (!hasNext()) {
+      throw new NoSuchElementException();
+    }
+    return gson.fromJson(json, elementClass);
+  }
+
+  @Override
+  public void close() throws IOException {
+    try {
+      // Reader.close won't consume the rest of the input. Explicitly consume the request body.
+      br.skip(Long.MAX_VALUE);
+    } catch (Exception e) {
+      // ignore, e.g. trying to consume the rest of the input may fail if the request was cancelled
+      logger.atFine().withCause(e).log("Exception during the parsing of the request json");
+    }
+    json.close();
+  }
+}
@@ -17,7 +17,10 @@ package com.googlesource.gerrit.plugins.replication.pull.api.util;
 import static javax.servlet.http.HttpServletResponse.SC_CREATED;
 import static javax.servlet.http.HttpServletResponse.SC_OK;
 
+import com.google.common.base.Strings;
+import com.google.common.base.Throwables;
 import com.google.common.flogger.FluentLogger;
+import com.google.common.net.HttpHeaders;
 import com.google.gerrit.extensions.api.projects.HeadInput;
 import com.google.gerrit.extensions.restapi.BadRequestException;
 import com.google.gerrit.extensions.restapi.Response;
@@ -27,18 +30,36 @@ import com.google.gson.stream.JsonReader;
 import com.google.inject.TypeLiteral;
 import com.googlesource.gerrit.plugins.replication.pull.api.FetchAction;
 import com.googlesource.gerrit.plugins.replication.pull.api.HttpPayloadGsonProvider;
+import com.googlesource.gerrit.plugins.replication.pull.api.data.ApplyPackInput;
+import com.googlesource.gerrit.plugins.replication.pull.api.data.ConditionalApplyInput;
+import com.googlesource.gerrit.plugins.replication.pull.api.data.MissingObjectsInput;
+import com.googlesource.gerrit.plugins.replication.pull.api.data.ProjectBatchInput;
 import com.googlesource.gerrit.plugins.replication.pull.api.data.RevisionInput;
 import com.googlesource.gerrit.plugins.replication.pull.api.data.RevisionsInput;
+import com.googlesource.gerrit.plugins.replication.pull.api.exception.PayloadTooLargeException;
+import java.io.BufferedInputStream;
 import java.io.BufferedReader;
+import java.io.ByteArrayOutputStream;
 import java.io.EOFException;
 import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
 import java.io.PrintWriter;
+import java.nio.charset.StandardCharsets;
+import java.util.Optional;
+import java.util.zip.GZIPInputStream;
+import javax.servlet.ReadListener;
+import javax.servlet.ServletInputStream;
 import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletRequestWrapper;
 import javax.servlet.http.HttpServletResponse;
+import org.eclipse.jgit.util.io.LimitedInputStream;
 
 public class PayloadSerDes {
   private static final FluentLogger logger = FluentLogger.forEnclosingClass();
   private static final Gson gson = HttpPayloadGsonProvider.get();
+  private static final int MAX_APPLY_PACK_HEADER_SIZE = 1024 * 1024;
+  private static final String GZIP_ENCODING = "gzip";
 
   public static RevisionInput parseRevisionInput(HttpServletRequest httpRequest)
       throws BadRequestException, IOException {
@@ -50,6 +71,89 @@ public class PayloadSerDes {
     return parse(httpRequest, TypeLiteral.get(RevisionsInput.class));
   }
 
+  /**
+   * Reader of the JSON array of {@link RevisionInput} of the request body, which parses every input
+   * only when it is requested, so that the batch does not need to be held in memory as a whole.
+   */
+  public static JsonArrayReader<RevisionInput> readRevisionInputs(HttpServletRequest httpRequest)
+      throws BadRequestException, IOException {
+    BufferedReader br = getReader(httpRequest);
+    try {
+      return new JsonArrayReader<>(br, gson, RevisionInput.class);
+    } catch (BadRequestException | IOException e) {
+      br.close();
+      throw e;
+    }
+  }
+
+  /**
+   * Reader of the {@link RevisionsInput} of the request body, which parses the revisions of its
+   * history only when they are requested.
+   */
+  public static RevisionsInputReader readRevisionsInput(HttpServletRequest httpRequest)
+      throws BadRequestException, IOException {
+    BufferedReader br = getReader(httpRequest);
+    try {
+      return new RevisionsInputReader(br, gson);
+    } catch (BadRequestException | IOException | RuntimeException e) {
+      br.close();
+      throw e;
+    }
+  }
+
+  /**
+   * Reader of the JSON array of {@link ProjectBatchInput} of the request body, which parses the
+   * ref-updates of every project only when they are requested.
+   */
+  public static JsonArrayReader<ProjectBatchInput> readProjectBatchInputs(
+      HttpServletRequest httpRequest) throws BadRequestException, IOException {
+    BufferedReader br = getReader(httpRequest);
+    try {
+      return new JsonArrayReader<>(br, gson, ProjectBatchInput.class);
+    } catch (BadRequestException | IOException e) {
+      br.close();
+      throw e;
+    }
+  }
+
+  public static MissingObjectsInput parseMissingObjectsInput(HttpServletRequest httpRequest)
+      throws BadRequestException, IOException {
+    return parse(httpRequest, TypeLiteral.get(MissingObjectsInput.class));
+  }
+
+  public static ConditionalApplyInput parseConditionalApplyInput(HttpServletRequest httpRequest)
+      throws BadRequestException, IOException {
+    return parse(httpRequest, TypeLiteral.get(ConditionalApplyInput.class));
+  }
+
+  /**
+   * Parse the apply-pack request body: a single line JSON header followed by the pack, which is
+   * left in the returned input to be streamed.
+   */
+  public static ApplyPackInput parseApplyPackInput(HttpServletRequest httpRequest)
+      throws BadRequestException, IOException {
+    InputStream body = new BufferedInputStream(httpRequest.getInputStream());
+    ByteArrayOutputStream header = new ByteArrayOutputStream();
+    for (int b = body.read(); b != '\n'; b = body.read()) {
+      if (b < 0) {
+        throw new BadRequestException("Expected JSON header followed by the pack");
+      }
+      if (header.size() >= MAX_APPLY_PACK_HEADER_SIZE) {
+        throw new BadRequestException(
+            "JSON header exceeds " + MAX_APPLY_PACK_HEADER_SIZE + " bytes");
+      }
+      header.write(b);
+    }
+
+    ApplyPackInput input =
+        gson.fromJson(header.toString(StandardCharsets.UTF_8), ApplyPackInput.class);
+    if (input == null) {
+      throw new BadRequestException("Expected JSON header");
+    }
+    input.setPack(body);
+    return input;
+  }
+
   public static HeadInput parseHeadInput(HttpServletRequest httpRequest)
       throws BadRequestException, IOException {
     return parse(httpRequest, TypeLiteral.get(HeadInput.class));
@@ -63,6 +167,7 @@ public class PayloadSerDes {
   public static <T> void writeResponse(HttpServletResponse httpResponse, Response<T> response)
       throws IOException {
     String responseJson = gson.toJson(response);
+    advertiseRequestEncodings(httpResponse);
     if (response.statusCode() == SC_OK || response.statusCode() == SC_CREATED) {
 
       httpResponse.setContentType("application/json");
@@ -75,10 +180,58 @@ public class PayloadSerDes {
     }
   }
 
+  /**
+   * Advertise the encodings accepted for the request bodies, so that the sources can compress them.
+   */
+  public static void advertiseRequestEncodings(HttpServletResponse httpResponse) {
+    httpResponse.setHeader(HttpHeaders.ACCEPT_ENCODING, GZIP_ENCODING);
+  }
+
+  /**
+   * Request whose body is decompressed when read, if encoded with one of the encodings advertised
+   * by {@link #advertiseRequestEncodings(HttpServletResponse)}, otherwise the request itself.
+   *
+   * <p>Reading more than {@code maxDecompressedSize} bytes of the decompressed body fails with an
+   * {@link IOException} caused by a {@link PayloadTooLargeException}, so that a small compressed
+   * body cannot exhaust the memory of the server. When {@code maxDecompressedSize} is 0, the size
+   * of the body is not limited.
+   */
+  public static HttpServletRequest decodeRequest(
+      HttpServletRequest httpRequest, long maxDecompressedSize) {
+    if (GZIP_ENCODING.equalsIgnoreCase(httpRequest.getHeader(HttpHeaders.CONTENT_ENCODING))) {
+      return new GzipRequest(httpRequest, maxDecompressedSize);
+    }
+    return httpRequest;
+  }
+
+  /**
+   * Reader of the request body, already decoded by {@link #decodeRequest(HttpServletRequest,
+   * long)}.
+   *
+   * @throws BadRequestException if the body is encoded with an encoding not advertised by {@link
+   *     #advertiseRequestEncodings(HttpServletResponse)}.
+   */
+  public static BufferedReader getReader(HttpServletRequest httpRequest)
+      throws IOException, BadRequestException {
+    String contentEncoding = httpRequest.getHeader(HttpHeaders.CONTENT_ENCODING);
+    if (!Strings.isNullOrEmpty(contentEncoding) && !"identity".equalsIgnoreCase(contentEncoding)) {
+      throw new BadRequestException("Unsupported Content-Encoding " + contentEncoding);
+    }
+    return httpRequest.getReader();
+  }
+
+  /** The {@link PayloadTooLargeException} the request body failed with, if any. */
+  public static Optional<PayloadTooLargeException> getPayloadTooLarge(Throwable e) {
+    return Throwables.getCausalChain(e).stream()
+        .filter(PayloadTooLargeException.class::isInstance)
+        .map(PayloadTooLargeException.class::cast)
+        .findFirst();
+  }
+
   private static <T> T parse(HttpServletRequest httpRequest, TypeLiteral<T> typeLiteral)
       throws IOException, BadRequestException {
 
-    try (BufferedReader br = httpRequest.getReader();
+    try (BufferedReader br = getReader(httpRequest);
         JsonReader json = new JsonReader(br)) {
       try {
         json.setLenient(true);
@@ -103,4 +256,108 @@ public class PayloadSerDes {
       }
     }
   }
+
+  private static class GzipRequest extends HttpServletRequestWrapper {
+    private final long maxDecompressedSize;
+    private ServletInputStream decompressed;
+    private BufferedReader reader;
+
+    GzipRequest(HttpServletRequest httpRequest, long maxDecompressedSize) {
+      super(httpRequest);
+      this.maxDecompressedSize = maxDecompressedSize;
+    }
+
+    @Override
+    public String getHeader(String name) {
+      if (HttpHeaders.CONTENT_ENCODING.equalsIgnoreCase(name)
+          || HttpHeaders.CONTENT_LENGTH.equalsIgnoreCase(name)) {
+        return null;
+      }
+      return super.getHeader(name);
+    }
+
+    @Override
+    public int getContentLength() {
+      return -1;
+    }
+
+    @Override
+    public long getContentLengthLong() {
+      return -1;
+    }
+
+    @Override
+    public synchronized ServletInputStream getInputStream() throws IOException {
+      if (decompressed == null) {
+        ServletInputStream compressed = super.getInputStream();
+        decompressed = new DecompressedInputStream(compressed, limit(compressed));
+      }
+      return decompressed;
+    }
+
+    @Override
+    public synchronized BufferedReader getReader() throws IOException {
+      if (reader == null) {
+        reader =
+            new BufferedReader(new InputStreamReader(getInputStream(), StandardCharsets.UTF_8));
+      }
+      return reader;
+    }
+
+    private InputStream limit(InputStream compressed) throws IOException {
+      InputStream in = new GZIPInputStream(compressed);
+      if (maxDecompressedSize <= 0) {
+        return in;
+      }
+      return new LimitedInputStream(in, maxDecompressedSize) {
+        @Override
+        protected void limitExceeded() throws IOException {
+          String message =
+              String.format(
+                  "Request body exceeds %d bytes once decompressed", maxDecompressedSize);
+          throw new IOException(message, new PayloadTooLargeException(message, null));
+        }
+      };
+    }
+  }
+
+  private static class DecompressedInputStream extends ServletInputStream {
+    private final ServletInputStream compressed;
+    private final InputStream in;
+
+    DecompressedInputStream(ServletInputStream compressed, InputStream in) {
+      this.compressed = compressed;
+      this.in = in;
+    }
+
+    @Override
+    public int read() throws IOException {
+      return in.read();
+    }
+
+    @Override
+    public int read(byte[] b, int off, int len) throws IOException {
+      return in.read(b, off, len);
+    }
+
+    @Override
+    public void close() throws IOException {
+      in.close();
+    }
+
+    @Override
+    public boolean isFinished() {
+      return compressed.isFinished();
+    }
+
+    @Override
+    public boolean isReady() {
+      return compressed.isReady();
+    }
+
+    @Override
+    public void setReadListener(ReadListener readListener) {
+      compressed.setReadListener(readListener);
+    }
+  }
 }
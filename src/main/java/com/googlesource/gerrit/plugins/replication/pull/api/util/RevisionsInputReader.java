@@ -0,0 +1,127 @@
+// Copyright (C) 2025 The Android Open Source Project
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+// http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.googlesource.gerrit.plugins.replication.pull.api.util;
+
+import com.google.common.flogger.FluentLogger;
+import com.google.gerrit.common.Nullable;
+import com.google.gerrit.extensions.restapi.BadRequestException;
+import com.google.gson.Gson;
+import com.google.gson.stream.JsonReader;
+import com.google.gson.stream.JsonToken;
+import com.googlesource.gerrit.plugins.replication.pull.api.data.RevisionData;
+import com.googlesource.gerrit.plugins.replication.pull.api.data.RevisionsInput;
+import java.io.BufferedReader;
+import java.io.Closeable;
+import java.io.EOFException;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Iterator;
+
+/**
+ * Lazy reader of a {@link RevisionsInput}, whose revisions are parsed only when requested, so that
+ * the history of the ref does not need to be held in memory as a whole.
+ *
+ * <p>The revisions are streamed only when they follow the other fields of the input, as serialized
+ * by the sources. Otherwise they are read as a whole, so that the fields after them are read too.
+ */
+public class RevisionsInputReader implements Closeable {
+  private static final FluentLogger logger = FluentLogger.forEnclosingClass();
+  private static final String LABEL = "label";
+  private static final String REF_NAME = "ref_name";
+  private static final String EVENT_CREATED_ON = "event_created_on";
+  private static final String REVISIONS_DATA = "revisions_data";
+
+  private final BufferedReader br;
+  private final JsonReader json;
+  private String label;
+  private String refName;
+  private Long eventCreatedOn;
+  private Iterator<RevisionData> revisionsData;
+
+  RevisionsInputReader(BufferedReader br, Gson gson) throws BadRequestException, IOException {
+    this.br = br;
+    this.json = JsonArrayReader.newJsonReader(br);
+
+    try {
+      if (json.peek() != JsonToken.BEGIN_OBJECT) {
+        throw new BadRequestException("Expected JSON object");
+      }
+    } catch (EOFException e) {
+      throw new BadRequestException("Expected JSON object", e);
+    }
+    json.beginObject();
+
+    while (json.hasNext()) {
+      String name = json.nextName();
+      if (json.peek() == JsonToken.NULL) {
+        json.nextNull();
+        continue;
+      }
+      switch (name) {
+        case LABEL:
+          label = json.nextString();
+          break;
+        case REF_NAME:
+          refName = json.nextString();
+          break;
+        case EVENT_CREATED_ON:
+          eventCreatedOn = json.nextLong();
+          break;
+        case REVISIONS_DATA:
+          if (label != null && refName != null && eventCreatedOn != null) {
+            revisionsData = new JsonArrayReader<>(br, json, gson, RevisionData.class);
+            return;
+          }
+          RevisionData[] revisions = gson.fromJson(json, RevisionData[].class);
+          revisionsData = Arrays.asList(revisions).iterator();
+          break;
+        default:
+          json.skipValue();
+      }
+    }
+  }
+
+  @Nullable
+  public String getLabel() {
+    return label;
+  }
+
+  @Nullable
+  public String getRefName() {
+    return refName;
+  }
+
+  public long getEventCreatedOn() {
+    return eventCreatedOn != null ? eventCreatedOn : 0L;
+  }
+
+  /** The revisions of the input, parsed while iterated, or {@code null} when missing. */
+  @Nullable
+  public Iterator<RevisionData> getRevisionsData() {
+    return revisionsData;
+  }
+
+  @Override
+  public void close() throws IOException {
+    try {
+      // Reader.close won't consume the rest of the input. Explicitly consume the request body.
+      br.skip(Long.MAX_VALUE);
+    } catch (Exception e) {
+      // ignore, e.g. trying to consume the rest of the input may fail if the request was cancelled
+      logger.atFine().withCause(e).log("Exception during the parsing of the request json");
+    }
+    json.close();
+  }
+}
@@ -0,0 +1,219 @@
+// Copyright (C) 2025 The Android Open Source Project
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+// http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.googlesource.gerrit.plugins.replication.pull.client;
+
+import com.google.common.base.Ticker;
+import com.google.gerrit.entities.Project;
+import com.googlesource.gerrit.plugins.replication.pull.FetchOne;
+import com.googlesource.gerrit.plugins.replication.pull.api.FetchAction.RefInput;
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Set;
+import org.eclipse.jgit.transport.URIish;
+
+/**
+ * Circuit breaker of the REST-API calls to a single apiUrl.
+ *
+ * <p>The outcome of the last {@code windowSize} calls is tracked, counting as failures the calls
+ * that did not get a response, got a 5xx response or took longer than the slow call threshold. When
+ * the failure rate of a full window reaches the threshold the breaker opens and the calls are
+ * rejected without reaching the network. Once the open duration elapses a single probe call is let
+ * through: its success closes the breaker, its failure opens it again.
+ *
+ * <p>The refs of the calls rejected while the breaker is not closed are kept, so that they can be
+ * fetched by the target once the breaker closes. When their number exceeds the limit, all the refs
+ * of the project of the rejected call are fetched instead.
+ */
+public class CircuitBreaker {
+  public enum State {
+    CLOSED,
+    OPEN,
+    HALF_OPEN
+  }
+
+  private static final RefInput ALL_REFS = RefInput.create(FetchOne.ALL_REFS);
+
+  private final URIish apiUrl;
+  private final int failureRateThreshold;
+  private final long slowCallThresholdNanos;
+  private final long openDurationNanos;
+  private final int maxDeferredRefs;
+  private final Ticker ticker;
+  private final boolean[] window;
+  private final Map<Project.NameKey, Set<RefInput>> deferredRefs = new LinkedHashMap<>();
+
+  private State state = State.CLOSED;
+  private int deferredRefsCount;
+  private int calls;
+  private int failures;
+  private int next;
+  private long openedAtNanos;
+  private boolean probeInFlight;
+
+  /**
+   * @param apiUrl the apiUrl the calls are sent to.
+   * @param failureRateThreshold percentage of failed calls of the window opening the breaker, zero
+   *     to never open it.
+   * @param windowSize number of calls the failure rate is computed from.
+   * @param slowCallThresholdNanos duration beyond which a call counts as failed, zero to only count
+   *     the errors.
+   * @param openDurationNanos time the breaker stays open before letting a probe call through.
+   * @param maxDeferredRefs number of refs of the rejected calls kept before fetching all the refs
+   *     of their projects instead.
+   * @param ticker source of the time.
+   */
+  CircuitBreaker(
+      URIish apiUrl,
+      int failureRateThreshold,
+      int windowSize,
+      long slowCallThresholdNanos,
+      long openDurationNanos,
+      int maxDeferredRefs,
+      Ticker ticker) {
+    this.apiUrl = apiUrl;
+    this.failureRateThreshold = failureRateThreshold;
+    this.slowCallThresholdNanos = slowCallThresholdNanos;
+    this.openDurationNanos = openDurationNanos;
+    this.maxDeferredRefs = maxDeferredRefs;
+    this.ticker = ticker;
+    this.window = new boolean[Math.max(1, windowSize)];
+  }
+
+  public URIish getApiUrl() {
+    return apiUrl;
+  }
+
+  public synchronized State getState() {
+    return state;
+  }
+
+  /** Number of refs waiting for the breaker to close to be fetched. */
+  public synchronized int getDeferredRefsCount() {
+    return deferredRefsCount;
+  }
+
+  /**
+   * Acquire the permission to execute a call.
+   *
+   * @return the state the breaker has moved to when the open duration has elapsed and the call is
+   *     the probe, empty otherwise.
+   * @throws CircuitBreakerOpenException if the call is rejected.
+   */
+  synchronized Optional<State> acquire() throws CircuitBreakerOpenException {
+    switch (state) {
+      case CLOSED:
+        return Optional.empty();
+      case OPEN:
+        if (ticker.read() - openedAtNanos < openDurationNanos) {
+          throw new CircuitBreakerOpenException(apiUrl);
+        }
+        state = State.HALF_OPEN;
+        probeInFlight = true;
+        return Optional.of(state);
+      case HALF_OPEN:
+      default:
+        if (probeInFlight) {
+          throw new CircuitBreakerOpenException(apiUrl);
+        }
+        probeInFlight = true;
+        return Optional.empty();
+    }
+  }
+
+  /**
+   * Record the outcome of a call executed after {@link #acquire()}.
+   *
+   * @param failed whether the call failed.
+   * @param elapsedNanos duration of the call.
+   * @return the state the breaker has moved to because of the outcome, empty if unchanged.
+   */
+  synchronized Optional<State> onResult(boolean failed, long elapsedNanos) {
+    boolean failure =
+        failed || (slowCallThresholdNanos > 0 && elapsedNanos > slowCallThresholdNanos);
+    switch (state) {
+      case HALF_OPEN:
+        probeInFlight = false;
+        return Optional.of(failure ? open() : close());
+      case CLOSED:
+        if (calls == window.length && window[next]) {
+          failures--;
+        }
+        window[next] = failure;
+        next = (next + 1) % window.length;
+        calls = Math.min(calls + 1, window.length);
+        if (failure) {
+          failures++;
+        }
+        if (failureRateThreshold > 0
+            && calls == window.length
+            && failures * 100 >= failureRateThreshold * calls) {
+          return Optional.of(open());
+        }
+        return Optional.empty();
+      case OPEN:
+      default:
+        // Outcome of a call started before the breaker opened
+        return Optional.empty();
+    }
+  }
+
+  /**
+   * Keep the refs of a rejected call, to be fetched once the breaker closes. Past the limit of
+   * deferred refs, they are replaced by all the refs of the project.
+   */
+  synchronized void defer(Project.NameKey project, Collection<RefInput> refs) {
+    Set<RefInput> projectRefs = deferredRefs.computeIfAbsent(project, p -> new LinkedHashSet<>());
+    if (projectRefs.contains(ALL_REFS)) {
+      return;
+    }
+    deferredRefsCount -= projectRefs.size();
+    projectRefs.addAll(refs);
+    if (deferredRefsCount + projectRefs.size() > maxDeferredRefs) {
+      projectRefs.clear();
+      projectRefs.add(ALL_REFS);
+    }
+    deferredRefsCount += projectRefs.size();
+  }
+
+  /** Take the refs of the rejected calls, grouped by project. */
+  synchronized Map<Project.NameKey, Set<RefInput>> drainDeferredRefs() {
+    Map<Project.NameKey, Set<RefInput>> drained = new LinkedHashMap<>(deferredRefs);
+    deferredRefs.clear();
+    deferredRefsCount = 0;
+    return drained;
+  }
+
+  private State open() {
+    state = State.OPEN;
+    openedAtNanos = ticker.read();
+    return state;
+  }
+
+  private State close() {
+    state = State.CLOSED;
+    calls = 0;
+    failures = 0;
+    next = 0;
+    return state;
+  }
+
+  @Override
+  public synchronized String toString() {
+    return String.format("%s %s (%d deferred refs)", apiUrl, state, getDeferredRefsCount());
+  }
+}
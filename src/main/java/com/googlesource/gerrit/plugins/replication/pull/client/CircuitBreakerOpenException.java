@@ -0,0 +1,27 @@
+// Copyright (C) 2025 The Android Open Source Project
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+// http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.googlesource.gerrit.plugins.replication.pull.client;
+
+import java.io.IOException;
+import org.eclipse.jgit.transport.URIish;
+
+/** Rejection of a REST-API call because the circuit breaker of its apiUrl is open. */
+public class CircuitBreakerOpenException extends IOException {
+  private static final long serialVersionUID = 1L;
+
+  CircuitBreakerOpenException(URIish apiUrl) {
+    super(String.format("Circuit breaker of %s is open: call rejected", apiUrl));
+  }
+}
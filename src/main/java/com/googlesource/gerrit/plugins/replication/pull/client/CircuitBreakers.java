@@ -0,0 +1,152 @@
+// Copyright (C) 2025 The Android Open Source Project
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+// http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.googlesource.gerrit.plugins.replication.pull.client;
+
+import com.google.common.annotations.VisibleForTesting;
+import com.google.common.base.Ticker;
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.collect.ImmutableList;
+import com.google.common.flogger.FluentLogger;
+import com.google.gerrit.extensions.annotations.PluginName;
+import com.google.gerrit.metrics.Counter1;
+import com.google.gerrit.metrics.Counter2;
+import com.google.gerrit.metrics.Description;
+import com.google.gerrit.metrics.Field;
+import com.google.gerrit.metrics.MetricMaker;
+import com.google.gerrit.server.logging.PluginMetadata;
+import com.google.inject.Inject;
+import com.google.inject.Singleton;
+import com.googlesource.gerrit.plugins.replication.pull.ApplyObjectMetrics;
+import com.googlesource.gerrit.plugins.replication.pull.Source;
+import com.googlesource.gerrit.plugins.replication.pull.client.CircuitBreaker.State;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import org.eclipse.jgit.transport.URIish;
+
+/**
+ * The {@link CircuitBreaker} of every apiUrl of the sources.
+ *
+ * <p>The breakers are retained only while their source is reachable, hence a configuration reload
+ * starts with all the breakers of the new sources closed.
+ */
+@Singleton
+public class CircuitBreakers {
+  private static final FluentLogger logger = FluentLogger.forEnclosingClass();
+
+  private final Cache<Source, Map<String, CircuitBreaker>> breakers =
+      CacheBuilder.newBuilder().weakKeys().build();
+  private final Ticker ticker;
+  private final Counter2<String, String> transitions;
+  private final Counter1<String> rejectedCalls;
+
+  @Inject
+  CircuitBreakers(@PluginName String pluginName, MetricMaker metricMaker) {
+    this(pluginName, metricMaker, Ticker.systemTicker());
+  }
+
+  @VisibleForTesting
+  public CircuitBreakers(String pluginName, MetricMaker metricMaker, Ticker ticker) {
+    this.ticker = ticker;
+    Field<String> apiUrlField =
+        Field.ofString(
+                "api_url",
+                (metadataBuilder, fieldValue) ->
+                    metadataBuilder
+                        .pluginName(pluginName)
+                        .addPluginMetadata(PluginMetadata.create("api_url", fieldValue)))
+            .build();
+    transitions =
+        metricMaker.newCounter(
+            "circuit_breaker/transitions",
+            new Description("State transitions of the circuit breaker of an apiUrl")
+                .setRate()
+                .setUnit("transitions"),
+            apiUrlField,
+            Field.ofString(
+                    "state",
+                    (metadataBuilder, fieldValue) ->
+                        metadataBuilder
+                            .pluginName(pluginName)
+                            .addPluginMetadata(PluginMetadata.create("state", fieldValue)))
+                .build());
+    rejectedCalls =
+        metricMaker.newCounter(
+            "circuit_breaker/rejected_calls",
+            new Description(
+                    "REST-API calls rejected because the circuit breaker of the apiUrl is open")
+                .setRate()
+                .setUnit("calls"),
+            apiUrlField);
+    metricMaker.newCallbackMetric(
+        "circuit_breaker/open",
+        Integer.class,
+        new Description("Number of apiUrls with a circuit breaker not closed")
+            .setGauge()
+            .setUnit("breakers"),
+        this::notClosedCount);
+  }
+
+  /** Get the circuit breaker of an apiUrl of a source, creating it closed if needed. */
+  public CircuitBreaker get(Source source, URIish apiUrl) {
+    return breakersOf(source)
+        .computeIfAbsent(
+            apiUrl.toString(),
+            url ->
+                new CircuitBreaker(
+                    apiUrl,
+                    source.getCircuitBreakerFailureRate(),
+                    source.getCircuitBreakerWindowSize(),
+                    TimeUnit.MILLISECONDS.toNanos(source.getCircuitBreakerSlowCallThreshold()),
+                    TimeUnit.MILLISECONDS.toNanos(source.getCircuitBreakerOpenDuration()),
+                    source.getCircuitBreakerMaxDeferredRefs(),
+                    ticker));
+  }
+
+  /** The circuit breakers of the apiUrls of a source called so far. */
+  public ImmutableList<CircuitBreaker> getAll(Source source) {
+    return ImmutableList.copyOf(breakersOf(source).values());
+  }
+
+  void onTransition(CircuitBreaker breaker, State state) {
+    logger.atInfo().log("Circuit breaker of %s moved to %s", breaker.getApiUrl(), state);
+    transitions.increment(
+        ApplyObjectMetrics.apiUrlMetricName(breaker.getApiUrl()),
+        state.name().toLowerCase(Locale.ROOT));
+  }
+
+  void onRejected(CircuitBreaker breaker) {
+    rejectedCalls.increment(ApplyObjectMetrics.apiUrlMetricName(breaker.getApiUrl()));
+  }
+
+  private Map<String, CircuitBreaker> breakersOf(Source source) {
+    try {
+      return breakers.get(source, ConcurrentHashMap::new);
+    } catch (ExecutionException e) {
+      throw new IllegalStateException(e.getCause());
+    }
+  }
+
+  private int notClosedCount() {
+    return (int)
+        breakers.asMap().values().stream()
+            .flatMap(sourceBreakers -> sourceBreakers.values().stream())
+            .filter(breaker -> breaker.getState() != State.CLOSED)
+            .count();
+  }
+}
@@ -0,0 +1,63 @@
+// Copyright (C) 2025 The Android Open Source Project
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+// http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.googlesource.gerrit.plugins.replication.pull.client;
+
+import com.google.common.base.Supplier;
+import com.google.common.base.Suppliers;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.zip.GZIPOutputStream;
+
+/** Immutable JSON request body, serialized once and sent as-is to any number of targets. */
+class EncodedBody {
+  private final long eventCreatedOn;
+  private final byte[] json;
+  private final Supplier<byte[]> gzipped;
+
+  EncodedBody(long eventCreatedOn, byte[] json) {
+    this.eventCreatedOn = eventCreatedOn;
+    this.json = json;
+    this.gzipped = Suppliers.memoize(() -> gzip(json));
+  }
+
+  long eventCreatedOn() {
+    return eventCreatedOn;
+  }
+
+  int size() {
+    return json.length;
+  }
+
+  /** The JSON body, which is shared and therefore must not be modified. */
+  byte[] json() {
+    return json;
+  }
+
+  /** The JSON body compressed with gzip, computed when first needed and then shared. */
+  byte[] gzipped() {
+    return gzipped.get();
+  }
+
+  private static byte[] gzip(byte[] content) {
+    ByteArrayOutputStream compressed = new ByteArrayOutputStream(content.length / 4);
+    try (GZIPOutputStream gzip = new GZIPOutputStream(compressed)) {
+      gzip.write(content);
+    } catch (IOException e) {
+      throw new UncheckedIOException(e);
+    }
+    return compressed.toByteArray();
+  }
+}
@@ -21,13 +21,26 @@ import com.google.gerrit.entities.Project;
 import com.google.gerrit.entities.Project.NameKey;
 import com.googlesource.gerrit.plugins.replication.pull.Source;
 import com.googlesource.gerrit.plugins.replication.pull.api.FetchAction.RefInput;
+import com.googlesource.gerrit.plugins.replication.pull.api.data.ApplyPackInput.RefUpdateInput;
 import com.googlesource.gerrit.plugins.replication.pull.api.data.BatchApplyObjectData;
+import com.googlesource.gerrit.plugins.replication.pull.api.data.ConditionalApplyResult;
 import com.googlesource.gerrit.plugins.replication.pull.api.data.RevisionData;
 import java.io.IOException;
 import java.net.URISyntaxException;
 import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.CompletableFuture;
+import org.eclipse.jgit.lib.ObjectId;
 import org.eclipse.jgit.transport.URIish;
 
+/**
+ * Client of the pull-replication REST-API of the targets.
+ *
+ * <p>Every call has an asynchronous variant, returning the future result of the call without
+ * holding the calling thread while the target processes it, so that the fallbacks of a call can be
+ * composed as chains of futures.
+ */
 public interface FetchApiClient {
 
   public interface Factory {
@@ -48,6 +61,19 @@ public interface FetchApiClient {
         project, refName, targetUri, MILLISECONDS.toNanos(System.currentTimeMillis()), false);
   }
 
+  /**
+   * Asynchronous variant of {@link #callFetch(Project.NameKey, String, URIish, long, boolean)},
+   * which does not hold the calling thread while the target fetches the ref.
+   *
+   * @return the future result of the call, completed exceptionally with the I/O errors.
+   */
+  CompletableFuture<HttpResult> callFetchAsync(
+      Project.NameKey project,
+      String refName,
+      URIish targetUri,
+      long startTimeNanos,
+      boolean forceAsyncFetch);
+
   HttpResult callBatchFetch(
       Project.NameKey project, List<RefInput> refsInBatch, URIish targetUri, long startTimeNanos)
       throws IOException;
@@ -58,6 +84,15 @@ public interface FetchApiClient {
         project, refsInBatch, targetUri, MILLISECONDS.toNanos(System.currentTimeMillis()));
   }
 
+  /**
+   * Asynchronous variant of {@link #callBatchFetch(Project.NameKey, List, URIish, long)}, which
+   * does not hold the calling thread while the target fetches the refs.
+   *
+   * @return the future result of the call, completed exceptionally with the I/O errors.
+   */
+  CompletableFuture<HttpResult> callBatchFetchAsync(
+      Project.NameKey project, List<RefInput> refsInBatch, URIish targetUri, long startTimeNanos);
+
   /**
    * Replicates the creation of a project, including the configuration stored in refs/meta/config.
    *
@@ -80,6 +115,33 @@ public interface FetchApiClient {
 
   HttpResult updateHead(Project.NameKey project, String newHead, URIish apiUri) throws IOException;
 
+  /**
+   * Asynchronous variant of {@link #initProject(Project.NameKey, String, URIish, long, List)}.
+   *
+   * @return the future result of the call, completed exceptionally with the I/O errors.
+   */
+  CompletableFuture<HttpResult> initProjectAsync(
+      Project.NameKey project,
+      @Nullable String headName,
+      URIish uri,
+      long eventCreatedOn,
+      List<RevisionData> refsMetaConfigRevisionData);
+
+  /**
+   * Asynchronous variant of {@link #deleteProject(Project.NameKey, URIish)}.
+   *
+   * @return the future result of the call, completed exceptionally with the I/O errors.
+   */
+  CompletableFuture<HttpResult> deleteProjectAsync(Project.NameKey project, URIish apiUri);
+
+  /**
+   * Asynchronous variant of {@link #updateHead(Project.NameKey, String, URIish)}.
+   *
+   * @return the future result of the call, completed exceptionally with the I/O errors.
+   */
+  CompletableFuture<HttpResult> updateHeadAsync(
+      Project.NameKey project, String newHead, URIish apiUri);
+
   HttpResult callSendObject(
       NameKey project,
       String refName,
@@ -89,6 +151,20 @@ public interface FetchApiClient {
       URIish targetUri)
       throws IOException;
 
+  /**
+   * Asynchronous variant of {@link #callSendObject(NameKey, String, long, boolean, RevisionData,
+   * URIish)}.
+   *
+   * @return the future result of the call, completed exceptionally with the I/O errors.
+   */
+  CompletableFuture<HttpResult> callSendObjectAsync(
+      NameKey project,
+      String refName,
+      long eventCreatedOn,
+      boolean isDelete,
+      RevisionData revisionData,
+      URIish targetUri);
+
   HttpResult callBatchSendObject(
       NameKey project,
       List<BatchApplyObjectData> batchApplyObjects,
@@ -96,6 +172,116 @@ public interface FetchApiClient {
       URIish targetUri)
       throws IOException;
 
+  /**
+   * Asynchronous variant of {@link #callBatchSendObject(NameKey, List, long, URIish)}.
+   *
+   * @return the future result of the call, completed exceptionally with the I/O errors.
+   */
+  CompletableFuture<HttpResult> callBatchSendObjectAsync(
+      NameKey project,
+      List<BatchApplyObjectData> batchApplyObjects,
+      long eventCreatedOn,
+      URIish targetUri);
+
+  /**
+   * Adds a batch of refs to the group of batches of other projects sent to the target with a single
+   * multi-project batch-apply-object call, see {@code remote.NAME.multiProjectBatchWindow}. The
+   * calling thread does not wait for the group to be sent.
+   *
+   * @param project The unique name of the project.
+   * @param batchApplyObjects The refs to be updated, with their objects.
+   * @param eventCreatedOn The timestamp of the event of the refs.
+   * @param targetUri The target URI where the objects should be sent to.
+   * @return the future result of the project of the batch, or empty when the batch needs to be sent
+   *     on its own with {@link #callBatchSendObject(NameKey, List, long, URIish)}, because the
+   *     grouping is disabled or the target does not support it. The future is completed
+   *     exceptionally with the I/O errors.
+   */
+  CompletableFuture<Optional<HttpResult>> callGroupedBatchSendObject(
+      NameKey project,
+      List<BatchApplyObjectData> batchApplyObjects,
+      long eventCreatedOn,
+      URIish targetUri);
+
+  /**
+   * Negotiates with the target which objects of the history of a ref need to be sent.
+   *
+   * @param project The unique name of the project.
+   * @param refName The ref the objects belong to.
+   * @param objectIds The candidate objects to be sent.
+   * @param targetUri The target URI where the objects would be sent to.
+   * @return the candidate objects that are missing on the target, or {@link Optional#empty()} when
+   *     the target could not tell, for instance because it does not support the negotiation.
+   * @throws IOException If an I/O error occurs during the call.
+   */
+  Optional<List<ObjectId>> callMissingObjects(
+      NameKey project, String refName, List<ObjectId> objectIds, URIish targetUri)
+      throws IOException;
+
+  /**
+   * Asynchronous variant of {@link #callMissingObjects(NameKey, String, List, URIish)}.
+   *
+   * @return the future missing objects, completed exceptionally with the I/O errors.
+   */
+  CompletableFuture<Optional<List<ObjectId>>> callMissingObjectsAsync(
+      NameKey project, String refName, List<ObjectId> objectIds, URIish targetUri);
+
+  /**
+   * Asks the target to update the refs whose new objects it has already, before reading and sending
+   * them.
+   *
+   * @param project The unique name of the project.
+   * @param refs The refs to update, in order, with their new objects.
+   * @param eventCreatedOn The timestamp indicating when the ref-update event occurred.
+   * @param targetUri The target URI where the objects would be sent to.
+   * @return the outcome of every ref, or {@link Optional#empty()} when the target could not tell,
+   *     for instance because it does not support the precondition.
+   * @throws IOException If an I/O error occurs during the call.
+   */
+  Optional<Map<String, ConditionalApplyResult>> callConditionalApply(
+      NameKey project, List<RefUpdateInput> refs, long eventCreatedOn, URIish targetUri)
+      throws IOException;
+
+  /**
+   * Asynchronous variant of {@link #callConditionalApply(NameKey, List, long, URIish)}.
+   *
+   * @return the future outcome of every ref, completed exceptionally with the I/O errors.
+   */
+  CompletableFuture<Optional<Map<String, ConditionalApplyResult>>> callConditionalApplyAsync(
+      NameKey project, List<RefUpdateInput> refs, long eventCreatedOn, URIish targetUri);
+
+  /**
+   * Sends the objects of a batch of refs as a single thin pack, built against their parents.
+   *
+   * @param project The unique name of the project.
+   * @param refs The refs to update, in order, with their new objects and parents.
+   * @param eventCreatedOn The timestamp indicating when the ref-update event occurred.
+   * @param pack The thin pack of the objects of all the refs.
+   * @param targetUri The target URI where the objects should be sent to.
+   * @return An HTTP result object providing information about the replication process, see {@link
+   *     HttpResult#isEndpointUnsupported(Project.NameKey)} for targets not supporting the call.
+   * @throws IOException If an I/O error occurs during the call.
+   */
+  HttpResult callSendPack(
+      NameKey project,
+      List<RefUpdateInput> refs,
+      long eventCreatedOn,
+      byte[] pack,
+      URIish targetUri)
+      throws IOException;
+
+  /**
+   * Asynchronous variant of {@link #callSendPack(NameKey, List, long, byte[], URIish)}.
+   *
+   * @return the future result of the call, completed exceptionally with the I/O errors.
+   */
+  CompletableFuture<HttpResult> callSendPackAsync(
+      NameKey project,
+      List<RefUpdateInput> refs,
+      long eventCreatedOn,
+      byte[] pack,
+      URIish targetUri);
+
   HttpResult callSendObjects(
       NameKey project,
       String refName,
@@ -103,4 +289,16 @@ public interface FetchApiClient {
       List<RevisionData> revisionData,
       URIish targetUri)
       throws IOException;
+
+  /**
+   * Asynchronous variant of {@link #callSendObjects(NameKey, String, long, List, URIish)}.
+   *
+   * @return the future result of the call, completed exceptionally with the I/O errors.
+   */
+  CompletableFuture<HttpResult> callSendObjectsAsync(
+      NameKey project,
+      String refName,
+      long eventCreatedOn,
+      List<RevisionData> revisionData,
+      URIish targetUri);
 }
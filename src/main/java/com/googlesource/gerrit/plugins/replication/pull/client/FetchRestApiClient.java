@@ -27,9 +27,15 @@ import com.google.gerrit.entities.Project.NameKey;
 import com.google.gerrit.entities.RefNames;
 import com.google.gerrit.extensions.annotations.PluginName;
 import com.google.gerrit.extensions.restapi.Url;
+import com.google.gerrit.httpd.restapi.RestApiServlet;
 import com.google.gerrit.server.config.GerritInstanceId;
 import com.google.gson.Gson;
 import com.google.gson.GsonBuilder;
+import com.google.gson.JsonArray;
+import com.google.gson.JsonElement;
+import com.google.gson.JsonObject;
+import com.google.gson.JsonParseException;
+import com.google.gson.JsonParser;
 import com.google.inject.Inject;
 import com.google.inject.assistedinject.Assisted;
 import com.googlesource.gerrit.plugins.replication.CredentialsFactory;
@@ -38,17 +44,38 @@ import com.googlesource.gerrit.plugins.replication.pull.BearerTokenProvider;
 import com.googlesource.gerrit.plugins.replication.pull.Source;
 import com.googlesource.gerrit.plugins.replication.pull.api.FetchAction.RefInput;
 import com.googlesource.gerrit.plugins.replication.pull.api.PullReplicationApiRequestMetrics;
+import com.googlesource.gerrit.plugins.replication.pull.api.PullReplicationEndpoints;
+import com.googlesource.gerrit.plugins.replication.pull.api.data.ApplyPackInput;
+import com.googlesource.gerrit.plugins.replication.pull.api.data.ApplyPackInput.RefUpdateInput;
 import com.googlesource.gerrit.plugins.replication.pull.api.data.BatchApplyObjectData;
+import com.googlesource.gerrit.plugins.replication.pull.api.data.ConditionalApplyInput;
+import com.googlesource.gerrit.plugins.replication.pull.api.data.ConditionalApplyResult;
+import com.googlesource.gerrit.plugins.replication.pull.api.data.MissingObjectsInput;
+import com.googlesource.gerrit.plugins.replication.pull.api.data.ProjectBatchInput;
+import com.googlesource.gerrit.plugins.replication.pull.api.data.ProjectBatchResult;
 import com.googlesource.gerrit.plugins.replication.pull.api.data.RevisionData;
 import com.googlesource.gerrit.plugins.replication.pull.api.data.RevisionInput;
 import com.googlesource.gerrit.plugins.replication.pull.api.data.RevisionsInput;
 import com.googlesource.gerrit.plugins.replication.pull.filter.SyncRefsFilter;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
 import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.SequenceInputStream;
+import java.io.UncheckedIOException;
+import java.io.Writer;
 import java.net.URI;
 import java.net.URISyntaxException;
 import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.Objects;
 import java.util.Optional;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.RejectedExecutionException;
 import java.util.stream.Collectors;
 import org.apache.http.HttpHeaders;
 import org.apache.http.HttpResponse;
@@ -62,15 +89,18 @@ import org.apache.http.client.methods.HttpPost;
 import org.apache.http.client.methods.HttpPut;
 import org.apache.http.client.methods.HttpRequestBase;
 import org.apache.http.client.utils.URIBuilder;
+import org.apache.http.entity.InputStreamEntity;
 import org.apache.http.entity.StringEntity;
 import org.apache.http.impl.auth.BasicScheme;
 import org.apache.http.message.BasicHeader;
 import org.apache.http.util.EntityUtils;
+import org.eclipse.jgit.lib.ObjectId;
 import org.eclipse.jgit.transport.CredentialItem;
 import org.eclipse.jgit.transport.URIish;
 
 public class FetchRestApiClient implements FetchApiClient, ResponseHandler<HttpResult> {
   public static final boolean FORCE_ASYNC = true;
+  static final String APPLY_PACK_CONTENT_TYPE = "application/x-pull-replication-pack";
 
   private static final FluentLogger logger = FluentLogger.forEnclosingClass();
 
@@ -85,6 +115,10 @@ public class FetchRestApiClient implements FetchApiClient, ResponseHandler<HttpR
   private final SyncRefsFilter syncRefsFilter;
   private final BearerTokenProvider bearerTokenProvider;
   private final String urlAuthenticationPrefix;
+  private final RequestCompression requestCompression;
+  private final SharedRequestBodies sharedRequestBodies;
+  private final CircuitBreakers circuitBreakers;
+  private final MultiProjectBatches multiProjectBatches;
 
   @Inject
   FetchRestApiClient(
@@ -95,6 +129,10 @@ public class FetchRestApiClient implements FetchApiClient, ResponseHandler<HttpR
       @PluginName String pluginName,
       @Nullable @GerritInstanceId String instanceId,
       BearerTokenProvider bearerTokenProvider,
+      RequestCompression requestCompression,
+      SharedRequestBodies sharedRequestBodies,
+      CircuitBreakers circuitBreakers,
+      MultiProjectBatches multiProjectBatches,
       @Assisted Source source) {
     this.credentials = credentials;
     this.httpClientFactory = httpClientFactory;
@@ -113,6 +151,10 @@ public class FetchRestApiClient implements FetchApiClient, ResponseHandler<HttpR
 
     this.bearerTokenProvider = bearerTokenProvider;
     this.urlAuthenticationPrefix = bearerTokenProvider.get().map(br -> "").orElse("a/");
+    this.requestCompression = requestCompression;
+    this.sharedRequestBodies = sharedRequestBodies;
+    this.circuitBreakers = circuitBreakers;
+    this.multiProjectBatches = multiProjectBatches;
   }
 
   @Override
@@ -123,21 +165,36 @@ public class FetchRestApiClient implements FetchApiClient, ResponseHandler<HttpR
       long startTimeNanos,
       boolean forceAsyncFetch)
       throws ClientProtocolException, IOException {
-    return doCallFetch(
+    return executeRequest(
+        fetchRequest(project, refName, targetUri, startTimeNanos, forceAsyncFetch),
+        bearerTokenProvider.get(),
+        targetUri,
         project,
-        refName,
+        List.of(RefInput.create(refName)));
+  }
+
+  @Override
+  public CompletableFuture<HttpResult> callFetchAsync(
+      NameKey project,
+      String refName,
+      URIish targetUri,
+      long startTimeNanos,
+      boolean forceAsyncFetch) {
+    return executeRequestAsync(
+        () -> fetchRequest(project, refName, targetUri, startTimeNanos, forceAsyncFetch),
+        bearerTokenProvider.get(),
         targetUri,
-        startTimeNanos,
-        forceAsyncFetch || !syncRefsFilter.match(refName));
+        project,
+        List.of(RefInput.create(refName)));
   }
 
-  private HttpResult doCallFetch(
+  private HttpPost fetchRequest(
       Project.NameKey project,
       String refName,
       URIish targetUri,
       long startTimeNanos,
-      boolean callAsync)
-      throws IOException {
+      boolean forceAsyncFetch) {
+    boolean callAsync = forceAsyncFetch || !syncRefsFilter.match(refName);
     String url = formatUrl(targetUri.toString(), project, "fetch");
 
     HttpPost post = new HttpPost(url);
@@ -151,7 +208,7 @@ public class FetchRestApiClient implements FetchApiClient, ResponseHandler<HttpR
     post.addHeader(
         PullReplicationApiRequestMetrics.HTTP_HEADER_X_START_TIME_NANOS,
         Long.toString(startTimeNanos));
-    return executeRequest(post, bearerTokenProvider.get(), targetUri);
+    return post;
   }
 
   private Boolean containsSyncFetchRef(List<RefInput> refsInBatch) {
@@ -162,6 +219,27 @@ public class FetchRestApiClient implements FetchApiClient, ResponseHandler<HttpR
   public HttpResult callBatchFetch(
       NameKey project, List<RefInput> refsInBatch, URIish targetUri, long startTimeNanos)
       throws IOException {
+    return executeRequest(
+        batchFetchRequest(project, refsInBatch, targetUri, startTimeNanos),
+        bearerTokenProvider.get(),
+        targetUri,
+        project,
+        refsInBatch);
+  }
+
+  @Override
+  public CompletableFuture<HttpResult> callBatchFetchAsync(
+      NameKey project, List<RefInput> refsInBatch, URIish targetUri, long startTimeNanos) {
+    return executeRequestAsync(
+        () -> batchFetchRequest(project, refsInBatch, targetUri, startTimeNanos),
+        bearerTokenProvider.get(),
+        targetUri,
+        project,
+        refsInBatch);
+  }
+
+  private HttpPost batchFetchRequest(
+      NameKey project, List<RefInput> refsInBatch, URIish targetUri, long startTimeNanos) {
     boolean callAsync = !containsSyncFetchRef(refsInBatch);
     String refsNamesBody =
         refsInBatch.stream()
@@ -173,8 +251,7 @@ public class FetchRestApiClient implements FetchApiClient, ResponseHandler<HttpR
             instanceId, refsNamesBody, callAsync);
 
     String url = formatUrl(targetUri.toString(), project, "batch-fetch");
-    HttpPost post = createPostRequest(url, msgBody, startTimeNanos);
-    return executeRequest(post, bearerTokenProvider.get(), targetUri);
+    return createPostRequest(url, msgBody, startTimeNanos);
   }
 
   private HttpPost createPostRequest(String url, String msgBody, long startTimeNanos) {
@@ -198,6 +275,33 @@ public class FetchRestApiClient implements FetchApiClient, ResponseHandler<HttpR
       long eventCreatedOn,
       List<RevisionData> refsMetaConfigRevisionData)
       throws IOException, URISyntaxException {
+    return executeRequest(
+        initProjectRequest(project, headName, uri, eventCreatedOn, refsMetaConfigRevisionData),
+        bearerTokenProvider.get(),
+        uri);
+  }
+
+  @Override
+  public CompletableFuture<HttpResult> initProjectAsync(
+      NameKey project,
+      @Nullable String headName,
+      URIish uri,
+      long eventCreatedOn,
+      List<RevisionData> refsMetaConfigRevisionData) {
+    return executeRequestAsync(
+        () ->
+            initProjectRequest(project, headName, uri, eventCreatedOn, refsMetaConfigRevisionData),
+        bearerTokenProvider.get(),
+        uri);
+  }
+
+  private HttpPut initProjectRequest(
+      NameKey project,
+      @Nullable String headName,
+      URIish uri,
+      long eventCreatedOn,
+      List<RevisionData> refsMetaConfigRevisionData)
+      throws URISyntaxException {
     URI url = formatInitProjectUrl(uri.toString(), project, headName);
 
     RevisionData[] inputData = new RevisionData[refsMetaConfigRevisionData.size()];
@@ -209,10 +313,12 @@ public class FetchRestApiClient implements FetchApiClient, ResponseHandler<HttpR
             refsMetaConfigRevisionData.toArray(inputData));
 
     HttpPut put = new HttpPut(url);
-    put.setEntity(new StringEntity(GSON.toJson(input)));
+    put.setEntity(
+        requestCompression.jsonEntity(
+            source, uri, GSON, input, contentSize(refsMetaConfigRevisionData)));
     put.addHeader(new BasicHeader("Accept", MediaType.ANY_TEXT_TYPE.toString()));
     put.addHeader(new BasicHeader(CONTENT_TYPE, MediaType.JSON_UTF_8.toString()));
-    return executeRequest(put, bearerTokenProvider.get(), uri);
+    return put;
   }
 
   /* (non-Javadoc)
@@ -220,9 +326,17 @@ public class FetchRestApiClient implements FetchApiClient, ResponseHandler<HttpR
    */
   @Override
   public HttpResult deleteProject(Project.NameKey project, URIish apiUri) throws IOException {
-    String url = formatUrl(apiUri.toASCIIString(), project, "delete-project");
-    HttpDelete delete = new HttpDelete(url);
-    return executeRequest(delete, bearerTokenProvider.get(), apiUri);
+    return executeRequest(deleteProjectRequest(project, apiUri), bearerTokenProvider.get(), apiUri);
+  }
+
+  @Override
+  public CompletableFuture<HttpResult> deleteProjectAsync(Project.NameKey project, URIish apiUri) {
+    return executeRequestAsync(
+        () -> deleteProjectRequest(project, apiUri), bearerTokenProvider.get(), apiUri);
+  }
+
+  private HttpDelete deleteProjectRequest(Project.NameKey project, URIish apiUri) {
+    return new HttpDelete(formatUrl(apiUri.toASCIIString(), project, "delete-project"));
   }
 
   /* (non-Javadoc)
@@ -231,13 +345,25 @@ public class FetchRestApiClient implements FetchApiClient, ResponseHandler<HttpR
   @Override
   public HttpResult updateHead(Project.NameKey project, String newHead, URIish apiUri)
       throws IOException {
+    return executeRequest(
+        updateHeadRequest(project, newHead, apiUri), bearerTokenProvider.get(), apiUri);
+  }
+
+  @Override
+  public CompletableFuture<HttpResult> updateHeadAsync(
+      Project.NameKey project, String newHead, URIish apiUri) {
+    return executeRequestAsync(
+        () -> updateHeadRequest(project, newHead, apiUri), bearerTokenProvider.get(), apiUri);
+  }
+
+  private HttpPut updateHeadRequest(Project.NameKey project, String newHead, URIish apiUri) {
     logger.atFine().log("Updating head of %s on %s", project.get(), newHead);
     String url = formatUrl(apiUri.toASCIIString(), project, "HEAD");
     HttpPut req = new HttpPut(url);
     req.setEntity(
         new StringEntity(String.format("{\"ref\": \"%s\"}", newHead), StandardCharsets.UTF_8));
     req.addHeader(new BasicHeader(CONTENT_TYPE, MediaType.JSON_UTF_8.toString()));
-    return executeRequest(req, bearerTokenProvider.get(), apiUri);
+    return req;
   }
 
   /* (non-Javadoc)
@@ -252,7 +378,38 @@ public class FetchRestApiClient implements FetchApiClient, ResponseHandler<HttpR
       @Nullable RevisionData revisionData,
       URIish targetUri)
       throws IOException {
+    return executeRequest(
+        sendObjectRequest(project, refName, eventCreatedOn, isDelete, revisionData, targetUri),
+        bearerTokenProvider.get(),
+        targetUri,
+        project,
+        List.of(RefInput.create(refName, isDelete)));
+  }
 
+  @Override
+  public CompletableFuture<HttpResult> callSendObjectAsync(
+      NameKey project,
+      String refName,
+      long eventCreatedOn,
+      boolean isDelete,
+      @Nullable RevisionData revisionData,
+      URIish targetUri) {
+    return executeRequestAsync(
+        () ->
+            sendObjectRequest(project, refName, eventCreatedOn, isDelete, revisionData, targetUri),
+        bearerTokenProvider.get(),
+        targetUri,
+        project,
+        List.of(RefInput.create(refName, isDelete)));
+  }
+
+  private HttpPost sendObjectRequest(
+      NameKey project,
+      String refName,
+      long eventCreatedOn,
+      boolean isDelete,
+      @Nullable RevisionData revisionData,
+      URIish targetUri) {
     if (!isDelete) {
       requireNonNull(
           revisionData, "RevisionData MUST not be null when the ref-update is not a DELETE");
@@ -264,9 +421,15 @@ public class FetchRestApiClient implements FetchApiClient, ResponseHandler<HttpR
     String url = formatUrl(targetUri.toString(), project, "apply-object");
 
     HttpPost post = new HttpPost(url);
-    post.setEntity(new StringEntity(GSON.toJson(input)));
+    post.setEntity(
+        requestCompression.jsonEntity(
+            source,
+            targetUri,
+            GSON,
+            input,
+            revisionData == null ? 0L : revisionData.getContentSize()));
     post.addHeader(new BasicHeader(CONTENT_TYPE, MediaType.JSON_UTF_8.toString()));
-    return executeRequest(post, bearerTokenProvider.get(), targetUri);
+    return post;
   }
 
   @Override
@@ -276,23 +439,342 @@ public class FetchRestApiClient implements FetchApiClient, ResponseHandler<HttpR
       long eventCreatedOn,
       URIish targetUri)
       throws IOException {
-    List<RevisionInput> inputs =
-        batchedRefs.stream()
-            .map(
-                batchApplyObject ->
-                    new RevisionInput(
-                        instanceId,
-                        batchApplyObject.refName(),
-                        eventCreatedOn,
-                        batchApplyObject.revisionData().orElse(null)))
-            .collect(Collectors.toList());
+    return executeRequest(
+        batchSendObjectRequest(project, batchedRefs, eventCreatedOn, targetUri),
+        bearerTokenProvider.get(),
+        targetUri,
+        project,
+        refInputs(batchedRefs));
+  }
 
+  @Override
+  public CompletableFuture<HttpResult> callBatchSendObjectAsync(
+      NameKey project,
+      List<BatchApplyObjectData> batchedRefs,
+      long eventCreatedOn,
+      URIish targetUri) {
+    return executeRequestAsync(
+        () -> batchSendObjectRequest(project, batchedRefs, eventCreatedOn, targetUri),
+        bearerTokenProvider.get(),
+        targetUri,
+        project,
+        refInputs(batchedRefs));
+  }
+
+  @Override
+  public CompletableFuture<Optional<HttpResult>> callGroupedBatchSendObject(
+      NameKey project,
+      List<BatchApplyObjectData> batchedRefs,
+      long eventCreatedOn,
+      URIish targetUri) {
+    if (source.getMultiProjectBatchWindow() <= 0) {
+      return CompletableFuture.completedFuture(Optional.empty());
+    }
+    return multiProjectBatches.send(
+        source,
+        targetUri,
+        new ProjectBatchInput(project.get(), revisionInputs(batchedRefs, eventCreatedOn)),
+        batches -> callMultiProjectBatchSendObject(batches, targetUri));
+  }
+
+  private HttpPost batchSendObjectRequest(
+      NameKey project,
+      List<BatchApplyObjectData> batchedRefs,
+      long eventCreatedOn,
+      URIish targetUri) {
     String url = formatUrl(targetUri.toString(), project, "batch-apply-object");
 
     HttpPost post = new HttpPost(url);
-    post.setEntity(new StringEntity(GSON.toJson(inputs)));
+    if (sharedRequestBodies.hasManyTargets()) {
+      EncodedBody body =
+          sharedRequestBodies.get(
+              batchedRefs,
+              eventCreatedOn,
+              () -> toJsonBytes(revisionInputs(batchedRefs, eventCreatedOn)));
+      post.setEntity(requestCompression.jsonEntity(source, targetUri, body));
+    } else {
+      post.setEntity(
+          requestCompression.jsonEntity(
+              source,
+              targetUri,
+              GSON,
+              revisionInputs(batchedRefs, eventCreatedOn),
+              batchedRefs.stream()
+                  .map(BatchApplyObjectData::revisionData)
+                  .flatMap(Optional::stream)
+                  .mapToLong(RevisionData::getContentSize)
+                  .sum()));
+    }
+    post.addHeader(new BasicHeader(CONTENT_TYPE, MediaType.JSON_UTF_8.toString()));
+    return post;
+  }
+
+  private List<RevisionInput> revisionInputs(
+      List<BatchApplyObjectData> batchedRefs, long eventCreatedOn) {
+    return batchedRefs.stream()
+        .map(
+            batchApplyObject ->
+                new RevisionInput(
+                    instanceId,
+                    batchApplyObject.refName(),
+                    eventCreatedOn,
+                    batchApplyObject.revisionData().orElse(null)))
+        .collect(Collectors.toList());
+  }
+
+  /**
+   * Send the batches of refs of many projects with a single request.
+   *
+   * @return the result of every project, keyed by project name, or empty when the target does not
+   *     support the multi-project batch-apply-object REST-API.
+   */
+  private Optional<Map<String, HttpResult>> callMultiProjectBatchSendObject(
+      List<ProjectBatchInput> batches, URIish targetUri) throws IOException {
+    HttpPost post =
+        new HttpPost(
+            String.format(
+                "%s/%splugins/%s/%s",
+                targetUri,
+                urlAuthenticationPrefix,
+                pluginName,
+                PullReplicationEndpoints.MULTI_PROJECT_BATCH_APPLY_OBJECT_API_ENDPOINT));
+    post.setEntity(
+        requestCompression.jsonEntity(
+            source,
+            targetUri,
+            GSON,
+            batches,
+            batches.stream()
+                .flatMap(batch -> batch.getRevisionInputs().stream())
+                .map(RevisionInput::getRevisionData)
+                .filter(Objects::nonNull)
+                .mapToLong(RevisionData::getContentSize)
+                .sum()));
+    post.addHeader(new BasicHeader(CONTENT_TYPE, MediaType.JSON_UTF_8.toString()));
+    HttpResult result = executeRequest(post, bearerTokenProvider.get(), targetUri);
+
+    if (result.isEndpointUnsupported()) {
+      return Optional.empty();
+    }
+    Map<String, HttpResult> results = new HashMap<>();
+    if (!result.isSuccessful()) {
+      batches.forEach(batch -> results.put(batch.getProject(), result));
+      return Optional.of(results);
+    }
+    try {
+      JsonObject projectResults =
+          JsonParser.parseString(stripJsonMagic(result.getMessage().orElse("")))
+              .getAsJsonObject()
+              .getAsJsonObject("value");
+      for (Map.Entry<String, JsonElement> projectResult : projectResults.entrySet()) {
+        ProjectBatchResult batchResult =
+            GSON.fromJson(projectResult.getValue(), ProjectBatchResult.class);
+        results.put(
+            projectResult.getKey(),
+            new HttpResult(
+                batchResult.getStatusCode(), Optional.ofNullable(batchResult.getMessage())));
+      }
+    } catch (JsonParseException | IllegalStateException | NullPointerException e) {
+      throw new IOException(
+          "Invalid multi-project batch apply object response from " + targetUri, e);
+    }
+    return Optional.of(results);
+  }
+
+  @Override
+  public Optional<List<ObjectId>> callMissingObjects(
+      NameKey project, String refName, List<ObjectId> objectIds, URIish targetUri)
+      throws IOException {
+    return missingObjects(
+        project,
+        refName,
+        targetUri,
+        executeRequest(
+            missingObjectsRequest(project, refName, objectIds, targetUri),
+            bearerTokenProvider.get(),
+            targetUri));
+  }
+
+  @Override
+  public CompletableFuture<Optional<List<ObjectId>>> callMissingObjectsAsync(
+      NameKey project, String refName, List<ObjectId> objectIds, URIish targetUri) {
+    return executeRequestAsync(
+            () -> missingObjectsRequest(project, refName, objectIds, targetUri),
+            bearerTokenProvider.get(),
+            targetUri)
+        .thenApply(result -> missingObjects(project, refName, targetUri, result));
+  }
+
+  private HttpPost missingObjectsRequest(
+      NameKey project, String refName, List<ObjectId> objectIds, URIish targetUri) {
+    MissingObjectsInput input =
+        new MissingObjectsInput(
+            instanceId,
+            refName,
+            objectIds.stream().map(ObjectId::getName).collect(Collectors.toList()));
+
+    String url = formatUrl(targetUri.toString(), project, "missing-objects");
+    HttpPost post = new HttpPost(url);
+    post.setEntity(new StringEntity(GSON.toJson(input), StandardCharsets.UTF_8));
     post.addHeader(new BasicHeader(CONTENT_TYPE, MediaType.JSON_UTF_8.toString()));
-    return executeRequest(post, bearerTokenProvider.get(), targetUri);
+    return post;
+  }
+
+  private Optional<List<ObjectId>> missingObjects(
+      NameKey project, String refName, URIish targetUri, HttpResult result) {
+    if (!result.isSuccessful()) {
+      logger.atFine().log(
+          "Unable to negotiate the missing objects of %s:%s with %s: %s",
+          project, refName, targetUri, result);
+      return Optional.empty();
+    }
+
+    try {
+      String responseJson =
+          result.getMessage().map(FetchRestApiClient::stripJsonMagic).orElse("{}");
+      JsonArray missingObjectIds =
+          JsonParser.parseString(responseJson).getAsJsonObject().getAsJsonArray("value");
+      if (missingObjectIds == null) {
+        return Optional.empty();
+      }
+      List<ObjectId> missingObjects = new ArrayList<>(missingObjectIds.size());
+      for (JsonElement missingObjectId : missingObjectIds) {
+        missingObjects.add(ObjectId.fromString(missingObjectId.getAsString()));
+      }
+      return Optional.of(missingObjects);
+    } catch (JsonParseException | IllegalStateException | IllegalArgumentException e) {
+      logger.atWarning().withCause(e).log(
+          "Invalid missing objects response for %s:%s from %s", project, refName, targetUri);
+      return Optional.empty();
+    }
+  }
+
+  @Override
+  public Optional<Map<String, ConditionalApplyResult>> callConditionalApply(
+      NameKey project, List<RefUpdateInput> refs, long eventCreatedOn, URIish targetUri)
+      throws IOException {
+    return conditionalApplyResults(
+        project,
+        refs,
+        targetUri,
+        executeRequest(
+            conditionalApplyRequest(project, refs, eventCreatedOn, targetUri),
+            bearerTokenProvider.get(),
+            targetUri));
+  }
+
+  @Override
+  public CompletableFuture<Optional<Map<String, ConditionalApplyResult>>> callConditionalApplyAsync(
+      NameKey project, List<RefUpdateInput> refs, long eventCreatedOn, URIish targetUri) {
+    return executeRequestAsync(
+            () -> conditionalApplyRequest(project, refs, eventCreatedOn, targetUri),
+            bearerTokenProvider.get(),
+            targetUri)
+        .thenApply(result -> conditionalApplyResults(project, refs, targetUri, result));
+  }
+
+  private HttpPost conditionalApplyRequest(
+      NameKey project, List<RefUpdateInput> refs, long eventCreatedOn, URIish targetUri) {
+    ConditionalApplyInput input = new ConditionalApplyInput(instanceId, eventCreatedOn, refs);
+
+    String url = formatUrl(targetUri.toString(), project, "conditional-apply");
+    HttpPost post = new HttpPost(url);
+    post.setEntity(new StringEntity(GSON.toJson(input), StandardCharsets.UTF_8));
+    post.addHeader(new BasicHeader(CONTENT_TYPE, MediaType.JSON_UTF_8.toString()));
+    return post;
+  }
+
+  private Optional<Map<String, ConditionalApplyResult>> conditionalApplyResults(
+      NameKey project, List<RefUpdateInput> refs, URIish targetUri, HttpResult result) {
+    if (!result.isSuccessful()) {
+      logger.atFine().log(
+          "Unable to conditionally apply %s:%s on %s: %s", project, refs, targetUri, result);
+      return Optional.empty();
+    }
+
+    try {
+      String responseJson =
+          result.getMessage().map(FetchRestApiClient::stripJsonMagic).orElse("{}");
+      JsonObject refResults =
+          JsonParser.parseString(responseJson).getAsJsonObject().getAsJsonObject("value");
+      if (refResults == null) {
+        return Optional.empty();
+      }
+      Map<String, ConditionalApplyResult> results = new HashMap<>();
+      for (Map.Entry<String, JsonElement> refResult : refResults.entrySet()) {
+        results.put(
+            refResult.getKey(), ConditionalApplyResult.valueOf(refResult.getValue().getAsString()));
+      }
+      return Optional.of(results);
+    } catch (JsonParseException | IllegalStateException | IllegalArgumentException e) {
+      logger.atWarning().withCause(e).log(
+          "Invalid conditional apply response for %s:%s from %s", project, refs, targetUri);
+      return Optional.empty();
+    }
+  }
+
+  @Override
+  public HttpResult callSendPack(
+      NameKey project,
+      List<RefUpdateInput> refs,
+      long eventCreatedOn,
+      byte[] pack,
+      URIish targetUri)
+      throws IOException {
+    return executeRequest(
+        sendPackRequest(project, refs, eventCreatedOn, pack, targetUri),
+        bearerTokenProvider.get(),
+        targetUri,
+        project,
+        packRefInputs(refs));
+  }
+
+  @Override
+  public CompletableFuture<HttpResult> callSendPackAsync(
+      NameKey project,
+      List<RefUpdateInput> refs,
+      long eventCreatedOn,
+      byte[] pack,
+      URIish targetUri) {
+    return executeRequestAsync(
+        () -> sendPackRequest(project, refs, eventCreatedOn, pack, targetUri),
+        bearerTokenProvider.get(),
+        targetUri,
+        project,
+        packRefInputs(refs));
+  }
+
+  private HttpPost sendPackRequest(
+      NameKey project,
+      List<RefUpdateInput> refs,
+      long eventCreatedOn,
+      byte[] pack,
+      URIish targetUri) {
+    byte[] header =
+        (GSON.toJson(new ApplyPackInput(instanceId, eventCreatedOn, refs)) + "\n")
+            .getBytes(StandardCharsets.UTF_8);
+
+    String url = formatUrl(targetUri.toString(), project, "apply-pack");
+    HttpPost post = new HttpPost(url);
+    // Stream the header followed by the pack, without copying them into a single buffer.
+    post.setEntity(
+        new InputStreamEntity(
+            new SequenceInputStream(
+                new ByteArrayInputStream(header), new ByteArrayInputStream(pack)),
+            header.length + pack.length));
+    post.addHeader(new BasicHeader(CONTENT_TYPE, APPLY_PACK_CONTENT_TYPE));
+    return post;
+  }
+
+  private static List<RefInput> packRefInputs(List<RefUpdateInput> refs) {
+    return refs.stream().map(ref -> RefInput.create(ref.getRefName())).collect(Collectors.toList());
+  }
+
+  private static String stripJsonMagic(String responseBody) {
+    String jsonMagic = new String(RestApiServlet.JSON_MAGIC, StandardCharsets.UTF_8);
+    return responseBody.startsWith(jsonMagic)
+        ? responseBody.substring(jsonMagic.length())
+        : responseBody;
   }
 
   @Override
@@ -303,8 +785,37 @@ public class FetchRestApiClient implements FetchApiClient, ResponseHandler<HttpR
       List<RevisionData> revisionData,
       URIish targetUri)
       throws IOException {
+    return executeRequest(
+        sendObjectsRequest(project, refName, eventCreatedOn, revisionData, targetUri),
+        bearerTokenProvider.get(),
+        targetUri,
+        project,
+        List.of(RefInput.create(refName)));
+  }
+
+  @Override
+  public CompletableFuture<HttpResult> callSendObjectsAsync(
+      NameKey project,
+      String refName,
+      long eventCreatedOn,
+      List<RevisionData> revisionData,
+      URIish targetUri) {
+    return executeRequestAsync(
+        () -> sendObjectsRequest(project, refName, eventCreatedOn, revisionData, targetUri),
+        bearerTokenProvider.get(),
+        targetUri,
+        project,
+        List.of(RefInput.create(refName)));
+  }
+
+  private HttpPost sendObjectsRequest(
+      NameKey project,
+      String refName,
+      long eventCreatedOn,
+      List<RevisionData> revisionData,
+      URIish targetUri) {
     if (revisionData.size() == 1) {
-      return callSendObject(
+      return sendObjectRequest(
           project, refName, eventCreatedOn, false, revisionData.get(0), targetUri);
     }
 
@@ -314,9 +825,32 @@ public class FetchRestApiClient implements FetchApiClient, ResponseHandler<HttpR
 
     String url = formatUrl(targetUri.toString(), project, "apply-objects");
     HttpPost post = new HttpPost(url);
-    post.setEntity(new StringEntity(GSON.toJson(input)));
+    post.setEntity(
+        requestCompression.jsonEntity(source, targetUri, GSON, input, contentSize(revisionData)));
     post.addHeader(new BasicHeader(CONTENT_TYPE, MediaType.JSON_UTF_8.toString()));
-    return executeRequest(post, bearerTokenProvider.get(), targetUri);
+    return post;
+  }
+
+  private static byte[] toJsonBytes(Object input) {
+    ByteArrayOutputStream json = new ByteArrayOutputStream();
+    try (Writer writer = new OutputStreamWriter(json, StandardCharsets.UTF_8)) {
+      GSON.toJson(input, writer);
+    } catch (IOException e) {
+      throw new UncheckedIOException(e);
+    }
+    return json.toByteArray();
+  }
+
+  private static List<RefInput> refInputs(List<BatchApplyObjectData> batchedRefs) {
+    return batchedRefs.stream()
+        .map(
+            batchApplyObject ->
+                RefInput.create(batchApplyObject.refName(), batchApplyObject.isDelete()))
+        .collect(Collectors.toList());
+  }
+
+  private static long contentSize(List<RevisionData> revisionsData) {
+    return revisionsData.stream().mapToLong(RevisionData::getContentSize).sum();
   }
 
   private String formatUrl(String targetUri, Project.NameKey project, String api) {
@@ -367,13 +901,156 @@ public class FetchRestApiClient implements FetchApiClient, ResponseHandler<HttpR
   private HttpResult executeRequest(
       HttpRequestBase httpRequest, Optional<String> bearerToken, URIish targetUri)
       throws IOException {
+    return executeRequest(httpRequest, bearerToken, targetUri, null, List.of());
+  }
 
-    HttpRequestBase reqWithAuthentication =
-        bearerToken.isPresent()
-            ? withBearerTokenAuthentication(httpRequest, bearerToken.get())
-            : withBasicAuthentication(targetUri, httpRequest);
+  /**
+   * Execute a request through the circuit breaker of the target.
+   *
+   * @param project the project of the refs replicated by the request, if any.
+   * @param refs the refs to fetch once the circuit breaker closes when the request is rejected.
+   */
+  private HttpResult executeRequest(
+      HttpRequestBase httpRequest,
+      Optional<String> bearerToken,
+      URIish targetUri,
+      @Nullable Project.NameKey project,
+      List<RefInput> refs)
+      throws IOException {
+    CircuitBreaker breaker = acquireCircuitBreaker(targetUri, project, refs);
+    long startNanos = System.nanoTime();
+    boolean failed = true;
+    try {
+      HttpResult result =
+          httpClientFactory
+              .create(source)
+              .execute(
+                  withAuthentication(httpRequest, bearerToken, targetUri),
+                  responseHandler(targetUri));
+      failed = result.isServerError();
+      return result;
+    } finally {
+      onCallCompleted(breaker, failed, System.nanoTime() - startNanos);
+    }
+  }
 
-    return httpClientFactory.create(source).execute(reqWithAuthentication, this);
+  private CompletableFuture<HttpResult> executeRequestAsync(
+      RequestBuilder httpRequest, Optional<String> bearerToken, URIish targetUri) {
+    return executeRequestAsync(httpRequest, bearerToken, targetUri, null, List.of());
+  }
+
+  /**
+   * Asynchronous variant of {@link #executeRequest(HttpRequestBase, Optional, URIish,
+   * Project.NameKey, List)}, failing the returned future instead of throwing when the request
+   * cannot be built or sent.
+   */
+  private CompletableFuture<HttpResult> executeRequestAsync(
+      RequestBuilder httpRequest,
+      Optional<String> bearerToken,
+      URIish targetUri,
+      @Nullable Project.NameKey project,
+      List<RefInput> refs) {
+    HttpRequestBase request;
+    CircuitBreaker breaker;
+    try {
+      request = withAuthentication(httpRequest.build(), bearerToken, targetUri);
+      breaker = acquireCircuitBreaker(targetUri, project, refs);
+    } catch (URISyntaxException | CircuitBreakerOpenException | RuntimeException e) {
+      return CompletableFuture.failedFuture(e);
+    }
+    long startNanos = System.nanoTime();
+    CompletableFuture<HttpResult> result;
+    try {
+      result =
+          httpClientFactory
+              .create(source)
+              .executeAsync(request, responseHandler(targetUri), source.getApiCallsExecutor());
+    } catch (RuntimeException e) {
+      onCallCompleted(breaker, true, System.nanoTime() - startNanos);
+      return CompletableFuture.failedFuture(e);
+    }
+    return result.whenComplete(
+        (httpResult, e) ->
+            onCallCompleted(
+                breaker, e != null || httpResult.isServerError(), System.nanoTime() - startNanos));
+  }
+
+  private CircuitBreaker acquireCircuitBreaker(
+      URIish targetUri, @Nullable Project.NameKey project, List<RefInput> refs)
+      throws CircuitBreakerOpenException {
+    CircuitBreaker breaker = circuitBreakers.get(source, targetUri);
+    try {
+      breaker.acquire().ifPresent(state -> circuitBreakers.onTransition(breaker, state));
+      return breaker;
+    } catch (CircuitBreakerOpenException e) {
+      if (project != null && !refs.isEmpty()) {
+        breaker.defer(project, refs);
+      }
+      circuitBreakers.onRejected(breaker);
+      throw e;
+    }
+  }
+
+  private void onCallCompleted(CircuitBreaker breaker, boolean failed, long elapsedNanos) {
+    breaker
+        .onResult(failed, elapsedNanos)
+        .ifPresent(
+            state -> {
+              circuitBreakers.onTransition(breaker, state);
+              if (state == CircuitBreaker.State.CLOSED) {
+                scheduleCatchUpFetch(breaker);
+              }
+            });
+  }
+
+  /** Fetch the refs of the calls rejected while the circuit breaker of the target was open. */
+  private void scheduleCatchUpFetch(CircuitBreaker breaker) {
+    Map<Project.NameKey, Set<RefInput>> deferredRefs = breaker.drainDeferredRefs();
+    if (deferredRefs.isEmpty()) {
+      return;
+    }
+    URIish targetUri = breaker.getApiUrl();
+    try {
+      // Off the thread of the probe call, which would otherwise run all the catch-up fetches
+      source
+          .getBackgroundCallsExecutor()
+          .execute(
+              () ->
+                  deferredRefs.forEach(
+                      (project, refs) -> {
+                        try {
+                          HttpResult result =
+                              callBatchFetch(project, new ArrayList<>(refs), targetUri);
+                          if (!result.isSuccessful()) {
+                            logger.atWarning().log(
+                                "Catch-up fetch of %d refs of %s from %s failed: %s",
+                                refs.size(), project, targetUri, result);
+                          }
+                        } catch (IOException e) {
+                          logger.atWarning().withCause(e).log(
+                              "Catch-up fetch of %d refs of %s from %s failed",
+                              refs.size(), project, targetUri);
+                        }
+                      }));
+    } catch (RejectedExecutionException e) {
+      logger.atWarning().withCause(e).log(
+          "Catch-up fetch of the refs of %d projects from %s not scheduled",
+          deferredRefs.size(), targetUri);
+    }
+  }
+
+  private HttpRequestBase withAuthentication(
+      HttpRequestBase httpRequest, Optional<String> bearerToken, URIish targetUri) {
+    return bearerToken.isPresent()
+        ? withBearerTokenAuthentication(httpRequest, bearerToken.get())
+        : withBasicAuthentication(targetUri, httpRequest);
+  }
+
+  private ResponseHandler<HttpResult> responseHandler(URIish targetUri) {
+    return response -> {
+      requestCompression.onResponse(targetUri, response);
+      return handleResponse(response);
+    };
   }
 
   private HttpRequestBase withBasicAuthentication(URIish targetUri, HttpRequestBase req) {
@@ -397,4 +1074,9 @@ public class FetchRestApiClient implements FetchApiClient, ResponseHandler<HttpR
     req.addHeader(new BasicHeader(HttpHeaders.AUTHORIZATION, "Bearer " + bearerToken));
     return req;
   }
+
+  @FunctionalInterface
+  private interface RequestBuilder {
+    HttpRequestBase build() throws URISyntaxException;
+  }
 }
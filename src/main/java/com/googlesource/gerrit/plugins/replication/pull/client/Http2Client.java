@@ -0,0 +1,268 @@
+// Copyright (C) 2025 The Android Open Source Project
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+// http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.googlesource.gerrit.plugins.replication.pull.client;
+
+import com.google.common.collect.ImmutableSet;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import com.google.gerrit.common.Nullable;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.io.PipedInputStream;
+import java.io.PipedOutputStream;
+import java.io.UncheckedIOException;
+import java.net.http.HttpRequest;
+import java.net.http.HttpRequest.BodyPublisher;
+import java.net.http.HttpRequest.BodyPublishers;
+import java.net.http.HttpResponse.BodyHandlers;
+import java.time.Duration;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ForkJoinPool;
+import org.apache.http.Header;
+import org.apache.http.HttpEntity;
+import org.apache.http.HttpEntityEnclosingRequest;
+import org.apache.http.HttpHeaders;
+import org.apache.http.HttpResponse;
+import org.apache.http.HttpVersion;
+import org.apache.http.ProtocolVersion;
+import org.apache.http.client.ClientProtocolException;
+import org.apache.http.client.ResponseHandler;
+import org.apache.http.client.methods.HttpUriRequest;
+import org.apache.http.entity.ByteArrayEntity;
+import org.apache.http.impl.EnglishReasonPhraseCatalog;
+import org.apache.http.message.BasicHttpResponse;
+
+/**
+ * HTTP client multiplexing all the concurrent requests to the same target over a single HTTP/2
+ * connection, based on the JDK {@link java.net.http.HttpClient}.
+ *
+ * <p>The requests and responses are converted from and to their Apache HTTP client representation,
+ * so that the callers handle them exactly as the ones of the {@link SourceHttpClient}.
+ */
+class Http2Client implements HttpClient {
+  private static final ProtocolVersion HTTP_2 = new ProtocolVersion("HTTP", 2, 0);
+  private static final ImmutableSet<String> RESTRICTED_HEADERS =
+      ImmutableSet.of("connection", "content-length", "expect", "host", "upgrade");
+
+  private final java.net.http.HttpClient client;
+  @Nullable private final Duration timeout;
+  private final Executor bodyWriters;
+
+  /**
+   * @param client the JDK client sending the requests.
+   * @param timeout the timeout of every call, from sending its request to receiving its whole
+   *     response, or null for no timeout.
+   */
+  Http2Client(java.net.http.HttpClient client, @Nullable Duration timeout) {
+    this.client = client;
+    this.timeout = timeout;
+    this.bodyWriters = client.executor().orElseGet(ForkJoinPool::commonPool);
+  }
+
+  /**
+   * @param connectTimeout the timeout for establishing a connection, or null for no timeout.
+   * @param executor the executor of the client, which is owned and shut down by the caller.
+   */
+  static java.net.http.HttpClient newClient(
+      @Nullable Duration connectTimeout, ExecutorService executor) {
+    java.net.http.HttpClient.Builder builder =
+        java.net.http.HttpClient.newBuilder()
+            .version(java.net.http.HttpClient.Version.HTTP_2)
+            .executor(executor);
+    if (connectTimeout != null) {
+      builder.connectTimeout(connectTimeout);
+    }
+    return builder.build();
+  }
+
+  /** Executor of a client, whose threads are created on demand and released once idle. */
+  static ExecutorService newExecutor(String name) {
+    return Executors.newCachedThreadPool(
+        new ThreadFactoryBuilder()
+            .setNameFormat("PullReplication-Http2-" + name + "-%d")
+            .setDaemon(true)
+            .build());
+  }
+
+  @Override
+  public <T> T execute(HttpUriRequest request, ResponseHandler<? extends T> responseHandler)
+      throws ClientProtocolException, IOException {
+    java.net.http.HttpResponse<byte[]> response;
+    try {
+      response = client.send(toHttp2Request(request), BodyHandlers.ofByteArray());
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new InterruptedIOException("Interrupted while waiting for " + request.getURI());
+    } catch (IllegalArgumentException e) {
+      throw new ClientProtocolException(e);
+    }
+    return responseHandler.handleResponse(toHttpResponse(response));
+  }
+
+  @Override
+  public <T> CompletableFuture<T> executeAsync(
+      HttpUriRequest request, ResponseHandler<? extends T> responseHandler, Executor executor) {
+    HttpRequest http2Request;
+    try {
+      http2Request = toHttp2Request(request);
+    } catch (IOException e) {
+      return CompletableFuture.failedFuture(e);
+    } catch (IllegalArgumentException e) {
+      return CompletableFuture.failedFuture(new ClientProtocolException(e));
+    }
+    return client
+        .sendAsync(http2Request, BodyHandlers.ofByteArray())
+        .thenApplyAsync(
+            response -> {
+              try {
+                return responseHandler.handleResponse(toHttpResponse(response));
+              } catch (IOException e) {
+                throw new CompletionException(e);
+              }
+            },
+            executor);
+  }
+
+  private HttpRequest toHttp2Request(HttpUriRequest request) throws IOException {
+    HttpRequest.Builder builder = HttpRequest.newBuilder(request.getURI());
+    if (timeout != null) {
+      builder.timeout(timeout);
+    }
+    for (Header header : request.getAllHeaders()) {
+      if (!RESTRICTED_HEADERS.contains(header.getName().toLowerCase(Locale.US))) {
+        builder.header(header.getName(), header.getValue());
+      }
+    }
+
+    BodyPublisher body = BodyPublishers.noBody();
+    if (request instanceof HttpEntityEnclosingRequest) {
+      HttpEntity entity = ((HttpEntityEnclosingRequest) request).getEntity();
+      if (entity != null) {
+        if (entity.getContentType() != null && !request.containsHeader(HttpHeaders.CONTENT_TYPE)) {
+          builder.header(HttpHeaders.CONTENT_TYPE, entity.getContentType().getValue());
+        }
+        if (entity.getContentEncoding() != null) {
+          builder.header(HttpHeaders.CONTENT_ENCODING, entity.getContentEncoding().getValue());
+        }
+        body = bodyPublisher(entity);
+      }
+    }
+    return builder.method(request.getMethod(), body).build();
+  }
+
+  /**
+   * Stream the body of the request without copying it: the entities of known length are read from
+   * their content, whereas the others, such as the JSON entities written on the fly, are written by
+   * a background thread into a pipe read by the client.
+   */
+  private BodyPublisher bodyPublisher(HttpEntity entity) {
+    long contentLength = entity.getContentLength();
+    if (contentLength < 0) {
+      return BodyPublishers.ofInputStream(() -> new EntityPipe(entity, bodyWriters));
+    }
+    return BodyPublishers.fromPublisher(
+        BodyPublishers.ofInputStream(
+            () -> {
+              try {
+                return entity.getContent();
+              } catch (IOException e) {
+                throw new UncheckedIOException(e);
+              }
+            }),
+        contentLength);
+  }
+
+  private static HttpResponse toHttpResponse(java.net.http.HttpResponse<byte[]> response) {
+    int statusCode = response.statusCode();
+    BasicHttpResponse httpResponse =
+        new BasicHttpResponse(
+            response.version() == java.net.http.HttpClient.Version.HTTP_2
+                ? HTTP_2
+                : HttpVersion.HTTP_1_1,
+            statusCode,
+            EnglishReasonPhraseCatalog.INSTANCE.getReason(statusCode, Locale.US));
+    for (Map.Entry<String, List<String>> header : response.headers().map().entrySet()) {
+      if (header.getKey().startsWith(":")) {
+        continue;
+      }
+      for (String value : header.getValue()) {
+        httpResponse.addHeader(header.getKey(), value);
+      }
+    }
+
+    ByteArrayEntity entity = new ByteArrayEntity(response.body());
+    response.headers().firstValue(HttpHeaders.CONTENT_TYPE).ifPresent(entity::setContentType);
+    httpResponse.setEntity(entity);
+    return httpResponse;
+  }
+
+  /**
+   * Content of an entity written by a background thread, failing the reads with the error of the
+   * writing instead of ending the body early.
+   */
+  private static class EntityPipe extends PipedInputStream {
+    private static final int PIPE_SIZE = 64 * 1024;
+
+    private volatile IOException failure;
+
+    EntityPipe(HttpEntity entity, Executor writer) {
+      super(PIPE_SIZE);
+      PipedOutputStream out;
+      try {
+        out = new PipedOutputStream(this);
+      } catch (IOException e) {
+        throw new UncheckedIOException(e);
+      }
+      writer.execute(
+          () -> {
+            try {
+              entity.writeTo(out);
+            } catch (IOException | RuntimeException e) {
+              // Set before closing the pipe, so that the reader fails instead of ending the body
+              failure = e instanceof IOException ? (IOException) e : new IOException(e);
+            } finally {
+              try {
+                out.close();
+              } catch (IOException e) {
+                // The reader has closed the pipe already
+              }
+            }
+          });
+    }
+
+    @Override
+    public synchronized int read() throws IOException {
+      return checkFailure(super.read());
+    }
+
+    @Override
+    public synchronized int read(byte[] b, int off, int len) throws IOException {
+      return checkFailure(super.read(b, off, len));
+    }
+
+    private int checkFailure(int read) throws IOException {
+      if (read < 0 && failure != null) {
+        throw failure;
+      }
+      return read;
+    }
+  }
+}
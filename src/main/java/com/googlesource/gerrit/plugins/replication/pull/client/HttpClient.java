@@ -15,6 +15,9 @@
 package com.googlesource.gerrit.plugins.replication.pull.client;
 
 import java.io.IOException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.Executor;
 import org.apache.http.client.ClientProtocolException;
 import org.apache.http.client.ResponseHandler;
 import org.apache.http.client.methods.HttpUriRequest;
@@ -25,4 +28,28 @@ public interface HttpClient {
   public <T> T execute(
       final HttpUriRequest request, final ResponseHandler<? extends T> responseHandler)
       throws ClientProtocolException, IOException;
+
+  /**
+   * Execute the request without blocking the calling thread.
+   *
+   * <p>The default implementation is a blocking adapter for the clients without a non-blocking
+   * API: the request is executed by {@link #execute} on the executor, which therefore holds one of
+   * its threads for the whole call and bounds the number of concurrent calls. Only the clients
+   * overriding it, such as {@link Http2Client}, do not hold a thread while waiting for the
+   * response.
+   *
+   * @return the future result of the response handler, completed exceptionally with the I/O errors.
+   */
+  public default <T> CompletableFuture<T> executeAsync(
+      HttpUriRequest request, ResponseHandler<? extends T> responseHandler, Executor executor) {
+    return CompletableFuture.supplyAsync(
+        () -> {
+          try {
+            return execute(request, responseHandler);
+          } catch (IOException e) {
+            throw new CompletionException(e);
+          }
+        },
+        executor);
+  }
 }
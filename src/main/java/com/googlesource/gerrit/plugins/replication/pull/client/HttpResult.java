@@ -15,6 +15,8 @@
 package com.googlesource.gerrit.plugins.replication.pull.client;
 
 import static javax.servlet.http.HttpServletResponse.SC_CONFLICT;
+import static javax.servlet.http.HttpServletResponse.SC_METHOD_NOT_ALLOWED;
+import static javax.servlet.http.HttpServletResponse.SC_NOT_FOUND;
 
 import com.google.gerrit.entities.Project;
 import java.util.Optional;
@@ -36,6 +38,10 @@ public class HttpResult {
     return responseCode / 100 == 2; // Any 2xx response code is a success
   }
 
+  boolean isServerError() {
+    return responseCode / 100 == 5;
+  }
+
   public boolean isProjectMissing(Project.NameKey projectName) {
     String projectMissingMessage = String.format("Not found: %s", projectName.get());
     return message.map(msg -> msg.contains(projectMissingMessage)).orElse(false);
@@ -45,6 +51,20 @@ public class HttpResult {
     return responseCode == SC_CONFLICT;
   }
 
+  /**
+   * Whether the target does not know the REST-API endpoint called, for instance because running an
+   * older version of the plugin.
+   */
+  public boolean isEndpointUnsupported(Project.NameKey projectName) {
+    return (responseCode == SC_NOT_FOUND && !isProjectMissing(projectName))
+        || responseCode == SC_METHOD_NOT_ALLOWED;
+  }
+
+  /** Whether the target does not know the server-level REST-API endpoint called. */
+  boolean isEndpointUnsupported() {
+    return responseCode == SC_NOT_FOUND || responseCode == SC_METHOD_NOT_ALLOWED;
+  }
+
   @Override
   public String toString() {
     return isSuccessful()
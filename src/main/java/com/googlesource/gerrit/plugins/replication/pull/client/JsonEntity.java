@@ -0,0 +1,114 @@
+// Copyright (C) 2025 The Android Open Source Project
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+// http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.googlesource.gerrit.plugins.replication.pull.client;
+
+import com.google.common.io.CountingOutputStream;
+import com.google.gson.Gson;
+import com.google.gson.stream.JsonWriter;
+import java.io.BufferedWriter;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.nio.charset.StandardCharsets;
+import java.util.zip.GZIPOutputStream;
+import org.apache.http.entity.AbstractHttpEntity;
+
+/**
+ * Request entity writing the JSON representation of an object directly to the connection, without
+ * materializing it in memory, optionally compressed with gzip.
+ *
+ * <p>The length of the body is not known upfront, hence it is sent with the chunked transfer
+ * encoding.
+ */
+class JsonEntity extends AbstractHttpEntity {
+
+  /** Callback receiving the size of the body before and after compression once written. */
+  @FunctionalInterface
+  interface BodySizeListener {
+    void onWritten(long uncompressedBytes, long compressedBytes);
+  }
+
+  private final Gson gson;
+  private final Object input;
+  private final boolean compressed;
+  private final BodySizeListener bodySizeListener;
+
+  JsonEntity(Gson gson, Object input, boolean compressed, BodySizeListener bodySizeListener) {
+    this.gson = gson;
+    this.input = input;
+    this.compressed = compressed;
+    this.bodySizeListener = bodySizeListener;
+    setChunked(true);
+    if (compressed) {
+      setContentEncoding(RequestCompression.GZIP_ENCODING);
+    }
+  }
+
+  @Override
+  public boolean isRepeatable() {
+    return true;
+  }
+
+  @Override
+  public long getContentLength() {
+    return -1;
+  }
+
+  @Override
+  public InputStream getContent() throws IOException {
+    ByteArrayOutputStream content = new ByteArrayOutputStream();
+    writeTo(content);
+    return new ByteArrayInputStream(content.toByteArray());
+  }
+
+  @Override
+  public void writeTo(OutputStream outStream) throws IOException {
+    CountingOutputStream sent = new CountingOutputStream(new NonClosingOutputStream(outStream));
+    CountingOutputStream uncompressed =
+        new CountingOutputStream(compressed ? new GZIPOutputStream(sent) : sent);
+    try (JsonWriter writer =
+        gson.newJsonWriter(
+            new BufferedWriter(new OutputStreamWriter(uncompressed, StandardCharsets.UTF_8)))) {
+      gson.toJson(input, input.getClass(), writer);
+    }
+    bodySizeListener.onWritten(uncompressed.getCount(), sent.getCount());
+  }
+
+  @Override
+  public boolean isStreaming() {
+    return false;
+  }
+
+  /** Leaves the connection stream open, which is owned by the HTTP client. */
+  private static class NonClosingOutputStream extends FilterOutputStream {
+    NonClosingOutputStream(OutputStream out) {
+      super(out);
+    }
+
+    @Override
+    public void write(byte[] b, int off, int len) throws IOException {
+      out.write(b, off, len);
+    }
+
+    @Override
+    public void close() throws IOException {
+      flush();
+    }
+  }
+}
@@ -0,0 +1,223 @@
+// Copyright (C) 2025 The Android Open Source Project
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+// http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.googlesource.gerrit.plugins.replication.pull.client;
+
+import static javax.servlet.http.HttpServletResponse.SC_INTERNAL_SERVER_ERROR;
+
+import com.google.common.annotations.VisibleForTesting;
+import com.google.common.base.Supplier;
+import com.google.common.base.Suppliers;
+import com.google.common.base.Ticker;
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.gerrit.server.git.WorkQueue;
+import com.google.inject.Inject;
+import com.google.inject.Singleton;
+import com.googlesource.gerrit.plugins.replication.pull.Source;
+import com.googlesource.gerrit.plugins.replication.pull.api.data.ProjectBatchInput;
+import java.io.IOException;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import org.eclipse.jgit.transport.URIish;
+
+/**
+ * Batches of refs of different projects sent to the same target at about the same time, grouped
+ * into a single multi-project batch-apply-object request.
+ *
+ * <p>A group is sent {@code remote.NAME.multiProjectBatchWindow} after its first batch, or as soon
+ * as {@code remote.NAME.multiProjectBatchMaxProjects} batches have joined it. No thread waits while
+ * the group forms: the request is sent in the background and every batch gets the result of its own
+ * project as a future.
+ *
+ * <p>The targets not supporting the multi-project batch-apply-object REST-API are sent the batches
+ * one per project, until they are checked again after {@link #UNSUPPORTED_API_URL_EXPIRY}.
+ */
+@Singleton
+class MultiProjectBatches {
+  static final Duration UNSUPPORTED_API_URL_EXPIRY = Duration.ofMinutes(10);
+
+  /** Sender of the request of a group of batches. */
+  @FunctionalInterface
+  interface Sender {
+    /**
+     * @param batches the batches of the group, of distinct projects.
+     * @return the result of every project, keyed by project name, or empty when the target does not
+     *     support the multi-project batch-apply-object REST-API.
+     */
+    Optional<Map<String, HttpResult>> send(List<ProjectBatchInput> batches) throws IOException;
+  }
+
+  private static class Group {
+    private final List<ProjectBatchInput> batches = new ArrayList<>();
+    private final CompletableFuture<Optional<Map<String, HttpResult>>> results =
+        new CompletableFuture<>();
+    private boolean sent;
+
+    boolean contains(String project) {
+      return batches.stream().anyMatch(batch -> batch.getProject().equals(project));
+    }
+  }
+
+  private final Cache<Source, Map<String, Group>> groups =
+      CacheBuilder.newBuilder().weakKeys().build();
+  private final Cache<String, Boolean> unsupportedApiUrls;
+  private final Supplier<ScheduledExecutorService> scheduler;
+
+  @Inject
+  MultiProjectBatches(WorkQueue workQueue) {
+    this(
+        Ticker.systemTicker(),
+        Suppliers.memoize(() -> workQueue.createQueue(1, "MultiProjectBatches")));
+  }
+
+  @VisibleForTesting
+  MultiProjectBatches(Ticker ticker, Supplier<ScheduledExecutorService> scheduler) {
+    // Expiring, so that the targets upgraded to a version supporting the REST-API are detected
+    unsupportedApiUrls =
+        CacheBuilder.newBuilder()
+            .expireAfterWrite(UNSUPPORTED_API_URL_EXPIRY)
+            .ticker(ticker)
+            .build();
+    this.scheduler = scheduler;
+  }
+
+  /**
+   * Add a batch of refs to the group of the target, without waiting for the group to be sent.
+   *
+   * @return the future result of the project of the batch, or empty when the target does not
+   *     support the multi-project batch-apply-object REST-API and the batch needs to be sent on its
+   *     own.
+   */
+  CompletableFuture<Optional<HttpResult>> send(
+      Source source, URIish targetUri, ProjectBatchInput batch, Sender sender) {
+    String apiUrl = targetUri.toString();
+    if (unsupportedApiUrls.getIfPresent(apiUrl) != null) {
+      return CompletableFuture.completedFuture(Optional.empty());
+    }
+
+    Map<String, Group> sourceGroups = groupsOf(source);
+    Group group;
+    Group previousGroup = null;
+    boolean leader = false;
+    boolean full = false;
+    synchronized (sourceGroups) {
+      group = sourceGroups.get(apiUrl);
+      if (group != null && group.contains(batch.getProject())) {
+        sourceGroups.remove(apiUrl);
+        previousGroup = group;
+        group = null;
+      }
+      if (group == null) {
+        group = new Group();
+        sourceGroups.put(apiUrl, group);
+        leader = true;
+      }
+      group.batches.add(batch);
+      if (group.batches.size() >= source.getMultiProjectBatchMaxProjects()) {
+        sourceGroups.remove(apiUrl, group);
+        full = true;
+      }
+    }
+
+    if (previousGroup != null) {
+      scheduleSend(source, sourceGroups, apiUrl, previousGroup, 0L, sender);
+    }
+    if (full) {
+      scheduleSend(source, sourceGroups, apiUrl, group, 0L, sender);
+    } else if (leader) {
+      scheduleSend(
+          source, sourceGroups, apiUrl, group, source.getMultiProjectBatchWindow(), sender);
+    }
+
+    return group.results.thenApply(
+        results ->
+            results.map(
+                projectResults ->
+                    projectResults.getOrDefault(
+                        batch.getProject(),
+                        new HttpResult(
+                            SC_INTERNAL_SERVER_ERROR,
+                            Optional.of("No result for project " + batch.getProject())))));
+  }
+
+  private void scheduleSend(
+      Source source,
+      Map<String, Group> sourceGroups,
+      String apiUrl,
+      Group group,
+      long delayMs,
+      Sender sender) {
+    try {
+      // The timer only hands the group over, so that the groups of different targets are sent in
+      // parallel
+      scheduler
+          .get()
+          .schedule(
+              () -> {
+                try {
+                  source
+                      .getBackgroundCallsExecutor()
+                      .execute(() -> sendGroup(sourceGroups, apiUrl, group, sender));
+                } catch (RejectedExecutionException e) {
+                  group.results.completeExceptionally(new IOException(e));
+                }
+              },
+              delayMs,
+              TimeUnit.MILLISECONDS);
+    } catch (RejectedExecutionException e) {
+      group.results.completeExceptionally(new IOException(e));
+    }
+  }
+
+  private void sendGroup(
+      Map<String, Group> sourceGroups, String apiUrl, Group group, Sender sender) {
+    List<ProjectBatchInput> batches;
+    synchronized (sourceGroups) {
+      sourceGroups.remove(apiUrl, group);
+      if (group.sent) {
+        return;
+      }
+      group.sent = true;
+      batches = List.copyOf(group.batches);
+    }
+
+    try {
+      Optional<Map<String, HttpResult>> results = sender.send(batches);
+      if (results.isEmpty()) {
+        unsupportedApiUrls.put(apiUrl, true);
+      }
+      group.results.complete(results);
+    } catch (IOException | RuntimeException e) {
+      group.results.completeExceptionally(e);
+    }
+  }
+
+  private Map<String, Group> groupsOf(Source source) {
+    try {
+      return groups.get(source, HashMap::new);
+    } catch (ExecutionException e) {
+      throw new IllegalStateException(e.getCause());
+    }
+  }
+}
@@ -0,0 +1,137 @@
+// Copyright (C) 2025 The Android Open Source Project
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+// http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.googlesource.gerrit.plugins.replication.pull.client;
+
+import com.google.common.base.Splitter;
+import com.google.gson.Gson;
+import com.google.inject.Inject;
+import com.google.inject.Singleton;
+import com.googlesource.gerrit.plugins.replication.pull.ApplyObjectMetrics;
+import com.googlesource.gerrit.plugins.replication.pull.Source;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import org.apache.http.Header;
+import org.apache.http.HttpEntity;
+import org.apache.http.HttpHeaders;
+import org.apache.http.HttpResponse;
+import org.apache.http.entity.ByteArrayEntity;
+import org.eclipse.jgit.transport.URIish;
+
+/**
+ * Compression of the apply-object REST-API request bodies.
+ *
+ * <p>The bodies are compressed only for the targets advertising the support of the gzip encoding in
+ * the {@code Accept-Encoding} header of their responses (RFC 7694), so that the targets running an
+ * older version of the plugin keep receiving them uncompressed.
+ */
+@Singleton
+public class RequestCompression {
+  public static final String GZIP_ENCODING = "gzip";
+
+  private final ApplyObjectMetrics metrics;
+  private final Set<String> gzipApiUrls = ConcurrentHashMap.newKeySet();
+
+  @Inject
+  RequestCompression(ApplyObjectMetrics metrics) {
+    this.metrics = metrics;
+  }
+
+  /**
+   * Create the entity streaming the JSON request body of an object, compressed when its estimated
+   * size is larger than the compression threshold of the source and accepted by the target.
+   *
+   * @param source the source sending the request.
+   * @param targetUri the target receiving the request.
+   * @param gson the serializer of the request body.
+   * @param input the object to send as request body.
+   * @param estimatedSize the estimated size in bytes of the request body.
+   * @return the request entity, with its content encoding set when compressed.
+   */
+  HttpEntity jsonEntity(
+      Source source, URIish targetUri, Gson gson, Object input, long estimatedSize) {
+    boolean compressed = isCompressed(source, targetUri, estimatedSize);
+    String sourceName = source.getRemoteConfigName();
+    return new JsonEntity(
+        gson,
+        input,
+        compressed,
+        (uncompressedBytes, compressedBytes) ->
+            metrics.recordRequestBytes(sourceName, uncompressedBytes, compressedBytes));
+  }
+
+  /**
+   * Create the entity of a JSON request body already serialized and shared with other targets,
+   * compressed when its size is larger than the compression threshold of the source and accepted by
+   * the target.
+   *
+   * @param source the source sending the request.
+   * @param targetUri the target receiving the request.
+   * @param body the serialized request body.
+   * @return the request entity, with its content encoding set when compressed.
+   */
+  HttpEntity jsonEntity(Source source, URIish targetUri, EncodedBody body) {
+    boolean compressed = isCompressed(source, targetUri, body.size());
+    byte[] bytes = compressed ? body.gzipped() : body.json();
+    String sourceName = source.getRemoteConfigName();
+    ByteArrayEntity entity =
+        new ByteArrayEntity(bytes) {
+          @Override
+          public void writeTo(OutputStream outStream) throws IOException {
+            super.writeTo(outStream);
+            metrics.recordRequestBytes(sourceName, body.size(), bytes.length);
+          }
+        };
+    if (compressed) {
+      entity.setContentEncoding(GZIP_ENCODING);
+    }
+    return entity;
+  }
+
+  private boolean isCompressed(Source source, URIish targetUri, long size) {
+    long threshold = source.getCompressionThreshold();
+    return threshold >= 0 && size >= threshold && gzipApiUrls.contains(targetUri.toString());
+  }
+
+  /**
+   * Track the request encodings accepted by a target from the headers of its response.
+   *
+   * <p>Only the successful responses are considered when not advertising any encoding, because the
+   * error responses may not be generated by the plugin.
+   *
+   * @param targetUri the target sending the response.
+   * @param response the response received.
+   */
+  void onResponse(URIish targetUri, HttpResponse response) {
+    Header acceptEncoding = response.getFirstHeader(HttpHeaders.ACCEPT_ENCODING);
+    int statusCode = response.getStatusLine().getStatusCode();
+    if (acceptEncoding == null && (statusCode < 200 || statusCode >= 300)) {
+      return;
+    }
+
+    boolean acceptsGzip =
+        acceptEncoding != null
+            && Splitter.on(',')
+                .trimResults()
+                .splitToStream(acceptEncoding.getValue())
+                .anyMatch(GZIP_ENCODING::equalsIgnoreCase);
+    if (acceptsGzip) {
+      gzipApiUrls.add(targetUri.toString());
+    } else {
+      gzipApiUrls.remove(targetUri.toString());
+    }
+  }
+}
@@ -0,0 +1,72 @@
+// Copyright (C) 2025 The Android Open Source Project
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+// http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.googlesource.gerrit.plugins.replication.pull.client;
+
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.inject.Inject;
+import com.google.inject.Provider;
+import com.google.inject.Singleton;
+import com.googlesource.gerrit.plugins.replication.pull.ReplicationSources;
+import java.util.concurrent.ExecutionException;
+import java.util.function.Supplier;
+
+/**
+ * Request bodies serialized once per batch of refs and shared by all the targets the batch is sent
+ * to, across sources and API URLs.
+ *
+ * <p>A body is keyed by the identity of the batch it has been serialized from, and it is retained
+ * only while the batch itself is reachable, that is while the replication of its event is in
+ * progress.
+ *
+ * <p>Sharing a body requires holding it in memory as a whole, hence it is worth only when there is
+ * more than one target: otherwise the body is better streamed to the only target.
+ */
+@Singleton
+class SharedRequestBodies {
+  private final Cache<Object, EncodedBody> bodies = CacheBuilder.newBuilder().weakKeys().build();
+  private final Provider<ReplicationSources> sources;
+
+  @Inject
+  SharedRequestBodies(Provider<ReplicationSources> sources) {
+    this.sources = sources;
+  }
+
+  /** Whether the bodies can be sent to more than one target, across all sources and API URLs. */
+  boolean hasManyTargets() {
+    return sources.get().getAll().stream().mapToInt(source -> source.getApis().size()).sum() > 1;
+  }
+
+  /**
+   * Get the body of a batch, serializing it if not done already.
+   *
+   * @param batch the batch of refs, compared by identity.
+   * @param eventCreatedOn the creation time of the event of the batch, which is part of the body.
+   * @param serializer serializer of the body, invoked at most once per batch.
+   * @return the body of the batch.
+   */
+  EncodedBody get(Object batch, long eventCreatedOn, Supplier<byte[]> serializer) {
+    try {
+      EncodedBody body = bodies.get(batch, () -> new EncodedBody(eventCreatedOn, serializer.get()));
+      if (body.eventCreatedOn() != eventCreatedOn) {
+        body = new EncodedBody(eventCreatedOn, serializer.get());
+        bodies.put(batch, body);
+      }
+      return body;
+    } catch (ExecutionException e) {
+      throw new IllegalStateException(e.getCause());
+    }
+  }
+}
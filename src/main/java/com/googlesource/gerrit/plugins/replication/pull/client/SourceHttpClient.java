@@ -18,6 +18,9 @@ import com.google.inject.Inject;
 import com.google.inject.assistedinject.Assisted;
 import com.googlesource.gerrit.plugins.replication.pull.Source;
 import java.io.IOException;
+import java.time.Duration;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
 import org.apache.http.client.ClientProtocolException;
 import org.apache.http.client.ResponseHandler;
 import org.apache.http.client.config.RequestConfig;
@@ -26,7 +29,13 @@ import org.apache.http.conn.HttpClientConnectionManager;
 import org.apache.http.impl.client.HttpClients;
 import org.apache.http.impl.conn.PoolingHttpClientConnectionManager;
 
-/** Apache HTTP client implementation based on Source-specific parameters */
+/**
+ * Apache HTTP client implementation based on Source-specific parameters, or {@link Http2Client}
+ * when HTTP/2 is enabled for the source.
+ *
+ * <p>Only the HTTP/2 client is non-blocking: the asynchronous calls through the Apache client are
+ * executed by a blocking adapter, see {@link HttpClient#executeAsync}.
+ */
 public class SourceHttpClient implements HttpClient {
   private final Source source;
 
@@ -42,6 +51,10 @@ public class SourceHttpClient implements HttpClient {
   @Override
   public <T> T execute(HttpUriRequest request, ResponseHandler<? extends T> responseHandler)
       throws ClientProtocolException, IOException {
+    if (source.enableHttp2()) {
+      return http2Client().execute(request, responseHandler);
+    }
+
     return source
         .memoize(
             () ->
@@ -52,6 +65,29 @@ public class SourceHttpClient implements HttpClient {
         .execute(request, responseHandler);
   }
 
+  @Override
+  public <T> CompletableFuture<T> executeAsync(
+      HttpUriRequest request, ResponseHandler<? extends T> responseHandler, Executor executor) {
+    if (source.enableHttp2()) {
+      return http2Client().executeAsync(request, responseHandler, executor);
+    }
+    // The Apache client is blocking: the call holds a thread of the executor until it completes.
+    // Its connection pool honours the limits of the source, which the JDK client would not.
+    return HttpClient.super.executeAsync(request, responseHandler, executor);
+  }
+
+  private Http2Client http2Client() {
+    // Non-positive values mean no timeout, as for the Apache HTTP client, whereas the JDK client
+    // rejects them.
+    int connectionTimeout = source.getConnectionTimeout();
+    Duration timeout = connectionTimeout > 0 ? Duration.ofMillis(connectionTimeout) : null;
+    return new Http2Client(
+        source.memoizeHttp2(
+            () -> Http2Client.newExecutor(source.getRemoteConfigName()),
+            executor -> Http2Client.newClient(timeout, executor)),
+        timeout);
+  }
+
   private static RequestConfig customRequestConfig(Source source) {
     int connectionTimeout = source.getConnectionTimeout();
     return RequestConfig.custom()
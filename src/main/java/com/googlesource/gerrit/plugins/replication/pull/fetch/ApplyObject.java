@@ -14,36 +14,378 @@
 
 package com.googlesource.gerrit.plugins.replication.pull.fetch;
 
+import com.google.common.flogger.FluentLogger;
+import com.google.gerrit.common.Nullable;
 import com.google.gerrit.entities.Project;
 import com.google.gerrit.extensions.restapi.IdString;
 import com.google.gerrit.extensions.restapi.ResourceNotFoundException;
 import com.google.gerrit.server.git.GitRepositoryManager;
 import com.google.inject.Inject;
+import com.googlesource.gerrit.plugins.replication.api.ReplicationConfig;
+import com.googlesource.gerrit.plugins.replication.pull.ApplyObjectMetrics;
 import com.googlesource.gerrit.plugins.replication.pull.LocalGitRepositoryManagerProvider;
+import com.googlesource.gerrit.plugins.replication.pull.api.data.ApplyPackInput.RefUpdateInput;
 import com.googlesource.gerrit.plugins.replication.pull.api.data.RevisionData;
 import com.googlesource.gerrit.plugins.replication.pull.api.data.RevisionObjectData;
 import com.googlesource.gerrit.plugins.replication.pull.api.exception.MissingLatestPatchSetException;
 import com.googlesource.gerrit.plugins.replication.pull.api.exception.MissingParentObjectException;
 import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.IdentityHashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Set;
+import java.util.stream.Collectors;
+import org.eclipse.jgit.errors.CorruptObjectException;
+import org.eclipse.jgit.errors.MissingObjectException;
 import org.eclipse.jgit.errors.RepositoryNotFoundException;
+import org.eclipse.jgit.errors.TooLargeObjectInPackException;
+import org.eclipse.jgit.errors.TooLargePackException;
+import org.eclipse.jgit.lib.BatchRefUpdate;
+import org.eclipse.jgit.lib.Constants;
+import org.eclipse.jgit.lib.NullProgressMonitor;
+import org.eclipse.jgit.lib.ObjectChecker;
+import org.eclipse.jgit.lib.ObjectDatabase;
 import org.eclipse.jgit.lib.ObjectId;
 import org.eclipse.jgit.lib.ObjectInserter;
+import org.eclipse.jgit.lib.Ref;
+import org.eclipse.jgit.lib.RefDatabase;
 import org.eclipse.jgit.lib.RefUpdate;
 import org.eclipse.jgit.lib.Repository;
+import org.eclipse.jgit.revwalk.ObjectWalk;
 import org.eclipse.jgit.revwalk.RevCommit;
+import org.eclipse.jgit.revwalk.RevObject;
+import org.eclipse.jgit.revwalk.RevWalk;
+import org.eclipse.jgit.transport.PackParser;
+import org.eclipse.jgit.transport.ReceiveCommand;
 import org.eclipse.jgit.transport.RefSpec;
+import org.eclipse.jgit.transport.TransferConfig;
+import org.eclipse.jgit.util.io.LimitedInputStream;
 
 public class ApplyObject {
+  private static final FluentLogger logger = FluentLogger.forEnclosingClass();
+
+  static final String CONFIG_UNPACK_LIMIT = "applyObjectUnpackLimit";
+  // The commit, tree and blob of a typical NoteDb meta-ref update stay loose, anything larger is
+  // packed
+  static final int DEFAULT_UNPACK_LIMIT = 3;
+  static final String CONFIG_APPLY_PACK_MAX_OBJECT_SIZE = "applyPackMaxObjectSize";
+  static final String CONFIG_APPLY_PACK_MAX_SIZE = "applyPackMaxSize";
+  static final long DEFAULT_APPLY_PACK_MAX_SIZE = 1024L * 1024 * 1024;
 
   private final GitRepositoryManager gitManager;
+  private final ApplyObjectMetrics metrics;
+  private final int unpackLimit;
+  private final long applyPackMaxObjectSize;
+  private final long applyPackMaxSize;
 
   // NOTE: We do need specifically the local GitRepositoryManager to make sure
   // to be able to write onto the directly physical repository without any wrapper.
   // Using for instance the multi-site wrapper injected by Guice would result
   // in a split-brain because of the misalignment of local vs. global refs values.
   @Inject
-  public ApplyObject(LocalGitRepositoryManagerProvider gitManagerProvider) {
+  public ApplyObject(
+      LocalGitRepositoryManagerProvider gitManagerProvider,
+      ApplyObjectMetrics metrics,
+      ReplicationConfig replicationConfig) {
     this.gitManager = gitManagerProvider.get();
+    this.metrics = metrics;
+    this.unpackLimit =
+        Math.max(
+            0,
+            replicationConfig
+                .getConfig()
+                .getInt("replication", CONFIG_UNPACK_LIMIT, DEFAULT_UNPACK_LIMIT));
+    this.applyPackMaxObjectSize =
+        Math.max(
+            0,
+            replicationConfig
+                .getConfig()
+                .getLong("replication", CONFIG_APPLY_PACK_MAX_OBJECT_SIZE, 0));
+    this.applyPackMaxSize =
+        Math.max(
+            0,
+            replicationConfig
+                .getConfig()
+                .getLong("replication", CONFIG_APPLY_PACK_MAX_SIZE, DEFAULT_APPLY_PACK_MAX_SIZE));
+  }
+
+  /**
+   * Find which of the given objects are not present in the repository.
+   *
+   * @param name the project to look into
+   * @param objectIds the objects to look for
+   * @return the objects that are missing, in the same order as they were given
+   */
+  public List<ObjectId> missingObjects(Project.NameKey name, List<ObjectId> objectIds)
+      throws IOException, ResourceNotFoundException {
+    try (Repository git = gitManager.openRepository(name)) {
+      ObjectDatabase objectDatabase = git.getObjectDatabase();
+      List<ObjectId> missingObjectIds = new ArrayList<>();
+      for (ObjectId objectId : objectIds) {
+        if (!objectDatabase.has(objectId)) {
+          missingObjectIds.add(objectId);
+        }
+      }
+      return missingObjectIds;
+    } catch (RepositoryNotFoundException e) {
+      throw new ResourceNotFoundException(IdString.fromDecoded(name.get()), e);
+    }
+  }
+
+  /**
+   * Insert the objects of a thin pack, built against the parents of the refs to be updated, and
+   * validate the refs before any of them is updated, as a push would.
+   *
+   * <p>The pack is rejected when larger than {@code replication.applyPackMaxSize} or when any of
+   * its objects is larger than {@code replication.applyPackMaxObjectSize}. Its objects are checked
+   * with the {@code fsck} settings of the repository, and the objects of the refs must be fully
+   * connected to the objects already present.
+   *
+   * @param name the project to insert the objects into
+   * @param refs the refs to be updated with the objects of the pack
+   * @param pack the thin pack stream
+   * @throws MissingParentObjectException if any of the parents of the refs is missing, hence the
+   *     pack could not be completed, or any object reachable from the refs is missing
+   * @throws MissingLatestPatchSetException if the latest patch-set of a change meta commit is
+   *     neither present nor one of the refs
+   * @throws TooLargePackException if the pack is too large
+   * @throws TooLargeObjectInPackException if an object of the pack is too large
+   * @throws CorruptObjectException if an object of the pack is invalid
+   */
+  public void insertPack(Project.NameKey name, List<RefUpdateInput> refs, InputStream pack)
+      throws MissingParentObjectException,
+          MissingLatestPatchSetException,
+          IOException,
+          ResourceNotFoundException {
+    try (Repository git = gitManager.openRepository(name)) {
+      ObjectDatabase objectDatabase = git.getObjectDatabase();
+      for (RefUpdateInput ref : refs) {
+        for (ObjectId parentId : parentIds(ref)) {
+          if (!objectDatabase.has(parentId)) {
+            throw new MissingParentObjectException(name, ref.getRefName(), parentId);
+          }
+        }
+      }
+
+      try (ObjectInserter oi = git.newObjectInserter()) {
+        PackParser parser = oi.newPackParser(limitPackSize(pack));
+        parser.setAllowThin(true);
+        parser.setMaxObjectSizeLimit(applyPackMaxObjectSize);
+        parser.setObjectChecker(newObjectChecker(git));
+        parser.parse(NullProgressMonitor.INSTANCE);
+        oi.flush();
+      }
+
+      validatePackRefs(git, name, refs);
+    } catch (RepositoryNotFoundException e) {
+      throw new ResourceNotFoundException(IdString.fromDecoded(name.get()), e);
+    }
+  }
+
+  private InputStream limitPackSize(InputStream pack) {
+    if (applyPackMaxSize <= 0) {
+      return pack;
+    }
+    return new LimitedInputStream(pack, applyPackMaxSize) {
+      @Override
+      protected void limitExceeded() throws TooLargePackException {
+        throw new TooLargePackException(applyPackMaxSize);
+      }
+    };
+  }
+
+  /**
+   * Checker of the objects received, with the {@code fsck} settings of the repository when
+   * enabled, otherwise with the default checks.
+   */
+  private static ObjectChecker newObjectChecker(Repository git) {
+    ObjectChecker checker = new TransferConfig(git).newReceiveObjectChecker();
+    return checker != null ? checker : new ObjectChecker();
+  }
+
+  /**
+   * Validate all the refs of a pack, before any of them is updated: the parents of their commits
+   * must be present, the latest patch-set of their change meta commits must be present or one of
+   * the refs, and all the objects reachable from them must be present down to the parents the pack
+   * was built against or the current objects of the refs.
+   */
+  private static void validatePackRefs(
+      Repository git, Project.NameKey name, List<RefUpdateInput> refs)
+      throws MissingParentObjectException, MissingLatestPatchSetException, IOException {
+    Set<String> refNames =
+        refs.stream().map(RefUpdateInput::getRefName).collect(Collectors.toSet());
+    RefDatabase refDb = git.getRefDatabase();
+    try (ObjectWalk walk = new ObjectWalk(git)) {
+      ChangeMetaCommitValidator validator = new ChangeMetaCommitValidator(git, walk);
+      for (RefUpdateInput ref : refs) {
+        String refName = ref.getRefName();
+        RevObject object;
+        try {
+          object = walk.parseAny(ObjectId.fromString(ref.getObjectId()));
+        } catch (MissingObjectException e) {
+          throw new MissingParentObjectException(name, refName, e.getObjectId());
+        }
+
+        if (object instanceof RevCommit) {
+          RevCommit commit = (RevCommit) object;
+          for (RevCommit parent : commit.getParents()) {
+            if (!git.getObjectDatabase().has(parent.getId())) {
+              throw new MissingParentObjectException(name, refName, parent.getId());
+            }
+          }
+
+          Optional<String> missingPatchSetRef =
+              validator.missingLatestPatchSetRef(refNames, refName, commit);
+          if (missingPatchSetRef.isPresent()) {
+            throw new MissingLatestPatchSetException(
+                name, refName, "Unable to find latest patch-set ref " + missingPatchSetRef.get());
+          }
+        }
+
+        walk.markStart(object);
+        for (ObjectId parentId : parentIds(ref)) {
+          walk.markUninteresting(walk.parseAny(parentId));
+        }
+        Ref currentRef = refDb.exactRef(refName);
+        if (currentRef != null
+            && currentRef.getObjectId() != null
+            && git.getObjectDatabase().has(currentRef.getObjectId())) {
+          walk.markUninteresting(walk.parseAny(currentRef.getObjectId()));
+        }
+      }
+
+      try {
+        walk.checkConnectivity();
+      } catch (MissingObjectException e) {
+        throw new MissingParentObjectException(name, refNames.toString(), e.getObjectId());
+      }
+    }
+  }
+
+  private static List<ObjectId> parentIds(RefUpdateInput ref) {
+    return Optional.ofNullable(ref.getParentObjectIds()).orElse(List.of()).stream()
+        .map(ObjectId::fromString)
+        .collect(Collectors.toList());
+  }
+
+  /**
+   * Update a ref to an object already inserted, for instance by {@link #insertPack(Project.NameKey,
+   * List, InputStream)}, with the same validations of {@link #apply(Project.NameKey, RefSpec,
+   * RevisionData[])}.
+   *
+   * @param name the project of the ref
+   * @param refName the ref to update
+   * @param objectId the new object of the ref
+   * @return the outcome of the ref update
+   */
+  public RefUpdateState updateRef(Project.NameKey name, String refName, ObjectId objectId)
+      throws MissingParentObjectException,
+          IOException,
+          ResourceNotFoundException,
+          MissingLatestPatchSetException {
+    try (Repository git = gitManager.openRepository(name);
+        RevWalk walk = new RevWalk(git)) {
+      return updateRef(git, walk, name, refName, objectId);
+    } catch (RepositoryNotFoundException e) {
+      throw new ResourceNotFoundException(IdString.fromDecoded(name.get()), e);
+    }
+  }
+
+  /**
+   * Update a ref to an object only if the object is already present, along with all the objects
+   * reachable from it, so that none of them needs to be sent, with the same validations of {@link
+   * #updateRef(Project.NameKey, String, ObjectId)}.
+   *
+   * @param name the project of the ref
+   * @param refName the ref to update
+   * @param objectId the new object of the ref
+   * @return the outcome of the ref update, {@link RefUpdate.Result#NO_CHANGE} when the ref is
+   *     already pointing to the object, or {@link Optional#empty()} when the object or any of the
+   *     objects reachable from it is missing
+   */
+  public Optional<RefUpdateState> updateRefIfPresent(
+      Project.NameKey name, String refName, ObjectId objectId)
+      throws MissingParentObjectException,
+          IOException,
+          ResourceNotFoundException,
+          MissingLatestPatchSetException {
+    try (Repository git = gitManager.openRepository(name);
+        RevWalk walk = new RevWalk(git)) {
+      Ref ref = git.getRefDatabase().exactRef(refName);
+      if (ref != null && objectId.equals(ref.getObjectId())) {
+        return Optional.of(new RefUpdateState(refName, RefUpdate.Result.NO_CHANGE));
+      }
+      if (!isComplete(git, ref, objectId)) {
+        return Optional.empty();
+      }
+      return Optional.of(updateRef(git, walk, name, refName, objectId));
+    } catch (RepositoryNotFoundException e) {
+      throw new ResourceNotFoundException(IdString.fromDecoded(name.get()), e);
+    }
+  }
+
+  /**
+   * Check that all the objects reachable from an object are present, walking them down to the
+   * current object of the ref or, for a new ref, to the tips of the branches. A commit received
+   * without its trees and blobs, or without some of its history, is present but not complete.
+   */
+  private static boolean isComplete(Repository git, @Nullable Ref ref, ObjectId objectId)
+      throws IOException {
+    ObjectDatabase objectDatabase = git.getObjectDatabase();
+    if (!objectDatabase.has(objectId)) {
+      return false;
+    }
+
+    List<Ref> limitRefs =
+        ref != null ? List.of(ref) : git.getRefDatabase().getRefsByPrefix(Constants.R_HEADS);
+    try (ObjectWalk walk = new ObjectWalk(git)) {
+      walk.markStart(walk.parseAny(objectId));
+      for (Ref limitRef : limitRefs) {
+        ObjectId limitObjectId = limitRef.getObjectId();
+        if (limitObjectId != null && objectDatabase.has(limitObjectId)) {
+          walk.markUninteresting(walk.parseAny(limitObjectId));
+        }
+      }
+      walk.checkConnectivity();
+      return true;
+    } catch (MissingObjectException e) {
+      return false;
+    }
+  }
+
+  private static RefUpdateState updateRef(
+      Repository git, RevWalk walk, Project.NameKey name, String refName, ObjectId objectId)
+      throws MissingParentObjectException, IOException, MissingLatestPatchSetException {
+    RefUpdate ru = git.updateRef(refName);
+    RevObject object = walk.parseAny(objectId);
+    if (object instanceof RevCommit) {
+      RevCommit commit = (RevCommit) object;
+      for (RevCommit parent : commit.getParents()) {
+        if (!git.getObjectDatabase().has(parent.getId())) {
+          throw new MissingParentObjectException(name, refName, parent.getId());
+        }
+      }
+
+      StringBuffer error = new StringBuffer();
+      if (!new ChangeMetaCommitValidator(git, walk).isValid(refName, commit, error::append)) {
+        throw new MissingLatestPatchSetException(name, refName, error.toString());
+      }
+    } else {
+      // Non-commits must be forced as they do not have a graph associated
+      ru.setForceUpdate(true);
+    }
+
+    ru.setNewObjectId(objectId);
+    RefUpdate.Result result = ru.update(walk);
+    return new RefUpdateState(refName, result);
   }
 
   public RefUpdateState apply(Project.NameKey name, RefSpec refSpec, RevisionData[] revisionsData)
@@ -51,27 +393,47 @@ public class ApplyObject {
           IOException,
           ResourceNotFoundException,
           MissingLatestPatchSetException {
+    return apply(name, refSpec, Arrays.asList(revisionsData).iterator());
+  }
+
+  /**
+   * Same as {@link #apply(Project.NameKey, RefSpec, RevisionData[])}, with the revisions inserted
+   * while they are iterated, so that only the objects of the revision being inserted need to be
+   * held in memory.
+   */
+  public RefUpdateState apply(
+      Project.NameKey name, RefSpec refSpec, Iterator<RevisionData> revisionsData)
+      throws MissingParentObjectException,
+          IOException,
+          ResourceNotFoundException,
+          MissingLatestPatchSetException {
     try (Repository git = gitManager.openRepository(name)) {
 
       ObjectId refHead = null;
       RefUpdate ru = git.updateRef(refSpec.getSource());
-      try (ObjectInserter oi = git.newObjectInserter()) {
-        for (RevisionData revisionData : revisionsData) {
+      try (ApplyObjectInserter oi = new ApplyObjectInserter(git, unpackLimit);
+          RevWalk walk = new RevWalk(oi.getReader())) {
+        // The same validator for the whole history, so that the patch-set refs its commits refer
+        // to are resolved only once
+        ChangeMetaCommitValidator validator = new ChangeMetaCommitValidator(git, walk);
+        while (revisionsData.hasNext()) {
+          RevisionData revisionData = revisionsData.next();
 
           ObjectId newObjectID = null;
           RevisionObjectData commitObject = revisionData.getCommitObject();
+          byte[] commitContent = null;
 
           if (commitObject != null) {
-            RevCommit commit = RevCommit.parse(commitObject.getContent());
+            commitContent = commitObject.getContent();
+            RevCommit commit = RevCommit.parse(commitContent);
             for (RevCommit parent : commit.getParents()) {
-              if (!git.getObjectDatabase().has(parent.getId())) {
+              if (!oi.has(parent.getId())) {
                 throw new MissingParentObjectException(name, refSpec.getSource(), parent.getId());
               }
             }
 
             StringBuffer error = new StringBuffer();
-            if (!ChangeMetaCommitValidator.isValid(
-                git, refSpec.getSource(), commit, error::append)) {
+            if (!validator.isValid(refSpec.getSource(), commit, error::append)) {
               throw new MissingLatestPatchSetException(name, refSpec.getSource(), error.toString());
             }
           }
@@ -88,17 +450,19 @@ public class ApplyObject {
             RevisionObjectData treeObject = revisionData.getTreeObject();
             oi.insert(treeObject.getType(), treeObject.getContent());
 
-            refHead = oi.insert(commitObject.getType(), commitObject.getContent());
+            refHead = oi.insert(commitObject.getType(), commitContent);
           }
 
-          oi.flush();
-
           if (commitObject == null) {
             // Non-commits must be forced as they do not have a graph associated
             ru.setForceUpdate(true);
           }
         }
 
+        // The objects of the whole history are flushed at once, the parents of every commit
+        // being visible to the following ones through the inserter
+        metrics.incrementLooseObjectsAvoided(oi.flush());
+
         ru.setNewObjectId(refHead);
         RefUpdate.Result result = ru.update();
         return new RefUpdateState(refSpec.getSource(), result);
@@ -107,4 +471,333 @@ public class ApplyObject {
       throw new ResourceNotFoundException(IdString.fromDecoded(name.get()), e);
     }
   }
+
+  /**
+   * Start applying the objects of many refs of a project in a single transaction.
+   *
+   * <p>The objects of all the refs are inserted through the same inserter and flushed only once,
+   * into a single pack on file-based repositories when they are more than the unpack limit, then
+   * all the refs are updated with a single non-atomic {@link BatchRefUpdate}, so that the failure
+   * of a ref does not prevent the others from being updated. The change meta refs are still
+   * updated only once their latest patch-set refs of the same batch are, see {@link
+   * Batch#add(String, RevisionData[])}.
+   *
+   * @param name the project to apply the objects to
+   * @return the batch, which must be closed once committed
+   */
+  public Batch newBatch(Project.NameKey name) throws IOException, ResourceNotFoundException {
+    return newBatch(name, false);
+  }
+
+  /**
+   * Same as {@link #newBatch(Project.NameKey)}, optionally with an atomic {@link BatchRefUpdate}
+   * where the ref database supports it, so that either all the refs are updated or none is.
+   */
+  public Batch newBatch(Project.NameKey name, boolean atomic)
+      throws IOException, ResourceNotFoundException {
+    try {
+      return new Batch(name, gitManager.openRepository(name), atomic, metrics, unpackLimit);
+    } catch (RepositoryNotFoundException e) {
+      throw new ResourceNotFoundException(IdString.fromDecoded(name.get()), e);
+    }
+  }
+
+  /**
+   * Objects of many refs of a project inserted with the same inserter, whose refs are updated all
+   * together when the batch is committed.
+   */
+  public static class Batch implements AutoCloseable {
+    private final Project.NameKey name;
+    private final Repository git;
+    private final boolean atomic;
+    private final ApplyObjectMetrics metrics;
+    private final ApplyObjectInserter inserter;
+    private final RevWalk walk;
+    private final ChangeMetaCommitValidator validator;
+    private final Map<String, PendingRef> pendingRefs = new LinkedHashMap<>();
+    private final List<RefUpdateState> refUpdateStates = new ArrayList<>();
+    private final Map<RefUpdateState, MissingLatestPatchSetException> missingPatchSetRejections =
+        new IdentityHashMap<>();
+
+    private Batch(
+        Project.NameKey name,
+        Repository git,
+        boolean atomic,
+        ApplyObjectMetrics metrics,
+        int unpackLimit) {
+      this.name = name;
+      this.git = git;
+      this.atomic = atomic;
+      this.metrics = metrics;
+      this.inserter = new ApplyObjectInserter(git, unpackLimit);
+      this.walk = new RevWalk(inserter.getReader());
+      this.validator = new ChangeMetaCommitValidator(git, walk);
+    }
+
+    /**
+     * Insert the objects of a ref, with the same validations of {@link #apply(Project.NameKey,
+     * RefSpec, RevisionData[])}, and add its update to the batch.
+     *
+     * <p>The objects and the refs already added to the batch are taken into account for the
+     * validations, even though they are not flushed and updated yet. When the ref is already in the
+     * batch, the refs added so far are updated first, so that the updates of the same ref are
+     * applied in order.
+     *
+     * <p>The latest patch-set refs of the change meta commits are allowed to be added to the batch
+     * after their change meta ref: the change meta ref is rejected when the batch is committed if
+     * they are still missing. When the batch is not atomic, the change meta ref is updated only
+     * after its latest patch-set refs of the same batch, and rejected if any of them fails.
+     */
+    public void add(String refName, RevisionData[] revisionsData)
+        throws MissingParentObjectException, IOException {
+      if (pendingRefs.containsKey(refName)) {
+        updatePendingRefs();
+      }
+
+      ObjectId refHead = null;
+      boolean forceUpdate = false;
+      Set<String> missingPatchSetRefs = new HashSet<>();
+      for (RevisionData revisionData : revisionsData) {
+        RevisionObjectData commitObject = revisionData.getCommitObject();
+        byte[] commitContent = null;
+
+        if (commitObject != null) {
+          commitContent = commitObject.getContent();
+          RevCommit commit = RevCommit.parse(commitContent);
+          for (RevCommit parent : commit.getParents()) {
+            if (!inserter.has(parent.getId())) {
+              throw new MissingParentObjectException(name, refName, parent.getId());
+            }
+          }
+
+          validator
+              .missingLatestPatchSetRef(pendingRefs.keySet(), refName, commit)
+              .ifPresent(missingPatchSetRefs::add);
+        }
+
+        ObjectId firstBlobObjectId = null;
+        for (RevisionObjectData rev : revisionData.getBlobs()) {
+          ObjectId blobObjectId = inserter.insert(rev.getType(), rev.getContent());
+          if (firstBlobObjectId == null) {
+            firstBlobObjectId = blobObjectId;
+          }
+          refHead = firstBlobObjectId;
+        }
+
+        if (commitObject != null) {
+          RevisionObjectData treeObject = revisionData.getTreeObject();
+          inserter.insert(treeObject.getType(), treeObject.getContent());
+          refHead = inserter.insert(commitObject.getType(), commitContent);
+        } else {
+          // Non-commits must be forced as they do not have a graph associated
+          forceUpdate = true;
+        }
+      }
+
+      pendingRefs.put(refName, new PendingRef(refHead, forceUpdate, missingPatchSetRefs));
+    }
+
+    /**
+     * Flush the objects inserted and update all the refs added to the batch.
+     *
+     * @return the outcome of the update of every ref, in the same order as they were added
+     */
+    public List<RefUpdateState> commit() throws IOException {
+      updatePendingRefs();
+      List<RefUpdateState> states = new ArrayList<>(refUpdateStates);
+      refUpdateStates.clear();
+      return states;
+    }
+
+    /**
+     * Reason of the rejection of a ref-update returned by {@link #commit()} because of a latest
+     * patch-set ref still missing, if any.
+     */
+    public Optional<MissingLatestPatchSetException> getMissingLatestPatchSet(
+        RefUpdateState refUpdateState) {
+      return Optional.ofNullable(missingPatchSetRejections.get(refUpdateState));
+    }
+
+    private void updatePendingRefs() throws IOException {
+      if (pendingRefs.isEmpty()) {
+        return;
+      }
+      metrics.incrementLooseObjectsAvoided(inserter.flush());
+
+      RefDatabase refDb = git.getRefDatabase();
+      boolean atomicUpdate = atomic && refDb.performsAtomicTransactions();
+      Map<String, RefUpdate.Result> results = new HashMap<>();
+      Map<String, MissingLatestPatchSetException> missingPatchSets = new HashMap<>();
+      Map<String, ReceiveCommand> commands = new LinkedHashMap<>();
+      // Without a single transaction, the change meta refs whose latest patch-set refs are in the
+      // batch are updated only once those are, so that they never point to a missing patch set
+      Map<String, ReceiveCommand> dependentCommands = new LinkedHashMap<>();
+      try (RevWalk walk = new RevWalk(inserter.getReader())) {
+        for (Map.Entry<String, PendingRef> pendingRef : pendingRefs.entrySet()) {
+          String refName = pendingRef.getKey();
+          Optional<String> missingPatchSetRef =
+              findMissingPatchSetRef(pendingRef.getValue().missingPatchSetRefs);
+          if (missingPatchSetRef.isPresent()) {
+            rejectMissingPatchSet(
+                refName,
+                String.format("Unable to find latest patch-set ref %s", missingPatchSetRef.get()),
+                results,
+                missingPatchSets);
+            continue;
+          }
+
+          ObjectId newObjectId = pendingRef.getValue().objectId;
+          Ref ref = refDb.exactRef(refName);
+          ObjectId oldObjectId = ref != null ? ref.getObjectId() : ObjectId.zeroId();
+          if (oldObjectId.equals(newObjectId)) {
+            results.put(refName, RefUpdate.Result.NO_CHANGE);
+            continue;
+          }
+
+          ReceiveCommand command = new ReceiveCommand(oldObjectId, newObjectId, refName);
+          if (!pendingRef.getValue().forceUpdate) {
+            command.updateType(walk);
+            if (command.getType() == ReceiveCommand.Type.UPDATE_NONFASTFORWARD) {
+              results.put(refName, RefUpdate.Result.REJECTED);
+              continue;
+            }
+          }
+          if (!atomicUpdate && !pendingPatchSetRefs(pendingRef.getValue()).isEmpty()) {
+            dependentCommands.put(refName, command);
+          } else {
+            commands.put(refName, command);
+          }
+        }
+
+        execute(refDb, atomicUpdate, walk, commands, results);
+
+        for (Iterator<Map.Entry<String, ReceiveCommand>> dependentCommand =
+                dependentCommands.entrySet().iterator();
+            dependentCommand.hasNext(); ) {
+          String refName = dependentCommand.next().getKey();
+          for (String patchSetRef : pendingPatchSetRefs(pendingRefs.get(refName))) {
+            RefUpdate.Result patchSetResult = results.get(patchSetRef);
+            if (!isSuccessful(patchSetResult)) {
+              rejectMissingPatchSet(
+                  refName,
+                  String.format(
+                      "Unable to update latest patch-set ref %s: %s", patchSetRef, patchSetResult),
+                  results,
+                  missingPatchSets);
+              dependentCommand.remove();
+              break;
+            }
+          }
+        }
+        execute(refDb, atomicUpdate, walk, dependentCommands, results);
+      }
+
+      for (String refName : pendingRefs.keySet()) {
+        RefUpdateState refUpdateState = new RefUpdateState(refName, results.get(refName));
+        refUpdateStates.add(refUpdateState);
+        if (missingPatchSets.containsKey(refName)) {
+          missingPatchSetRejections.put(refUpdateState, missingPatchSets.get(refName));
+        }
+      }
+      pendingRefs.clear();
+    }
+
+    private void execute(
+        RefDatabase refDb,
+        boolean atomicUpdate,
+        RevWalk walk,
+        Map<String, ReceiveCommand> commands,
+        Map<String, RefUpdate.Result> results)
+        throws IOException {
+      if (commands.isEmpty()) {
+        return;
+      }
+      BatchRefUpdate batchRefUpdate = refDb.newBatchUpdate();
+      batchRefUpdate.setAtomic(atomicUpdate);
+      // Non-fast-forwards of commits are rejected upfront, as a RefUpdate would do, so that only
+      // the updates of non-commits are actually forced
+      batchRefUpdate.setAllowNonFastForwards(true);
+      batchRefUpdate.addCommand(commands.values());
+      batchRefUpdate.execute(walk, NullProgressMonitor.INSTANCE);
+      commands.forEach(
+          (refName, command) ->
+              results.put(
+                  refName, toRefUpdateResult(command, pendingRefs.get(refName).forceUpdate)));
+    }
+
+    private void rejectMissingPatchSet(
+        String refName,
+        String error,
+        Map<String, RefUpdate.Result> results,
+        Map<String, MissingLatestPatchSetException> missingPatchSets) {
+      logger.atWarning().log("%s of %s:%s", error, name, refName);
+      results.put(refName, RefUpdate.Result.REJECTED_OTHER_REASON);
+      missingPatchSets.put(refName, new MissingLatestPatchSetException(name, refName, error));
+    }
+
+    /** The latest patch-set refs missing when the ref was added, which are added to the batch. */
+    private List<String> pendingPatchSetRefs(PendingRef pendingRef) {
+      return pendingRef.missingPatchSetRefs.stream()
+          .filter(pendingRefs::containsKey)
+          .collect(Collectors.toList());
+    }
+
+    private static boolean isSuccessful(@Nullable RefUpdate.Result result) {
+      return result == RefUpdate.Result.NEW
+          || result == RefUpdate.Result.FAST_FORWARD
+          || result == RefUpdate.Result.FORCED
+          || result == RefUpdate.Result.NO_CHANGE;
+    }
+
+    /** Find which of the patch-set refs missing when added is still neither pending nor present. */
+    private Optional<String> findMissingPatchSetRef(Set<String> patchSetRefs) throws IOException {
+      for (String patchSetRef : patchSetRefs) {
+        if (!pendingRefs.containsKey(patchSetRef) && !validator.isPresent(patchSetRef)) {
+          return Optional.of(patchSetRef);
+        }
+      }
+      return Optional.empty();
+    }
+
+    private static RefUpdate.Result toRefUpdateResult(ReceiveCommand command, boolean forceUpdate) {
+      switch (command.getResult()) {
+        case OK:
+          if (command.getType() == ReceiveCommand.Type.CREATE) {
+            return RefUpdate.Result.NEW;
+          }
+          return forceUpdate || command.getType() == ReceiveCommand.Type.UPDATE_NONFASTFORWARD
+              ? RefUpdate.Result.FORCED
+              : RefUpdate.Result.FAST_FORWARD;
+        case REJECTED_NONFASTFORWARD:
+          return RefUpdate.Result.REJECTED;
+        case REJECTED_CURRENT_BRANCH:
+          return RefUpdate.Result.REJECTED_CURRENT_BRANCH;
+        case REJECTED_MISSING_OBJECT:
+          return RefUpdate.Result.REJECTED_MISSING_OBJECT;
+        case LOCK_FAILURE:
+          return RefUpdate.Result.LOCK_FAILURE;
+        default:
+          return RefUpdate.Result.REJECTED_OTHER_REASON;
+      }
+    }
+
+    @Override
+    public void close() {
+      walk.close();
+      inserter.close();
+      git.close();
+    }
+  }
+
+  private static class PendingRef {
+    private final ObjectId objectId;
+    private final boolean forceUpdate;
+    private final Set<String> missingPatchSetRefs;
+
+    private PendingRef(ObjectId objectId, boolean forceUpdate, Set<String> missingPatchSetRefs) {
+      this.objectId = objectId;
+      this.forceUpdate = forceUpdate;
+      this.missingPatchSetRefs = missingPatchSetRefs;
+    }
+  }
 }
@@ -0,0 +1,300 @@
+// Copyright (C) 2025 The Android Open Source Project
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+// http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.googlesource.gerrit.plugins.replication.pull.fetch;
+
+import static java.util.concurrent.TimeUnit.MILLISECONDS;
+
+import com.google.common.collect.Iterators;
+import com.google.common.util.concurrent.Uninterruptibles;
+import com.google.gerrit.entities.Project;
+import com.google.gerrit.extensions.restapi.ResourceNotFoundException;
+import com.google.gerrit.server.config.ConfigUtil;
+import com.google.inject.Inject;
+import com.google.inject.Singleton;
+import com.googlesource.gerrit.plugins.replication.api.ReplicationConfig;
+import com.googlesource.gerrit.plugins.replication.pull.api.data.RevisionData;
+import com.googlesource.gerrit.plugins.replication.pull.api.exception.MissingLatestPatchSetException;
+import com.googlesource.gerrit.plugins.replication.pull.api.exception.MissingParentObjectException;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.stream.Collectors;
+import org.eclipse.jgit.lib.Config;
+import org.eclipse.jgit.transport.RefSpec;
+
+/**
+ * Ref-updates received for the same project at about the same time, applied together as a single
+ * group commit rather than one repository open, flush and ref lock each.
+ *
+ * <p>The first ref-update of a group waits for {@code replication.applyObjectGroupCommitWindow}, or
+ * until {@code replication.applyObjectGroupCommitMaxRefs} ref-updates have joined it, and for the
+ * previous group of the project to be committed. It then applies all of them with a single {@link
+ * ApplyObject.Batch} on behalf of the others. Every ref-update gets its own outcome. A group whose
+ * previous group is not committed within {@code replication.applyObjectGroupCommitTimeout} after
+ * the window fails as a whole, while a group being committed is always waited for, so that no
+ * ref-update is reported as failed and then applied anyway.
+ */
+@Singleton
+public class ApplyObjectGroupCommits {
+  static final String CONFIG_GROUP_COMMIT_WINDOW = "applyObjectGroupCommitWindow";
+  static final String CONFIG_GROUP_COMMIT_MAX_REFS = "applyObjectGroupCommitMaxRefs";
+  static final String CONFIG_GROUP_COMMIT_TIMEOUT = "applyObjectGroupCommitTimeout";
+  private static final int DEFAULT_GROUP_COMMIT_MAX_REFS = 100;
+  private static final long DEFAULT_GROUP_COMMIT_TIMEOUT_MS = TimeUnit.MINUTES.toMillis(1);
+
+  private static class RefUpdate {
+    private final String refName;
+    private final RevisionData[] revisionsData;
+    private final CompletableFuture<RefUpdateState> result = new CompletableFuture<>();
+
+    RefUpdate(String refName, RevisionData[] revisionsData) {
+      this.refName = refName;
+      this.revisionsData = revisionsData;
+    }
+  }
+
+  private static class Group {
+    private final List<RefUpdate> refUpdates = new ArrayList<>();
+    private final CountDownLatch closed = new CountDownLatch(1);
+    private boolean committing;
+
+    void close() {
+      closed.countDown();
+    }
+  }
+
+  private static class ProjectGroups {
+    private final ReentrantLock commitLock = new ReentrantLock();
+    private Group openGroup;
+    private int callers;
+  }
+
+  private final ApplyObject applyObject;
+  private final long windowMs;
+  private final int maxRefs;
+  private final long timeoutMs;
+  private final Map<Project.NameKey, ProjectGroups> groups = new HashMap<>();
+
+  @Inject
+  ApplyObjectGroupCommits(ApplyObject applyObject, ReplicationConfig replicationConfig) {
+    this.applyObject = applyObject;
+    Config cfg = replicationConfig.getConfig();
+    this.windowMs =
+        ConfigUtil.getTimeUnit(
+            cfg, "replication", null, CONFIG_GROUP_COMMIT_WINDOW, 0L, MILLISECONDS);
+    this.maxRefs =
+        Math.max(
+            1,
+            cfg.getInt("replication", CONFIG_GROUP_COMMIT_MAX_REFS, DEFAULT_GROUP_COMMIT_MAX_REFS));
+    this.timeoutMs =
+        ConfigUtil.getTimeUnit(
+            cfg,
+            "replication",
+            null,
+            CONFIG_GROUP_COMMIT_TIMEOUT,
+            DEFAULT_GROUP_COMMIT_TIMEOUT_MS,
+            MILLISECONDS);
+  }
+
+  /**
+   * Apply the objects of a ref as part of the group of its project, waiting for its outcome.
+   *
+   * <p>When the group commit window is not configured, the ref-update is applied on its own with
+   * {@link ApplyObject#apply(Project.NameKey, RefSpec, RevisionData[])}.
+   */
+  public RefUpdateState apply(Project.NameKey name, String refName, RevisionData[] revisionsData)
+      throws MissingParentObjectException,
+          IOException,
+          ResourceNotFoundException,
+          MissingLatestPatchSetException {
+    if (windowMs <= 0) {
+      return applyObject.apply(name, new RefSpec(refName), revisionsData);
+    }
+
+    ProjectGroups projectGroups = acquire(name);
+    try {
+      return apply(name, projectGroups, new RefUpdate(refName, revisionsData));
+    } finally {
+      release(name, projectGroups);
+    }
+  }
+
+  /**
+   * Same as {@link #apply(Project.NameKey, String, RevisionData[])}, with the revisions applied while
+   * they are iterated when the group commit window is not configured. Otherwise they are all read
+   * first, as the ref-updates of a group are held until the group is committed.
+   */
+  public RefUpdateState apply(
+      Project.NameKey name, String refName, Iterator<RevisionData> revisionsData)
+      throws MissingParentObjectException,
+          IOException,
+          ResourceNotFoundException,
+          MissingLatestPatchSetException {
+    if (windowMs <= 0) {
+      return applyObject.apply(name, new RefSpec(refName), revisionsData);
+    }
+    return apply(name, refName, Iterators.toArray(revisionsData, RevisionData.class));
+  }
+
+  private RefUpdateState apply(
+      Project.NameKey name, ProjectGroups projectGroups, RefUpdate refUpdate)
+      throws MissingParentObjectException,
+          IOException,
+          ResourceNotFoundException,
+          MissingLatestPatchSetException {
+    Group group;
+    boolean leader = false;
+    synchronized (projectGroups) {
+      group = projectGroups.openGroup;
+      if (group == null) {
+        group = new Group();
+        projectGroups.openGroup = group;
+        leader = true;
+      }
+      group.refUpdates.add(refUpdate);
+      if (group.refUpdates.size() >= maxRefs) {
+        projectGroups.openGroup = null;
+        group.close();
+      }
+    }
+
+    if (leader) {
+      commitGroup(name, projectGroups, group);
+    }
+
+    try {
+      try {
+        return Uninterruptibles.getUninterruptibly(
+            refUpdate.result, windowMs + timeoutMs, MILLISECONDS);
+      } catch (TimeoutException e) {
+        synchronized (projectGroups) {
+          // Once the group is being committed, its outcome is the one of the commit
+          if (!group.committing) {
+            refUpdate.result.completeExceptionally(
+                new IOException(
+                    String.format(
+                        "Timeout waiting for the group commit of %s:%s", name, refUpdate.refName),
+                    e));
+          }
+        }
+        return Uninterruptibles.getUninterruptibly(refUpdate.result);
+      }
+    } catch (ExecutionException e) {
+      Throwable cause = e.getCause();
+      if (cause instanceof MissingParentObjectException) {
+        throw (MissingParentObjectException) cause;
+      }
+      if (cause instanceof MissingLatestPatchSetException) {
+        throw (MissingLatestPatchSetException) cause;
+      }
+      if (cause instanceof ResourceNotFoundException) {
+        throw (ResourceNotFoundException) cause;
+      }
+      if (cause instanceof IOException) {
+        throw (IOException) cause;
+      }
+      throw new IOException(cause);
+    }
+  }
+
+  /** Get the groups of a project, shared by all its concurrent callers. */
+  private ProjectGroups acquire(Project.NameKey name) {
+    synchronized (groups) {
+      ProjectGroups projectGroups = groups.computeIfAbsent(name, n -> new ProjectGroups());
+      projectGroups.callers++;
+      return projectGroups;
+    }
+  }
+
+  /** Forget the groups of a project once it has no more callers. */
+  private void release(Project.NameKey name, ProjectGroups projectGroups) {
+    synchronized (groups) {
+      if (--projectGroups.callers == 0) {
+        groups.remove(name);
+      }
+    }
+  }
+
+  private void commitGroup(Project.NameKey name, ProjectGroups projectGroups, Group group) {
+    Uninterruptibles.awaitUninterruptibly(group.closed, windowMs, MILLISECONDS);
+    boolean locked =
+        Uninterruptibles.tryLockUninterruptibly(projectGroups.commitLock, timeoutMs, MILLISECONDS);
+    List<RefUpdate> refUpdates;
+    synchronized (projectGroups) {
+      if (projectGroups.openGroup == group) {
+        projectGroups.openGroup = null;
+      }
+      group.committing = locked;
+      // Skips the ref-updates whose callers have already given up waiting
+      refUpdates =
+          group.refUpdates.stream()
+              .filter(refUpdate -> !refUpdate.result.isDone())
+              .collect(Collectors.toList());
+    }
+    if (!locked) {
+      IOException e =
+          new IOException(
+              String.format("Timeout waiting for the previous group commit of %s", name));
+      refUpdates.forEach(refUpdate -> refUpdate.result.completeExceptionally(e));
+      return;
+    }
+
+    try {
+      commit(name, refUpdates);
+    } finally {
+      projectGroups.commitLock.unlock();
+    }
+  }
+
+  private void commit(Project.NameKey name, List<RefUpdate> refUpdates) {
+    List<RefUpdate> added = new ArrayList<>();
+    // The ref-updates of a group come from unrelated callers, hence the failure of one of them must
+    // not abort the others
+    try (ApplyObject.Batch batch = applyObject.newBatch(name, false)) {
+      for (RefUpdate refUpdate : refUpdates) {
+        try {
+          batch.add(refUpdate.refName, refUpdate.revisionsData);
+          added.add(refUpdate);
+        } catch (MissingParentObjectException | IOException | RuntimeException e) {
+          refUpdate.result.completeExceptionally(e);
+        }
+      }
+
+      List<RefUpdateState> refUpdateStates = batch.commit();
+      for (int i = 0; i < added.size(); i++) {
+        RefUpdateState refUpdateState = refUpdateStates.get(i);
+        Optional<MissingLatestPatchSetException> missingPatchSet =
+            batch.getMissingLatestPatchSet(refUpdateState);
+        if (missingPatchSet.isPresent()) {
+          added.get(i).result.completeExceptionally(missingPatchSet.get());
+        } else {
+          added.get(i).result.complete(refUpdateState);
+        }
+      }
+    } catch (IOException | ResourceNotFoundException | RuntimeException e) {
+      refUpdates.forEach(refUpdate -> refUpdate.result.completeExceptionally(e));
+    }
+  }
+}
@@ -0,0 +1,143 @@
+// Copyright (C) 2025 The Android Open Source Project
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+// http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.googlesource.gerrit.plugins.replication.pull.fetch;
+
+import java.io.IOException;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import org.eclipse.jgit.internal.storage.file.ObjectDirectory;
+import org.eclipse.jgit.internal.storage.file.PackInserter;
+import org.eclipse.jgit.lib.ObjectDatabase;
+import org.eclipse.jgit.lib.ObjectId;
+import org.eclipse.jgit.lib.ObjectInserter;
+import org.eclipse.jgit.lib.ObjectReader;
+import org.eclipse.jgit.lib.Repository;
+
+/**
+ * Inserter of the objects received with the apply-object REST-APIs.
+ *
+ * <p>On file-based repositories, the objects of every flush are written as loose objects when they
+ * are no more than the unpack limit, like {@code receive.unpackLimit} does for a received pack: a
+ * pack of a handful of objects would cost more than the loose objects themselves, being written
+ * with its own index and left for the GC to repack. Otherwise all of them are written into a single
+ * pack, indexed and atomically renamed into the repository on flush. Hence the objects are held in
+ * memory until the flush, or until the unpack limit is exceeded. The other repositories use their
+ * default inserter.
+ */
+class ApplyObjectInserter implements AutoCloseable {
+  private final ObjectInserter inserter;
+  private final ObjectInserter packInserter;
+  private final ObjectReader reader;
+  private final int unpackLimit;
+  private final Map<ObjectId, PendingObject> pendingObjects = new LinkedHashMap<>();
+  private int packedObjects;
+
+  /**
+   * @param git the repository to insert the objects into
+   * @param unpackLimit the maximum number of objects of a flush written as loose objects, beyond
+   *     which all of them are written into a pack
+   */
+  ApplyObjectInserter(Repository git, int unpackLimit) {
+    ObjectDatabase objectDatabase = git.getObjectDatabase();
+    inserter = git.newObjectInserter();
+    if (objectDatabase instanceof ObjectDirectory) {
+      PackInserter objectDirectoryPackInserter =
+          ((ObjectDirectory) objectDatabase).newPackInserter();
+      // Existing objects are looked up before inserting, for counting only the packed ones
+      objectDirectoryPackInserter.checkExisting(false);
+      packInserter = objectDirectoryPackInserter;
+      // Sees the objects of the pack not flushed yet, as well as the loose ones already written
+      reader = packInserter.newReader();
+    } else {
+      packInserter = null;
+      reader = inserter.newReader();
+    }
+    this.unpackLimit = unpackLimit;
+  }
+
+  ObjectId insert(int type, byte[] content) throws IOException {
+    if (packInserter == null) {
+      return inserter.insert(type, content);
+    }
+
+    ObjectId objectId = inserter.idFor(type, content);
+    if (has(objectId)) {
+      return objectId;
+    }
+    if (packedObjects == 0 && pendingObjects.size() < unpackLimit) {
+      pendingObjects.put(objectId, new PendingObject(type, content));
+      return objectId;
+    }
+    for (PendingObject pendingObject : pendingObjects.values()) {
+      packInserter.insert(pendingObject.type, pendingObject.content);
+      packedObjects++;
+    }
+    pendingObjects.clear();
+    packInserter.insert(type, content);
+    packedObjects++;
+    return objectId;
+  }
+
+  /** Whether the object is in the repository or has been inserted, even if not flushed yet. */
+  boolean has(ObjectId objectId) throws IOException {
+    return pendingObjects.containsKey(objectId) || reader.has(objectId);
+  }
+
+  /**
+   * Reader of the objects of the repository, including the ones inserted into the pack not flushed
+   * yet, but not the ones held until the flush, see {@link #has(ObjectId)}.
+   */
+  ObjectReader getReader() {
+    return reader;
+  }
+
+  /**
+   * Flush the objects inserted.
+   *
+   * @return the number of objects written into a pack rather than as loose objects.
+   */
+  int flush() throws IOException {
+    for (PendingObject pendingObject : pendingObjects.values()) {
+      inserter.insert(pendingObject.type, pendingObject.content);
+    }
+    pendingObjects.clear();
+    inserter.flush();
+    if (packInserter != null) {
+      packInserter.flush();
+    }
+    int flushedObjects = packedObjects;
+    packedObjects = 0;
+    return flushedObjects;
+  }
+
+  @Override
+  public void close() {
+    reader.close();
+    if (packInserter != null) {
+      packInserter.close();
+    }
+    inserter.close();
+  }
+
+  private static class PendingObject {
+    private final int type;
+    private final byte[] content;
+
+    PendingObject(int type, byte[] content) {
+      this.type = type;
+      this.content = content;
+    }
+  }
+}
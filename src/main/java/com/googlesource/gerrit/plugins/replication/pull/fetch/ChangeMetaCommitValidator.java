@@ -17,49 +17,97 @@ package com.googlesource.gerrit.plugins.replication.pull.fetch;
 import com.google.common.flogger.FluentLogger;
 import com.google.gerrit.entities.RefNames;
 import java.io.IOException;
+import java.util.HashSet;
 import java.util.List;
 import java.util.Optional;
 import java.util.OptionalInt;
+import java.util.Set;
 import java.util.function.Consumer;
-import org.eclipse.jgit.lib.ObjectId;
 import org.eclipse.jgit.lib.Ref;
 import org.eclipse.jgit.lib.Repository;
 import org.eclipse.jgit.revwalk.FooterKey;
 import org.eclipse.jgit.revwalk.RevCommit;
+import org.eclipse.jgit.revwalk.RevWalk;
 
+/**
+ * Validator of the change meta commits applied by a single request.
+ *
+ * <p>The latest patch-set ref of every commit is resolved through the same {@link RevWalk}, and
+ * only once per request however many commits of the history refer to it.
+ */
 class ChangeMetaCommitValidator {
   private static final FluentLogger logger = FluentLogger.forEnclosingClass();
   private static final FooterKey FOOTER_CHANGE_META_PATCH_SET = new FooterKey("Patch-set");
 
-  public static boolean isValid(
-      Repository repo, String refName, RevCommit commit, Consumer<String> errorCallback)
+  private final Repository repo;
+  private final RevWalk walk;
+  private final Set<String> resolvedPatchSetRefs = new HashSet<>();
+
+  ChangeMetaCommitValidator(Repository repo, RevWalk walk) {
+    this.repo = repo;
+    this.walk = walk;
+  }
+
+  boolean isValid(String refName, RevCommit commit, Consumer<String> errorCallback)
       throws IOException {
+    Optional<String> missingPatchSetRef = missingLatestPatchSetRef(Set.of(), refName, commit);
+    missingPatchSetRef.ifPresent(
+        patchSetRef -> errorCallback.accept("Unable to find latest patch-set ref " + patchSetRef));
+    return missingPatchSetRef.isEmpty();
+  }
+
+  /**
+   * Find the latest patch-set ref of a change meta commit when it is missing, that is when it is
+   * neither present in the repository nor one of the refs about to be updated together with the
+   * change meta ref.
+   *
+   * @return the missing latest patch-set ref, or {@link Optional#empty()} when the commit is valid
+   */
+  Optional<String> missingLatestPatchSetRef(
+      Set<String> pendingRefNames, String refName, RevCommit commit) throws IOException {
     if (!refName.startsWith(RefNames.REFS_CHANGES) || !refName.endsWith(RefNames.META_SUFFIX)) {
-      return true;
+      return Optional.empty();
     }
 
     List<String> patchSetFooter = commit.getFooterLines(FOOTER_CHANGE_META_PATCH_SET);
     OptionalInt latestPatchSet = patchSetFooter.stream().mapToInt(Integer::parseInt).max();
 
     if (latestPatchSet.isEmpty()) {
-      return true;
+      return Optional.empty();
     }
 
     String patchSetRef = refName.replace(RefNames.META_SUFFIX, "/" + latestPatchSet.getAsInt());
-    Optional<ObjectId> patchSetObjectId =
-        Optional.ofNullable(repo.exactRef(patchSetRef)).map(Ref::getObjectId);
+    if (pendingRefNames.contains(patchSetRef)) {
+      logger.atFine().log(
+          "Change on repository %s ref %s has latest patch-set %d updated in the same batch",
+          repo, refName, latestPatchSet.getAsInt());
+      return Optional.empty();
+    }
+
+    return isPresent(patchSetRef) ? Optional.empty() : Optional.of(patchSetRef);
+  }
 
-    if (patchSetObjectId.isEmpty()) {
-      errorCallback.accept("Unable to find latest patch-set ref " + patchSetRef);
+  /**
+   * Whether a patch-set ref is present in the repository.
+   *
+   * <p>Only the refs found are remembered, as the missing ones may still be created while the
+   * request is processed.
+   */
+  boolean isPresent(String patchSetRef) throws IOException {
+    if (resolvedPatchSetRefs.contains(patchSetRef)) {
+      return true;
+    }
+
+    Ref ref = repo.exactRef(patchSetRef);
+    if (ref == null) {
       return false;
     }
 
-    RevCommit patchSetCommit = repo.parseCommit(patchSetObjectId.get());
+    RevCommit patchSetCommit = walk.parseCommit(ref.getObjectId());
     logger.atFine().log(
-        "Change on repository %s ref %s has latest patch-set %d and is successfully resolved to %s"
-            + " with commit %s",
-        repo, refName, latestPatchSet.getAsInt(), patchSetObjectId.get().getName(), patchSetCommit);
-
+        "Change on repository %s patch-set ref %s is successfully resolved to %s with commit %s",
+        repo, patchSetRef, ref.getObjectId().getName(), patchSetCommit);
+    resolvedPatchSetRefs.add(patchSetRef);
     return true;
   }
 }
@@ -0,0 +1,117 @@
+// Copyright (C) 2025 The Android Open Source Project
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+// http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.googlesource.gerrit.plugins.replication.pull;
+
+import static com.google.common.truth.Truth.assertThat;
+import static com.google.gerrit.testing.GerritJUnit.assertThrows;
+import static java.util.concurrent.TimeUnit.SECONDS;
+
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+import org.junit.After;
+import org.junit.Test;
+
+public class FetchCallsExecutorTest {
+  private static final int THREADS = 2;
+
+  private final AtomicInteger rejected = new AtomicInteger();
+  private FetchCallsExecutor objectUnderTest;
+
+  @After
+  public void tearDown() {
+    if (objectUnderTest != null) {
+      objectUnderTest.shutdownNow();
+    }
+  }
+
+  @Test
+  public void shouldReuseTheSameThreadsAcrossCalls() throws Exception {
+    objectUnderTest = new FetchCallsExecutor("test", THREADS, 1000, rejected::incrementAndGet);
+    Set<String> threadNames = ConcurrentHashMap.newKeySet();
+    int numCalls = 500;
+    CountDownLatch completed = new CountDownLatch(numCalls);
+
+    for (int i = 0; i < numCalls; i++) {
+      objectUnderTest.execute(
+          () -> {
+            threadNames.add(Thread.currentThread().getName());
+            completed.countDown();
+          });
+    }
+
+    assertThat(completed.await(10, SECONDS)).isTrue();
+    assertThat(threadNames.size()).isAtMost(THREADS);
+    assertThat(rejected.get()).isEqualTo(0);
+  }
+
+  @Test
+  public void shouldFailTheCallsAndCountRejectionWhenSaturated() throws Exception {
+    objectUnderTest = new FetchCallsExecutor("test", 1, 1, rejected::incrementAndGet);
+    CountDownLatch release = new CountDownLatch(1);
+    AtomicReference<Thread> rejectedCallThread = new AtomicReference<>();
+
+    objectUnderTest.execute(() -> awaitUninterruptibly(release));
+    objectUnderTest.execute(() -> {});
+    CompletableFuture<Void> call =
+        CompletableFuture.completedFuture(null)
+            .thenRunAsync(() -> rejectedCallThread.set(Thread.currentThread()), objectUnderTest);
+
+    assertThat(call.isCompletedExceptionally()).isTrue();
+    assertThat(rejectedCallThread.get()).isNull();
+    assertThat(rejected.get()).isEqualTo(1);
+    assertThat(objectUnderTest.getQueueDepth()).isEqualTo(1);
+    release.countDown();
+  }
+
+  @Test
+  public void shouldFailTheFutureOfTheSupplierRejectedWhenSaturated() throws Exception {
+    objectUnderTest = new FetchCallsExecutor("test", 1, 1, rejected::incrementAndGet);
+    CountDownLatch release = new CountDownLatch(1);
+
+    objectUnderTest.execute(() -> awaitUninterruptibly(release));
+    objectUnderTest.execute(() -> {});
+    CompletableFuture<String> call = objectUnderTest.supplyAsync(() -> "called");
+
+    assertThat(call.isCompletedExceptionally()).isTrue();
+    assertThat(rejected.get()).isEqualTo(1);
+    release.countDown();
+  }
+
+  @Test
+  public void shouldFailTheCallsSubmittedAfterShutdown() {
+    objectUnderTest = new FetchCallsExecutor("test", THREADS, 1000, rejected::incrementAndGet);
+    objectUnderTest.shutdown();
+
+    CompletableFuture<Void> call =
+        CompletableFuture.completedFuture(null).thenRunAsync(() -> {}, objectUnderTest);
+
+    assertThrows(RejectedExecutionException.class, () -> objectUnderTest.execute(() -> {}));
+    assertThat(call.isCompletedExceptionally()).isTrue();
+    assertThat(rejected.get()).isEqualTo(0);
+  }
+
+  private static void awaitUninterruptibly(CountDownLatch latch) {
+    try {
+      latch.await(10, SECONDS);
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+    }
+  }
+}
@@ -19,6 +19,7 @@ import static com.google.gerrit.testing.GerritJUnit.assertThrows;
 import static com.googlesource.gerrit.plugins.replication.pull.Source.encode;
 import static com.googlesource.gerrit.plugins.replication.pull.Source.needsUrlEncoding;
 
+import java.util.List;
 import org.eclipse.jgit.lib.Config;
 import org.eclipse.jgit.transport.RemoteConfig;
 import org.eclipse.jgit.transport.URIish;
@@ -55,4 +56,17 @@ public class FetchReplicationTest {
 
     assertThrows(IllegalArgumentException.class, () -> new SourceConfiguration(remoteConfig, cf));
   }
+
+  @Test
+  public void apiCallsThreadsShouldDefaultToOnePerApiUrlForEveryFetchCallsThread()
+      throws Exception {
+    Config cf = new Config();
+    cf.setInt("remote", "test_config", "timeout", 0);
+    cf.setStringList(
+        "remote", "test_config", "apiUrl", List.of("http://node1:8080", "http://node2:8080"));
+    cf.setInt("replication", null, "fetchCallsThreads", 4);
+    RemoteConfig remoteConfig = new RemoteConfig(cf, "test_config");
+
+    assertThat(new SourceConfiguration(remoteConfig, cf).getApiCallsThreads()).isEqualTo(8);
+  }
 }
@@ -0,0 +1,69 @@
+// Copyright (C) 2025 The Android Open Source Project
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+// http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.googlesource.gerrit.plugins.replication.pull;
+
+import static com.google.common.truth.Truth.assertThat;
+
+import java.util.Optional;
+import java.util.concurrent.CompletableFuture;
+import org.junit.Test;
+
+public class OutstandingEventsTest {
+  private static final int MAX_EVENTS = 1;
+
+  private final OutstandingEvents objectUnderTest = new OutstandingEvents(MAX_EVENTS);
+
+  @Test
+  public void shouldAdmitTheEventsStraightAwayBelowTheLimit() {
+    Optional<CompletableFuture<Void>> admitted = objectUnderTest.admit();
+
+    assertThat(admitted.get().isDone()).isTrue();
+    assertThat(objectUnderTest.getOutstanding()).isEqualTo(1);
+  }
+
+  @Test
+  public void shouldLetTheWaitingEventThroughOnceAnOutstandingOneCompletes() {
+    objectUnderTest.admit();
+    CompletableFuture<Void> waiting = objectUnderTest.admit().get();
+    assertThat(waiting.isDone()).isFalse();
+    assertThat(objectUnderTest.getWaiting()).isEqualTo(1);
+
+    objectUnderTest.release();
+
+    assertThat(waiting.isDone()).isTrue();
+    assertThat(objectUnderTest.getOutstanding()).isEqualTo(1);
+    assertThat(objectUnderTest.getWaiting()).isEqualTo(0);
+  }
+
+  @Test
+  public void shouldRejectTheEventsOnceTheWaitingQueueIsFull() {
+    objectUnderTest.admit();
+    objectUnderTest.admit();
+
+    assertThat(objectUnderTest.admit()).isEmpty();
+  }
+
+  @Test
+  public void shouldNotOvertakeTheWaitingEvents() {
+    objectUnderTest.admit();
+    CompletableFuture<Void> waiting = objectUnderTest.admit().get();
+    objectUnderTest.release();
+    objectUnderTest.release();
+
+    assertThat(waiting.isDone()).isTrue();
+    assertThat(objectUnderTest.getOutstanding()).isEqualTo(0);
+    assertThat(objectUnderTest.admit().get().isDone()).isTrue();
+  }
+}
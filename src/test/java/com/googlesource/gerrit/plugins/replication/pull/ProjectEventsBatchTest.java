@@ -0,0 +1,91 @@
+// Copyright (C) 2025 The Android Open Source Project
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+// http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.googlesource.gerrit.plugins.replication.pull;
+
+import static com.google.common.truth.Truth.assertThat;
+import static org.mockito.Mockito.mock;
+
+import com.googlesource.gerrit.plugins.replication.pull.ReplicationQueue.ReferenceBatchUpdatedEvent;
+import com.googlesource.gerrit.plugins.replication.pull.ReplicationQueue.ReferenceUpdatedEvent;
+import java.util.Comparator;
+import java.util.List;
+import org.eclipse.jgit.lib.ObjectId;
+import org.junit.Test;
+
+public class ProjectEventsBatchTest {
+  private static final String PROJECT = "test-project";
+  private static final int MAX_REFS = 2;
+
+  @Test
+  public void shouldReportToTheStatesOfAllTheCoalescedEvents() {
+    ReplicationState firstState = newState();
+    ReplicationState secondState = newState();
+    ProjectEventsBatch batch = new ProjectEventsBatch(event("refs/heads/a"), firstState, MAX_REFS);
+
+    assertThat(batch.tryAdd(event("refs/heads/b"), secondState)).isTrue();
+
+    assertThat(batch.states()).asList().containsExactly(firstState, secondState).inOrder();
+  }
+
+  @Test
+  public void shouldNotReportToTheStatesOfTheEventsNotCoalesced() {
+    ReplicationState firstState = newState();
+    ProjectEventsBatch batch = new ProjectEventsBatch(event("refs/heads/a"), firstState, MAX_REFS);
+    batch.close(Comparator.comparing(ReferenceUpdatedEvent::refName));
+
+    assertThat(batch.tryAdd(event("refs/heads/b"), newState())).isFalse();
+
+    assertThat(batch.states()).asList().containsExactly(firstState);
+  }
+
+  @Test
+  public void shouldCollapseTheUpdatesOfTheSameRefIntoTheLatestOne() {
+    ReplicationState firstState = newState();
+    ReplicationState secondState = newState();
+    ObjectId firstObjectId = ObjectId.fromString("00f11fd1e3206333235603f889837bad2692da4b");
+    ObjectId latestObjectId = ObjectId.fromString("3c1ddc050d7906adb0e29bc3bc46af8749b2f63b");
+    ProjectEventsBatch batch =
+        new ProjectEventsBatch(
+            event(ref("refs/heads/a", firstObjectId), ref("refs/heads/b", firstObjectId)),
+            firstState,
+            MAX_REFS);
+
+    assertThat(batch.tryAdd(event(ref("refs/heads/a", latestObjectId)), secondState)).isTrue();
+
+    ReferenceBatchUpdatedEvent batchEvent = batch.close((a, b) -> 0);
+    assertThat(batch.numRefs()).isEqualTo(2);
+    assertThat(batchEvent.refs().stream().map(ReferenceUpdatedEvent::refName))
+        .containsExactly("refs/heads/a", "refs/heads/b")
+        .inOrder();
+    assertThat(batchEvent.refs().get(0).objectId()).isEqualTo(latestObjectId);
+    assertThat(batch.states()).asList().containsExactly(firstState, secondState).inOrder();
+  }
+
+  private static ReplicationState newState() {
+    return new ReplicationState(mock(FetchResultProcessing.class));
+  }
+
+  private static ReferenceBatchUpdatedEvent event(String refName) {
+    return event(ref(refName, ObjectId.zeroId()));
+  }
+
+  private static ReferenceBatchUpdatedEvent event(ReferenceUpdatedEvent... refs) {
+    return ReferenceBatchUpdatedEvent.create(PROJECT, List.of(refs), 0L);
+  }
+
+  private static ReferenceUpdatedEvent ref(String refName, ObjectId objectId) {
+    return ReferenceUpdatedEvent.create(PROJECT, refName, objectId, 0L, false, false);
+  }
+}
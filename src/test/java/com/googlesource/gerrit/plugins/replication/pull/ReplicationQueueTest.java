@@ -16,15 +16,20 @@ package com.googlesource.gerrit.plugins.replication.pull;
 
 import static com.google.common.truth.Truth.assertThat;
 import static java.nio.file.Files.createTempDirectory;
+import static java.util.concurrent.TimeUnit.SECONDS;
 import static org.mockito.ArgumentMatchers.anyBoolean;
 import static org.mockito.ArgumentMatchers.anyLong;
 import static org.mockito.Mockito.any;
 import static org.mockito.Mockito.anyInt;
+import static org.mockito.Mockito.anyList;
 import static org.mockito.Mockito.anyString;
 import static org.mockito.Mockito.eq;
 import static org.mockito.Mockito.lenient;
+import static org.mockito.Mockito.mock;
 import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.spy;
 import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.timeout;
 import static org.mockito.Mockito.verify;
 import static org.mockito.Mockito.verifyNoInteractions;
 import static org.mockito.Mockito.when;
@@ -32,6 +37,7 @@ import static org.mockito.Mockito.when;
 import com.google.common.base.Suppliers;
 import com.google.common.collect.ImmutableList;
 import com.google.common.collect.Lists;
+import com.google.common.util.concurrent.MoreExecutors;
 import com.google.gerrit.entities.Project;
 import com.google.gerrit.entities.RefNames;
 import com.google.gerrit.extensions.api.changes.NotifyHandling;
@@ -51,24 +57,39 @@ import com.googlesource.gerrit.plugins.replication.FileConfigResource;
 import com.googlesource.gerrit.plugins.replication.MergedConfigResource;
 import com.googlesource.gerrit.plugins.replication.ReplicationConfigImpl;
 import com.googlesource.gerrit.plugins.replication.api.ReplicationConfig;
+import com.googlesource.gerrit.plugins.replication.pull.ReplicationStrategy.Strategy;
 import com.googlesource.gerrit.plugins.replication.pull.api.FetchAction.RefInput;
+import com.googlesource.gerrit.plugins.replication.pull.api.data.ApplyPackInput.RefUpdateInput;
 import com.googlesource.gerrit.plugins.replication.pull.api.data.BatchApplyObjectData;
+import com.googlesource.gerrit.plugins.replication.pull.api.data.ConditionalApplyResult;
 import com.googlesource.gerrit.plugins.replication.pull.api.data.RevisionData;
+import com.googlesource.gerrit.plugins.replication.pull.api.data.RevisionObjectData;
 import com.googlesource.gerrit.plugins.replication.pull.client.FetchApiClient;
 import com.googlesource.gerrit.plugins.replication.pull.client.FetchRestApiClient;
 import com.googlesource.gerrit.plugins.replication.pull.client.HttpResult;
 import com.googlesource.gerrit.plugins.replication.pull.filter.ApplyObjectBannedCreateRefsFilter;
 import com.googlesource.gerrit.plugins.replication.pull.filter.ApplyObjectsRefsFilter;
 import com.googlesource.gerrit.plugins.replication.pull.filter.ExcludedRefsFilter;
+import com.googlesource.gerrit.plugins.replication.pull.filter.SyncRefsFilter;
 import java.io.IOException;
 import java.net.URISyntaxException;
+import java.nio.charset.StandardCharsets;
 import java.nio.file.Path;
+import java.time.Duration;
 import java.util.Arrays;
 import java.util.List;
+import java.util.Map;
 import java.util.Optional;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.function.Predicate;
 import java.util.stream.Collectors;
 import java.util.stream.Stream;
 import org.eclipse.jgit.lib.Config;
+import org.eclipse.jgit.lib.Constants;
 import org.eclipse.jgit.lib.ObjectId;
 import org.eclipse.jgit.storage.file.FileBasedConfig;
 import org.eclipse.jgit.transport.URIish;
@@ -108,10 +129,11 @@ public class ReplicationQueueTest {
   @Mock HttpResult successfulHttpResult;
   @Mock HttpResult fetchHttpResult;
   @Mock HttpResult batchFetchHttpResult;
-  @Mock RevisionData revisionDataWithParents;
-  List<ObjectId> revisionDataParentObjectIds;
+  @Mock RevisionData parentRevisionData;
+  List<RevisionData> revisionDataHistory;
   @Mock HttpResult httpResult;
   @Mock HttpResult batchHttpResult;
+  @Mock HttpResult packHttpResult;
   @Mock ApplyObjectsRefsFilter applyObjectsRefsFilter;
   @Mock ApplyObjectBannedCreateRefsFilter applyObjectsBannedCreateRefsFilter;
 
@@ -124,8 +146,10 @@ public class ReplicationQueueTest {
   @Captor ArgumentCaptor<Project.NameKey> projectNameKeyCaptor;
   @Captor ArgumentCaptor<List<RevisionData>> revisionsDataCaptor;
   @Captor ArgumentCaptor<List<BatchApplyObjectData>> batchRefsCaptor;
+  @Captor ArgumentCaptor<List<RefUpdateInput>> refUpdatesCaptor;
 
   private ExcludedRefsFilter refsFilter;
+  private ReplicationConfig replicationConfig;
   private ReplicationQueue objectUnderTest;
   private SitePaths sitePaths;
   private Path pluginDataPath;
@@ -135,7 +159,7 @@ public class ReplicationQueueTest {
     Path sitePath = createTempPath("site");
     sitePaths = new SitePaths(sitePath);
     Path pluginDataPath = createTempPath("data");
-    ReplicationConfig replicationConfig =
+    replicationConfig =
         new ReplicationConfigImpl(
             MergedConfigResource.withBaseOnly(new FileConfigResource(sitePaths)),
             sitePaths,
@@ -146,6 +170,8 @@ public class ReplicationQueueTest {
     when(source.wouldFetchRef(anyString())).thenReturn(true);
     ImmutableList<String> apis = ImmutableList.of("http://localhost:18080");
     when(source.getApis()).thenReturn(apis);
+    lenient().when(source.getApiCallsExecutor()).thenReturn(MoreExecutors.directExecutor());
+    lenient().when(source.getRemoteConfigName()).thenReturn("test-source");
     when(source.enableBatchedRefs()).thenReturn(true);
     when(sourceCollection.getAll()).thenReturn(Lists.newArrayList(source));
     when(rd.get()).thenReturn(sourceCollection);
@@ -156,34 +182,41 @@ public class ReplicationQueueTest {
         .thenReturn(Optional.of(revisionData));
     lenient().when(revReader.read(any(), anyString(), eq(0))).thenReturn(Optional.of(revisionData));
     lenient()
-        .when(revReader.read(any(), any(), anyString(), eq(Integer.MAX_VALUE)))
-        .thenReturn(Optional.of(revisionDataWithParents));
+        .when(revReader.read(any(), anyList()))
+        .thenAnswer(
+            invocation ->
+                invocation.<List<?>>getArgument(1).stream()
+                    .map(ref -> Optional.of(revisionData))
+                    .collect(Collectors.toList()));
+    revisionDataHistory = Arrays.asList(parentRevisionData, parentRevisionData);
+    lenient()
+        .when(revReader.readHistoryObjectIds(any(), anyString()))
+        .thenReturn(
+            Arrays.asList(
+                ObjectId.fromString("9f8d52853089a3cf00c02ff7bd0817bd4353a95a"),
+                ObjectId.fromString("b5d7bcf1d1c5b0f0726d10a16c8315f06f900bfb")));
     lenient()
-        .when(revReader.read(any(), anyString(), eq(Integer.MAX_VALUE)))
-        .thenReturn(Optional.of(revisionDataWithParents));
-    revisionDataParentObjectIds =
-        Arrays.asList(
-            ObjectId.fromString("9f8d52853089a3cf00c02ff7bd0817bd4353a95a"),
-            ObjectId.fromString("b5d7bcf1d1c5b0f0726d10a16c8315f06f900bfb"));
-    when(revisionDataWithParents.getParentObjetIds()).thenReturn(revisionDataParentObjectIds);
+        .when(revReader.readHistory(any(), anyString()))
+        .thenReturn(Optional.of(revisionDataHistory));
 
     when(fetchClientFactory.create(any())).thenReturn(fetchRestApiClient);
     lenient()
         .when(
-            fetchRestApiClient.callSendObject(
+            fetchRestApiClient.callSendObjectAsync(
                 any(), anyString(), anyLong(), anyBoolean(), any(), any()))
-        .thenReturn(httpResult);
+        .thenReturn(CompletableFuture.completedFuture(httpResult));
     lenient()
-        .when(fetchRestApiClient.callSendObjects(any(), anyString(), anyLong(), any(), any()))
-        .thenReturn(httpResult);
+        .when(fetchRestApiClient.callSendObjectsAsync(any(), anyString(), anyLong(), any(), any()))
+        .thenReturn(CompletableFuture.completedFuture(httpResult));
     lenient()
-        .when(fetchRestApiClient.callBatchSendObject(any(), any(), anyLong(), any()))
-        .thenReturn(batchHttpResult);
-    when(fetchRestApiClient.callFetch(any(), anyString(), any(), anyLong(), anyBoolean()))
-        .thenReturn(fetchHttpResult);
-    when(fetchRestApiClient.callBatchFetch(any(), any(), any())).thenReturn(batchFetchHttpResult);
-    when(fetchRestApiClient.initProject(any(), any(), any(), anyLong(), any()))
-        .thenReturn(successfulHttpResult);
+        .when(fetchRestApiClient.callBatchSendObjectAsync(any(), any(), anyLong(), any()))
+        .thenReturn(CompletableFuture.completedFuture(batchHttpResult));
+    when(fetchRestApiClient.callFetchAsync(any(), anyString(), any(), anyLong(), anyBoolean()))
+        .thenReturn(CompletableFuture.completedFuture(fetchHttpResult));
+    when(fetchRestApiClient.callBatchFetchAsync(any(), any(), any(), anyLong()))
+        .thenReturn(CompletableFuture.completedFuture(batchFetchHttpResult));
+    when(fetchRestApiClient.initProjectAsync(any(), any(), any(), anyLong(), any()))
+        .thenReturn(CompletableFuture.completedFuture(successfulHttpResult));
     when(successfulHttpResult.isSuccessful()).thenReturn(true);
     when(httpResult.isSuccessful()).thenReturn(true);
     lenient().when(batchHttpResult.isSuccessful()).thenReturn(true);
@@ -212,16 +245,326 @@ public class ReplicationQueueTest {
             config,
             applyObjectsRefsFilter,
             applyObjectsBannedCreateRefsFilter,
-            shutdownState);
+            shutdownState,
+            replicationConfig,
+            new ReplicationStrategy(
+                replicationConfig, queueMetrics, new SyncRefsFilter(replicationConfig)));
   }
 
   @Test
   public void shouldCallBatchSendObjectWhenMetaRef() throws Exception {
     Event event = generateBatchRefUpdateEvent("refs/changes/01/1/meta");
     objectUnderTest.start();
+    onEventAndWaitForReplication(event);
+
+    verify(fetchRestApiClient).callBatchSendObjectAsync(any(), any(), anyLong(), any());
+  }
+
+  @Test
+  public void shouldNotWaitForTheFetchCallsWhenReceivingEvent() throws Exception {
+    CountDownLatch fetchCallsReleased = new CountDownLatch(1);
+    when(fetchRestApiClient.callBatchSendObjectAsync(any(), any(), anyLong(), any()))
+        .thenAnswer(invocation -> completeWhenReleased(fetchCallsReleased, batchHttpResult));
+    Event event = generateBatchRefUpdateEvent("refs/changes/01/1/meta");
+    objectUnderTest.start();
+
     objectUnderTest.onEvent(event);
+    assertThat(objectUnderTest.outstandingEventsCount()).isEqualTo(1);
+
+    fetchCallsReleased.countDown();
+    WaitUtil.waitUntil(() -> objectUnderTest.outstandingEventsCount() == 0, Duration.ofSeconds(5));
+    verify(fetchRestApiClient).callBatchSendObjectAsync(any(), any(), anyLong(), any());
+  }
+
+  @Test
+  public void shouldFallbackToCallBatchFetchAndCountTheCallsRejectedWhenThePoolIsSaturated()
+      throws Exception {
+    FileBasedConfig fileConfig =
+        new FileBasedConfig(sitePaths.etc_dir.resolve("replication.config").toFile(), FS.DETECTED);
+    fileConfig.setInt("replication", null, "fetchCallsThreads", 1);
+    fileConfig.setInt("replication", null, "fetchCallsQueueSize", 1);
+    fileConfig.save();
+    replicationConfig =
+        new ReplicationConfigImpl(
+            MergedConfigResource.withBaseOnly(new FileConfigResource(sitePaths)),
+            sitePaths,
+            pluginDataPath);
+    queueMetrics = spy(new ReplicationQueueMetrics("pull-replication", new DisabledMetricMaker()));
+    objectUnderTest =
+        new ReplicationQueue(
+            wq,
+            rd,
+            dis,
+            sl,
+            fetchClientFactory,
+            refsFilter,
+            () -> revReader,
+            applyObjectMetrics,
+            queueMetrics,
+            LOCAL_INSTANCE_ID,
+            config,
+            applyObjectsRefsFilter,
+            applyObjectsBannedCreateRefsFilter,
+            shutdownState,
+            replicationConfig,
+            new ReplicationStrategy(
+                replicationConfig, queueMetrics, new SyncRefsFilter(replicationConfig)));
+    CountDownLatch readRevisionsReleased = new CountDownLatch(1);
+    when(revReader.read(any(), anyList()))
+        .thenAnswer(
+            invocation -> {
+              readRevisionsReleased.await(5, SECONDS);
+              return invocation.<List<?>>getArgument(1).stream()
+                  .map(ref -> Optional.of(revisionData))
+                  .collect(Collectors.toList());
+            });
+    objectUnderTest.start();
+
+    objectUnderTest.onEvent(generateBatchRefUpdateEvent("refs/changes/01/1/meta"));
+    verify(revReader, timeout(5000)).read(any(), anyList());
+    objectUnderTest.onEvent(generateBatchRefUpdateEvent("refs/changes/02/2/meta"));
+    objectUnderTest.onEvent(generateBatchRefUpdateEvent("refs/changes/03/3/meta"));
+    verify(queueMetrics).incrementFetchCallsRejected();
+    verify(fetchRestApiClient, timeout(5000))
+        .callBatchFetchAsync(
+            eq(PROJECT),
+            eq(List.of(RefInput.create("refs/changes/03/3/meta"))),
+            eq(new URIish("http://localhost:18080")),
+            anyLong());
+
+    readRevisionsReleased.countDown();
+    WaitUtil.waitUntil(() -> objectUnderTest.outstandingEventsCount() == 0, Duration.ofSeconds(5));
+    verify(fetchRestApiClient, times(2)).callBatchSendObjectAsync(any(), any(), anyLong(), any());
+  }
+
+  @Test
+  public void shouldFallbackToCallBatchFetchWhenTheFetchCallsTimeOut() throws Exception {
+    when(source.getConnectionTimeout()).thenReturn(10);
+    CountDownLatch fetchCallsReleased = new CountDownLatch(1);
+    when(fetchRestApiClient.callBatchSendObjectAsync(any(), any(), anyLong(), any()))
+        .thenAnswer(invocation -> completeWhenReleased(fetchCallsReleased, batchHttpResult));
+    objectUnderTest.start();
+
+    objectUnderTest.onEvent(generateBatchRefUpdateEvent("refs/changes/01/1/meta"));
+    WaitUtil.waitUntil(() -> objectUnderTest.outstandingEventsCount() == 0, Duration.ofSeconds(5));
+    verify(fetchRestApiClient).callBatchFetchAsync(eq(PROJECT), any(), any(), anyLong());
+
+    fetchCallsReleased.countDown();
+  }
+
+  @Test
+  public void shouldNotWaitForTheOutstandingEventsWhenReceivingEventPastTheLimit()
+      throws Exception {
+    FileBasedConfig fileConfig =
+        new FileBasedConfig(sitePaths.etc_dir.resolve("replication.config").toFile(), FS.DETECTED);
+    fileConfig.setInt("replication", null, "maxOutstandingEvents", 1);
+    fileConfig.save();
+    replicationConfig =
+        new ReplicationConfigImpl(
+            MergedConfigResource.withBaseOnly(new FileConfigResource(sitePaths)),
+            sitePaths,
+            pluginDataPath);
+    objectUnderTest =
+        new ReplicationQueue(
+            wq,
+            rd,
+            dis,
+            sl,
+            fetchClientFactory,
+            refsFilter,
+            () -> revReader,
+            applyObjectMetrics,
+            queueMetrics,
+            LOCAL_INSTANCE_ID,
+            config,
+            applyObjectsRefsFilter,
+            applyObjectsBannedCreateRefsFilter,
+            shutdownState,
+            replicationConfig,
+            new ReplicationStrategy(
+                replicationConfig, queueMetrics, new SyncRefsFilter(replicationConfig)));
+    CountDownLatch fetchCallsReleased = new CountDownLatch(1);
+    when(fetchRestApiClient.callBatchSendObjectAsync(any(), any(), anyLong(), any()))
+        .thenAnswer(invocation -> completeWhenReleased(fetchCallsReleased, batchHttpResult));
+    objectUnderTest.start();
+
+    objectUnderTest.onEvent(generateBatchRefUpdateEvent("refs/changes/01/1/meta"));
+    objectUnderTest.onEvent(generateBatchRefUpdateEvent("refs/changes/02/2/meta"));
+    assertThat(objectUnderTest.outstandingEventsCount()).isEqualTo(1);
+    assertThat(objectUnderTest.waitingEventsCount()).isEqualTo(1);
+
+    fetchCallsReleased.countDown();
+    WaitUtil.waitUntil(() -> objectUnderTest.outstandingEventsCount() == 0, Duration.ofSeconds(5));
+    verify(fetchRestApiClient, times(2)).callBatchSendObjectAsync(any(), any(), anyLong(), any());
+  }
+
+  @Test
+  public void shouldFetchTheRefsOfTheEventsPastTheOutstandingAndWaitingLimit() throws Exception {
+    FileBasedConfig fileConfig =
+        new FileBasedConfig(sitePaths.etc_dir.resolve("replication.config").toFile(), FS.DETECTED);
+    fileConfig.setInt("replication", null, "maxOutstandingEvents", 1);
+    fileConfig.save();
+    replicationConfig =
+        new ReplicationConfigImpl(
+            MergedConfigResource.withBaseOnly(new FileConfigResource(sitePaths)),
+            sitePaths,
+            pluginDataPath);
+    objectUnderTest =
+        new ReplicationQueue(
+            wq,
+            rd,
+            dis,
+            sl,
+            fetchClientFactory,
+            refsFilter,
+            () -> revReader,
+            applyObjectMetrics,
+            queueMetrics,
+            LOCAL_INSTANCE_ID,
+            config,
+            applyObjectsRefsFilter,
+            applyObjectsBannedCreateRefsFilter,
+            shutdownState,
+            replicationConfig,
+            new ReplicationStrategy(
+                replicationConfig, queueMetrics, new SyncRefsFilter(replicationConfig)));
+    CountDownLatch fetchCallsReleased = new CountDownLatch(1);
+    when(fetchRestApiClient.callBatchSendObjectAsync(any(), any(), anyLong(), any()))
+        .thenAnswer(invocation -> completeWhenReleased(fetchCallsReleased, batchHttpResult));
+    objectUnderTest.start();
+
+    objectUnderTest.onEvent(generateBatchRefUpdateEvent("refs/changes/01/1/meta"));
+    objectUnderTest.onEvent(generateBatchRefUpdateEvent("refs/changes/02/2/meta"));
+    objectUnderTest.onEvent(generateBatchRefUpdateEvent("refs/changes/03/3/1"));
+    objectUnderTest.onEvent(generateBatchRefUpdateEvent("refs/changes/03/3/meta"));
+    assertThat(objectUnderTest.outstandingEventsCount()).isEqualTo(1);
+    assertThat(objectUnderTest.waitingEventsCount()).isEqualTo(1);
+    verify(fetchRestApiClient, never()).callBatchFetchAsync(any(), any(), any(), anyLong());
+
+    fetchCallsReleased.countDown();
+    WaitUtil.waitUntil(() -> objectUnderTest.outstandingEventsCount() == 0, Duration.ofSeconds(5));
+    verify(fetchRestApiClient, times(2)).callBatchSendObjectAsync(any(), any(), anyLong(), any());
+    verify(fetchRestApiClient)
+        .callBatchFetchAsync(
+            eq(PROJECT),
+            eq(
+                Stream.of("refs/changes/03/3/1", "refs/changes/03/3/meta")
+                    .map(RefInput::create)
+                    .toList()),
+            eq(new URIish("http://localhost:18080")),
+            anyLong());
+  }
+
+  @Test
+  public void shouldNotWaitForThePreviousEventOfTheSameProjectWithoutBatchWindow()
+      throws Exception {
+    CountDownLatch firstEventReleased = new CountDownLatch(1);
+    when(fetchRestApiClient.callBatchSendObjectAsync(any(), any(), anyLong(), any()))
+        .thenAnswer(invocation -> completeWhenReleased(firstEventReleased, batchHttpResult));
+    objectUnderTest.start();
+
+    objectUnderTest.onEvent(generateBatchRefUpdateEvent("refs/changes/01/1/1"));
+    objectUnderTest.onEvent(generateBatchRefUpdateEvent("refs/changes/01/1/meta"));
+    verify(fetchRestApiClient, timeout(5000).times(2))
+        .callBatchSendObjectAsync(any(), any(), anyLong(), any());
+    assertThat(objectUnderTest.outstandingEventsCount()).isEqualTo(2);
+
+    firstEventReleased.countDown();
+    WaitUtil.waitUntil(() -> objectUnderTest.outstandingEventsCount() == 0, Duration.ofSeconds(5));
+  }
+
+  @Test
+  public void shouldReplicateTheBatchesOfTheSameProjectInOrderWithinTheBatchWindow()
+      throws Exception {
+    FileBasedConfig fileConfig =
+        new FileBasedConfig(sitePaths.etc_dir.resolve("replication.config").toFile(), FS.DETECTED);
+    fileConfig.setString("replication", null, "batchWindow", "10 ms");
+    fileConfig.setInt("replication", null, "fetchCallsThreads", 2);
+    fileConfig.save();
+    when(wq.createQueue(1, "PullReplication-BatchWindow"))
+        .thenReturn(Executors.newSingleThreadScheduledExecutor());
+    replicationConfig =
+        new ReplicationConfigImpl(
+            MergedConfigResource.withBaseOnly(new FileConfigResource(sitePaths)),
+            sitePaths,
+            pluginDataPath);
+    objectUnderTest =
+        new ReplicationQueue(
+            wq,
+            rd,
+            dis,
+            sl,
+            fetchClientFactory,
+            refsFilter,
+            () -> revReader,
+            applyObjectMetrics,
+            queueMetrics,
+            LOCAL_INSTANCE_ID,
+            config,
+            applyObjectsRefsFilter,
+            applyObjectsBannedCreateRefsFilter,
+            shutdownState,
+            replicationConfig,
+            new ReplicationStrategy(
+                replicationConfig, queueMetrics, new SyncRefsFilter(replicationConfig)));
+    CountDownLatch firstBatchReleased = new CountDownLatch(1);
+    when(fetchRestApiClient.callBatchSendObjectAsync(any(), any(), anyLong(), any()))
+        .thenAnswer(invocation -> completeWhenReleased(firstBatchReleased, batchHttpResult));
+    objectUnderTest.start();
+
+    objectUnderTest.onEvent(generateBatchRefUpdateEvent("refs/changes/01/1/1"));
+    verify(fetchRestApiClient, timeout(5000))
+        .callBatchSendObjectAsync(any(), any(), anyLong(), any());
+    objectUnderTest.onEvent(generateBatchRefUpdateEvent("refs/changes/01/1/meta"));
+    Thread.sleep(200);
+    verify(fetchRestApiClient).callBatchSendObjectAsync(any(), any(), anyLong(), any());
+
+    firstBatchReleased.countDown();
+    WaitUtil.waitUntil(() -> objectUnderTest.outstandingEventsCount() == 0, Duration.ofSeconds(5));
+    objectUnderTest.stop();
+    verify(fetchRestApiClient, times(2))
+        .callBatchSendObjectAsync(any(), batchRefsCaptor.capture(), anyLong(), any());
+    assertThat(
+            batchRefsCaptor.getAllValues().stream()
+                .map(batchRefs -> batchRefs.get(0).refName())
+                .collect(Collectors.toList()))
+        .containsExactly("refs/changes/01/1/1", "refs/changes/01/1/meta")
+        .inOrder();
+  }
 
-    verify(fetchRestApiClient).callBatchSendObject(any(), any(), anyLong(), any());
+  @Test
+  public void shouldCallBatchSendObjectToAllApiUrlsInParallel() throws Exception {
+    ImmutableList<String> apis =
+        ImmutableList.of("http://localhost:18080", "http://localhost:18081");
+    when(source.getApis()).thenReturn(apis);
+    ExecutorService apiCallsExecutor = Executors.newFixedThreadPool(apis.size());
+    CountDownLatch allApiUrlsCalled = new CountDownLatch(apis.size());
+    when(fetchRestApiClient.callBatchSendObjectAsync(any(), any(), anyLong(), any()))
+        .thenAnswer(
+            invocation ->
+                CompletableFuture.supplyAsync(
+                    () -> {
+                      allApiUrlsCalled.countDown();
+                      try {
+                        assertThat(allApiUrlsCalled.await(5, SECONDS)).isTrue();
+                      } catch (InterruptedException e) {
+                        throw new IllegalStateException(e);
+                      }
+                      return batchHttpResult;
+                    },
+                    apiCallsExecutor));
+    Event event = generateBatchRefUpdateEvent("refs/changes/01/1/meta");
+
+    try {
+      objectUnderTest.start();
+      onEventAndWaitForReplication(event);
+    } finally {
+      apiCallsExecutor.shutdown();
+    }
+
+    verify(fetchRestApiClient, times(apis.size()))
+        .callBatchSendObjectAsync(any(), any(), anyLong(), any());
+    verify(fetchRestApiClient, never()).callBatchFetchAsync(any(), any(), any(), anyLong());
   }
 
   @Test
@@ -244,13 +587,16 @@ public class ReplicationQueueTest {
             config,
             applyObjectsRefsFilter,
             applyObjectsBannedCreateRefsFilter,
-            shutdownState);
+            shutdownState,
+            replicationConfig,
+            new ReplicationStrategy(
+                replicationConfig, queueMetrics, new SyncRefsFilter(replicationConfig)));
 
     Event event = new TestEvent("refs/changes/01/1/meta");
     objectUnderTest.start();
-    objectUnderTest.onEvent(event);
+    onEventAndWaitForReplication(event);
 
-    verify(fetchRestApiClient).callBatchSendObject(any(), any(), anyLong(), any());
+    verify(fetchRestApiClient).callBatchSendObjectAsync(any(), any(), anyLong(), any());
   }
 
   @Test
@@ -258,9 +604,9 @@ public class ReplicationQueueTest {
     Event event = generateBatchRefUpdateEvent(TEST_REF_NAME);
     event.instanceId = FOREIGN_INSTANCE_ID;
     objectUnderTest.start();
-    objectUnderTest.onEvent(event);
+    onEventAndWaitForReplication(event);
 
-    verify(fetchRestApiClient, never()).callBatchSendObject(any(), any(), anyLong(), any());
+    verify(fetchRestApiClient, never()).callBatchSendObjectAsync(any(), any(), anyLong(), any());
   }
 
   @Test
@@ -271,24 +617,183 @@ public class ReplicationQueueTest {
     when(source.isCreateMissingRepositories()).thenReturn(true);
 
     objectUnderTest.start();
-    objectUnderTest.onEvent(event);
+    onEventAndWaitForReplication(event);
 
-    verify(fetchRestApiClient).initProject(any(), any(), any(), anyLong(), any());
+    verify(fetchRestApiClient).initProjectAsync(any(), any(), any(), anyLong(), any());
   }
 
   @Test
   public void shouldCallSendObjectReorderingRefsHavingMetaAtTheEnd() throws Exception {
     Event event = generateBatchRefUpdateEvent("refs/changes/01/1/meta", "refs/changes/01/1/1");
     objectUnderTest.start();
-    objectUnderTest.onEvent(event);
+    onEventAndWaitForReplication(event);
+    verifySendObjectOrdering("refs/changes/01/1/1", "refs/changes/01/1/meta");
+  }
+
+  @Test
+  public void shouldCoalesceEventsOfTheSameProjectWithinTheBatchWindow() throws Exception {
+    FileBasedConfig fileConfig =
+        new FileBasedConfig(sitePaths.etc_dir.resolve("replication.config").toFile(), FS.DETECTED);
+    fileConfig.setString("replication", null, "batchWindow", "1 sec");
+    fileConfig.save();
+    when(wq.createQueue(1, "PullReplication-BatchWindow"))
+        .thenReturn(Executors.newSingleThreadScheduledExecutor());
+    replicationConfig =
+        new ReplicationConfigImpl(
+            MergedConfigResource.withBaseOnly(new FileConfigResource(sitePaths)),
+            sitePaths,
+            pluginDataPath);
+    objectUnderTest =
+        new ReplicationQueue(
+            wq,
+            rd,
+            dis,
+            sl,
+            fetchClientFactory,
+            refsFilter,
+            () -> revReader,
+            applyObjectMetrics,
+            queueMetrics,
+            LOCAL_INSTANCE_ID,
+            config,
+            applyObjectsRefsFilter,
+            applyObjectsBannedCreateRefsFilter,
+            shutdownState,
+            replicationConfig,
+            new ReplicationStrategy(
+                replicationConfig, queueMetrics, new SyncRefsFilter(replicationConfig)));
+
+    objectUnderTest.start();
+    objectUnderTest.onEvent(generateBatchRefUpdateEvent("refs/changes/01/1/meta"));
+    onEventAndWaitForReplication(generateBatchRefUpdateEvent("refs/changes/01/1/1"));
+    objectUnderTest.stop();
+
     verifySendObjectOrdering("refs/changes/01/1/1", "refs/changes/01/1/meta");
   }
 
+  @Test
+  public void shouldCallBatchFetchWithoutReadingTheRefsWhenStrategyIsBatchFetch() throws Exception {
+    ReplicationStrategy replicationStrategy = mock(ReplicationStrategy.class);
+    when(replicationStrategy.choose(anyString(), any())).thenReturn(Strategy.BATCH_FETCH);
+    objectUnderTest =
+        new ReplicationQueue(
+            wq,
+            rd,
+            dis,
+            sl,
+            fetchClientFactory,
+            refsFilter,
+            () -> revReader,
+            applyObjectMetrics,
+            queueMetrics,
+            LOCAL_INSTANCE_ID,
+            config,
+            applyObjectsRefsFilter,
+            applyObjectsBannedCreateRefsFilter,
+            shutdownState,
+            replicationConfig,
+            replicationStrategy);
+
+    objectUnderTest.start();
+    onEventAndWaitForReplication(generateBatchRefUpdateEvent("refs/changes/01/1/meta"));
+
+    verify(revReader, never()).read(any(), anyList());
+    verify(fetchRestApiClient).callBatchFetchAsync(any(), any(), any(), anyLong());
+    verify(fetchRestApiClient, never()).callBatchSendObjectAsync(any(), any(), anyLong(), any());
+  }
+
+  @Test
+  public void shouldRecordAsTooLargeOnlyTheRefsWhoseObjectsAreTooLarge() throws Exception {
+    ReplicationStrategy replicationStrategy = mock(ReplicationStrategy.class);
+    when(replicationStrategy.choose(anyString(), any())).thenReturn(Strategy.APPLY_OBJECT);
+    objectUnderTest =
+        new ReplicationQueue(
+            wq,
+            rd,
+            dis,
+            sl,
+            fetchClientFactory,
+            refsFilter,
+            () -> revReader,
+            applyObjectMetrics,
+            queueMetrics,
+            LOCAL_INSTANCE_ID,
+            config,
+            applyObjectsRefsFilter,
+            applyObjectsBannedCreateRefsFilter,
+            shutdownState,
+            replicationConfig,
+            replicationStrategy);
+    when(revReader.read(any(), anyList()))
+        .thenReturn(List.of(Optional.empty(), Optional.of(revisionData)));
+
+    objectUnderTest.start();
+    onEventAndWaitForReplication(
+        generateBatchRefUpdateEvent("refs/changes/01/1/1", "refs/changes/01/1/meta"));
+
+    verify(replicationStrategy)
+        .recordPayload(anyString(), eq("refs/changes/01/1/1"), anyLong(), eq(true));
+    verify(replicationStrategy)
+        .recordPayload(anyString(), eq("refs/changes/01/1/meta"), anyLong(), eq(false));
+    verify(fetchRestApiClient).callBatchFetchAsync(any(), any(), any(), anyLong());
+  }
+
+  @Test
+  public void shouldGroupTheBatchForAllTheApiUrlsBeforeCallingThem() throws Exception {
+    String groupedApiUrl = "http://localhost:18080";
+    String ungroupedApiUrl = "http://localhost:18081";
+    when(source.getApis()).thenReturn(ImmutableList.of(groupedApiUrl, ungroupedApiUrl));
+    when(source.getMultiProjectBatchWindow()).thenReturn(1L);
+    when(fetchRestApiClient.callGroupedBatchSendObject(
+            any(), any(), anyLong(), eq(new URIish(groupedApiUrl))))
+        .thenReturn(CompletableFuture.completedFuture(Optional.of(batchHttpResult)));
+    when(fetchRestApiClient.callGroupedBatchSendObject(
+            any(), any(), anyLong(), eq(new URIish(ungroupedApiUrl))))
+        .thenReturn(CompletableFuture.completedFuture(Optional.empty()));
+
+    objectUnderTest.start();
+    onEventAndWaitForReplication(generateBatchRefUpdateEvent("refs/changes/01/1/meta"));
+
+    verify(fetchRestApiClient, times(2)).callGroupedBatchSendObject(any(), any(), anyLong(), any());
+    verify(fetchRestApiClient)
+        .callBatchSendObjectAsync(any(), any(), anyLong(), eq(new URIish(ungroupedApiUrl)));
+    verify(fetchRestApiClient, never())
+        .callBatchSendObjectAsync(any(), any(), anyLong(), eq(new URIish(groupedApiUrl)));
+    verify(fetchRestApiClient, never()).callBatchFetchAsync(any(), any(), any(), anyLong());
+  }
+
+  @Test
+  public void shouldCallTheOtherApiUrlsWhileTheGroupFormsWithoutHoldingThePool() throws Exception {
+    String groupedApiUrl = "http://localhost:18080";
+    String ungroupedApiUrl = "http://localhost:18081";
+    when(source.getApis()).thenReturn(ImmutableList.of(groupedApiUrl, ungroupedApiUrl));
+    when(source.getMultiProjectBatchWindow()).thenReturn(1L);
+    CompletableFuture<Optional<HttpResult>> groupSent = new CompletableFuture<>();
+    when(fetchRestApiClient.callGroupedBatchSendObject(
+            any(), any(), anyLong(), eq(new URIish(groupedApiUrl))))
+        .thenReturn(groupSent);
+    when(fetchRestApiClient.callGroupedBatchSendObject(
+            any(), any(), anyLong(), eq(new URIish(ungroupedApiUrl))))
+        .thenReturn(CompletableFuture.completedFuture(Optional.empty()));
+    objectUnderTest.start();
+
+    objectUnderTest.onEvent(generateBatchRefUpdateEvent("refs/changes/01/1/meta"));
+    verify(fetchRestApiClient, timeout(5000))
+        .callBatchSendObjectAsync(any(), any(), anyLong(), eq(new URIish(ungroupedApiUrl)));
+    WaitUtil.waitUntil(() -> objectUnderTest.fetchCallsActiveThreads() == 0, Duration.ofSeconds(5));
+    assertThat(objectUnderTest.outstandingEventsCount()).isEqualTo(1);
+
+    groupSent.complete(Optional.of(batchHttpResult));
+    WaitUtil.waitUntil(() -> objectUnderTest.outstandingEventsCount() == 0, Duration.ofSeconds(5));
+    verify(fetchRestApiClient, never())
+        .callBatchSendObjectAsync(any(), any(), anyLong(), eq(new URIish(groupedApiUrl)));
+  }
+
   @Test
   public void shouldCallSendObjectKeepingMetaAtTheEnd() throws Exception {
     Event event = generateBatchRefUpdateEvent("refs/changes/01/1/1", "refs/changes/01/1/meta");
     objectUnderTest.start();
-    objectUnderTest.onEvent(event);
+    onEventAndWaitForReplication(event);
     verifySendObjectOrdering("refs/changes/01/1/1", "refs/changes/01/1/meta");
   }
 
@@ -297,9 +802,9 @@ public class ReplicationQueueTest {
     Event event = new TestEvent("refs/changes/01/1/meta");
 
     objectUnderTest.start();
-    objectUnderTest.onEvent(event);
+    onEventAndWaitForReplication(event);
 
-    verify(fetchRestApiClient, never()).initProject(any(), any(), any(), anyLong(), any());
+    verify(fetchRestApiClient, never()).initProjectAsync(any(), any(), any(), anyLong(), any());
   }
 
   @Test
@@ -314,9 +819,9 @@ public class ReplicationQueueTest {
         .thenReturn(Optional.empty());
 
     objectUnderTest.start();
-    objectUnderTest.onEvent(event);
+    onEventAndWaitForReplication(event);
 
-    verify(fetchRestApiClient, never()).initProject(any(), any(), any(), anyLong(), any());
+    verify(fetchRestApiClient, never()).initProjectAsync(any(), any(), any(), anyLong(), any());
   }
 
   @Test
@@ -339,16 +844,19 @@ public class ReplicationQueueTest {
             config,
             applyObjectsRefsFilter,
             applyObjectsBannedCreateRefsFilter,
-            shutdownState);
+            shutdownState,
+            replicationConfig,
+            new ReplicationStrategy(
+                replicationConfig, queueMetrics, new SyncRefsFilter(replicationConfig)));
   }
 
   @Test
   public void shouldCallBatchSendObjectWhenPatchSetRef() throws Exception {
     Event event = generateBatchRefUpdateEvent("refs/changes/01/1/1");
     objectUnderTest.start();
-    objectUnderTest.onEvent(event);
+    onEventAndWaitForReplication(event);
 
-    verify(fetchRestApiClient).callBatchSendObject(any(), any(), anyLong(), any());
+    verify(fetchRestApiClient).callBatchSendObjectAsync(any(), any(), anyLong(), any());
   }
 
   @Test
@@ -357,11 +865,11 @@ public class ReplicationQueueTest {
 
     objectUnderTest.start();
 
-    when(revReader.read(any(), any(), anyString(), anyInt())).thenThrow(IOException.class);
+    when(revReader.read(any(), anyList())).thenThrow(IOException.class);
 
-    objectUnderTest.onEvent(event);
+    onEventAndWaitForReplication(event);
 
-    verify(fetchRestApiClient).callBatchFetch(any(), any(), any());
+    verify(fetchRestApiClient).callBatchFetchAsync(any(), any(), any(), anyLong());
   }
 
   @Test
@@ -370,11 +878,11 @@ public class ReplicationQueueTest {
 
     objectUnderTest.start();
 
-    when(revReader.read(any(), any(), anyString(), anyInt())).thenReturn(Optional.empty());
+    when(revReader.read(any(), anyList())).thenReturn(List.of(Optional.empty()));
 
-    objectUnderTest.onEvent(event);
+    onEventAndWaitForReplication(event);
 
-    verify(fetchRestApiClient).callBatchFetch(any(), any(), any());
+    verify(fetchRestApiClient).callBatchFetchAsync(any(), any(), any(), anyLong());
   }
 
   @Test
@@ -387,9 +895,9 @@ public class ReplicationQueueTest {
     when(batchHttpResult.isSuccessful()).thenReturn(false);
     when(batchHttpResult.isParentObjectMissing()).thenReturn(true);
 
-    objectUnderTest.onEvent(event);
+    onEventAndWaitForReplication(event);
 
-    verify(fetchRestApiClient).callBatchFetch(any(), any(), any());
+    verify(fetchRestApiClient).callBatchFetchAsync(any(), any(), any(), anyLong());
   }
 
   @Test
@@ -403,11 +911,12 @@ public class ReplicationQueueTest {
     when(batchHttpResult.isParentObjectMissing()).thenReturn(true);
     when(applyObjectsRefsFilter.match(any())).thenReturn(true);
 
-    objectUnderTest.onEvent(event);
+    onEventAndWaitForReplication(event);
 
     verify(fetchRestApiClient, times(2))
-        .callSendObjects(any(), anyString(), anyLong(), any(), any());
-    verify(fetchRestApiClient, never()).callFetch(any(), anyString(), any());
+        .callSendObjectsAsync(any(), anyString(), anyLong(), any(), any());
+    verify(fetchRestApiClient, never())
+        .callFetchAsync(any(), anyString(), any(), anyLong(), anyBoolean());
   }
 
   @Test
@@ -421,9 +930,9 @@ public class ReplicationQueueTest {
     lenient().when(httpResult.isSuccessful()).thenReturn(false);
     lenient().when(httpResult.isParentObjectMissing()).thenReturn(false);
 
-    objectUnderTest.onEvent(event);
+    onEventAndWaitForReplication(event);
 
-    verify(fetchRestApiClient).callBatchFetch(any(), any(), any());
+    verify(fetchRestApiClient).callBatchFetchAsync(any(), any(), any(), anyLong());
   }
 
   @Test
@@ -434,10 +943,10 @@ public class ReplicationQueueTest {
     objectUnderTest.start();
     lenient().when(applyObjectsBannedCreateRefsFilter.match(eq(bannedRef))).thenReturn(true);
 
-    objectUnderTest.onEvent(event);
+    onEventAndWaitForReplication(event);
 
-    verify(fetchRestApiClient).callBatchSendObject(any(), any(), anyLong(), any());
-    verify(fetchRestApiClient, never()).callBatchFetch(any(), any(), any());
+    verify(fetchRestApiClient).callBatchSendObjectAsync(any(), any(), anyLong(), any());
+    verify(fetchRestApiClient, never()).callBatchFetchAsync(any(), any(), any(), anyLong());
   }
 
   @Test
@@ -448,10 +957,10 @@ public class ReplicationQueueTest {
     objectUnderTest.start();
     when(applyObjectsBannedCreateRefsFilter.match(eq(bannedRef))).thenReturn(true);
 
-    objectUnderTest.onEvent(event);
+    onEventAndWaitForReplication(event);
 
-    verify(fetchRestApiClient).callBatchFetch(any(), any(), any());
-    verify(fetchRestApiClient, never()).callBatchSendObject(any(), any(), anyLong(), any());
+    verify(fetchRestApiClient).callBatchFetchAsync(any(), any(), any(), anyLong());
+    verify(fetchRestApiClient, never()).callBatchSendObjectAsync(any(), any(), anyLong(), any());
   }
 
   @Test
@@ -463,18 +972,66 @@ public class ReplicationQueueTest {
     when(batchHttpResult.isSuccessful()).thenReturn(false);
     when(batchHttpResult.isParentObjectMissing()).thenReturn(true);
 
-    objectUnderTest.onEvent(event);
+    onEventAndWaitForReplication(event);
 
     verify(fetchRestApiClient, times(1))
-        .callSendObjects(any(), anyString(), anyLong(), revisionsDataCaptor.capture(), any());
+        .callSendObjectsAsync(any(), anyString(), anyLong(), revisionsDataCaptor.capture(), any());
     List<List<RevisionData>> revisionsDataValues = revisionsDataCaptor.getAllValues();
     assertThat(revisionsDataValues).hasSize(1);
 
     List<RevisionData> firstRevisionsValues = revisionsDataValues.get(0);
-    assertThat(firstRevisionsValues).hasSize(1 + revisionDataParentObjectIds.size());
+    assertThat(firstRevisionsValues).hasSize(1 + revisionDataHistory.size());
     assertThat(firstRevisionsValues).contains(revisionData);
   }
 
+  @Test
+  public void shouldFallbackToCallBatchFetchWhenParentObjectIsMissingAndHistoryIsTooLarge()
+      throws Exception {
+    Event event = generateBatchRefUpdateEvent("refs/changes/01/1/meta");
+    objectUnderTest.start();
+
+    when(batchHttpResult.isSuccessful()).thenReturn(false);
+    when(batchHttpResult.isParentObjectMissing()).thenReturn(true);
+    when(revReader.readHistory(any(), anyString())).thenReturn(Optional.empty());
+
+    onEventAndWaitForReplication(event);
+
+    verify(fetchRestApiClient, never())
+        .callSendObjectsAsync(any(), anyString(), anyLong(), any(), any());
+    verify(fetchRestApiClient).callBatchFetchAsync(any(), any(), any(), anyLong());
+  }
+
+  @SuppressWarnings("unchecked")
+  @Test
+  public void shouldApplyOnlyTheNegotiatedMissingParentObjectsWhenParentObjectIsMissing()
+      throws Exception {
+    Event event = generateBatchRefUpdateEvent("refs/changes/01/1/meta");
+    ObjectId missingParentId = ObjectId.fromString("b5d7bcf1d1c5b0f0726d10a16c8315f06f900bfb");
+    objectUnderTest.start();
+
+    when(batchHttpResult.isSuccessful()).thenReturn(false);
+    when(batchHttpResult.isParentObjectMissing()).thenReturn(true);
+    when(fetchRestApiClient.callMissingObjectsAsync(any(), anyString(), any(), any()))
+        .thenReturn(CompletableFuture.completedFuture(Optional.of(List.of(missingParentId))));
+    when(revReader.readHistory(any(), anyString(), any()))
+        .thenReturn(Optional.of(List.of(parentRevisionData)));
+
+    onEventAndWaitForReplication(event);
+
+    ArgumentCaptor<Predicate<ObjectId>> commitFilterCaptor =
+        ArgumentCaptor.forClass(Predicate.class);
+    verify(revReader).readHistory(any(), anyString(), commitFilterCaptor.capture());
+    assertThat(commitFilterCaptor.getValue().test(missingParentId)).isTrue();
+    assertThat(
+            commitFilterCaptor
+                .getValue()
+                .test(ObjectId.fromString("9f8d52853089a3cf00c02ff7bd0817bd4353a95a")))
+        .isFalse();
+    verify(fetchRestApiClient, times(1))
+        .callSendObjectsAsync(any(), anyString(), anyLong(), revisionsDataCaptor.capture(), any());
+    assertThat(revisionsDataCaptor.getValue()).containsExactly(parentRevisionData, revisionData);
+  }
+
   @Test
   public void shouldFallbackToApplyAllParentObjectsWhenParentObjectIsMissingOnAllowedRefs()
       throws Exception {
@@ -486,27 +1043,139 @@ public class ReplicationQueueTest {
     when(batchHttpResult.isParentObjectMissing()).thenReturn(true);
     when(applyObjectsRefsFilter.match(refName)).thenReturn(true);
 
-    objectUnderTest.onEvent(event);
+    onEventAndWaitForReplication(event);
 
     verify(fetchRestApiClient, times(1))
-        .callSendObjects(any(), anyString(), anyLong(), revisionsDataCaptor.capture(), any());
+        .callSendObjectsAsync(any(), anyString(), anyLong(), revisionsDataCaptor.capture(), any());
     List<List<RevisionData>> revisionsDataValues = revisionsDataCaptor.getAllValues();
     assertThat(revisionsDataValues).hasSize(1);
 
     List<RevisionData> firstRevisionsValues = revisionsDataValues.get(0);
-    assertThat(firstRevisionsValues).hasSize(1 + revisionDataParentObjectIds.size());
+    assertThat(firstRevisionsValues).hasSize(1 + revisionDataHistory.size());
     assertThat(firstRevisionsValues).contains(revisionData);
   }
 
+  @Test
+  public void shouldCallSendPackBuiltAgainstTheParentsWhenApplyPackEnabledAtSource()
+      throws Exception {
+    ObjectId parentObjectId = ObjectId.fromString("b5d7bcf1d1c5b0f0726d10a16c8315f06f900bfb");
+    givenApplyPackEnabledWithParent(parentObjectId);
+    when(packHttpResult.isSuccessful()).thenReturn(true);
+    Event event = generateBatchRefUpdateEvent("refs/changes/01/1/1");
+    objectUnderTest.start();
+    onEventAndWaitForReplication(event);
+
+    verify(revReader).readThinPack(any(), any(), eq(Set.of(parentObjectId)));
+    verify(fetchRestApiClient).callSendPackAsync(any(), anyList(), anyLong(), any(), any());
+    verify(fetchRestApiClient, never()).callBatchSendObjectAsync(any(), any(), anyLong(), any());
+  }
+
+  @Test
+  public void shouldFallbackToBatchSendObjectWhenApplyPackNotSupportedByTheTarget()
+      throws Exception {
+    givenApplyPackEnabledWithParent(
+        ObjectId.fromString("b5d7bcf1d1c5b0f0726d10a16c8315f06f900bfb"));
+    when(packHttpResult.isEndpointUnsupported(any())).thenReturn(true);
+    objectUnderTest.start();
+    onEventAndWaitForReplication(generateBatchRefUpdateEvent("refs/changes/01/1/1"));
+    onEventAndWaitForReplication(generateBatchRefUpdateEvent("refs/changes/02/2/1"));
+
+    verify(fetchRestApiClient).callSendPackAsync(any(), anyList(), anyLong(), any(), any());
+    verify(fetchRestApiClient, times(2)).callBatchSendObjectAsync(any(), any(), anyLong(), any());
+  }
+
+  @Test
+  public void shouldNotReadNorSendTheRefsAlreadyAppliedByTheTarget() throws Exception {
+    String refName = "refs/changes/01/1/1";
+    when(source.enableConditionalApply()).thenReturn(true);
+    when(fetchRestApiClient.callConditionalApplyAsync(any(), anyList(), anyLong(), any()))
+        .thenReturn(
+            CompletableFuture.completedFuture(
+                Optional.of(Map.of(refName, ConditionalApplyResult.UP_TO_DATE))));
+    objectUnderTest.start();
+    onEventAndWaitForReplication(generateBatchRefUpdateEvent(refName));
+
+    verify(revReader, never()).read(any(), anyList());
+    verify(fetchRestApiClient, never()).callBatchSendObjectAsync(any(), any(), anyLong(), any());
+    verify(fetchRestApiClient, never()).callBatchFetchAsync(any(), any(), any(), anyLong());
+  }
+
+  @Test
+  public void shouldSendOnlyTheRefsNotAppliedByTheTarget() throws Exception {
+    String appliedRefName = "refs/changes/01/1/1";
+    String notAppliedRefName = "refs/changes/02/2/1";
+    when(source.enableConditionalApply()).thenReturn(true);
+    when(fetchRestApiClient.callConditionalApplyAsync(any(), anyList(), anyLong(), any()))
+        .thenReturn(
+            CompletableFuture.completedFuture(
+                Optional.of(
+                    Map.of(
+                        appliedRefName,
+                        ConditionalApplyResult.UPDATED,
+                        notAppliedRefName,
+                        ConditionalApplyResult.NOT_APPLIED))));
+    objectUnderTest.start();
+    onEventAndWaitForReplication(generateBatchRefUpdateEvent(appliedRefName, notAppliedRefName));
+
+    verify(fetchRestApiClient)
+        .callBatchSendObjectAsync(any(), batchRefsCaptor.capture(), anyLong(), any());
+    assertThat(batchRefsCaptor.getValue().stream().map(BatchApplyObjectData::refName))
+        .containsExactly(notAppliedRefName);
+  }
+
+  @Test
+  public void shouldNotAskTheTargetToConditionallyApplyTheNoteDbMetaRefs() throws Exception {
+    String patchSetRefName = "refs/changes/01/1/1";
+    String metaRefName = "refs/changes/01/1/meta";
+    when(source.enableConditionalApply()).thenReturn(true);
+    when(fetchRestApiClient.callConditionalApplyAsync(any(), anyList(), anyLong(), any()))
+        .thenReturn(
+            CompletableFuture.completedFuture(
+                Optional.of(Map.of(patchSetRefName, ConditionalApplyResult.NOT_APPLIED))));
+    objectUnderTest.start();
+    onEventAndWaitForReplication(generateBatchRefUpdateEvent(patchSetRefName, metaRefName));
+
+    verify(fetchRestApiClient)
+        .callConditionalApplyAsync(any(), refUpdatesCaptor.capture(), anyLong(), any());
+    assertThat(refUpdatesCaptor.getValue().stream().map(RefUpdateInput::getRefName))
+        .containsExactly(patchSetRefName);
+  }
+
+  @Test
+  public void shouldNotCallConditionalApplyForOnlyNoteDbMetaRefs() throws Exception {
+    when(source.enableConditionalApply()).thenReturn(true);
+    objectUnderTest.start();
+    onEventAndWaitForReplication(generateBatchRefUpdateEvent("refs/changes/01/1/meta"));
+
+    verify(fetchRestApiClient, never())
+        .callConditionalApplyAsync(any(), anyList(), anyLong(), any());
+    verify(fetchRestApiClient).callBatchSendObjectAsync(any(), any(), anyLong(), any());
+  }
+
+  @Test
+  public void shouldSendAllTheRefsWhenConditionalApplyNotSupportedByTheTarget() throws Exception {
+    String refName = "refs/changes/01/1/1";
+    when(source.enableConditionalApply()).thenReturn(true);
+    when(fetchRestApiClient.callConditionalApplyAsync(any(), anyList(), anyLong(), any()))
+        .thenReturn(CompletableFuture.completedFuture(Optional.empty()));
+    objectUnderTest.start();
+    onEventAndWaitForReplication(generateBatchRefUpdateEvent(refName));
+
+    verify(fetchRestApiClient)
+        .callBatchSendObjectAsync(any(), batchRefsCaptor.capture(), anyLong(), any());
+    assertThat(batchRefsCaptor.getValue().stream().map(BatchApplyObjectData::refName))
+        .containsExactly(refName);
+  }
+
   @Test
   public void shouldCallSendObjectsIfBatchedRefsNotEnabledAtSource() throws Exception {
     Event event = generateBatchRefUpdateEvent("refs/changes/01/1/1");
     when(source.enableBatchedRefs()).thenReturn(false);
     objectUnderTest.start();
-    objectUnderTest.onEvent(event);
+    onEventAndWaitForReplication(event);
 
-    verify(fetchRestApiClient, never()).callBatchSendObject(any(), any(), anyLong(), any());
-    verify(fetchRestApiClient).callSendObjects(any(), anyString(), anyLong(), any(), any());
+    verify(fetchRestApiClient, never()).callBatchSendObjectAsync(any(), any(), anyLong(), any());
+    verify(fetchRestApiClient).callSendObjectsAsync(any(), anyString(), anyLong(), any(), any());
   }
 
   @Test
@@ -517,9 +1186,9 @@ public class ReplicationQueueTest {
     when(httpResult.isParentObjectMissing()).thenReturn(false);
 
     objectUnderTest.start();
-    objectUnderTest.onEvent(event);
+    onEventAndWaitForReplication(event);
 
-    verify(fetchRestApiClient, never()).callBatchFetch(any(), any(), any());
+    verify(fetchRestApiClient, never()).callBatchFetchAsync(any(), any(), any(), anyLong());
     verifyFallbackToRestApiClientFetchAsync(event);
   }
 
@@ -533,15 +1202,19 @@ public class ReplicationQueueTest {
     when(httpResult.isSuccessful()).thenReturn(true, false);
 
     objectUnderTest.start();
-    objectUnderTest.onEvent(event);
+    onEventAndWaitForReplication(event);
 
     verify(fetchRestApiClient, times(2))
-        .callSendObjects(any(), anyString(), anyLong(), any(), any());
+        .callSendObjectsAsync(any(), anyString(), anyLong(), any(), any());
     verify(fetchRestApiClient)
-        .callBatchFetch(
-            PROJECT,
-            Stream.of("refs/changes/01/1/1", "refs/changes/02/1/1").map(RefInput::create).toList(),
-            new URIish("http://localhost:18080"));
+        .callBatchFetchAsync(
+            eq(PROJECT),
+            eq(
+                Stream.of("refs/changes/01/1/1", "refs/changes/02/1/1")
+                    .map(RefInput::create)
+                    .toList()),
+            eq(new URIish("http://localhost:18080")),
+            anyLong());
   }
 
   @Test
@@ -572,9 +1245,12 @@ public class ReplicationQueueTest {
             config,
             applyObjectsRefsFilter,
             applyObjectsBannedCreateRefsFilter,
-            shutdownState);
+            shutdownState,
+            replicationConfig,
+            new ReplicationStrategy(
+                replicationConfig, queueMetrics, new SyncRefsFilter(replicationConfig)));
     Event event = generateBatchRefUpdateEvent("refs/multi-site/version");
-    objectUnderTest.onEvent(event);
+    onEventAndWaitForReplication(event);
 
     verifyNoInteractions(wq, rd, dis, sl, fetchClientFactory, accountAttribute);
   }
@@ -684,7 +1360,7 @@ public class ReplicationQueueTest {
 
   private void verifySendObjectOrdering(String firstRef, String secondRef) throws Exception {
     verify(fetchRestApiClient)
-        .callBatchSendObject(any(), batchRefsCaptor.capture(), anyLong(), any());
+        .callBatchSendObjectAsync(any(), batchRefsCaptor.capture(), anyLong(), any());
     List<BatchApplyObjectData> batchRefs = batchRefsCaptor.getValue();
 
     assertThat(batchRefs.get(0).refName()).isEqualTo(firstRef);
@@ -733,10 +1409,49 @@ public class ReplicationQueueTest {
     }
   }
 
+  private void givenApplyPackEnabledWithParent(ObjectId parentObjectId) throws Exception {
+    byte[] commit =
+        ("tree 4b825dc642cb6eb9a060e54bf8d69288fbee4904\n"
+                + "parent "
+                + parentObjectId.name()
+                + "\n"
+                + "author A U Thor <author@example.com> 0 +0000\n"
+                + "committer A U Thor <author@example.com> 0 +0000\n"
+                + "\n"
+                + "Some change\n")
+            .getBytes(StandardCharsets.UTF_8);
+    when(source.enableApplyPack()).thenReturn(true);
+    when(revisionData.getCommitObject())
+        .thenReturn(
+            new RevisionObjectData(
+                "9f8d52853089a3cf00c02ff7bd0817bd4353a95a", Constants.OBJ_COMMIT, commit));
+    when(revReader.readThinPack(any(), any(), any())).thenReturn(new byte[] {1, 2, 3});
+    when(fetchRestApiClient.callSendPackAsync(any(), anyList(), anyLong(), any(), any()))
+        .thenReturn(CompletableFuture.completedFuture(packHttpResult));
+  }
+
+  private static CompletableFuture<HttpResult> completeWhenReleased(
+      CountDownLatch released, HttpResult result) {
+    return CompletableFuture.supplyAsync(
+        () -> {
+          try {
+            released.await(5, SECONDS);
+          } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+          }
+          return result;
+        });
+  }
+
+  private void onEventAndWaitForReplication(Event event) throws Exception {
+    objectUnderTest.onEvent(event);
+    WaitUtil.waitUntil(() -> objectUnderTest.outstandingEventsCount() == 0, Duration.ofSeconds(5));
+  }
+
   private void verifyFallbackToRestApiClientFetchAsync(BatchRefUpdateEvent event)
       throws IOException {
     verify(fetchRestApiClient)
-        .callFetch(
+        .callFetchAsync(
             eq(event.getProjectNameKey()),
             eq(event.getRefNames().get(0)),
             any(URIish.class),
@@ -0,0 +1,201 @@
+// Copyright (C) 2025 The Android Open Source Project
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+// http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.googlesource.gerrit.plugins.replication.pull;
+
+import static com.google.common.truth.Truth.assertThat;
+import static com.googlesource.gerrit.plugins.replication.pull.ReplicationStrategy.CONFIG_ADAPTIVE_STRATEGY;
+import static com.googlesource.gerrit.plugins.replication.pull.ReplicationStrategy.CONFIG_ADAPTIVE_STRATEGY_MIN_SAMPLES;
+import static java.util.concurrent.TimeUnit.MILLISECONDS;
+import static org.mockito.Mockito.when;
+
+import com.google.gerrit.metrics.DisabledMetricMaker;
+import com.googlesource.gerrit.plugins.replication.api.ReplicationConfig;
+import com.googlesource.gerrit.plugins.replication.pull.ReplicationStrategy.Strategy;
+import com.googlesource.gerrit.plugins.replication.pull.filter.SyncRefsFilter;
+import java.util.List;
+import org.eclipse.jgit.lib.Config;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.mockito.Mock;
+import org.mockito.junit.MockitoJUnitRunner;
+
+@RunWith(MockitoJUnitRunner.class)
+public class ReplicationStrategyTest {
+  private static final String SOURCE = "source";
+  private static final String META_REF = "refs/changes/01/1/meta";
+  private static final String BRANCH_REF = "refs/heads/master";
+  private static final int MIN_SAMPLES = 5;
+
+  @Mock private ReplicationConfig replicationConfig;
+  private Config config;
+  private ReplicationQueueMetrics metrics;
+
+  @Before
+  public void setup() {
+    config = new Config();
+    config.setInt("replication", null, CONFIG_ADAPTIVE_STRATEGY_MIN_SAMPLES, MIN_SAMPLES);
+    when(replicationConfig.getConfig()).thenReturn(config);
+    metrics = new ReplicationQueueMetrics("pull-replication", new DisabledMetricMaker());
+  }
+
+  @Test
+  public void shouldClassifyRefs() {
+    assertThat(ReplicationStrategy.refClass(META_REF)).isEqualTo("refs/changes/*/meta");
+    assertThat(ReplicationStrategy.refClass("refs/changes/01/1/1")).isEqualTo("refs/changes/*");
+    assertThat(ReplicationStrategy.refClass(BRANCH_REF)).isEqualTo("refs/heads/*");
+    assertThat(ReplicationStrategy.refClass("refs/meta/config")).isEqualTo("refs/meta/config");
+    assertThat(ReplicationStrategy.refClass("refs/tags/v1.0")).isEqualTo("refs/tags/*");
+  }
+
+  @Test
+  public void shouldAlwaysApplyObjectWhenDisabled() {
+    ReplicationStrategy objectUnderTest = newReplicationStrategy(false);
+    recordTooLarge(objectUnderTest, BRANCH_REF, MIN_SAMPLES * 2);
+
+    assertThat(objectUnderTest.choose(SOURCE, List.of(BRANCH_REF)))
+        .isEqualTo(Strategy.APPLY_OBJECT);
+  }
+
+  @Test
+  public void shouldApplyObjectUntilEnoughSamplesAreCollected() {
+    ReplicationStrategy objectUnderTest = newReplicationStrategy(true);
+    recordTooLarge(objectUnderTest, BRANCH_REF, MIN_SAMPLES - 1);
+
+    assertThat(objectUnderTest.choose(SOURCE, List.of(BRANCH_REF)))
+        .isEqualTo(Strategy.APPLY_OBJECT);
+  }
+
+  @Test
+  public void shouldBatchFetchRefsThatAreUsuallyTooLarge() {
+    ReplicationStrategy objectUnderTest = newReplicationStrategy(true);
+    recordTooLarge(objectUnderTest, BRANCH_REF, MIN_SAMPLES * 2);
+
+    assertThat(objectUnderTest.choose(SOURCE, List.of(BRANCH_REF))).isEqualTo(Strategy.BATCH_FETCH);
+    assertThat(objectUnderTest.choose("another-source", List.of(BRANCH_REF)))
+        .isEqualTo(Strategy.APPLY_OBJECT);
+  }
+
+  @Test
+  public void shouldSendTheHistoryOfRefsThatUsuallyMissTheParents() {
+    ReplicationStrategy objectUnderTest = newReplicationStrategy(true);
+    for (int i = 0; i < MIN_SAMPLES * 2; i++) {
+      objectUnderTest.recordApplyObject(
+          SOURCE, List.of(META_REF), true, true, MILLISECONDS.toNanos(10));
+    }
+
+    assertThat(objectUnderTest.choose(SOURCE, List.of(META_REF)))
+        .isEqualTo(Strategy.APPLY_OBJECTS_WITH_HISTORY);
+  }
+
+  @Test
+  public void shouldChooseTheMostConservativeStrategyOfAllRefs() {
+    ReplicationStrategy objectUnderTest = newReplicationStrategy(true);
+    recordTooLarge(objectUnderTest, BRANCH_REF, MIN_SAMPLES * 2);
+
+    assertThat(objectUnderTest.choose(SOURCE, List.of(META_REF, BRANCH_REF)))
+        .isEqualTo(Strategy.BATCH_FETCH);
+  }
+
+  @Test
+  public void shouldPeriodicallyGoBackToApplyObject() {
+    ReplicationStrategy objectUnderTest = newReplicationStrategy(true);
+    recordTooLarge(objectUnderTest, BRANCH_REF, MIN_SAMPLES * 2);
+
+    int applyObjectDecisions = 0;
+    for (int i = 0; i < ReplicationStrategy.EXPLORE_EVERY; i++) {
+      if (objectUnderTest.choose(SOURCE, List.of(BRANCH_REF)) == Strategy.APPLY_OBJECT) {
+        applyObjectDecisions++;
+      }
+    }
+
+    assertThat(applyObjectDecisions).isEqualTo(1);
+  }
+
+  @Test
+  public void shouldNotBlameAFailedBatchOnEveryClassOfRefs() {
+    ReplicationStrategy objectUnderTest = newReplicationStrategy(true);
+    for (int i = 0; i < MIN_SAMPLES * 2; i++) {
+      objectUnderTest.recordApplyObject(
+          SOURCE, List.of(META_REF, BRANCH_REF), false, false, MILLISECONDS.toNanos(10));
+    }
+
+    assertThat(objectUnderTest.choose(SOURCE, List.of(META_REF))).isEqualTo(Strategy.APPLY_OBJECT);
+    assertThat(objectUnderTest.choose(SOURCE, List.of(BRANCH_REF)))
+        .isEqualTo(Strategy.APPLY_OBJECT);
+  }
+
+  @Test
+  public void shouldBatchFetchRefsThatUsuallyFailToBeApplied() {
+    ReplicationStrategy objectUnderTest = newReplicationStrategy(true);
+    for (int i = 0; i < MIN_SAMPLES * 2; i++) {
+      objectUnderTest.recordApplyObject(
+          SOURCE, List.of(BRANCH_REF), false, false, MILLISECONDS.toNanos(10));
+    }
+
+    assertThat(objectUnderTest.choose(SOURCE, List.of(BRANCH_REF))).isEqualTo(Strategy.BATCH_FETCH);
+  }
+
+  @Test
+  public void shouldIgnoreTheTimeSpentByAsynchronousFetches() {
+    config.setString("replication", null, "syncRefs", META_REF);
+    ReplicationStrategy objectUnderTest = newReplicationStrategy(true);
+    for (int i = 0; i < MIN_SAMPLES * 2; i++) {
+      objectUnderTest.recordApplyObject(
+          SOURCE, List.of(BRANCH_REF), true, false, MILLISECONDS.toNanos(100));
+      objectUnderTest.recordFetch(SOURCE, List.of(BRANCH_REF), MILLISECONDS.toNanos(1));
+    }
+
+    assertThat(objectUnderTest.choose(SOURCE, List.of(BRANCH_REF)))
+        .isEqualTo(Strategy.APPLY_OBJECT);
+    assertThat(objectUnderTest.describe(SOURCE).get("refs/heads/*")).endsWith("fetch=n/a)");
+  }
+
+  @Test
+  public void shouldBatchFetchRefsThatAreFasterToFetchSynchronously() {
+    ReplicationStrategy objectUnderTest = newReplicationStrategy(true);
+    for (int i = 0; i < MIN_SAMPLES * 2; i++) {
+      objectUnderTest.recordApplyObject(
+          SOURCE, List.of(BRANCH_REF), true, false, MILLISECONDS.toNanos(100));
+      objectUnderTest.recordFetch(SOURCE, List.of(BRANCH_REF), MILLISECONDS.toNanos(1));
+    }
+
+    assertThat(objectUnderTest.choose(SOURCE, List.of(BRANCH_REF))).isEqualTo(Strategy.BATCH_FETCH);
+  }
+
+  @Test
+  public void shouldDescribeTheStatisticsOfEveryRefClass() {
+    ReplicationStrategy objectUnderTest = newReplicationStrategy(true);
+    recordTooLarge(objectUnderTest, BRANCH_REF, MIN_SAMPLES * 2);
+    objectUnderTest.recordApplyObject(
+        SOURCE, List.of(META_REF), true, false, MILLISECONDS.toNanos(10));
+
+    assertThat(objectUnderTest.describe(SOURCE).keySet())
+        .containsExactly("refs/changes/*/meta", "refs/heads/*");
+    assertThat(objectUnderTest.describe(SOURCE).get("refs/heads/*")).startsWith("BATCH_FETCH");
+  }
+
+  private ReplicationStrategy newReplicationStrategy(boolean enabled) {
+    config.setBoolean("replication", null, CONFIG_ADAPTIVE_STRATEGY, enabled);
+    return new ReplicationStrategy(
+        replicationConfig, metrics, new SyncRefsFilter(replicationConfig));
+  }
+
+  private static void recordTooLarge(ReplicationStrategy strategy, String refName, int times) {
+    for (int i = 0; i < times; i++) {
+      strategy.recordPayload(SOURCE, refName, 0L, true);
+    }
+  }
+}
@@ -40,6 +40,7 @@ import com.googlesource.gerrit.plugins.replication.ReplicationConfigImpl;
 import com.googlesource.gerrit.plugins.replication.api.ApiModule;
 import com.googlesource.gerrit.plugins.replication.api.ConfigResource;
 import com.googlesource.gerrit.plugins.replication.api.ReplicationConfig;
+import com.googlesource.gerrit.plugins.replication.pull.RevisionReader.RefRevision;
 import com.googlesource.gerrit.plugins.replication.pull.api.data.RevisionData;
 import com.googlesource.gerrit.plugins.replication.pull.api.data.RevisionObjectData;
 import com.googlesource.gerrit.plugins.replication.pull.fetch.ApplyObject;
@@ -179,6 +180,71 @@ public class RevisionReaderIT extends LightweightPluginDaemonTest {
     assertThat(parentObjectIds).hasSize(numberOfParents);
   }
 
+  @Test
+  public void shouldReadRefMetaHistoryWithParentsFirst() throws Exception {
+    Result pushResult = createChange();
+    Id changeId = pushResult.getChange().getId();
+    String refName = RefNames.changeMetaRef(changeId);
+
+    addMultipleComments(3, changeId);
+
+    Optional<RevisionData> revisionDataOption =
+        refObjectId(refName)
+            .flatMap(objId -> readRevisionFromObjectUnderTest(refName, objId, Integer.MAX_VALUE));
+    Optional<List<RevisionData>> history = objectUnderTest.readHistory(project, refName);
+
+    assertThat(history.isPresent()).isTrue();
+    assertThat(
+            history.get().stream()
+                .map(revision -> revision.getCommitObject().getSha1())
+                .collect(Collectors.toList()))
+        .containsExactlyElementsIn(
+            revisionDataOption.get().getParentObjetIds().stream()
+                .map(ObjectId::getName)
+                .collect(Collectors.toList()))
+        .inOrder();
+  }
+
+  @Test
+  public void shouldReadBatchOfRefsAsTheSingleRefReads() throws Exception {
+    Result pushResult = createChange();
+    Id changeId = pushResult.getChange().getId();
+    String metaRefName = RefNames.changeMetaRef(changeId);
+    String patchSetRefName = pushResult.getPatchSetId().toRefName();
+    String missingRefName = "refs/heads/missing";
+    addComment(changeId);
+
+    List<Optional<RevisionData>> revisions =
+        objectUnderTest.read(
+            project,
+            List.of(
+                RefRevision.create(metaRefName, null),
+                RefRevision.create(missingRefName, null),
+                RefRevision.create(patchSetRefName, refObjectId(patchSetRefName).get())));
+
+    assertThat(revisions).hasSize(3);
+    assertThat(revisions.get(0).get().getCommitObject().getSha1())
+        .isEqualTo(refObjectId(metaRefName).get().getName());
+    assertThat(revisions.get(0).get().getBlobs().size())
+        .isEqualTo(objectUnderTest.read(project, metaRefName, 0).get().getBlobs().size());
+    assertThat(revisions.get(1).isPresent()).isFalse();
+    assertThat(revisions.get(2).get().getCommitObject().getSha1())
+        .isEqualTo(refObjectId(patchSetRefName).get().getName());
+    assertThat(revisions.get(2).get().getBlobs().size())
+        .isEqualTo(objectUnderTest.read(project, patchSetRefName, 0).get().getBlobs().size());
+  }
+
+  @Test
+  public void shouldReadTheSameRevisionFromTheCache() throws Exception {
+    Result pushResult = createChange();
+    String refName = RefNames.changeMetaRef(pushResult.getChange().getId());
+
+    RevisionData revisionData = objectUnderTest.read(project, refName, 0).get();
+
+    assertThat(objectUnderTest.read(project, refName, 0).get()).isSameInstanceAs(revisionData);
+    assertThat(objectUnderTest.read(project, refName, 1).get()).isNotSameInstanceAs(revisionData);
+  }
+
   private void addMultipleComments(int numberOfParents, Id changeId) throws Exception {
     for (int i = 0; i < numberOfParents; i++) {
       addComment(changeId);
@@ -311,6 +377,7 @@ public class RevisionReaderIT extends LightweightPluginDaemonTest {
       install(new ApiModule());
       bind(ConfigResource.class).to(FileConfigResource.class);
       bind(ReplicationConfig.class).to(ReplicationConfigImpl.class);
+      install(new RevisionDataCacheModule());
       bind(RevisionReader.class).in(Scopes.SINGLETON);
       bind(ApplyObject.class);
     }
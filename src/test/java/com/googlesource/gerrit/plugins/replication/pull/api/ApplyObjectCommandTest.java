@@ -15,8 +15,13 @@
 package com.googlesource.gerrit.plugins.replication.pull.api;
 
 import static com.google.common.truth.Truth.assertThat;
+import static com.google.gerrit.testing.GerritJUnit.assertThrows;
 import static org.mockito.Mockito.any;
 import static org.mockito.Mockito.anyString;
+import static org.mockito.Mockito.doThrow;
+import static org.mockito.Mockito.eq;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
 import static org.mockito.Mockito.verify;
 import static org.mockito.Mockito.when;
 
@@ -35,12 +40,20 @@ import com.googlesource.gerrit.plugins.replication.pull.FetchRefReplicatedEvent;
 import com.googlesource.gerrit.plugins.replication.pull.PullReplicationStateLogger;
 import com.googlesource.gerrit.plugins.replication.pull.Source;
 import com.googlesource.gerrit.plugins.replication.pull.SourcesCollection;
+import com.googlesource.gerrit.plugins.replication.pull.api.data.ApplyPackInput.RefUpdateInput;
+import com.googlesource.gerrit.plugins.replication.pull.api.data.ConditionalApplyResult;
 import com.googlesource.gerrit.plugins.replication.pull.api.data.RevisionData;
 import com.googlesource.gerrit.plugins.replication.pull.api.data.RevisionObjectData;
+import com.googlesource.gerrit.plugins.replication.pull.api.exception.MissingLatestPatchSetException;
 import com.googlesource.gerrit.plugins.replication.pull.api.exception.RefUpdateException;
 import com.googlesource.gerrit.plugins.replication.pull.fetch.ApplyObject;
+import com.googlesource.gerrit.plugins.replication.pull.fetch.ApplyObjectGroupCommits;
 import com.googlesource.gerrit.plugins.replication.pull.fetch.RefUpdateState;
+import java.io.ByteArrayInputStream;
+import java.io.InputStream;
 import java.util.Collections;
+import java.util.List;
+import java.util.Map;
 import java.util.Optional;
 import org.eclipse.jgit.lib.Constants;
 import org.eclipse.jgit.lib.RefUpdate;
@@ -70,6 +83,8 @@ public class ApplyObjectCommandTest {
 
   @Mock private PullReplicationStateLogger fetchStateLog;
   @Mock private ApplyObject applyObject;
+  @Mock private ApplyObject.Batch objectsBatch;
+  @Mock private ApplyObjectGroupCommits groupCommits;
   @Mock private ApplyObjectMetrics metrics;
   @Mock private DynamicItem<EventDispatcher> eventDispatcherDataItem;
   @Mock private EventDispatcher eventDispatcher;
@@ -89,13 +104,19 @@ public class ApplyObjectCommandTest {
     when(eventDispatcherDataItem.get()).thenReturn(eventDispatcher);
     when(metrics.start(anyString())).thenReturn(timetContext);
     when(timetContext.stop()).thenReturn(100L);
-    when(applyObject.apply(any(), any(), any())).thenReturn(state);
+    when(groupCommits.apply(any(), any(), any(RevisionData[].class))).thenReturn(state);
     when(sourceCollection.getByRemoteName(TEST_SOURCE_LABEL)).thenReturn(Optional.of(source));
     when(source.getURI(TEST_PROJECT_NAME)).thenReturn(TEST_REMOTE_URI);
 
     objectUnderTest =
         new ApplyObjectCommand(
-            fetchStateLog, applyObject, metrics, eventDispatcherDataItem, sourceCollection, cache);
+            fetchStateLog,
+            applyObject,
+            groupCommits,
+            metrics,
+            eventDispatcherDataItem,
+            sourceCollection,
+            cache);
   }
 
   @Test
@@ -152,7 +173,7 @@ public class ApplyObjectCommandTest {
     RevisionData sampleRevisionData =
         createSampleRevisionData(sampleCommitObjectId, sampleTreeObjectId);
     RefUpdateState failureState = new RefUpdateState(TEST_REMOTE_NAME, RefUpdate.Result.IO_FAILURE);
-    when(applyObject.apply(any(), any(), any())).thenReturn(failureState);
+    when(groupCommits.apply(any(), any(), any(RevisionData[].class))).thenReturn(failureState);
     objectUnderTest.applyObject(
         TEST_PROJECT_NAME,
         TEST_REF_NAME,
@@ -169,6 +190,148 @@ public class ApplyObjectCommandTest {
         .isNull();
   }
 
+  @Test
+  public void shouldUpdateAllTheRefsAndSendEventsWhenApplyPack() throws Exception {
+    String otherRefName = "refs/changes/01/1/meta";
+    List<RefUpdateInput> refs =
+        List.of(
+            new RefUpdateInput(TEST_REF_NAME, sampleCommitObjectId, List.of()),
+            new RefUpdateInput(otherRefName, sampleCommitObjectId2, List.of()));
+    InputStream pack = new ByteArrayInputStream(new byte[0]);
+    when(applyObject.updateRef(any(), anyString(), any()))
+        .thenReturn(new RefUpdateState(TEST_REMOTE_NAME, RefUpdate.Result.NEW));
+
+    objectUnderTest.applyPack(
+        TEST_PROJECT_NAME, refs, pack, TEST_SOURCE_LABEL, TEST_EVENT_TIMESTAMP);
+
+    verify(applyObject).insertPack(TEST_PROJECT_NAME, refs, pack);
+    verify(eventDispatcher, times(2)).postEvent(eventCaptor.capture());
+    assertThat(
+            eventCaptor.getAllValues().stream()
+                .map(event -> ((FetchRefReplicatedEvent) event).getRefName()))
+        .containsExactly(TEST_REF_NAME, otherRefName);
+    assertThat(
+            cache.getIfPresent(
+                ApplyObjectsCacheKey.create(
+                    sampleCommitObjectId2, otherRefName, TEST_PROJECT_NAME.get())))
+        .isEqualTo(TEST_EVENT_TIMESTAMP);
+  }
+
+  @Test
+  public void shouldNotUpdateAnyRefWhenTheRefsOfThePackAreInvalid() throws Exception {
+    String metaRefName = "refs/changes/01/1/meta";
+    List<RefUpdateInput> refs =
+        List.of(
+            new RefUpdateInput(TEST_REF_NAME, sampleCommitObjectId, List.of()),
+            new RefUpdateInput(metaRefName, sampleCommitObjectId2, List.of()));
+    InputStream pack = new ByteArrayInputStream(new byte[0]);
+    doThrow(
+            new MissingLatestPatchSetException(
+                TEST_PROJECT_NAME, metaRefName, "Unable to find latest patch-set ref"))
+        .when(applyObject)
+        .insertPack(TEST_PROJECT_NAME, refs, pack);
+
+    assertThrows(
+        MissingLatestPatchSetException.class,
+        () ->
+            objectUnderTest.applyPack(
+                TEST_PROJECT_NAME, refs, pack, TEST_SOURCE_LABEL, TEST_EVENT_TIMESTAMP));
+
+    verify(applyObject, never()).updateRef(any(), anyString(), any());
+    verify(eventDispatcher, never()).postEvent(any());
+  }
+
+  @Test
+  public void shouldUpdateOnlyTheRefsWhoseObjectsArePresentWhenApplyIfPresent() throws Exception {
+    String upToDateRefName = "refs/heads/master";
+    String missingRefName = "refs/heads/stable";
+    String invalidRefName = "refs/changes/01/1/meta";
+    List<RefUpdateInput> refs =
+        List.of(
+            new RefUpdateInput(upToDateRefName, sampleCommitObjectId, null),
+            new RefUpdateInput(TEST_REF_NAME, sampleCommitObjectId, null),
+            new RefUpdateInput(missingRefName, sampleCommitObjectId2, null),
+            new RefUpdateInput(invalidRefName, sampleCommitObjectId2, null));
+    when(applyObject.updateRefIfPresent(any(), eq(upToDateRefName), any()))
+        .thenReturn(Optional.of(new RefUpdateState(upToDateRefName, RefUpdate.Result.NO_CHANGE)));
+    when(applyObject.updateRefIfPresent(any(), eq(TEST_REF_NAME), any()))
+        .thenReturn(Optional.of(new RefUpdateState(TEST_REF_NAME, RefUpdate.Result.NEW)));
+    when(applyObject.updateRefIfPresent(any(), eq(missingRefName), any()))
+        .thenReturn(Optional.empty());
+    when(applyObject.updateRefIfPresent(any(), eq(invalidRefName), any()))
+        .thenThrow(
+            new MissingLatestPatchSetException(
+                TEST_PROJECT_NAME, invalidRefName, "missing latest patch-set"));
+
+    Map<String, ConditionalApplyResult> results =
+        objectUnderTest.applyIfPresent(
+            TEST_PROJECT_NAME, refs, TEST_SOURCE_LABEL, TEST_EVENT_TIMESTAMP);
+
+    assertThat(results)
+        .containsExactly(
+            upToDateRefName,
+            ConditionalApplyResult.UP_TO_DATE,
+            TEST_REF_NAME,
+            ConditionalApplyResult.UPDATED,
+            missingRefName,
+            ConditionalApplyResult.NOT_APPLIED,
+            invalidRefName,
+            ConditionalApplyResult.NOT_APPLIED)
+        .inOrder();
+    verify(eventDispatcher).postEvent(eventCaptor.capture());
+    assertThat(((FetchRefReplicatedEvent) eventCaptor.getValue()).getRefName())
+        .isEqualTo(TEST_REF_NAME);
+    assertThat(
+            cache.getIfPresent(
+                ApplyObjectsCacheKey.create(
+                    sampleCommitObjectId, TEST_REF_NAME, TEST_PROJECT_NAME.get())))
+        .isEqualTo(TEST_EVENT_TIMESTAMP);
+  }
+
+  @Test
+  public void shouldUpdateAllTheRefsOfTheBatchAndSendEventsWhenCommitted() throws Exception {
+    String otherRefName = "refs/changes/01/1/meta";
+    RevisionData sampleRevisionData =
+        createSampleRevisionData(sampleCommitObjectId, sampleTreeObjectId);
+    RevisionData sampleRevisionData2 =
+        createSampleRevisionData(sampleCommitObjectId2, sampleTreeObjectId2);
+    when(applyObject.newBatch(TEST_PROJECT_NAME)).thenReturn(objectsBatch);
+    when(objectsBatch.commit())
+        .thenReturn(
+            List.of(
+                new RefUpdateState(TEST_REF_NAME, RefUpdate.Result.NEW),
+                new RefUpdateState(otherRefName, RefUpdate.Result.LOCK_FAILURE)));
+
+    List<RefUpdateState> refUpdateStates;
+    try (ApplyObjectCommand.Batch batch = objectUnderTest.newBatch(TEST_PROJECT_NAME)) {
+      batch.add(TEST_REF_NAME, sampleRevisionData, TEST_SOURCE_LABEL, TEST_EVENT_TIMESTAMP);
+      batch.add(otherRefName, sampleRevisionData2, TEST_SOURCE_LABEL, TEST_EVENT_TIMESTAMP);
+      verify(eventDispatcher, never()).postEvent(any());
+      refUpdateStates = batch.commit();
+    }
+
+    assertThat(refUpdateStates.stream().map(RefUpdateState::getResult))
+        .containsExactly(RefUpdate.Result.NEW, RefUpdate.Result.LOCK_FAILURE)
+        .inOrder();
+    verify(eventDispatcher, times(2)).postEvent(eventCaptor.capture());
+    assertThat(
+            eventCaptor.getAllValues().stream()
+                .map(event -> ((FetchRefReplicatedEvent) event).getRefName()))
+        .containsExactly(TEST_REF_NAME, otherRefName)
+        .inOrder();
+    assertThat(
+            cache.getIfPresent(
+                ApplyObjectsCacheKey.create(
+                    sampleCommitObjectId, TEST_REF_NAME, TEST_PROJECT_NAME.get())))
+        .isEqualTo(TEST_EVENT_TIMESTAMP);
+    assertThat(
+            cache.getIfPresent(
+                ApplyObjectsCacheKey.create(
+                    sampleCommitObjectId2, otherRefName, TEST_PROJECT_NAME.get())))
+        .isNull();
+    verify(objectsBatch).close();
+  }
+
   private RevisionData createSampleRevisionData(String commitObjectId, String treeObjectId) {
     RevisionObjectData commitData =
         new RevisionObjectData(commitObjectId, Constants.OBJ_COMMIT, new byte[] {});
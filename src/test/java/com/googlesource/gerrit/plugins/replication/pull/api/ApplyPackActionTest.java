@@ -0,0 +1,147 @@
+// Copyright (C) 2025 The Android Open Source Project
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+// http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.googlesource.gerrit.plugins.replication.pull.api;
+
+import static com.google.common.truth.Truth.assertThat;
+import static org.apache.http.HttpStatus.SC_CREATED;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyLong;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.doThrow;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import com.google.gerrit.entities.Project;
+import com.google.gerrit.extensions.restapi.AuthException;
+import com.google.gerrit.extensions.restapi.BadRequestException;
+import com.google.gerrit.extensions.restapi.ResourceConflictException;
+import com.google.gerrit.extensions.restapi.Response;
+import com.google.gerrit.server.project.ProjectResource;
+import com.googlesource.gerrit.plugins.replication.pull.api.data.ApplyPackInput;
+import com.googlesource.gerrit.plugins.replication.pull.api.data.ApplyPackInput.RefUpdateInput;
+import com.googlesource.gerrit.plugins.replication.pull.api.exception.MissingParentObjectException;
+import com.googlesource.gerrit.plugins.replication.pull.api.exception.PayloadTooLargeException;
+import java.io.ByteArrayInputStream;
+import java.util.List;
+import org.eclipse.jgit.errors.CorruptObjectException;
+import org.eclipse.jgit.errors.TooLargePackException;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.mockito.Mock;
+import org.mockito.junit.MockitoJUnitRunner;
+
+@RunWith(MockitoJUnitRunner.class)
+public class ApplyPackActionTest {
+  private static final String LABEL = "instance-2-label";
+  private static final String REF_NAME = "refs/heads/master";
+  private static final String OBJECT_ID = "9f8d52853089a3cf00c02ff7bd0817bd4353a95a";
+  private static final String PARENT_OBJECT_ID = "b5d7bcf1d1c5b0f0726d10a16c8315f06f900bfb";
+  private static final long EVENT_CREATED_ON = 1L;
+
+  private final Project.NameKey project = Project.nameKey("test-project");
+
+  private ApplyPackAction applyPackAction;
+
+  @Mock ApplyObjectCommand applyObjectCommand;
+  @Mock ProjectResource projectResource;
+  @Mock FetchPreconditions preConditions;
+
+  @Before
+  public void setup() throws Exception {
+    when(preConditions.canCallFetchApi()).thenReturn(true);
+    when(projectResource.getNameKey()).thenReturn(project);
+
+    applyPackAction = new ApplyPackAction(applyObjectCommand, preConditions);
+  }
+
+  @Test
+  public void shouldApplyThePackOfAllTheRefs() throws Exception {
+    List<RefUpdateInput> refs = refs(OBJECT_ID);
+    ApplyPackInput input = input(LABEL, refs);
+
+    Response<?> response = applyPackAction.apply(projectResource, input);
+
+    assertThat(response.statusCode()).isEqualTo(SC_CREATED);
+    verify(applyObjectCommand)
+        .applyPack(eq(project), eq(refs), eq(input.getPack()), eq(LABEL), eq(EVENT_CREATED_ON));
+  }
+
+  @Test(expected = ResourceConflictException.class)
+  public void shouldThrowResourceConflictExceptionWhenParentObjectIsMissing() throws Exception {
+    doThrow(new MissingParentObjectException(project, REF_NAME, PARENT_OBJECT_ID))
+        .when(applyObjectCommand)
+        .applyPack(any(), any(), any(), anyString(), anyLong());
+
+    applyPackAction.apply(projectResource, input(LABEL, refs(OBJECT_ID)));
+  }
+
+  @Test(expected = PayloadTooLargeException.class)
+  public void shouldThrowPayloadTooLargeExceptionWhenThePackIsTooLarge() throws Exception {
+    doThrow(new TooLargePackException(1024))
+        .when(applyObjectCommand)
+        .applyPack(any(), any(), any(), anyString(), anyLong());
+
+    applyPackAction.apply(projectResource, input(LABEL, refs(OBJECT_ID)));
+  }
+
+  @Test(expected = BadRequestException.class)
+  public void shouldThrowBadRequestExceptionWhenAnObjectOfThePackIsCorrupt() throws Exception {
+    doThrow(new CorruptObjectException("invalid tree"))
+        .when(applyObjectCommand)
+        .applyPack(any(), any(), any(), anyString(), anyLong());
+
+    applyPackAction.apply(projectResource, input(LABEL, refs(OBJECT_ID)));
+  }
+
+  @Test(expected = BadRequestException.class)
+  public void shouldThrowBadRequestExceptionWhenMissingLabel() throws Exception {
+    applyPackAction.apply(projectResource, input(null, refs(OBJECT_ID)));
+  }
+
+  @Test(expected = BadRequestException.class)
+  public void shouldThrowBadRequestExceptionWhenMissingRefs() throws Exception {
+    applyPackAction.apply(projectResource, input(LABEL, List.of()));
+  }
+
+  @Test(expected = BadRequestException.class)
+  public void shouldThrowBadRequestExceptionWhenInvalidObjectId() throws Exception {
+    applyPackAction.apply(projectResource, input(LABEL, refs("not-a-sha1")));
+  }
+
+  @Test(expected = BadRequestException.class)
+  public void shouldThrowBadRequestExceptionWhenMissingPack() throws Exception {
+    applyPackAction.apply(
+        projectResource, new ApplyPackInput(LABEL, EVENT_CREATED_ON, refs(OBJECT_ID)));
+  }
+
+  @Test(expected = AuthException.class)
+  public void shouldThrowAuthExceptionWhenCallFetchActionCapabilityNotAssigned() throws Exception {
+    when(preConditions.canCallFetchApi()).thenReturn(false);
+
+    applyPackAction.apply(projectResource, input(LABEL, refs(OBJECT_ID)));
+  }
+
+  private static List<RefUpdateInput> refs(String objectId) {
+    return List.of(new RefUpdateInput(REF_NAME, objectId, List.of(PARENT_OBJECT_ID)));
+  }
+
+  private static ApplyPackInput input(String label, List<RefUpdateInput> refs) {
+    ApplyPackInput input = new ApplyPackInput(label, EVENT_CREATED_ON, refs);
+    input.setPack(new ByteArrayInputStream(new byte[0]));
+    return input;
+  }
+}
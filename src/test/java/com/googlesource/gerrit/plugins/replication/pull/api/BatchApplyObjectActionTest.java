@@ -15,39 +15,61 @@
 package com.googlesource.gerrit.plugins.replication.pull.api;
 
 import static com.google.common.truth.Truth.assertThat;
+import static com.google.gerrit.testing.GerritJUnit.assertThrows;
+import static org.apache.http.HttpStatus.SC_CREATED;
 import static org.apache.http.HttpStatus.SC_OK;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyLong;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.doThrow;
+import static org.mockito.Mockito.inOrder;
 import static org.mockito.Mockito.never;
 import static org.mockito.Mockito.verify;
 import static org.mockito.Mockito.when;
 
 import com.google.common.collect.Lists;
-import com.google.gerrit.extensions.restapi.MergeConflictException;
+import com.google.gerrit.entities.Project;
+import com.google.gerrit.extensions.restapi.BadRequestException;
+import com.google.gerrit.extensions.restapi.ResourceConflictException;
 import com.google.gerrit.extensions.restapi.Response;
 import com.google.gerrit.extensions.restapi.RestApiException;
+import com.google.gerrit.httpd.restapi.RestApiServlet;
 import com.google.gerrit.server.project.ProjectResource;
 import com.googlesource.gerrit.plugins.replication.pull.api.data.RevisionData;
 import com.googlesource.gerrit.plugins.replication.pull.api.data.RevisionInput;
 import com.googlesource.gerrit.plugins.replication.pull.api.data.RevisionObjectData;
+import com.googlesource.gerrit.plugins.replication.pull.api.exception.MissingLatestPatchSetException;
+import com.googlesource.gerrit.plugins.replication.pull.api.exception.MissingParentObjectException;
+import com.googlesource.gerrit.plugins.replication.pull.fetch.RefUpdateState;
+import java.util.ArrayList;
 import java.util.Collections;
+import java.util.Iterator;
 import java.util.List;
+import java.util.Optional;
 import javax.servlet.http.HttpServletResponse;
 import org.eclipse.jgit.lib.Constants;
+import org.eclipse.jgit.lib.ObjectId;
+import org.eclipse.jgit.lib.RefUpdate;
 import org.junit.Before;
 import org.junit.Test;
 import org.junit.runner.RunWith;
+import org.mockito.InOrder;
 import org.mockito.Mock;
 import org.mockito.junit.MockitoJUnitRunner;
-import org.mockito.stubbing.Answer;
 
 @RunWith(MockitoJUnitRunner.class)
 public class BatchApplyObjectActionTest {
 
   private static final long DUMMY_EVENT_TIMESTAMP = 1684875939;
+  private static final Project.NameKey PROJECT = Project.nameKey("test-project");
 
   private BatchApplyObjectAction batchApplyObjectAction;
   private static final String LABEL = "instance-2-label";
   private static final String REF_NAME = "refs/heads/master";
   private static final String REF_META_NAME = "refs/meta/version";
+
   private static final String SAMPLE_COMMIT_OBJECT_ID = "9f8d52853089a3cf00c02ff7bd0817bd4353a95a";
   private static final String SAMPLE_TREE_OBJECT_ID = "4b825dc642cb6eb9a060e54bf8d69288fbee4904";
 
@@ -74,39 +96,85 @@ public class BatchApplyObjectActionTest {
           + "Submitted-with: OK: Code-Review: Gerrit User 1000000"
           + " <1000000@69ec38f0-350e-4d9c-96d4-bc956f2faaac>";
 
-  @Mock private ApplyObjectAction applyObjectAction;
+  @Mock private ApplyObjectCommand applyObjectCommand;
+  @Mock private ApplyObjectCommand.Batch batch;
+  @Mock private FetchPreconditions preConditions;
   @Mock private ProjectResource projectResource;
 
   @Before
-  public void setup() {
-    batchApplyObjectAction = new BatchApplyObjectAction(applyObjectAction);
+  public void setup() throws Exception {
+    when(projectResource.getNameKey()).thenReturn(PROJECT);
+    when(applyObjectCommand.newBatch(PROJECT)).thenReturn(batch);
+    when(preConditions.canCallFetchApi()).thenReturn(true);
+    batchApplyObjectAction =
+        new BatchApplyObjectAction(
+            new ApplyObjectAction(applyObjectCommand, preConditions), applyObjectCommand);
   }
 
   @Test
-  public void shouldDelegateToApplyObjectActionForEveryRevision() throws RestApiException {
+  public void shouldApplyAllTheRevisionsInASingleBatch() throws Exception {
     RevisionInput first =
         new RevisionInput(LABEL, REF_NAME, DUMMY_EVENT_TIMESTAMP, createSampleRevisionData());
     RevisionInput second =
         new RevisionInput(LABEL, "foo", DUMMY_EVENT_TIMESTAMP, createSampleRevisionData());
+    when(batch.commit()).thenReturn(refUpdateStates(REF_NAME, "foo"));
 
     batchApplyObjectAction.apply(projectResource, List.of(first, second));
 
-    verify(applyObjectAction).apply(projectResource, first);
-    verify(applyObjectAction).apply(projectResource, second);
+    InOrder inOrder = inOrder(applyObjectCommand, batch);
+    inOrder.verify(applyObjectCommand).newBatch(PROJECT);
+    inOrder.verify(batch).add(REF_NAME, first.getRevisionData(), LABEL, DUMMY_EVENT_TIMESTAMP);
+    inOrder.verify(batch).add("foo", second.getRevisionData(), LABEL, DUMMY_EVENT_TIMESTAMP);
+    inOrder.verify(batch).commit();
+    inOrder.verify(batch).close();
   }
 
   @Test
-  public void shouldReturnOkResponseCodeWhenAllRevisionsAreProcessedSuccessfully()
-      throws RestApiException {
+  public void shouldAddEveryRevisionToTheBatchBeforeReadingTheNextOne() throws Exception {
     RevisionInput first =
         new RevisionInput(LABEL, REF_NAME, DUMMY_EVENT_TIMESTAMP, createSampleRevisionData());
     RevisionInput second =
         new RevisionInput(LABEL, "foo", DUMMY_EVENT_TIMESTAMP, createSampleRevisionData());
+    List<String> events = new ArrayList<>();
+    Iterator<RevisionInput> revisions = List.of(first, second).iterator();
+    Iterator<RevisionInput> inputs =
+        new Iterator<>() {
+          @Override
+          public boolean hasNext() {
+            return revisions.hasNext();
+          }
+
+          @Override
+          public RevisionInput next() {
+            RevisionInput input = revisions.next();
+            events.add("read " + input.getRefName());
+            return input;
+          }
+        };
+    doAnswer(
+            invocation -> {
+              events.add("add " + invocation.getArgument(0));
+              return null;
+            })
+        .when(batch)
+        .add(anyString(), any(RevisionData.class), anyString(), anyLong());
+    when(batch.commit()).thenReturn(refUpdateStates(REF_NAME, "foo"));
+
+    batchApplyObjectAction.apply(projectResource, inputs);
+
+    assertThat(events)
+        .containsExactly("read " + REF_NAME, "add " + REF_NAME, "read foo", "add foo")
+        .inOrder();
+  }
 
-    when(applyObjectAction.apply(projectResource, first))
-        .thenAnswer((Answer<Response<?>>) invocation -> Response.created(first));
-    when(applyObjectAction.apply(projectResource, second))
-        .thenAnswer((Answer<Response<?>>) invocation -> Response.created(second));
+  @Test
+  public void shouldReturnOkResponseCodeWhenAllRevisionsAreProcessedSuccessfully()
+      throws Exception {
+    RevisionInput first =
+        new RevisionInput(LABEL, REF_NAME, DUMMY_EVENT_TIMESTAMP, createSampleRevisionData());
+    RevisionInput second =
+        new RevisionInput(LABEL, "foo", DUMMY_EVENT_TIMESTAMP, createSampleRevisionData());
+    when(batch.commit()).thenReturn(refUpdateStates(REF_NAME, "foo"));
 
     Response<?> response = batchApplyObjectAction.apply(projectResource, List.of(first, second));
 
@@ -114,90 +182,133 @@ public class BatchApplyObjectActionTest {
   }
 
   @Test
-  public void shouldReturnAListWithAllTheRevisionsInResponseBodyOnSuccess()
-      throws RestApiException {
+  public void shouldReturnTheResponseOfEveryRevisionInResponseBodyOnSuccess() throws Exception {
     RevisionInput first =
         new RevisionInput(LABEL, REF_NAME, DUMMY_EVENT_TIMESTAMP, createSampleRevisionData());
     RevisionInput second =
-        new RevisionInput(LABEL, "foo", DUMMY_EVENT_TIMESTAMP, createSampleRevisionData());
-    Response<?> firstResponse = Response.created(first);
-    Response<?> secondResponse = Response.created(second);
-
-    when(applyObjectAction.apply(projectResource, first))
-        .thenAnswer((Answer<Response<?>>) invocation -> firstResponse);
-    when(applyObjectAction.apply(projectResource, second))
-        .thenAnswer((Answer<Response<?>>) invocation -> secondResponse);
+        new RevisionInput(LABEL, REF_META_NAME, DUMMY_EVENT_TIMESTAMP, createSampleRevisionData());
+    when(batch.commit()).thenReturn(refUpdateStates(REF_NAME, REF_META_NAME));
 
     Response<?> response = batchApplyObjectAction.apply(projectResource, List.of(first, second));
 
-    assertThat((List<Response<?>>) response.value())
-        .isEqualTo(List.of(firstResponse, secondResponse));
+    assertThat(statusCodes(response)).containsExactly(SC_CREATED, SC_CREATED).inOrder();
   }
 
   @Test
-  public void shouldAcceptAMixOfCreatesAndDeletes() throws RestApiException {
-    RevisionInput delete = new RevisionInput(LABEL, REF_NAME, DUMMY_EVENT_TIMESTAMP, null);
-    RevisionInput create =
+  public void shouldReturnTheResultCodeOfEveryRefWhenARefUpdateFails() throws Exception {
+    RevisionInput good =
+        new RevisionInput(LABEL, REF_NAME, DUMMY_EVENT_TIMESTAMP, createSampleRevisionData());
+    RevisionInput locked =
         new RevisionInput(LABEL, "foo", DUMMY_EVENT_TIMESTAMP, createSampleRevisionData());
-    Response<?> deleteResponse = Response.withStatusCode(HttpServletResponse.SC_NO_CONTENT, "");
-    Response<?> createResponse = Response.created(create);
-
-    when(applyObjectAction.apply(projectResource, delete))
-        .thenAnswer((Answer<Response<?>>) invocation -> deleteResponse);
-    when(applyObjectAction.apply(projectResource, create))
-        .thenAnswer((Answer<Response<?>>) invocation -> createResponse);
-
-    Response<?> response = batchApplyObjectAction.apply(projectResource, List.of(delete, create));
-
-    assertThat((List<Response<?>>) response.value())
-        .isEqualTo(List.of(deleteResponse, createResponse));
+    when(batch.commit())
+        .thenReturn(
+            List.of(
+                new RefUpdateState(REF_NAME, RefUpdate.Result.NEW),
+                new RefUpdateState("foo", RefUpdate.Result.LOCK_FAILURE)));
+
+    Response<?> response = batchApplyObjectAction.apply(projectResource, List.of(good, locked));
+
+    assertThat(response.statusCode()).isEqualTo(RestApiServlet.SC_UNPROCESSABLE_ENTITY);
+    assertThat(statusCodes(response))
+        .containsExactly(SC_CREATED, RestApiServlet.SC_UNPROCESSABLE_ENTITY)
+        .inOrder();
   }
 
   @Test
-  public void shouldReturnOneOkCodeEvenIfInputContainsBothCreatesAndDeletes()
-      throws RestApiException {
-    RevisionInput create =
+  public void shouldReturnPreconditionFailedWhenTheLatestPatchSetOfAMetaRefIsMissing()
+      throws Exception {
+    String metaRef = "refs/changes/01/1/meta";
+    RevisionInput good =
         new RevisionInput(LABEL, REF_NAME, DUMMY_EVENT_TIMESTAMP, createSampleRevisionData());
-    RevisionInput delete = new RevisionInput(LABEL, REF_META_NAME, DUMMY_EVENT_TIMESTAMP + 1, null);
-
-    List<RevisionInput> inputs = List.of(create, delete);
-
-    Response<?> response = batchApplyObjectAction.apply(projectResource, inputs);
-
-    assertThat(response.statusCode()).isEqualTo(SC_OK);
+    RevisionInput meta =
+        new RevisionInput(LABEL, metaRef, DUMMY_EVENT_TIMESTAMP, createSampleRevisionData());
+    RefUpdateState metaState = new RefUpdateState(metaRef, RefUpdate.Result.REJECTED_OTHER_REASON);
+    when(batch.commit())
+        .thenReturn(List.of(new RefUpdateState(REF_NAME, RefUpdate.Result.NEW), metaState));
+    when(batch.getMissingLatestPatchSet(metaState))
+        .thenReturn(
+            Optional.of(
+                new MissingLatestPatchSetException(
+                    PROJECT, metaRef, "Unable to find latest patch-set ref refs/changes/01/1/1")));
+
+    Response<?> response = batchApplyObjectAction.apply(projectResource, List.of(good, meta));
+
+    assertThat(response.statusCode()).isEqualTo(RestApiServlet.SC_UNPROCESSABLE_ENTITY);
+    assertThat(statusCodes(response))
+        .containsExactly(SC_CREATED, HttpServletResponse.SC_PRECONDITION_FAILED)
+        .inOrder();
   }
 
-  @Test(expected = RestApiException.class)
-  public void shouldThrowARestApiExceptionIfProcessingFailsForAnyOfTheRevisions()
-      throws RestApiException {
+  @Test
+  public void shouldThrowARestApiExceptionIfProcessingFailsForAnyOfTheRevisions() throws Exception {
     RevisionInput good =
         new RevisionInput(LABEL, REF_NAME, DUMMY_EVENT_TIMESTAMP, createSampleRevisionData());
     RevisionInput bad =
         new RevisionInput(LABEL, "bad", DUMMY_EVENT_TIMESTAMP, createSampleRevisionData());
+    doThrow(new MissingParentObjectException(PROJECT, "bad", ObjectId.zeroId()))
+        .when(batch)
+        .add(eq("bad"), any(RevisionData.class), anyString(), anyLong());
+    when(batch.commit()).thenReturn(refUpdateStates(REF_NAME));
+
+    assertThrows(
+        ResourceConflictException.class,
+        () -> batchApplyObjectAction.apply(projectResource, List.of(good, bad)));
+  }
 
-    when(applyObjectAction.apply(projectResource, good))
-        .thenAnswer((Answer<Response<?>>) invocation -> Response.created(good));
-    when(applyObjectAction.apply(projectResource, bad))
-        .thenThrow(new MergeConflictException("BOOM"));
-
-    batchApplyObjectAction.apply(projectResource, List.of(good, bad));
+  @Test
+  public void shouldUpdateTheRefsOfTheRevisionsBeforeAFailure() throws Exception {
+    RevisionInput good =
+        new RevisionInput(LABEL, REF_NAME, DUMMY_EVENT_TIMESTAMP, createSampleRevisionData());
+    RevisionInput bad = new RevisionInput(LABEL, "bad", DUMMY_EVENT_TIMESTAMP, null);
+    when(batch.commit()).thenReturn(refUpdateStates(REF_NAME));
+    List<String> refResults = new ArrayList<>();
+
+    assertThrows(
+        BadRequestException.class,
+        () ->
+            batchApplyObjectAction.apply(
+                projectResource,
+                List.of(good, bad).iterator(),
+                (refName, response) -> refResults.add(refName + ":" + response.statusCode())));
+
+    verify(batch).commit();
+    assertThat(refResults)
+        .containsExactly(REF_NAME + ":" + SC_CREATED, "bad:" + HttpServletResponse.SC_BAD_REQUEST)
+        .inOrder();
   }
 
   @Test
-  public void shouldStopProcessingWhenAFailureOccurs() throws RestApiException {
+  public void shouldStopProcessingWhenAFailureOccurs() throws Exception {
     RevisionInput good =
         new RevisionInput(LABEL, REF_NAME, DUMMY_EVENT_TIMESTAMP, createSampleRevisionData());
     RevisionInput bad =
         new RevisionInput(LABEL, "bad", DUMMY_EVENT_TIMESTAMP, createSampleRevisionData());
+    doThrow(new MissingParentObjectException(PROJECT, "bad", ObjectId.zeroId()))
+        .when(batch)
+        .add(eq("bad"), any(RevisionData.class), anyString(), anyLong());
+
+    assertThrows(
+        RestApiException.class,
+        () -> batchApplyObjectAction.apply(projectResource, List.of(bad, good)));
 
-    when(applyObjectAction.apply(projectResource, bad))
-        .thenThrow(new MergeConflictException("BOOM"));
+    verify(batch, never()).add(eq(REF_NAME), any(RevisionData.class), anyString(), anyLong());
+  }
+
+  private static List<RefUpdateState> refUpdateStates(String... refNames) {
+    List<RefUpdateState> states = new ArrayList<>();
+    for (String refName : refNames) {
+      states.add(new RefUpdateState(refName, RefUpdate.Result.NEW));
+    }
+    return states;
+  }
 
-    try {
-      batchApplyObjectAction.apply(projectResource, List.of(bad, good));
-    } catch (MergeConflictException e) {
-      verify(applyObjectAction, never()).apply(projectResource, good);
+  @SuppressWarnings("unchecked")
+  private static List<Integer> statusCodes(Response<?> response) {
+    List<Integer> statusCodes = new ArrayList<>();
+    for (Response<?> refResponse : (List<Response<?>>) response.value()) {
+      statusCodes.add(refResponse.statusCode());
     }
+    return statusCodes;
   }
 
   private RevisionData createSampleRevisionData() {
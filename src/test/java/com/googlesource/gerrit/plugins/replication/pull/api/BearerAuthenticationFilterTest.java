@@ -104,6 +104,27 @@ public class BearerAuthenticationFilterTest {
     authenticateAndFilter("any-prefix/pull-replication~batch-apply-object", NO_QUERY_PARAMETERS);
   }
 
+  @Test
+  public void shouldAuthenticateWhenMultiProjectBatchApplyObject() throws Exception {
+    authenticateAndFilter(
+        "any-prefix/pull-replication/multi-project-batch-apply-object", NO_QUERY_PARAMETERS);
+  }
+
+  @Test
+  public void shouldAuthenticateWhenMissingObjects() throws Exception {
+    authenticateAndFilter("any-prefix/pull-replication~missing-objects", NO_QUERY_PARAMETERS);
+  }
+
+  @Test
+  public void shouldAuthenticateWhenConditionalApply() throws Exception {
+    authenticateAndFilter("any-prefix/pull-replication~conditional-apply", NO_QUERY_PARAMETERS);
+  }
+
+  @Test
+  public void shouldAuthenticateWhenApplyPack() throws Exception {
+    authenticateAndFilter("any-prefix/pull-replication~apply-pack", NO_QUERY_PARAMETERS);
+  }
+
   @Test
   public void shouldAuthenticateWhenDeleteProject() throws Exception {
     authenticateAndFilter("any-prefix/pull-replication~delete-project", NO_QUERY_PARAMETERS);
@@ -0,0 +1,119 @@
+// Copyright (C) 2025 The Android Open Source Project
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+// http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.googlesource.gerrit.plugins.replication.pull.api;
+
+import static com.google.common.truth.Truth.assertThat;
+import static org.apache.http.HttpStatus.SC_OK;
+import static org.mockito.ArgumentMatchers.anyLong;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.when;
+
+import com.google.gerrit.entities.Project;
+import com.google.gerrit.extensions.restapi.AuthException;
+import com.google.gerrit.extensions.restapi.BadRequestException;
+import com.google.gerrit.extensions.restapi.Response;
+import com.google.gerrit.server.project.ProjectResource;
+import com.googlesource.gerrit.plugins.replication.pull.api.data.ApplyPackInput.RefUpdateInput;
+import com.googlesource.gerrit.plugins.replication.pull.api.data.ConditionalApplyInput;
+import com.googlesource.gerrit.plugins.replication.pull.api.data.ConditionalApplyResult;
+import java.util.List;
+import java.util.Map;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.mockito.Mock;
+import org.mockito.junit.MockitoJUnitRunner;
+
+@RunWith(MockitoJUnitRunner.class)
+public class ConditionalApplyActionTest {
+  private static final String LABEL = "instance-2-label";
+  private static final String REF_NAME = "refs/heads/master";
+  private static final String OTHER_REF_NAME = "refs/heads/stable";
+  private static final String OBJECT_ID = "9f8d52853089a3cf00c02ff7bd0817bd4353a95a";
+  private static final long EVENT_CREATED_ON = 1L;
+
+  private final Project.NameKey project = Project.nameKey("test-project");
+
+  private ConditionalApplyAction conditionalApplyAction;
+
+  @Mock ApplyObjectCommand applyObjectCommand;
+  @Mock ProjectResource projectResource;
+  @Mock FetchPreconditions preConditions;
+
+  @Before
+  public void setup() throws Exception {
+    when(preConditions.canCallFetchApi()).thenReturn(true);
+    when(projectResource.getNameKey()).thenReturn(project);
+
+    conditionalApplyAction = new ConditionalApplyAction(applyObjectCommand, preConditions);
+  }
+
+  @SuppressWarnings("unchecked")
+  @Test
+  public void shouldReturnTheResultOfEveryRef() throws Exception {
+    List<RefUpdateInput> refs =
+        List.of(
+            new RefUpdateInput(REF_NAME, OBJECT_ID, null),
+            new RefUpdateInput(OTHER_REF_NAME, OBJECT_ID, null));
+    Map<String, ConditionalApplyResult> results =
+        Map.of(
+            REF_NAME,
+            ConditionalApplyResult.UPDATED,
+            OTHER_REF_NAME,
+            ConditionalApplyResult.NOT_APPLIED);
+    when(applyObjectCommand.applyIfPresent(eq(project), eq(refs), eq(LABEL), anyLong()))
+        .thenReturn(results);
+
+    Response<?> response =
+        conditionalApplyAction.apply(
+            projectResource, new ConditionalApplyInput(LABEL, EVENT_CREATED_ON, refs));
+
+    assertThat(response.statusCode()).isEqualTo(SC_OK);
+    assertThat((Map<String, ConditionalApplyResult>) response.value())
+        .containsExactlyEntriesIn(results);
+  }
+
+  @Test(expected = BadRequestException.class)
+  public void shouldThrowBadRequestExceptionWhenMissingLabel() throws Exception {
+    conditionalApplyAction.apply(
+        projectResource,
+        new ConditionalApplyInput(
+            null, EVENT_CREATED_ON, List.of(new RefUpdateInput(REF_NAME, OBJECT_ID, null))));
+  }
+
+  @Test(expected = BadRequestException.class)
+  public void shouldThrowBadRequestExceptionWhenMissingRefs() throws Exception {
+    conditionalApplyAction.apply(
+        projectResource, new ConditionalApplyInput(LABEL, EVENT_CREATED_ON, List.of()));
+  }
+
+  @Test(expected = BadRequestException.class)
+  public void shouldThrowBadRequestExceptionWhenInvalidObjectId() throws Exception {
+    conditionalApplyAction.apply(
+        projectResource,
+        new ConditionalApplyInput(
+            LABEL, EVENT_CREATED_ON, List.of(new RefUpdateInput(REF_NAME, "not-a-sha1", null))));
+  }
+
+  @Test(expected = AuthException.class)
+  public void shouldThrowAuthExceptionWhenCallFetchActionCapabilityNotAssigned() throws Exception {
+    when(preConditions.canCallFetchApi()).thenReturn(false);
+
+    conditionalApplyAction.apply(
+        projectResource,
+        new ConditionalApplyInput(
+            LABEL, EVENT_CREATED_ON, List.of(new RefUpdateInput(REF_NAME, OBJECT_ID, null))));
+  }
+}
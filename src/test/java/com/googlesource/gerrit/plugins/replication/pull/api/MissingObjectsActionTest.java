@@ -0,0 +1,100 @@
+// Copyright (C) 2025 The Android Open Source Project
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+// http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.googlesource.gerrit.plugins.replication.pull.api;
+
+import static com.google.common.truth.Truth.assertThat;
+import static org.apache.http.HttpStatus.SC_OK;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.when;
+
+import com.google.gerrit.entities.Project;
+import com.google.gerrit.extensions.restapi.AuthException;
+import com.google.gerrit.extensions.restapi.BadRequestException;
+import com.google.gerrit.extensions.restapi.Response;
+import com.google.gerrit.server.project.ProjectResource;
+import com.googlesource.gerrit.plugins.replication.pull.api.data.MissingObjectsInput;
+import com.googlesource.gerrit.plugins.replication.pull.fetch.ApplyObject;
+import java.util.List;
+import org.eclipse.jgit.lib.ObjectId;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.mockito.Mock;
+import org.mockito.junit.MockitoJUnitRunner;
+
+@RunWith(MockitoJUnitRunner.class)
+public class MissingObjectsActionTest {
+  private static final String LABEL = "instance-2-label";
+  private static final String REF_NAME = "refs/changes/01/1/meta";
+  private static final String PRESENT_OBJECT_ID = "9f8d52853089a3cf00c02ff7bd0817bd4353a95a";
+  private static final String MISSING_OBJECT_ID = "b5d7bcf1d1c5b0f0726d10a16c8315f06f900bfb";
+
+  private final Project.NameKey project = Project.nameKey("test-project");
+
+  private MissingObjectsAction missingObjectsAction;
+
+  @Mock ApplyObject applyObject;
+  @Mock ProjectResource projectResource;
+  @Mock FetchPreconditions preConditions;
+
+  @Before
+  public void setup() throws Exception {
+    when(preConditions.canCallFetchApi()).thenReturn(true);
+    when(projectResource.getNameKey()).thenReturn(project);
+
+    missingObjectsAction = new MissingObjectsAction(applyObject, preConditions);
+  }
+
+  @SuppressWarnings("unchecked")
+  @Test
+  public void shouldReturnOnlyTheMissingObjects() throws Exception {
+    when(applyObject.missingObjects(any(), any()))
+        .thenReturn(List.of(ObjectId.fromString(MISSING_OBJECT_ID)));
+
+    Response<?> response =
+        missingObjectsAction.apply(
+            projectResource,
+            new MissingObjectsInput(
+                LABEL, REF_NAME, List.of(PRESENT_OBJECT_ID, MISSING_OBJECT_ID)));
+
+    assertThat(response.statusCode()).isEqualTo(SC_OK);
+    assertThat((List<String>) response.value()).containsExactly(MISSING_OBJECT_ID);
+  }
+
+  @Test(expected = BadRequestException.class)
+  public void shouldThrowBadRequestExceptionWhenMissingLabel() throws Exception {
+    missingObjectsAction.apply(
+        projectResource, new MissingObjectsInput(null, REF_NAME, List.of(PRESENT_OBJECT_ID)));
+  }
+
+  @Test(expected = BadRequestException.class)
+  public void shouldThrowBadRequestExceptionWhenMissingObjectIds() throws Exception {
+    missingObjectsAction.apply(projectResource, new MissingObjectsInput(LABEL, REF_NAME, null));
+  }
+
+  @Test(expected = BadRequestException.class)
+  public void shouldThrowBadRequestExceptionWhenInvalidObjectId() throws Exception {
+    missingObjectsAction.apply(
+        projectResource, new MissingObjectsInput(LABEL, REF_NAME, List.of("not-a-sha1")));
+  }
+
+  @Test(expected = AuthException.class)
+  public void shouldThrowAuthExceptionWhenCallFetchActionCapabilityNotAssigned() throws Exception {
+    when(preConditions.canCallFetchApi()).thenReturn(false);
+
+    missingObjectsAction.apply(
+        projectResource, new MissingObjectsInput(LABEL, REF_NAME, List.of(PRESENT_OBJECT_ID)));
+  }
+}
@@ -0,0 +1,199 @@
+// Copyright (C) 2025 The Android Open Source Project
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+// http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.googlesource.gerrit.plugins.replication.pull.api;
+
+import static com.google.common.truth.Truth.assertThat;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.when;
+
+import com.google.gerrit.entities.Project;
+import com.google.gerrit.extensions.restapi.ResourceConflictException;
+import com.google.gerrit.extensions.restapi.Response;
+import com.google.gerrit.httpd.restapi.RestApiServlet;
+import com.google.gerrit.server.CurrentUser;
+import com.google.gerrit.server.project.ProjectCache;
+import com.google.gerrit.server.project.ProjectResource;
+import com.google.gerrit.server.project.ProjectState;
+import com.google.inject.util.Providers;
+import com.googlesource.gerrit.plugins.replication.pull.api.data.ProjectBatchInput;
+import com.googlesource.gerrit.plugins.replication.pull.api.data.ProjectBatchResult;
+import com.googlesource.gerrit.plugins.replication.pull.api.data.RevisionInput;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.function.BiConsumer;
+import java.util.stream.Collectors;
+import javax.servlet.http.HttpServletResponse;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.mockito.Mock;
+import org.mockito.junit.MockitoJUnitRunner;
+
+@RunWith(MockitoJUnitRunner.class)
+public class MultiProjectBatchApplyObjectActionTest {
+  private static final String LABEL = "instance-2-label";
+  private static final long EVENT_CREATED_ON = 1684875939;
+
+  @Mock private BatchApplyObjectAction batchApplyObjectAction;
+  @Mock private ProjectCache projectCache;
+  @Mock private ProjectState projectState;
+  @Mock private CurrentUser currentUser;
+
+  private MultiProjectBatchApplyObjectAction objectUnderTest;
+
+  @Before
+  public void setup() {
+    objectUnderTest =
+        new MultiProjectBatchApplyObjectAction(
+            batchApplyObjectAction, projectCache, Providers.of(currentUser));
+  }
+
+  @Test
+  public void shouldApplyTheRefsOfEveryProject() throws Exception {
+    when(projectCache.get(any(Project.NameKey.class))).thenReturn(Optional.of(projectState));
+    applyAllRefs();
+
+    Map<String, ProjectBatchResult> results =
+        objectUnderTest
+            .apply(
+                List.of(
+                        projectBatch("project-a", "refs/heads/master", "refs/heads/foo"),
+                        projectBatch("project-b", "refs/heads/master"))
+                    .iterator())
+            .value();
+
+    assertThat(results.keySet()).containsExactly("project-a", "project-b").inOrder();
+    assertThat(results.get("project-a").getStatusCode()).isEqualTo(HttpServletResponse.SC_OK);
+    assertThat(results.get("project-a").getRefs())
+        .containsExactly(
+            "refs/heads/master", HttpServletResponse.SC_CREATED,
+            "refs/heads/foo", HttpServletResponse.SC_CREATED);
+    assertThat(results.get("project-b").getRefs())
+        .containsExactly("refs/heads/master", HttpServletResponse.SC_CREATED);
+  }
+
+  @Test
+  public void shouldReportTheMissingProjectsAndApplyTheOthers() throws Exception {
+    when(projectCache.get(Project.nameKey("missing"))).thenReturn(Optional.empty());
+    when(projectCache.get(Project.nameKey("project-b"))).thenReturn(Optional.of(projectState));
+    applyAllRefs();
+
+    Map<String, ProjectBatchResult> results =
+        objectUnderTest
+            .apply(
+                List.of(
+                        projectBatch("missing", "refs/heads/master"),
+                        projectBatch("project-b", "refs/heads/master"))
+                    .iterator())
+            .value();
+
+    assertThat(results.get("missing").getStatusCode()).isEqualTo(HttpServletResponse.SC_NOT_FOUND);
+    assertThat(results.get("missing").getMessage()).isEqualTo("Not found: missing");
+    assertThat(results.get("project-b").getStatusCode()).isEqualTo(HttpServletResponse.SC_OK);
+  }
+
+  @Test
+  public void shouldStopTheRefsOfAProjectAtTheFirstFailure() throws Exception {
+    when(projectCache.get(any(Project.NameKey.class))).thenReturn(Optional.of(projectState));
+    ProjectBatchInput projectA = projectBatch("project-a", "refs/heads/master", "refs/heads/foo");
+    ProjectBatchInput projectB = projectBatch("project-b", "refs/heads/master");
+    RevisionInput failingInput = projectA.getRevisionInputs().get(0);
+    doAnswer(
+            invocation -> {
+              Iterator<RevisionInput> inputs = invocation.getArgument(1);
+              BiConsumer<String, Response<?>> onRefResult = invocation.getArgument(2);
+              while (inputs.hasNext()) {
+                RevisionInput input = inputs.next();
+                if (input == failingInput) {
+                  onRefResult.accept(
+                      input.getRefName(),
+                      Response.withStatusCode(HttpServletResponse.SC_CONFLICT, "parent missing"));
+                  throw new ResourceConflictException("parent missing");
+                }
+                onRefResult.accept(input.getRefName(), Response.created());
+              }
+              return null;
+            })
+        .when(batchApplyObjectAction)
+        .apply(any(ProjectResource.class), any(), any());
+
+    Map<String, ProjectBatchResult> results =
+        objectUnderTest.apply(List.of(projectA, projectB).iterator()).value();
+
+    assertThat(results.get("project-a").getStatusCode()).isEqualTo(HttpServletResponse.SC_CONFLICT);
+    assertThat(results.get("project-a").getMessage()).isEqualTo("parent missing");
+    assertThat(results.get("project-a").getRefs())
+        .containsExactly("refs/heads/master", HttpServletResponse.SC_CONFLICT);
+    assertThat(results.get("project-b").getStatusCode()).isEqualTo(HttpServletResponse.SC_OK);
+  }
+
+  @Test
+  public void shouldReportTheFailedRefUpdatesOfAProject() throws Exception {
+    when(projectCache.get(any(Project.NameKey.class))).thenReturn(Optional.of(projectState));
+    doAnswer(
+            invocation -> {
+              BiConsumer<String, Response<?>> onRefResult = invocation.getArgument(2);
+              onRefResult.accept("refs/heads/master", Response.created());
+              onRefResult.accept(
+                  "refs/heads/foo",
+                  Response.withStatusCode(
+                      RestApiServlet.SC_UNPROCESSABLE_ENTITY,
+                      "RefUpdate failed with LOCK_FAILURE"));
+              return null;
+            })
+        .when(batchApplyObjectAction)
+        .apply(any(ProjectResource.class), any(), any());
+
+    Map<String, ProjectBatchResult> results =
+        objectUnderTest
+            .apply(
+                List.of(projectBatch("project-a", "refs/heads/master", "refs/heads/foo"))
+                    .iterator())
+            .value();
+
+    assertThat(results.get("project-a").getStatusCode())
+        .isEqualTo(RestApiServlet.SC_UNPROCESSABLE_ENTITY);
+    assertThat(results.get("project-a").getMessage())
+        .isEqualTo("RefUpdate failed with LOCK_FAILURE");
+    assertThat(results.get("project-a").getRefs())
+        .containsExactly(
+            "refs/heads/master", HttpServletResponse.SC_CREATED,
+            "refs/heads/foo", RestApiServlet.SC_UNPROCESSABLE_ENTITY);
+  }
+
+  private void applyAllRefs() throws Exception {
+    doAnswer(
+            invocation -> {
+              Iterator<RevisionInput> inputs = invocation.getArgument(1);
+              BiConsumer<String, Response<?>> onRefResult = invocation.getArgument(2);
+              inputs.forEachRemaining(
+                  input -> onRefResult.accept(input.getRefName(), Response.created()));
+              return null;
+            })
+        .when(batchApplyObjectAction)
+        .apply(any(ProjectResource.class), any(), any());
+  }
+
+  private static ProjectBatchInput projectBatch(String project, String... refNames) {
+    return new ProjectBatchInput(
+        project,
+        List.of(refNames).stream()
+            .map(refName -> new RevisionInput(LABEL, refName, EVENT_CREATED_ON, null))
+            .collect(Collectors.toList()));
+  }
+}
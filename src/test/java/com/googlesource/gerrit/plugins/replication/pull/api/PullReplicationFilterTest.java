@@ -1,14 +1,19 @@
 package com.googlesource.gerrit.plugins.replication.pull.api;
 
 import static com.google.common.net.HttpHeaders.ACCEPT;
+import static com.google.common.truth.Truth.assertThat;
 import static com.google.gerrit.httpd.restapi.RestApiServlet.SC_UNPROCESSABLE_ENTITY;
 import static javax.servlet.http.HttpServletResponse.SC_CONFLICT;
 import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyLong;
+import static org.mockito.ArgumentMatchers.eq;
 import static org.mockito.Mockito.lenient;
 import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.verifyNoInteractions;
 import static org.mockito.Mockito.when;
 import static org.mockito.internal.verification.VerificationModeFactory.atLeastOnce;
 
+import com.google.common.net.HttpHeaders;
 import com.google.common.net.MediaType;
 import com.google.gerrit.entities.Project;
 import com.google.gerrit.extensions.restapi.AuthException;
@@ -23,19 +28,35 @@ import com.google.gerrit.server.project.ProjectCache;
 import com.google.gerrit.server.project.ProjectResource;
 import com.google.gerrit.server.project.ProjectState;
 import com.google.inject.util.Providers;
+import com.googlesource.gerrit.plugins.replication.api.ReplicationConfig;
+import com.googlesource.gerrit.plugins.replication.pull.api.data.ApplyPackInput;
+import com.googlesource.gerrit.plugins.replication.pull.api.data.ProjectBatchInput;
+import com.googlesource.gerrit.plugins.replication.pull.api.data.RevisionData;
+import com.googlesource.gerrit.plugins.replication.pull.api.data.RevisionInput;
+import com.googlesource.gerrit.plugins.replication.pull.api.util.JsonArrayReader;
 import java.io.BufferedReader;
 import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
 import java.io.InputStream;
 import java.io.InputStreamReader;
 import java.io.PrintWriter;
 import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.List;
 import java.util.Optional;
+import java.util.zip.GZIPOutputStream;
 import javax.servlet.FilterChain;
+import javax.servlet.ReadListener;
+import javax.servlet.ServletInputStream;
 import javax.servlet.ServletOutputStream;
 import javax.servlet.http.HttpServletRequest;
 import javax.servlet.http.HttpServletResponse;
+import org.eclipse.jgit.lib.Config;
 import org.junit.Test;
 import org.junit.runner.RunWith;
+import org.mockito.ArgumentCaptor;
 import org.mockito.Mock;
 import org.mockito.junit.MockitoJUnitRunner;
 
@@ -50,6 +71,10 @@ public class PullReplicationFilterTest {
   @Mock private ApplyObjectAction applyObjectAction;
   @Mock private ApplyObjectsAction applyObjectsAction;
   @Mock private BatchApplyObjectAction batchApplyObjectAction;
+  @Mock private MultiProjectBatchApplyObjectAction multiProjectBatchApplyObjectAction;
+  @Mock private MissingObjectsAction missingObjectsAction;
+  @Mock private ConditionalApplyAction conditionalApplyAction;
+  @Mock private ApplyPackAction applyPackAction;
   @Mock private ProjectInitializationAction projectInitializationAction;
   @Mock private UpdateHeadAction updateHEADAction;
   @Mock private ProjectDeletionAction projectDeletionAction;
@@ -59,6 +84,8 @@ public class PullReplicationFilterTest {
   @Mock private PrintWriter printWriter;
   @Mock private IdentifiedUser identifiedUserMock;
   @Mock private AnonymousUser anonymousUserMock;
+  @Mock private ReplicationConfig replicationConfig;
+  private final Config config = new Config();
   private final String PLUGIN_NAME = "pull-replication";
   private final String PROJECT_NAME = "some-project";
   private final String PROJECT_NAME_GIT = "some-project.git";
@@ -70,11 +97,19 @@ public class PullReplicationFilterTest {
       String.format("any-prefix/projects/%s/%s~apply-object", PROJECT_NAME, PLUGIN_NAME);
   private final String APPLY_OBJECTS_URI =
       String.format("any-prefix/projects/%s/%s~apply-objects", PROJECT_NAME, PLUGIN_NAME);
+  private final String MISSING_OBJECTS_URI =
+      String.format("any-prefix/projects/%s/%s~missing-objects", PROJECT_NAME, PLUGIN_NAME);
+  private final String CONDITIONAL_APPLY_URI =
+      String.format("any-prefix/projects/%s/%s~conditional-apply", PROJECT_NAME, PLUGIN_NAME);
+  private final String APPLY_PACK_URI =
+      String.format("any-prefix/projects/%s/%s~apply-pack", PROJECT_NAME, PLUGIN_NAME);
   private final String HEAD_URI =
       String.format("any-prefix/projects/%s/%s~HEAD", PROJECT_NAME, PLUGIN_NAME);
 
   private final String BATCH_APPLY_OBJECT_URI =
       String.format("any-prefix/projects/%s/%s~batch-apply-object", PROJECT_NAME, PLUGIN_NAME);
+  private final String MULTI_PROJECT_BATCH_APPLY_OBJECT_URI =
+      String.format("any-prefix/%s/multi-project-batch-apply-object", PLUGIN_NAME);
   private final String DELETE_PROJECT_URI =
       String.format("any-prefix/projects/%s/%s~delete-project", PROJECT_NAME, PLUGIN_NAME);
   private final String INIT_PROJECT_URI =
@@ -87,18 +122,46 @@ public class PullReplicationFilterTest {
   }
 
   private PullReplicationFilter createPullReplicationFilter(CurrentUser currentUser) {
+    lenient().when(replicationConfig.getConfig()).thenReturn(config);
     return new PullReplicationFilter(
         fetchAction,
         batchFetchAction,
         applyObjectAction,
         applyObjectsAction,
         batchApplyObjectAction,
+        multiProjectBatchApplyObjectAction,
+        missingObjectsAction,
+        conditionalApplyAction,
+        applyPackAction,
         projectInitializationAction,
         updateHEADAction,
         projectDeletionAction,
         projectCache,
         PLUGIN_NAME,
-        Providers.of(currentUser));
+        Providers.of(currentUser),
+        replicationConfig);
+  }
+
+  private static ServletInputStream servletInputStream(ByteArrayInputStream is) {
+    return new ServletInputStream() {
+      @Override
+      public int read() {
+        return is.read();
+      }
+
+      @Override
+      public boolean isFinished() {
+        return is.available() == 0;
+      }
+
+      @Override
+      public boolean isReady() {
+        return true;
+      }
+
+      @Override
+      public void setReadListener(ReadListener readListener) {}
+    };
   }
 
   private void defineBehaviours(byte[] payload, String uri) throws Exception {
@@ -164,8 +227,8 @@ public class PullReplicationFilterTest {
     byte[] payloadApplyObject =
         ("{\"label\":\"Replication\",\"ref_name\":\"refs/heads/master\","
                 + "\"revision_data\":{"
-                + "\"commit_object\":{\"type\":1,\"content\":\"some-content\"},"
-                + "\"tree_object\":{\"type\":2,\"content\":\"some-content\"},"
+                + "\"commit_object\":{\"type\":1,\"content\":\"c29tZS1jb250ZW50\"},"
+                + "\"tree_object\":{\"type\":2,\"content\":\"c29tZS1jb250ZW50\"},"
                 + "\"blobs\":[]}"
                 + "}")
             .getBytes(StandardCharsets.UTF_8);
@@ -181,26 +244,176 @@ public class PullReplicationFilterTest {
     verify(applyObjectAction).apply(any(ProjectResource.class), any());
   }
 
+  @Test
+  public void shouldFilterGzipCompressedApplyObjectAction() throws Exception {
+    byte[] payloadApplyObject =
+        ("{\"label\":\"Replication\",\"ref_name\":\"refs/heads/master\","
+                + "\"revision_data\":{"
+                + "\"commit_object\":{\"type\":1,\"content\":\"c29tZS1jb250ZW50\"},"
+                + "\"tree_object\":{\"type\":2,\"content\":\"c29tZS1jb250ZW50\"},"
+                + "\"blobs\":[]}"
+                + "}")
+            .getBytes(StandardCharsets.UTF_8);
+    ByteArrayOutputStream compressed = new ByteArrayOutputStream();
+    try (GZIPOutputStream gzip = new GZIPOutputStream(compressed)) {
+      gzip.write(payloadApplyObject);
+    }
+    when(request.getRequestURI()).thenReturn(APPLY_OBJECT_URI);
+    when(request.getHeader(HttpHeaders.CONTENT_ENCODING)).thenReturn("gzip");
+    when(request.getInputStream())
+        .thenReturn(servletInputStream(new ByteArrayInputStream(compressed.toByteArray())));
+    when(projectCache.get(Project.nameKey(PROJECT_NAME))).thenReturn(Optional.of(projectState));
+    when(response.getWriter()).thenReturn(printWriter);
+    when(applyObjectAction.apply(any(), any())).thenReturn(OK_RESPONSE);
+
+    PullReplicationFilter pullReplicationFilter = createPullReplicationFilter();
+    pullReplicationFilter.doFilter(request, response, filterChain);
+
+    ArgumentCaptor<RevisionInput> inputCaptor = ArgumentCaptor.forClass(RevisionInput.class);
+    verify(applyObjectAction).apply(any(ProjectResource.class), inputCaptor.capture());
+    assertThat(inputCaptor.getValue().getRefName()).isEqualTo("refs/heads/master");
+    verify(response).setHeader(HttpHeaders.ACCEPT_ENCODING, "gzip");
+    verify(response).setStatus(HttpServletResponse.SC_OK);
+  }
+
+  @Test
+  public void shouldFilterMissingObjectsAction() throws Exception {
+
+    byte[] payloadMissingObjects =
+        ("{\"label\":\"Replication\",\"ref_name\":\"refs/heads/master\","
+                + "\"object_ids\":[\"9f8d52853089a3cf00c02ff7bd0817bd4353a95a\"]}")
+            .getBytes(StandardCharsets.UTF_8);
+
+    defineBehaviours(payloadMissingObjects, MISSING_OBJECTS_URI);
+
+    when(missingObjectsAction.apply(any(), any())).thenReturn(OK_RESPONSE);
+
+    PullReplicationFilter pullReplicationFilter = createPullReplicationFilter();
+    pullReplicationFilter.doFilter(request, response, filterChain);
+
+    verifyBehaviours();
+    verify(missingObjectsAction).apply(any(ProjectResource.class), any());
+  }
+
+  @Test
+  public void shouldFilterConditionalApplyAction() throws Exception {
+
+    byte[] payloadConditionalApply =
+        ("{\"label\":\"Replication\",\"event_created_on\":1,\"refs\":[{"
+                + "\"ref_name\":\"refs/heads/master\","
+                + "\"object_id\":\"9f8d52853089a3cf00c02ff7bd0817bd4353a95a\"}]}")
+            .getBytes(StandardCharsets.UTF_8);
+
+    defineBehaviours(payloadConditionalApply, CONDITIONAL_APPLY_URI);
+
+    when(conditionalApplyAction.apply(any(), any())).thenReturn(OK_RESPONSE);
+
+    PullReplicationFilter pullReplicationFilter = createPullReplicationFilter();
+    pullReplicationFilter.doFilter(request, response, filterChain);
+
+    verifyBehaviours();
+    verify(conditionalApplyAction).apply(any(ProjectResource.class), any());
+  }
+
   @Test
   public void shouldFilterApplyObjectsAction() throws Exception {
 
     byte[] payloadApplyObjects =
         ("{\"label\":\"Replication\",\"ref_name\":\"refs/heads/master\","
                 + "\"revisions_data\":[{"
-                + "\"commit_object\":{\"type\":1,\"content\":\"some-content\"},"
-                + "\"tree_object\":{\"type\":2,\"content\":\"some-content\"},"
+                + "\"commit_object\":{\"type\":1,\"content\":\"c29tZS1jb250ZW50\"},"
+                + "\"tree_object\":{\"type\":2,\"content\":\"c29tZS1jb250ZW50\"},"
                 + "\"blobs\":[]}]}")
             .getBytes(StandardCharsets.UTF_8);
 
     defineBehaviours(payloadApplyObjects, APPLY_OBJECTS_URI);
 
-    when(applyObjectsAction.apply(any(), any())).thenReturn(OK_RESPONSE);
+    when(applyObjectsAction.apply(any(), any(), any(), anyLong(), any()))
+        .thenReturn(OK_RESPONSE);
 
     PullReplicationFilter pullReplicationFilter = createPullReplicationFilter();
     pullReplicationFilter.doFilter(request, response, filterChain);
 
     verifyBehaviours();
-    verify(applyObjectsAction).apply(any(ProjectResource.class), any());
+    verify(applyObjectsAction)
+        .apply(
+            any(ProjectResource.class),
+            eq("Replication"),
+            eq("refs/heads/master"),
+            eq(0L),
+            any(Iterator.class));
+  }
+
+  @Test
+  public void shouldStreamTheRevisionsOfTheApplyObjectsAction() throws Exception {
+    byte[] payloadApplyObjects =
+        ("{\"label\":\"Replication\",\"ref_name\":\"refs/heads/master\","
+                + "\"event_created_on\":1,"
+                + "\"revisions_data\":[{"
+                + "\"commit_object\":{\"type\":1,\"content\":\"Zmlyc3Q=\"},"
+                + "\"tree_object\":{\"type\":2,\"content\":\"c29tZS1jb250ZW50\"},"
+                + "\"blobs\":[]},{"
+                + "\"commit_object\":{\"type\":1,\"content\":\"c2Vjb25k\"},"
+                + "\"tree_object\":{\"type\":2,\"content\":\"c29tZS1jb250ZW50\"},"
+                + "\"blobs\":[]}]}")
+            .getBytes(StandardCharsets.UTF_8);
+
+    defineBehaviours(payloadApplyObjects, APPLY_OBJECTS_URI);
+
+    List<String> appliedCommits = new ArrayList<>();
+    when(applyObjectsAction.apply(
+            any(ProjectResource.class),
+            eq("Replication"),
+            eq("refs/heads/master"),
+            eq(1L),
+            any(Iterator.class)))
+        .thenAnswer(
+            invocation -> {
+              Iterator<RevisionData> revisionsData = invocation.getArgument(4);
+              assertThat(revisionsData).isInstanceOf(JsonArrayReader.class);
+              revisionsData.forEachRemaining(
+                  revisionData ->
+                      appliedCommits.add(
+                          new String(
+                              revisionData.getCommitObject().getContent(),
+                              StandardCharsets.UTF_8)));
+              return OK_RESPONSE;
+            });
+
+    PullReplicationFilter pullReplicationFilter = createPullReplicationFilter();
+    pullReplicationFilter.doFilter(request, response, filterChain);
+
+    verifyBehaviours();
+    assertThat(appliedCommits).containsExactly("first", "second").inOrder();
+  }
+
+  @Test
+  public void shouldFilterApplyPackAction() throws Exception {
+    byte[] payloadApplyPack =
+        ("{\"label\":\"Replication\",\"event_created_on\":1,\"refs\":[{"
+                + "\"ref_name\":\"refs/heads/master\","
+                + "\"object_id\":\"9f8d52853089a3cf00c02ff7bd0817bd4353a95a\","
+                + "\"parent_object_ids\":[]}]}\n"
+                + "PACK")
+            .getBytes(StandardCharsets.UTF_8);
+    ByteArrayInputStream is = new ByteArrayInputStream(payloadApplyPack);
+    when(request.getRequestURI()).thenReturn(APPLY_PACK_URI);
+    when(request.getInputStream()).thenReturn(servletInputStream(is));
+    when(projectCache.get(Project.nameKey(PROJECT_NAME))).thenReturn(Optional.of(projectState));
+    when(response.getWriter()).thenReturn(printWriter);
+    when(applyPackAction.apply(any(), any())).thenReturn(OK_RESPONSE);
+
+    PullReplicationFilter pullReplicationFilter = createPullReplicationFilter();
+    pullReplicationFilter.doFilter(request, response, filterChain);
+
+    ArgumentCaptor<ApplyPackInput> inputCaptor = ArgumentCaptor.forClass(ApplyPackInput.class);
+    verify(applyPackAction).apply(any(ProjectResource.class), inputCaptor.capture());
+    ApplyPackInput input = inputCaptor.getValue();
+    assertThat(input.getLabel()).isEqualTo("Replication");
+    assertThat(input.getRefs().get(0).getRefName()).isEqualTo("refs/heads/master");
+    assertThat(new String(input.getPack().readAllBytes(), StandardCharsets.UTF_8))
+        .isEqualTo("PACK");
+    verify(response).setStatus(HttpServletResponse.SC_OK);
   }
 
   @Test
@@ -366,6 +579,31 @@ public class PullReplicationFilterTest {
     pullReplicationFilter.doFilter(request, response, filterChain);
 
     verify(response).setStatus(SC_CONFLICT);
+    verify(response).setHeader(HttpHeaders.ACCEPT_ENCODING, "gzip");
+  }
+
+  @Test
+  public void shouldBe413WhenTheDecompressedRequestBodyIsTooLarge() throws Exception {
+    byte[] payloadApplyObject = new byte[1024];
+    Arrays.fill(payloadApplyObject, (byte) ' ');
+    ByteArrayOutputStream compressed = new ByteArrayOutputStream();
+    try (GZIPOutputStream gzip = new GZIPOutputStream(compressed)) {
+      gzip.write(payloadApplyObject);
+    }
+    config.setLong(
+        "replication", PullReplicationFilter.CONFIG_MAX_DECOMPRESSED_REQUEST_SIZE, 512);
+    when(request.getRequestURI()).thenReturn(APPLY_OBJECT_URI);
+    when(request.getHeader(HttpHeaders.CONTENT_ENCODING)).thenReturn("gzip");
+    when(request.getInputStream())
+        .thenReturn(servletInputStream(new ByteArrayInputStream(compressed.toByteArray())));
+    when(response.getOutputStream()).thenReturn(outputStream);
+
+    PullReplicationFilter pullReplicationFilter = createPullReplicationFilter();
+    pullReplicationFilter.doFilter(request, response, filterChain);
+
+    verify(response).setStatus(HttpServletResponse.SC_REQUEST_ENTITY_TOO_LARGE);
+    verify(response).setHeader(HttpHeaders.ACCEPT_ENCODING, "gzip");
+    verifyNoInteractions(applyObjectAction);
   }
 
   @Test
@@ -387,26 +625,84 @@ public class PullReplicationFilterTest {
     byte[] payloadApplyObject =
         ("[{\"label\":\"Replication\",\"ref_name\":\"refs/heads/foo\","
                 + "\"revision_data\":{"
-                + "\"commit_object\":{\"type\":1,\"content\":\"some-content\"},"
-                + "\"tree_object\":{\"type\":2,\"content\":\"some-content\"},"
+                + "\"commit_object\":{\"type\":1,\"content\":\"c29tZS1jb250ZW50\"},"
+                + "\"tree_object\":{\"type\":2,\"content\":\"c29tZS1jb250ZW50\"},"
                 + "\"blobs\":[]}"
                 + "},"
                 + "{\"label\":\"Replication\",\"ref_name\":\"refs/heads/bar\","
                 + "\"revision_data\":{"
-                + "\"commit_object\":{\"type\":1,\"content\":\"some-content\"},"
-                + "\"tree_object\":{\"type\":2,\"content\":\"some-content\"},"
+                + "\"commit_object\":{\"type\":1,\"content\":\"c29tZS1jb250ZW50\"},"
+                + "\"tree_object\":{\"type\":2,\"content\":\"c29tZS1jb250ZW50\"},"
                 + "\"blobs\":[]}"
                 + "}]")
             .getBytes(StandardCharsets.UTF_8);
 
     defineBehaviours(payloadApplyObject, BATCH_APPLY_OBJECT_URI);
 
-    when(batchApplyObjectAction.apply(any(), any())).thenReturn(OK_RESPONSE);
+    List<String> appliedRefs = new ArrayList<>();
+    when(batchApplyObjectAction.apply(any(ProjectResource.class), any(Iterator.class)))
+        .thenAnswer(
+            invocation -> {
+              Iterator<RevisionInput> inputs = invocation.getArgument(1);
+              inputs.forEachRemaining(input -> appliedRefs.add(input.getRefName()));
+              return OK_RESPONSE;
+            });
 
     PullReplicationFilter pullReplicationFilter = createPullReplicationFilter();
     pullReplicationFilter.doFilter(request, response, filterChain);
 
     verifyBehaviours();
-    verify(batchApplyObjectAction).apply(any(ProjectResource.class), any());
+    assertThat(appliedRefs).containsExactly("refs/heads/foo", "refs/heads/bar").inOrder();
+  }
+
+  @Test
+  public void shouldReturnBadRequestWhenBatchApplyObjectPayloadIsNotAnArray() throws Exception {
+    byte[] payloadApplyObject =
+        "{\"label\":\"Replication\",\"ref_name\":\"refs/heads/foo\"}"
+            .getBytes(StandardCharsets.UTF_8);
+
+    when(request.getRequestURI()).thenReturn(BATCH_APPLY_OBJECT_URI);
+    when(request.getReader())
+        .thenReturn(
+            new BufferedReader(
+                new InputStreamReader(new ByteArrayInputStream(payloadApplyObject))));
+    when(projectCache.get(Project.nameKey(PROJECT_NAME))).thenReturn(Optional.of(projectState));
+    when(response.getOutputStream()).thenReturn(outputStream);
+
+    PullReplicationFilter pullReplicationFilter = createPullReplicationFilter();
+    pullReplicationFilter.doFilter(request, response, filterChain);
+
+    verify(response).setStatus(HttpServletResponse.SC_BAD_REQUEST);
+    verifyNoInteractions(batchApplyObjectAction);
+  }
+
+  @Test
+  public void shouldFilterMultiProjectBatchApplyObjectAction() throws Exception {
+    byte[] payload =
+        ("[{\"project\":\"project-a\",\"revision_inputs\":["
+                + "{\"label\":\"Replication\",\"ref_name\":\"refs/heads/foo\"}]},"
+                + "{\"project\":\"project-b\",\"revision_inputs\":["
+                + "{\"label\":\"Replication\",\"ref_name\":\"refs/heads/bar\"}]}]")
+            .getBytes(StandardCharsets.UTF_8);
+    when(request.getRequestURI()).thenReturn(MULTI_PROJECT_BATCH_APPLY_OBJECT_URI);
+    when(request.getMethod()).thenReturn("POST");
+    when(request.getReader())
+        .thenReturn(new BufferedReader(new InputStreamReader(new ByteArrayInputStream(payload))));
+    when(response.getWriter()).thenReturn(printWriter);
+    List<String> appliedProjects = new ArrayList<>();
+    when(multiProjectBatchApplyObjectAction.apply(any()))
+        .thenAnswer(
+            invocation -> {
+              Iterator<ProjectBatchInput> inputs = invocation.getArgument(0);
+              inputs.forEachRemaining(input -> appliedProjects.add(input.getProject()));
+              return OK_RESPONSE;
+            });
+
+    PullReplicationFilter pullReplicationFilter = createPullReplicationFilter();
+    pullReplicationFilter.doFilter(request, response, filterChain);
+
+    verify(response).setStatus(HttpServletResponse.SC_OK);
+    verifyNoInteractions(projectCache, batchApplyObjectAction);
+    assertThat(appliedProjects).containsExactly("project-a", "project-b").inOrder();
   }
 }
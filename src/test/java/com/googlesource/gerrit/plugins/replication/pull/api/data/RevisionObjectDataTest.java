@@ -0,0 +1,86 @@
+// Copyright (C) 2025 The Android Open Source Project
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+// http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.googlesource.gerrit.plugins.replication.pull.api.data;
+
+import static com.google.common.truth.Truth.assertThat;
+import static com.google.gerrit.testing.GerritJUnit.assertThrows;
+
+import com.google.gson.Gson;
+import com.google.gson.JsonObject;
+import com.google.gson.JsonParseException;
+import com.googlesource.gerrit.plugins.replication.pull.api.HttpPayloadGsonProvider;
+import java.nio.charset.StandardCharsets;
+import java.util.Base64;
+import org.eclipse.jgit.lib.Constants;
+import org.junit.Test;
+
+public class RevisionObjectDataTest {
+  private static final String SHA1 = "4b825dc642cb6eb9a060e54bf8d69288fbee4904";
+  private static final byte[] CONTENT = "some-content".getBytes(StandardCharsets.UTF_8);
+
+  private final Gson gson = HttpPayloadGsonProvider.get();
+
+  @Test
+  public void shouldSerializeTheContentAsBase64() {
+    RevisionObjectData objectData = new RevisionObjectData(SHA1, Constants.OBJ_BLOB, CONTENT);
+
+    JsonObject json = gson.toJsonTree(objectData).getAsJsonObject();
+
+    assertThat(json.get("sha1").getAsString()).isEqualTo(SHA1);
+    assertThat(json.get("type").getAsInt()).isEqualTo(Constants.OBJ_BLOB);
+    assertThat(json.get("content").getAsString())
+        .isEqualTo(Base64.getEncoder().encodeToString(CONTENT));
+    assertThat(objectData.getContentSize()).isEqualTo(json.get("content").getAsString().length());
+  }
+
+  @Test
+  public void shouldDeserializeTheBase64ContentIntoRawBytes() {
+    RevisionObjectData objectData =
+        gson.fromJson(
+            gson.toJson(new RevisionObjectData(SHA1, Constants.OBJ_BLOB, CONTENT)),
+            RevisionObjectData.class);
+
+    assertThat(objectData.getSha1()).isEqualTo(SHA1);
+    assertThat(objectData.getType()).isEqualTo(Constants.OBJ_BLOB);
+    assertThat(objectData.getContent()).isEqualTo(CONTENT);
+  }
+
+  @Test
+  public void shouldNotCopyOrDecodeTheContentWhenAccessed() {
+    RevisionObjectData objectData = new RevisionObjectData(SHA1, Constants.OBJ_BLOB, CONTENT);
+    RevisionObjectData parsedObjectData =
+        gson.fromJson(gson.toJson(objectData), RevisionObjectData.class);
+
+    assertThat(objectData.getContent()).isSameInstanceAs(CONTENT);
+    assertThat(parsedObjectData.getContent()).isSameInstanceAs(parsedObjectData.getContent());
+  }
+
+  @Test
+  public void shouldDeserializeMissingContentAsEmpty() {
+    RevisionObjectData objectData =
+        gson.fromJson("{\"type\":2,\"unknown\":\"value\"}", RevisionObjectData.class);
+
+    assertThat(objectData.getSha1()).isNull();
+    assertThat(objectData.getType()).isEqualTo(Constants.OBJ_TREE);
+    assertThat(objectData.getContent()).isEmpty();
+  }
+
+  @Test
+  public void shouldFailToDeserializeContentNotEncodedAsBase64() {
+    assertThrows(
+        JsonParseException.class,
+        () -> gson.fromJson("{\"type\":3,\"content\":\"some-content\"}", RevisionObjectData.class));
+  }
+}
@@ -0,0 +1,184 @@
+// Copyright (C) 2025 The Android Open Source Project
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+// http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.googlesource.gerrit.plugins.replication.pull.client;
+
+import static com.google.common.truth.Truth.assertThat;
+import static com.google.gerrit.testing.GerritJUnit.assertThrows;
+
+import com.google.common.testing.FakeTicker;
+import com.google.gerrit.entities.Project;
+import com.googlesource.gerrit.plugins.replication.pull.FetchOne;
+import com.googlesource.gerrit.plugins.replication.pull.api.FetchAction.RefInput;
+import com.googlesource.gerrit.plugins.replication.pull.client.CircuitBreaker.State;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+import org.eclipse.jgit.transport.URIish;
+import org.junit.Before;
+import org.junit.Test;
+
+public class CircuitBreakerTest {
+  private static final int WINDOW_SIZE = 4;
+  private static final long SLOW_CALL_NANOS = TimeUnit.SECONDS.toNanos(1);
+  private static final long OPEN_DURATION_NANOS = TimeUnit.SECONDS.toNanos(30);
+  private static final int MAX_DEFERRED_REFS = 3;
+
+  private final FakeTicker ticker = new FakeTicker();
+  private CircuitBreaker objectUnderTest;
+
+  @Before
+  public void setUp() throws Exception {
+    objectUnderTest =
+        new CircuitBreaker(
+            new URIish("http://gerrit-host:8080"),
+            50,
+            WINDOW_SIZE,
+            SLOW_CALL_NANOS,
+            OPEN_DURATION_NANOS,
+            MAX_DEFERRED_REFS,
+            ticker);
+  }
+
+  @Test
+  public void shouldStayClosedUntilTheWindowIsFull() throws Exception {
+    for (int i = 0; i < WINDOW_SIZE - 1; i++) {
+      assertThat(call(true)).isEmpty();
+    }
+
+    assertThat(objectUnderTest.getState()).isEqualTo(State.CLOSED);
+  }
+
+  @Test
+  public void shouldOpenWhenTheFailureRateReachesTheThreshold() throws Exception {
+    call(false);
+    call(false);
+    call(true);
+
+    assertThat(call(true)).hasValue(State.OPEN);
+    assertThrows(CircuitBreakerOpenException.class, () -> objectUnderTest.acquire());
+  }
+
+  @Test
+  public void shouldCountTheSlowCallsAsFailures() throws Exception {
+    call(false);
+    call(false);
+    objectUnderTest.acquire();
+    objectUnderTest.onResult(false, SLOW_CALL_NANOS + 1);
+    objectUnderTest.acquire();
+
+    assertThat(objectUnderTest.onResult(false, SLOW_CALL_NANOS + 1)).hasValue(State.OPEN);
+  }
+
+  @Test
+  public void shouldForgetTheFailuresOutsideOfTheWindow() throws Exception {
+    call(true);
+    for (int i = 0; i < WINDOW_SIZE; i++) {
+      assertThat(call(false)).isEmpty();
+    }
+    call(true);
+
+    assertThat(objectUnderTest.getState()).isEqualTo(State.CLOSED);
+  }
+
+  @Test
+  public void shouldLetASingleProbeThroughOnceTheOpenDurationElapses() throws Exception {
+    open();
+
+    ticker.advance(OPEN_DURATION_NANOS);
+
+    assertThat(objectUnderTest.acquire()).hasValue(State.HALF_OPEN);
+    assertThrows(CircuitBreakerOpenException.class, () -> objectUnderTest.acquire());
+  }
+
+  @Test
+  public void shouldCloseWhenTheProbeSucceeds() throws Exception {
+    open();
+    ticker.advance(OPEN_DURATION_NANOS);
+    objectUnderTest.acquire();
+
+    assertThat(objectUnderTest.onResult(false, 0L)).hasValue(State.CLOSED);
+    assertThat(objectUnderTest.acquire()).isEmpty();
+  }
+
+  @Test
+  public void shouldOpenAgainWhenTheProbeFails() throws Exception {
+    open();
+    ticker.advance(OPEN_DURATION_NANOS);
+    objectUnderTest.acquire();
+
+    assertThat(objectUnderTest.onResult(true, 0L)).hasValue(State.OPEN);
+    assertThrows(CircuitBreakerOpenException.class, () -> objectUnderTest.acquire());
+  }
+
+  @Test
+  public void shouldNeverOpenWithoutFailureRateThreshold() throws Exception {
+    objectUnderTest =
+        new CircuitBreaker(
+            new URIish("http://gerrit-host:8080"),
+            0,
+            WINDOW_SIZE,
+            SLOW_CALL_NANOS,
+            OPEN_DURATION_NANOS,
+            MAX_DEFERRED_REFS,
+            ticker);
+
+    for (int i = 0; i < 2 * WINDOW_SIZE; i++) {
+      assertThat(call(true)).isEmpty();
+    }
+  }
+
+  @Test
+  public void shouldDrainTheDeferredRefsOnce() {
+    Project.NameKey project = Project.nameKey("test_repo");
+    objectUnderTest.defer(project, List.of(RefInput.create("refs/heads/a")));
+    objectUnderTest.defer(
+        project, List.of(RefInput.create("refs/heads/a"), RefInput.create("refs/heads/b", true)));
+
+    assertThat(objectUnderTest.getDeferredRefsCount()).isEqualTo(2);
+    assertThat(objectUnderTest.drainDeferredRefs().get(project))
+        .containsExactly(RefInput.create("refs/heads/a"), RefInput.create("refs/heads/b", true));
+    assertThat(objectUnderTest.drainDeferredRefs()).isEmpty();
+  }
+
+  @Test
+  public void shouldFetchAllTheRefsOfTheProjectPastTheMaxDeferredRefs() {
+    Project.NameKey project = Project.nameKey("test_repo");
+    Project.NameKey otherProject = Project.nameKey("other_repo");
+    objectUnderTest.defer(
+        otherProject, List.of(RefInput.create("refs/heads/a"), RefInput.create("refs/heads/b")));
+    objectUnderTest.defer(project, List.of(RefInput.create("refs/heads/a")));
+    objectUnderTest.defer(project, List.of(RefInput.create("refs/heads/b")));
+    objectUnderTest.defer(project, List.of(RefInput.create("refs/heads/c")));
+
+    assertThat(objectUnderTest.getDeferredRefsCount()).isEqualTo(MAX_DEFERRED_REFS);
+    Map<Project.NameKey, Set<RefInput>> deferredRefs = objectUnderTest.drainDeferredRefs();
+    assertThat(deferredRefs.get(project)).containsExactly(RefInput.create(FetchOne.ALL_REFS));
+    assertThat(deferredRefs.get(otherProject)).hasSize(2);
+  }
+
+  private Optional<State> call(boolean failed) throws CircuitBreakerOpenException {
+    objectUnderTest.acquire();
+    return objectUnderTest.onResult(failed, 0L);
+  }
+
+  private void open() throws CircuitBreakerOpenException {
+    for (int i = 0; i < WINDOW_SIZE; i++) {
+      call(true);
+    }
+    assertThat(objectUnderTest.getState()).isEqualTo(State.OPEN);
+  }
+}
@@ -16,47 +16,72 @@ package com.googlesource.gerrit.plugins.replication.pull.client;
 
 import static com.google.common.truth.Truth.assertThat;
 import static com.google.gerrit.testing.GerritJUnit.assertThrows;
+import static java.nio.charset.StandardCharsets.UTF_8;
+import static org.apache.http.HttpStatus.SC_OK;
 import static org.mockito.Mockito.any;
 import static org.mockito.Mockito.times;
 import static org.mockito.Mockito.verify;
 import static org.mockito.Mockito.when;
 
 import com.google.common.base.Charsets;
+import com.google.common.collect.ImmutableList;
 import com.google.common.collect.Lists;
 import com.google.common.io.CharStreams;
 import com.google.common.net.MediaType;
+import com.google.common.testing.FakeTicker;
+import com.google.common.util.concurrent.MoreExecutors;
 import com.google.gerrit.entities.Project;
 import com.google.gerrit.entities.RefNames;
+import com.google.gerrit.metrics.DisabledMetricMaker;
 import com.googlesource.gerrit.plugins.replication.CredentialsFactory;
 import com.googlesource.gerrit.plugins.replication.api.ReplicationConfig;
+import com.googlesource.gerrit.plugins.replication.pull.ApplyObjectMetrics;
 import com.googlesource.gerrit.plugins.replication.pull.BearerTokenProvider;
+import com.googlesource.gerrit.plugins.replication.pull.ReplicationSources;
 import com.googlesource.gerrit.plugins.replication.pull.Source;
 import com.googlesource.gerrit.plugins.replication.pull.api.FetchAction.RefInput;
+import com.googlesource.gerrit.plugins.replication.pull.api.data.ApplyPackInput.RefUpdateInput;
 import com.googlesource.gerrit.plugins.replication.pull.api.data.BatchApplyObjectData;
 import com.googlesource.gerrit.plugins.replication.pull.api.data.RevisionData;
 import com.googlesource.gerrit.plugins.replication.pull.api.data.RevisionObjectData;
 import com.googlesource.gerrit.plugins.replication.pull.filter.SyncRefsFilter;
+import java.io.ByteArrayOutputStream;
+import java.io.InputStream;
 import java.io.InputStreamReader;
 import java.nio.ByteBuffer;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Base64;
 import java.util.Collections;
 import java.util.List;
 import java.util.Optional;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
 import java.util.stream.Collectors;
 import java.util.stream.Stream;
+import java.util.zip.GZIPInputStream;
 import org.apache.http.Header;
+import org.apache.http.HttpEntity;
 import org.apache.http.HttpHeaders;
+import org.apache.http.HttpResponse;
+import org.apache.http.HttpVersion;
 import org.apache.http.client.methods.HttpDelete;
 import org.apache.http.client.methods.HttpPost;
 import org.apache.http.client.methods.HttpPut;
 import org.apache.http.client.methods.HttpRequestBase;
 import org.apache.http.message.BasicHeader;
+import org.apache.http.message.BasicHttpResponse;
+import org.apache.http.message.BasicStatusLine;
 import org.eclipse.jgit.lib.Constants;
 import org.eclipse.jgit.storage.file.FileBasedConfig;
 import org.eclipse.jgit.transport.CredentialsProvider;
 import org.eclipse.jgit.transport.URIish;
 import org.eclipse.jgit.util.IO;
 import org.eclipse.jgit.util.RawParseUtils;
+import org.junit.After;
 import org.junit.Test;
 import org.mockito.ArgumentCaptor;
 import org.mockito.Captor;
@@ -73,6 +98,7 @@ public abstract class FetchRestApiClientBase {
   @Mock ReplicationConfig replicationConfig;
   @Mock Source source;
   @Mock BearerTokenProvider bearerTokenProvider;
+  @Mock ApplyObjectMetrics applyObjectMetrics;
   @Captor ArgumentCaptor<HttpPost> httpPostCaptor;
   @Captor ArgumentCaptor<HttpPut> httpPutCaptor;
   @Captor ArgumentCaptor<HttpDelete> httpDeleteCaptor;
@@ -162,9 +188,24 @@ public abstract class FetchRestApiClientBase {
           + "}";
 
   FetchApiClient objectUnderTest;
+  RequestCompression requestCompression;
+  @Mock ReplicationSources replicationSources;
+  SharedRequestBodies sharedRequestBodies = new SharedRequestBodies(() -> replicationSources);
+  FakeTicker ticker = new FakeTicker();
+  CircuitBreakers circuitBreakers =
+      new CircuitBreakers("pull-replication", new DisabledMetricMaker(), ticker);
+  ScheduledExecutorService multiProjectBatchesScheduler =
+      Executors.newSingleThreadScheduledExecutor();
+  MultiProjectBatches multiProjectBatches =
+      new MultiProjectBatches(ticker, () -> multiProjectBatchesScheduler);
 
   protected abstract String urlAuthenticationPrefix();
 
+  @After
+  public void shutdownMultiProjectBatchesScheduler() {
+    multiProjectBatchesScheduler.shutdownNow();
+  }
+
   protected abstract void assertAuthentication(HttpRequestBase httpRequest);
 
   @Test
@@ -202,6 +243,31 @@ public abstract class FetchRestApiClientBase {
     assertAuthentication(httpPost);
   }
 
+  @Test
+  public void shouldCallBatchFetchEndpointAsynchronously() throws Exception {
+    when(httpClient.executeAsync(any(HttpRequestBase.class), any(), any()))
+        .thenAnswer(
+            invocation ->
+                CompletableFuture.completedFuture(
+                    httpClient.execute(invocation.getArgument(0), invocation.getArgument(1))));
+
+    CompletableFuture<HttpResult> result =
+        objectUnderTest.callBatchFetchAsync(
+            Project.nameKey("test_repo"),
+            List.of(RefInput.create(refName), RefInput.create(RefNames.REFS_HEADS + "test")),
+            new URIish(api),
+            System.nanoTime());
+
+    assertThat(result.get().isSuccessful()).isTrue();
+    verify(httpClient, times(1)).executeAsync(httpPostCaptor.capture(), any(), any());
+    HttpPost httpPost = httpPostCaptor.getValue();
+    assertThat(httpPost.getURI().getPath())
+        .isEqualTo(
+            String.format(
+                "%s/projects/test_repo/pull-replication~batch-fetch", urlAuthenticationPrefix()));
+    assertAuthentication(httpPost);
+  }
+
   @Test
   public void shouldByDefaultCallSyncFetchForAllRefs() throws Exception {
 
@@ -228,6 +294,10 @@ public abstract class FetchRestApiClientBase {
             pluginName,
             instanceId,
             bearerTokenProvider,
+            requestCompression,
+            sharedRequestBodies,
+            circuitBreakers,
+            multiProjectBatches,
             source);
 
     objectUnderTest.callFetch(Project.nameKey("test_repo"), refName, new URIish(api));
@@ -253,6 +323,10 @@ public abstract class FetchRestApiClientBase {
             pluginName,
             instanceId,
             bearerTokenProvider,
+            requestCompression,
+            sharedRequestBodies,
+            circuitBreakers,
+            multiProjectBatches,
             source);
 
     String testRef = RefNames.REFS_HEADS + "test";
@@ -293,6 +367,10 @@ public abstract class FetchRestApiClientBase {
             pluginName,
             instanceId,
             bearerTokenProvider,
+            requestCompression,
+            sharedRequestBodies,
+            circuitBreakers,
+            multiProjectBatches,
             source);
 
     objectUnderTest.callFetch(Project.nameKey("test_repo"), refName, new URIish(api));
@@ -327,6 +405,10 @@ public abstract class FetchRestApiClientBase {
             pluginName,
             instanceId,
             bearerTokenProvider,
+            requestCompression,
+            sharedRequestBodies,
+            circuitBreakers,
+            multiProjectBatches,
             source);
 
     objectUnderTest.callBatchFetch(
@@ -388,6 +470,10 @@ public abstract class FetchRestApiClientBase {
             pluginName,
             instanceId,
             bearerTokenProvider,
+            requestCompression,
+            sharedRequestBodies,
+            circuitBreakers,
+            multiProjectBatches,
             source);
     objectUnderTest.callBatchFetch(Project.nameKey("test_repo"), refs, new URIish(api));
 
@@ -474,6 +560,68 @@ public abstract class FetchRestApiClientBase {
     assertThat(readPayload(httpPost)).isEqualTo(expectedSendObjectPayload);
   }
 
+  @Test
+  public void shouldCompressSendObjectPayloadWhenTargetAcceptsGzip() throws Exception {
+    requestCompression.onResponse(new URIish(api), responseAcceptingEncoding("gzip"));
+
+    objectUnderTest.callSendObject(
+        Project.nameKey("test_repo"),
+        refName,
+        eventCreatedOn,
+        IS_REF_UPDATE,
+        createSampleRevisionData(),
+        new URIish(api));
+
+    verify(httpClient, times(1)).execute(httpPostCaptor.capture(), any());
+
+    HttpPost httpPost = httpPostCaptor.getValue();
+    assertThat(httpPost.getEntity().getContentEncoding().getValue()).isEqualTo("gzip");
+    try (InputStream payload = new GZIPInputStream(httpPost.getEntity().getContent())) {
+      assertThat(new String(payload.readAllBytes(), UTF_8)).isEqualTo(expectedSendObjectPayload);
+    }
+  }
+
+  @Test
+  public void shouldNotCompressSendObjectPayloadWhenSmallerThanCompressionThreshold()
+      throws Exception {
+    when(source.getCompressionThreshold()).thenReturn(Long.MAX_VALUE);
+    requestCompression.onResponse(new URIish(api), responseAcceptingEncoding("gzip"));
+
+    objectUnderTest.callSendObject(
+        Project.nameKey("test_repo"),
+        refName,
+        eventCreatedOn,
+        IS_REF_UPDATE,
+        createSampleRevisionData(),
+        new URIish(api));
+
+    verify(httpClient, times(1)).execute(httpPostCaptor.capture(), any());
+
+    HttpPost httpPost = httpPostCaptor.getValue();
+    assertThat(httpPost.getEntity().getContentEncoding()).isNull();
+    assertThat(readPayload(httpPost)).isEqualTo(expectedSendObjectPayload);
+  }
+
+  @Test
+  public void shouldNotCompressSendObjectPayloadWhenTargetStopsAcceptingGzip() throws Exception {
+    requestCompression.onResponse(new URIish(api), responseAcceptingEncoding("gzip"));
+    requestCompression.onResponse(new URIish(api), responseAcceptingEncoding(null));
+
+    objectUnderTest.callSendObject(
+        Project.nameKey("test_repo"),
+        refName,
+        eventCreatedOn,
+        IS_REF_UPDATE,
+        createSampleRevisionData(),
+        new URIish(api));
+
+    verify(httpClient, times(1)).execute(httpPostCaptor.capture(), any());
+
+    HttpPost httpPost = httpPostCaptor.getValue();
+    assertThat(httpPost.getEntity().getContentEncoding()).isNull();
+    assertThat(readPayload(httpPost)).isEqualTo(expectedSendObjectPayload);
+  }
+
   @Test
   public void shouldSetContentTypeHeaderForSendObjectCall() throws Exception {
 
@@ -499,6 +647,10 @@ public abstract class FetchRestApiClientBase {
                 pluginName,
                 null,
                 bearerTokenProvider,
+                requestCompression,
+                sharedRequestBodies,
+                circuitBreakers,
+                multiProjectBatches,
                 source));
   }
 
@@ -515,6 +667,10 @@ public abstract class FetchRestApiClientBase {
                 pluginName,
                 " ",
                 bearerTokenProvider,
+                requestCompression,
+                sharedRequestBodies,
+                circuitBreakers,
+                multiProjectBatches,
                 source));
   }
 
@@ -531,6 +687,10 @@ public abstract class FetchRestApiClientBase {
                 pluginName,
                 "",
                 bearerTokenProvider,
+                requestCompression,
+                sharedRequestBodies,
+                circuitBreakers,
+                multiProjectBatches,
                 source));
   }
 
@@ -546,6 +706,10 @@ public abstract class FetchRestApiClientBase {
             pluginName,
             "",
             bearerTokenProvider,
+            requestCompression,
+            sharedRequestBodies,
+            circuitBreakers,
+            multiProjectBatches,
             source);
     objectUnderTest.callFetch(Project.nameKey("test_repo"), refName, new URIish(api));
 
@@ -622,6 +786,178 @@ public abstract class FetchRestApiClientBase {
     assertAuthentication(httpPut);
   }
 
+  @Test
+  public void shouldCallInitProjectEndpointAsynchronously() throws Exception {
+    when(httpClient.executeAsync(any(HttpRequestBase.class), any(), any()))
+        .thenAnswer(
+            invocation ->
+                CompletableFuture.completedFuture(
+                    httpClient.execute(invocation.getArgument(0), invocation.getArgument(1))));
+
+    CompletableFuture<HttpResult> result =
+        objectUnderTest.initProjectAsync(
+            Project.nameKey("test_repo"),
+            RefNames.REFS_HEADS + "main",
+            new URIish(api),
+            eventCreatedOn,
+            Collections.singletonList(createSampleRevisionData()));
+
+    assertThat(result.get().isSuccessful()).isTrue();
+    verify(httpClient, times(1)).executeAsync(httpPutCaptor.capture(), any(), any());
+    HttpPut httpPut = httpPutCaptor.getValue();
+    assertThat(httpPut.getURI().getPath())
+        .isEqualTo(
+            String.format(
+                "%s/plugins/pull-replication/init-project/test_repo.git",
+                urlAuthenticationPrefix()));
+    assertAuthentication(httpPut);
+  }
+
+  @Test
+  public void shouldRejectTheCallsWhileTheCircuitBreakerIsOpenAndFetchTheirRefsOnceClosed()
+      throws Exception {
+    when(source.getCircuitBreakerFailureRate()).thenReturn(100);
+    when(source.getCircuitBreakerWindowSize()).thenReturn(1);
+    when(source.getCircuitBreakerOpenDuration()).thenReturn(1000L);
+    when(source.getCircuitBreakerMaxDeferredRefs()).thenReturn(10);
+    when(source.getBackgroundCallsExecutor()).thenReturn(MoreExecutors.directExecutor());
+    HttpResult serverError = new HttpResult(503, Optional.empty());
+    HttpResult success = new HttpResult(SC_OK, Optional.empty());
+    when(httpClient.execute(any(HttpRequestBase.class), any()))
+        .thenReturn(serverError, success, success);
+    Project.NameKey project = Project.nameKey("test_repo");
+    String rejectedRef = RefNames.REFS_HEADS + "rejected";
+
+    assertThat(objectUnderTest.callFetch(project, refName, new URIish(api)).isSuccessful())
+        .isFalse();
+    assertThrows(
+        CircuitBreakerOpenException.class,
+        () -> objectUnderTest.callFetch(project, rejectedRef, new URIish(api)));
+    verify(httpClient, times(1)).execute(any(HttpRequestBase.class), any());
+
+    ticker.advance(1, TimeUnit.SECONDS);
+    assertThat(objectUnderTest.callFetch(project, refName, new URIish(api)).isSuccessful())
+        .isTrue();
+
+    verify(httpClient, times(3)).execute(httpPostCaptor.capture(), any());
+    HttpPost catchUpFetch = httpPostCaptor.getValue();
+    assertThat(catchUpFetch.getURI().getPath())
+        .isEqualTo(
+            String.format(
+                "%s/projects/test_repo/pull-replication~batch-fetch", urlAuthenticationPrefix()));
+    assertThat(readPayload(catchUpFetch)).contains(rejectedRef);
+    assertThat(circuitBreakers.getAll(source).get(0).getState())
+        .isEqualTo(CircuitBreaker.State.CLOSED);
+  }
+
+  @Test
+  public void shouldSendTheBatchThroughTheMultiProjectEndpointWhenEnabled() throws Exception {
+    when(source.getMultiProjectBatchWindow()).thenReturn(1L);
+    when(source.getMultiProjectBatchMaxProjects()).thenReturn(1);
+    when(source.getBackgroundCallsExecutor()).thenReturn(MoreExecutors.directExecutor());
+    when(httpClient.execute(any(HttpRequestBase.class), any()))
+        .thenReturn(
+            new HttpResult(
+                SC_OK,
+                Optional.of(
+                    ")]}'\n{\"status_code\":200,\"value\":{\"test_repo\":"
+                        + "{\"status_code\":409,\"message\":\"parent missing\",\"refs\":{}}}}")));
+    List<BatchApplyObjectData> batchApplyObjects =
+        List.of(
+            BatchApplyObjectData.newUpdateRef(refName, Optional.of(createSampleRevisionData("a"))));
+
+    Optional<HttpResult> result =
+        objectUnderTest
+            .callGroupedBatchSendObject(
+                Project.nameKey("test_repo"), batchApplyObjects, eventCreatedOn, new URIish(api))
+            .get(10, TimeUnit.SECONDS);
+
+    assertThat(result.get().isParentObjectMissing()).isTrue();
+    verify(httpClient, times(1)).execute(httpPostCaptor.capture(), any());
+    HttpPost httpPost = httpPostCaptor.getValue();
+    assertThat(httpPost.getURI().getPath())
+        .isEqualTo(
+            String.format(
+                "%s/plugins/pull-replication/multi-project-batch-apply-object",
+                urlAuthenticationPrefix()));
+    assertThat(readPayload(httpPost)).contains("\"project\":\"test_repo\"");
+    assertAuthentication(httpPost);
+  }
+
+  @Test
+  public void shouldNotGroupTheBatchWhenTheMultiProjectEndpointIsUnsupported() throws Exception {
+    when(source.getMultiProjectBatchWindow()).thenReturn(1L);
+    when(source.getMultiProjectBatchMaxProjects()).thenReturn(1);
+    when(source.getBackgroundCallsExecutor()).thenReturn(MoreExecutors.directExecutor());
+    when(httpClient.execute(any(HttpRequestBase.class), any()))
+        .thenReturn(new HttpResult(404, Optional.empty()));
+    List<BatchApplyObjectData> batchApplyObjects =
+        List.of(
+            BatchApplyObjectData.newUpdateRef(refName, Optional.of(createSampleRevisionData("a"))));
+
+    Optional<HttpResult> result =
+        objectUnderTest
+            .callGroupedBatchSendObject(
+                Project.nameKey("test_repo"), batchApplyObjects, eventCreatedOn, new URIish(api))
+            .get(10, TimeUnit.SECONDS);
+
+    assertThat(result).isEmpty();
+    verify(httpClient, times(1)).execute(httpPostCaptor.capture(), any());
+    assertThat(httpPostCaptor.getValue().getURI().getPath())
+        .isEqualTo(
+            String.format(
+                "%s/plugins/pull-replication/multi-project-batch-apply-object",
+                urlAuthenticationPrefix()));
+  }
+
+  @Test
+  public void shouldCallApplyPackEndpointWithTheHeaderFollowedByThePack() throws Exception {
+    byte[] pack = "PACK-content".getBytes(UTF_8);
+
+    objectUnderTest.callSendPack(
+        Project.nameKey("test_repo"),
+        List.of(new RefUpdateInput(refName, commitObjectId, List.of())),
+        eventCreatedOn,
+        pack,
+        new URIish(api));
+
+    verify(httpClient, times(1)).execute(httpPostCaptor.capture(), any());
+    HttpPost httpPost = httpPostCaptor.getValue();
+    assertThat(httpPost.getURI().getPath())
+        .isEqualTo(
+            String.format(
+                "%s/projects/test_repo/pull-replication~apply-pack", urlAuthenticationPrefix()));
+    String payload = readPayload(httpPost);
+    assertThat(payload).contains(refName);
+    assertThat(payload).endsWith("\nPACK-content");
+    assertThat(httpPost.getEntity().getContentLength()).isEqualTo(payload.getBytes(UTF_8).length);
+  }
+
+  @Test
+  public void shouldDeferTheRefsOfTheApplyPackCallsRejectedByTheCircuitBreaker() throws Exception {
+    when(source.getCircuitBreakerFailureRate()).thenReturn(100);
+    when(source.getCircuitBreakerWindowSize()).thenReturn(1);
+    when(source.getCircuitBreakerOpenDuration()).thenReturn(1000L);
+    when(source.getCircuitBreakerMaxDeferredRefs()).thenReturn(10);
+    when(httpClient.execute(any(HttpRequestBase.class), any()))
+        .thenReturn(new HttpResult(503, Optional.empty()));
+    Project.NameKey project = Project.nameKey("test_repo");
+
+    objectUnderTest.callFetch(project, refName, new URIish(api));
+    assertThrows(
+        CircuitBreakerOpenException.class,
+        () ->
+            objectUnderTest.callSendPack(
+                project,
+                List.of(new RefUpdateInput(refName, commitObjectId, List.of())),
+                eventCreatedOn,
+                new byte[0],
+                new URIish(api)));
+
+    assertThat(circuitBreakers.getAll(source).get(0).drainDeferredRefs())
+        .containsExactly(project, Set.of(RefInput.create(refName)));
+  }
+
   @Test
   public void shouldCallBatchSendObjectEndpoint() throws Exception {
 
@@ -644,6 +980,84 @@ public abstract class FetchRestApiClientBase {
     assertAuthentication(httpPost);
   }
 
+  @Test
+  public void shouldSendTheSameBatchApplyObjectPayloadToAllTheTargetsAndRecordItsSize()
+      throws Exception {
+    List<BatchApplyObjectData> batchApplyObjects =
+        List.of(
+            BatchApplyObjectData.newUpdateRef(refName, Optional.of(createSampleRevisionData("a"))));
+    when(source.getRemoteConfigName()).thenReturn("test-source");
+    when(replicationSources.getAll()).thenReturn(List.of(source));
+    when(source.getApis()).thenReturn(ImmutableList.of(api, "http://other-gerrit-host"));
+
+    objectUnderTest.callBatchSendObject(
+        Project.nameKey("test_repo"), batchApplyObjects, eventCreatedOn, new URIish(api));
+    objectUnderTest.callBatchSendObject(
+        Project.nameKey("test_repo"),
+        batchApplyObjects,
+        eventCreatedOn,
+        new URIish("http://other-gerrit-host"));
+
+    verify(httpClient, times(2)).execute(httpPostCaptor.capture(), any());
+
+    HttpEntity firstEntity = httpPostCaptor.getAllValues().get(0).getEntity();
+    HttpEntity secondEntity = httpPostCaptor.getAllValues().get(1).getEntity();
+    assertThat(firstEntity.isRepeatable()).isTrue();
+    ByteArrayOutputStream firstBody = new ByteArrayOutputStream();
+    firstEntity.writeTo(firstBody);
+    ByteArrayOutputStream secondBody = new ByteArrayOutputStream();
+    secondEntity.writeTo(secondBody);
+    assertThat(firstEntity.getContentLength()).isEqualTo(firstBody.size());
+    assertThat(secondBody.toByteArray()).isEqualTo(firstBody.toByteArray());
+    verify(applyObjectMetrics, times(2))
+        .recordRequestBytes("test-source", firstBody.size(), firstBody.size());
+  }
+
+  @Test
+  public void shouldEncodeTheObjectsOfTheBatchApplyObjectPayloadOnceForAllTheTargets()
+      throws Exception {
+    RevisionData revisionData = createSampleRevisionData("a");
+    List<BatchApplyObjectData> batchApplyObjects =
+        List.of(BatchApplyObjectData.newUpdateRef(refName, Optional.of(revisionData)));
+    when(replicationSources.getAll()).thenReturn(List.of(source));
+    when(source.getApis()).thenReturn(ImmutableList.of(api, "http://other-gerrit-host"));
+
+    objectUnderTest.callBatchSendObject(
+        Project.nameKey("test_repo"), batchApplyObjects, eventCreatedOn, new URIish(api));
+    // The raw content is shared with the payload: encoding it again would pick up the change
+    Arrays.fill(revisionData.getCommitObject().getContent(), (byte) 'x');
+    objectUnderTest.callBatchSendObject(
+        Project.nameKey("test_repo"),
+        batchApplyObjects,
+        eventCreatedOn,
+        new URIish("http://other-gerrit-host"));
+
+    verify(httpClient, times(2)).execute(httpPostCaptor.capture(), any());
+
+    String firstPayload = readPayload(httpPostCaptor.getAllValues().get(0));
+    String secondPayload = readPayload(httpPostCaptor.getAllValues().get(1));
+    assertThat(firstPayload)
+        .contains(Base64.getEncoder().encodeToString("commitacontent".getBytes(UTF_8)));
+    assertThat(secondPayload).isEqualTo(firstPayload);
+  }
+
+  @Test
+  public void shouldStreamTheBatchApplyObjectPayloadWhenSentToASingleTarget() throws Exception {
+    List<BatchApplyObjectData> batchApplyObjects =
+        List.of(
+            BatchApplyObjectData.newUpdateRef(refName, Optional.of(createSampleRevisionData("a"))));
+    when(replicationSources.getAll()).thenReturn(List.of(source));
+    when(source.getApis()).thenReturn(ImmutableList.of(api));
+
+    objectUnderTest.callBatchSendObject(
+        Project.nameKey("test_repo"), batchApplyObjects, eventCreatedOn, new URIish(api));
+
+    verify(httpClient, times(1)).execute(httpPostCaptor.capture(), any());
+    HttpEntity entity = httpPostCaptor.getValue().getEntity();
+    assertThat(entity.isChunked()).isTrue();
+    assertThat(readPayload(httpPostCaptor.getValue())).contains(refName);
+  }
+
   @Test
   public void shouldCallBatchApplyObjectEndpointWithAListOfRefsInPayload() throws Exception {
     List<BatchApplyObjectData> batchApplyObjects = new ArrayList<>();
@@ -686,6 +1100,15 @@ public abstract class FetchRestApiClientBase {
     assertThat(readPayload(httpPost)).isEqualTo(expectedSendObjectsPayload);
   }
 
+  private static HttpResponse responseAcceptingEncoding(String acceptEncoding) {
+    HttpResponse response =
+        new BasicHttpResponse(new BasicStatusLine(HttpVersion.HTTP_1_1, SC_OK, "OK"));
+    if (acceptEncoding != null) {
+      response.setHeader(HttpHeaders.ACCEPT_ENCODING, acceptEncoding);
+    }
+    return response;
+  }
+
   public String readPayload(HttpPost entity) throws Exception {
     ByteBuffer buf = IO.readWholeStream(entity.getEntity().getContent(), 1024);
     return RawParseUtils.decode(buf.array(), buf.arrayOffset(), buf.limit()).trim();
@@ -64,6 +64,7 @@ public class FetchRestApiClientWithBasicAuthenticationTest extends FetchRestApiC
     when(httpClient.execute(any(HttpRequestBase.class), any())).thenReturn(httpResult);
     when(httpClientFactory.create(any())).thenReturn(httpClient);
     syncRefsFilter = new SyncRefsFilter(replicationConfig);
+    requestCompression = new RequestCompression(applyObjectMetrics);
     objectUnderTest =
         new FetchRestApiClient(
             credentials,
@@ -73,6 +74,10 @@ public class FetchRestApiClientWithBasicAuthenticationTest extends FetchRestApiC
             pluginName,
             instanceId,
             bearerTokenProvider,
+            requestCompression,
+            sharedRequestBodies,
+            circuitBreakers,
+            multiProjectBatches,
             source);
     verify(bearerTokenProvider).get();
   }
@@ -43,6 +43,7 @@ public class FetchRestApiClientWithBearerTokenTest extends FetchRestApiClientBas
 
     syncRefsFilter = new SyncRefsFilter(replicationConfig);
 
+    requestCompression = new RequestCompression(applyObjectMetrics);
     objectUnderTest =
         new FetchRestApiClient(
             credentials,
@@ -52,6 +53,10 @@ public class FetchRestApiClientWithBearerTokenTest extends FetchRestApiClientBas
             pluginName,
             instanceId,
             bearerTokenProvider,
+            requestCompression,
+            sharedRequestBodies,
+            circuitBreakers,
+            multiProjectBatches,
             source);
     verify(bearerTokenProvider).get();
   }
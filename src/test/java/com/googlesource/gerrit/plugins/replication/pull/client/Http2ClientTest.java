@@ -0,0 +1,220 @@
+// Copyright (C) 2025 The Android Open Source Project
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+// http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.googlesource.gerrit.plugins.replication.pull.client;
+
+import static com.google.common.truth.Truth.assertThat;
+import static com.google.gerrit.testing.GerritJUnit.assertThrows;
+import static java.nio.charset.StandardCharsets.UTF_8;
+import static java.util.concurrent.TimeUnit.MILLISECONDS;
+
+import com.google.common.io.ByteStreams;
+import com.google.common.util.concurrent.MoreExecutors;
+import com.google.gson.Gson;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.time.Duration;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.atomic.AtomicReference;
+import org.apache.http.HttpHeaders;
+import org.apache.http.client.methods.HttpGet;
+import org.apache.http.client.methods.HttpPost;
+import org.apache.http.entity.AbstractHttpEntity;
+import org.apache.http.entity.StringEntity;
+import org.apache.http.util.EntityUtils;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+public class Http2ClientTest {
+  private static final Duration TIMEOUT = Duration.ofSeconds(10);
+
+  private final AtomicReference<HttpExchange> receivedExchange = new AtomicReference<>();
+  private final AtomicReference<byte[]> receivedBody = new AtomicReference<>();
+  private HttpServer server;
+  private String baseUrl;
+  private final ExecutorService executor = Http2Client.newExecutor("test");
+  private Http2Client objectUnderTest;
+
+  @Before
+  public void setup() throws IOException {
+    server = HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0), 0);
+    server.createContext(
+        "/ok",
+        exchange -> {
+          receivedExchange.set(exchange);
+          receivedBody.set(ByteStreams.toByteArray(exchange.getRequestBody()));
+          exchange.getResponseHeaders().add(HttpHeaders.ACCEPT_ENCODING, "gzip");
+          respond(exchange, 200, ")]}'\n{\"ok\":true}");
+        });
+    server.createContext("/missing", exchange -> respond(exchange, 404, "Not found: project"));
+    server.start();
+    baseUrl = "http://localhost:" + server.getAddress().getPort();
+    objectUnderTest = new Http2Client(Http2Client.newClient(TIMEOUT, executor), TIMEOUT);
+  }
+
+  @After
+  public void tearDown() {
+    server.stop(0);
+    executor.shutdownNow();
+  }
+
+  @Test
+  public void shouldSendTheRequestHeadersAndBody() throws Exception {
+    HttpPost post = new HttpPost(baseUrl + "/ok");
+    StringEntity entity = new StringEntity("{\"ref_name\":\"refs/heads/master\"}", UTF_8);
+    entity.setContentEncoding("identity");
+    post.setEntity(entity);
+    post.addHeader(HttpHeaders.CONTENT_TYPE, "application/json; charset=UTF-8");
+    post.addHeader(HttpHeaders.AUTHORIZATION, "Bearer some-token");
+
+    objectUnderTest.execute(post, response -> null);
+
+    HttpExchange exchange = receivedExchange.get();
+    assertThat(exchange.getRequestMethod()).isEqualTo("POST");
+    assertThat(exchange.getRequestHeaders().getFirst(HttpHeaders.CONTENT_TYPE))
+        .isEqualTo("application/json; charset=UTF-8");
+    assertThat(exchange.getRequestHeaders().getFirst(HttpHeaders.CONTENT_ENCODING))
+        .isEqualTo("identity");
+    assertThat(exchange.getRequestHeaders().getFirst(HttpHeaders.AUTHORIZATION))
+        .isEqualTo("Bearer some-token");
+    assertThat(new String(receivedBody.get(), UTF_8))
+        .isEqualTo("{\"ref_name\":\"refs/heads/master\"}");
+  }
+
+  @Test
+  public void shouldStreamTheBodyOfUnknownLength() throws Exception {
+    HttpPost post = new HttpPost(baseUrl + "/ok");
+    post.setEntity(
+        new JsonEntity(
+            new Gson(), Map.of("ref_name", "refs/heads/master"), false, (sent, written) -> {}));
+
+    objectUnderTest.execute(post, response -> null);
+
+    assertThat(new String(receivedBody.get(), UTF_8))
+        .isEqualTo("{\"ref_name\":\"refs/heads/master\"}");
+  }
+
+  @Test
+  public void shouldFailTheCallWhenTheBodyCannotBeWritten() throws Exception {
+    HttpPost post = new HttpPost(baseUrl + "/ok");
+    post.setEntity(
+        new AbstractHttpEntity() {
+          @Override
+          public boolean isRepeatable() {
+            return false;
+          }
+
+          @Override
+          public long getContentLength() {
+            return -1;
+          }
+
+          @Override
+          public InputStream getContent() {
+            throw new UnsupportedOperationException();
+          }
+
+          @Override
+          public void writeTo(OutputStream outStream) throws IOException {
+            outStream.write("{".getBytes(UTF_8));
+            throw new IOException("Cannot write the body");
+          }
+
+          @Override
+          public boolean isStreaming() {
+            return false;
+          }
+        });
+
+    CompletableFuture<Integer> statusCode =
+        objectUnderTest.executeAsync(
+            post, response -> response.getStatusLine().getStatusCode(), Runnable::run);
+
+    ExecutionException e =
+        assertThrows(
+            ExecutionException.class, () -> statusCode.get(TIMEOUT.toMillis(), MILLISECONDS));
+    assertThat(e).hasCauseThat().isInstanceOf(IOException.class);
+  }
+
+  @Test
+  public void shouldHandTheResponseToTheHandler() throws Exception {
+    HttpResult result =
+        objectUnderTest.execute(
+            new HttpGet(baseUrl + "/ok"),
+            response -> {
+              assertThat(response.getFirstHeader(HttpHeaders.ACCEPT_ENCODING).getValue())
+                  .isEqualTo("gzip");
+              return new HttpResult(
+                  response.getStatusLine().getStatusCode(),
+                  Optional.of(EntityUtils.toString(response.getEntity())));
+            });
+
+    assertThat(result.isSuccessful()).isTrue();
+    assertThat(result.getMessage()).hasValue(")]}'\n{\"ok\":true}");
+  }
+
+  @Test
+  public void shouldHandTheResponseToTheHandlerAsynchronously() throws Exception {
+    CompletableFuture<Integer> statusCode =
+        objectUnderTest.executeAsync(
+            new HttpGet(baseUrl + "/ok"),
+            response -> response.getStatusLine().getStatusCode(),
+            MoreExecutors.directExecutor());
+
+    assertThat(statusCode.get(TIMEOUT.toMillis(), MILLISECONDS)).isEqualTo(200);
+  }
+
+  @Test
+  public void shouldHandTheErrorResponsesToTheHandler() throws Exception {
+    int statusCode =
+        objectUnderTest.execute(
+            new HttpGet(baseUrl + "/missing"),
+            response -> {
+              assertThat(response.getStatusLine().getReasonPhrase()).isEqualTo("Not Found");
+              return response.getStatusLine().getStatusCode();
+            });
+
+    assertThat(statusCode).isEqualTo(404);
+  }
+
+  @Test
+  public void shouldSendTheRequestsWithoutTimeout() throws Exception {
+    Http2Client client = new Http2Client(Http2Client.newClient(null, executor), null);
+
+    int statusCode =
+        client.execute(
+            new HttpGet(baseUrl + "/ok"), response -> response.getStatusLine().getStatusCode());
+
+    assertThat(statusCode).isEqualTo(200);
+  }
+
+  private static void respond(HttpExchange exchange, int statusCode, String body)
+      throws IOException {
+    byte[] bytes = body.getBytes(UTF_8);
+    exchange.sendResponseHeaders(statusCode, bytes.length);
+    try (OutputStream out = exchange.getResponseBody()) {
+      out.write(bytes);
+    }
+  }
+}
@@ -0,0 +1,166 @@
+// Copyright (C) 2025 The Android Open Source Project
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+// http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.googlesource.gerrit.plugins.replication.pull.client;
+
+import static com.google.common.truth.Truth.assertThat;
+import static org.mockito.Mockito.lenient;
+import static org.mockito.Mockito.when;
+
+import com.google.common.testing.FakeTicker;
+import com.googlesource.gerrit.plugins.replication.pull.Source;
+import com.googlesource.gerrit.plugins.replication.pull.api.data.ProjectBatchInput;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
+import org.eclipse.jgit.transport.URIish;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.mockito.Mock;
+import org.mockito.junit.MockitoJUnitRunner;
+
+@RunWith(MockitoJUnitRunner.class)
+public class MultiProjectBatchesTest {
+  private static final long LONG_WINDOW_MS = TimeUnit.MINUTES.toMillis(1);
+
+  @Mock private Source source;
+
+  private final FakeTicker ticker = new FakeTicker();
+  private final List<List<String>> sentGroups = new CopyOnWriteArrayList<>();
+  private URIish targetUri;
+  private ExecutorService executor;
+  private ScheduledExecutorService scheduler;
+  private MultiProjectBatches objectUnderTest;
+
+  @Before
+  public void setUp() throws Exception {
+    targetUri = new URIish("http://gerrit-host:8080");
+    executor = Executors.newFixedThreadPool(2);
+    scheduler = Executors.newSingleThreadScheduledExecutor();
+    lenient().when(source.getBackgroundCallsExecutor()).thenReturn(executor);
+    objectUnderTest = new MultiProjectBatches(ticker, () -> scheduler);
+  }
+
+  @After
+  public void tearDown() {
+    scheduler.shutdownNow();
+    executor.shutdownNow();
+  }
+
+  @Test
+  public void shouldSendTheBatchesOfDifferentProjectsWithASingleRequest() throws Exception {
+    when(source.getMultiProjectBatchWindow()).thenReturn(LONG_WINDOW_MS);
+    when(source.getMultiProjectBatchMaxProjects()).thenReturn(2);
+
+    CompletableFuture<Optional<HttpResult>> first = send("project-a", this::okForAll);
+    CompletableFuture<Optional<HttpResult>> second = send("project-b", this::okForAll);
+
+    assertThat(first.get(10, TimeUnit.SECONDS).get().getMessage()).hasValue("project-a");
+    assertThat(second.get(10, TimeUnit.SECONDS).get().getMessage()).hasValue("project-b");
+    assertThat(sentGroups).hasSize(1);
+    assertThat(sentGroups.get(0)).containsExactly("project-a", "project-b");
+  }
+
+  @Test
+  public void shouldNotWaitForTheGroupToBeSent() throws Exception {
+    when(source.getMultiProjectBatchWindow()).thenReturn(LONG_WINDOW_MS);
+    when(source.getMultiProjectBatchMaxProjects()).thenReturn(2);
+
+    CompletableFuture<Optional<HttpResult>> result = send("project-a", this::okForAll);
+
+    assertThat(result.isDone()).isFalse();
+    assertThat(sentGroups).isEmpty();
+  }
+
+  @Test
+  public void shouldSendTheGroupOnceTheWindowElapses() throws Exception {
+    when(source.getMultiProjectBatchWindow()).thenReturn(1L);
+    when(source.getMultiProjectBatchMaxProjects()).thenReturn(2);
+
+    Optional<HttpResult> result = send("project-a", this::okForAll).get(10, TimeUnit.SECONDS);
+
+    assertThat(result.get().isSuccessful()).isTrue();
+    assertThat(sentGroups).containsExactly(List.of("project-a"));
+  }
+
+  @Test
+  public void shouldNotGroupTwoBatchesOfTheSameProject() throws Exception {
+    when(source.getMultiProjectBatchWindow()).thenReturn(1L);
+    when(source.getMultiProjectBatchMaxProjects()).thenReturn(2);
+
+    CompletableFuture<Optional<HttpResult>> first = send("project-a", this::okForAll);
+    CompletableFuture<Optional<HttpResult>> second = send("project-a", this::okForAll);
+
+    assertThat(first.get(10, TimeUnit.SECONDS)).isPresent();
+    assertThat(second.get(10, TimeUnit.SECONDS)).isPresent();
+    assertThat(sentGroups).containsExactly(List.of("project-a"), List.of("project-a"));
+  }
+
+  @Test
+  public void shouldStopGroupingForTargetsNotSupportingTheRestApi() throws Exception {
+    when(source.getMultiProjectBatchMaxProjects()).thenReturn(1);
+
+    assertThat(send("project-a", this::unsupported).get(10, TimeUnit.SECONDS)).isEmpty();
+    assertThat(send("project-b", this::unsupported).get(10, TimeUnit.SECONDS)).isEmpty();
+    assertThat(sentGroups).hasSize(1);
+  }
+
+  @Test
+  public void shouldCheckAgainTheTargetsNotSupportingTheRestApiOnceExpired() throws Exception {
+    when(source.getMultiProjectBatchMaxProjects()).thenReturn(1);
+    send("project-a", this::unsupported).get(10, TimeUnit.SECONDS);
+
+    ticker.advance(MultiProjectBatches.UNSUPPORTED_API_URL_EXPIRY);
+
+    assertThat(send("project-b", this::okForAll).get(10, TimeUnit.SECONDS)).isPresent();
+    assertThat(sentGroups).containsExactly(List.of("project-a"), List.of("project-b"));
+  }
+
+  private CompletableFuture<Optional<HttpResult>> send(
+      String project, MultiProjectBatches.Sender sender) {
+    return objectUnderTest.send(source, targetUri, batch(project), sender);
+  }
+
+  private Optional<Map<String, HttpResult>> okForAll(List<ProjectBatchInput> batches) {
+    sentGroups.add(projects(batches));
+    return Optional.of(
+        batches.stream()
+            .collect(
+                Collectors.toMap(
+                    ProjectBatchInput::getProject,
+                    batch -> new HttpResult(200, Optional.of(batch.getProject())))));
+  }
+
+  private Optional<Map<String, HttpResult>> unsupported(List<ProjectBatchInput> batches) {
+    sentGroups.add(projects(batches));
+    return Optional.empty();
+  }
+
+  private static List<String> projects(List<ProjectBatchInput> batches) {
+    return batches.stream().map(ProjectBatchInput::getProject).collect(Collectors.toList());
+  }
+
+  private static ProjectBatchInput batch(String project) {
+    return new ProjectBatchInput(project, List.of());
+  }
+}
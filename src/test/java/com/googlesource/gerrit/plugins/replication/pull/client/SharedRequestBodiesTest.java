@@ -0,0 +1,103 @@
+// Copyright (C) 2025 The Android Open Source Project
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+// http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.googlesource.gerrit.plugins.replication.pull.client;
+
+import static com.google.common.truth.Truth.assertThat;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+import com.google.common.collect.ImmutableList;
+import com.google.common.io.ByteStreams;
+import com.googlesource.gerrit.plugins.replication.pull.ReplicationSources;
+import com.googlesource.gerrit.plugins.replication.pull.Source;
+import java.io.ByteArrayInputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.zip.GZIPInputStream;
+import org.junit.Test;
+
+public class SharedRequestBodiesTest {
+  private static final long EVENT_CREATED_ON = 1684875939L;
+  private static final byte[] JSON =
+      "[{\"ref_name\":\"refs/heads/master\"}]".getBytes(StandardCharsets.UTF_8);
+
+  private final ReplicationSources sources = mock(ReplicationSources.class);
+  private final SharedRequestBodies objectUnderTest = new SharedRequestBodies(() -> sources);
+  private final AtomicInteger serializations = new AtomicInteger();
+
+  @Test
+  public void shouldSerializeTheSameBatchOnce() {
+    List<String> batch = List.of("refs/heads/master");
+
+    EncodedBody first = objectUnderTest.get(batch, EVENT_CREATED_ON, this::serialize);
+    EncodedBody second = objectUnderTest.get(batch, EVENT_CREATED_ON, this::serialize);
+
+    assertThat(second).isSameInstanceAs(first);
+    assertThat(second.json()).isEqualTo(JSON);
+    assertThat(serializations.get()).isEqualTo(1);
+  }
+
+  @Test
+  public void shouldSerializeEqualButDistinctBatchesSeparately() {
+    objectUnderTest.get(
+        new ArrayList<>(List.of("refs/heads/master")), EVENT_CREATED_ON, this::serialize);
+    objectUnderTest.get(
+        new ArrayList<>(List.of("refs/heads/master")), EVENT_CREATED_ON, this::serialize);
+
+    assertThat(serializations.get()).isEqualTo(2);
+  }
+
+  @Test
+  public void shouldSerializeAgainWhenTheEventCreationTimeDiffers() {
+    List<String> batch = List.of("refs/heads/master");
+
+    objectUnderTest.get(batch, EVENT_CREATED_ON, this::serialize);
+    EncodedBody body = objectUnderTest.get(batch, EVENT_CREATED_ON + 1, this::serialize);
+
+    assertThat(body.eventCreatedOn()).isEqualTo(EVENT_CREATED_ON + 1);
+    assertThat(serializations.get()).isEqualTo(2);
+  }
+
+  @Test
+  public void shouldCompressTheBodyOnce() throws Exception {
+    EncodedBody body = objectUnderTest.get(List.of(), EVENT_CREATED_ON, this::serialize);
+
+    byte[] gzipped = body.gzipped();
+
+    assertThat(body.gzipped()).isSameInstanceAs(gzipped);
+    assertThat(ByteStreams.toByteArray(new GZIPInputStream(new ByteArrayInputStream(gzipped))))
+        .isEqualTo(JSON);
+  }
+
+  @Test
+  public void shouldHaveManyTargetsWhenTheSourcesHaveMoreThanOneApiUrl() {
+    Source source = mock(Source.class);
+    when(sources.getAll()).thenReturn(List.of(source));
+
+    when(source.getApis()).thenReturn(ImmutableList.of("http://gerrit-host"));
+    assertThat(objectUnderTest.hasManyTargets()).isFalse();
+
+    when(source.getApis())
+        .thenReturn(ImmutableList.of("http://gerrit-host", "http://other-gerrit-host"));
+    assertThat(objectUnderTest.hasManyTargets()).isTrue();
+  }
+
+  private byte[] serialize() {
+    serializations.incrementAndGet();
+    return JSON;
+  }
+}
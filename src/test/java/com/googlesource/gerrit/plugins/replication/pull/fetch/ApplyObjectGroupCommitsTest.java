@@ -0,0 +1,242 @@
+// Copyright (C) 2025 The Android Open Source Project
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+// http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.googlesource.gerrit.plugins.replication.pull.fetch;
+
+import static com.google.common.truth.Truth.assertThat;
+import static com.google.gerrit.testing.GerritJUnit.assertThrows;
+import static java.util.concurrent.TimeUnit.MILLISECONDS;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyBoolean;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.doThrow;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import com.google.gerrit.entities.Project;
+import com.googlesource.gerrit.plugins.replication.api.ReplicationConfig;
+import com.googlesource.gerrit.plugins.replication.pull.api.data.RevisionData;
+import com.googlesource.gerrit.plugins.replication.pull.api.exception.MissingLatestPatchSetException;
+import com.googlesource.gerrit.plugins.replication.pull.api.exception.MissingParentObjectException;
+import java.io.IOException;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeoutException;
+import java.util.stream.Collectors;
+import org.eclipse.jgit.lib.Config;
+import org.eclipse.jgit.lib.ObjectId;
+import org.eclipse.jgit.lib.RefUpdate;
+import org.eclipse.jgit.transport.RefSpec;
+import org.junit.After;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.mockito.Mock;
+import org.mockito.junit.MockitoJUnitRunner;
+
+@RunWith(MockitoJUnitRunner.class)
+public class ApplyObjectGroupCommitsTest {
+  private static final Project.NameKey PROJECT = Project.nameKey("test-project");
+  private static final String REF_NAME = "refs/changes/01/1/meta";
+  private static final String OTHER_REF_NAME = "refs/changes/02/2/meta";
+  private static final RevisionData[] REVISIONS_DATA = new RevisionData[0];
+  private static final RevisionData[] OTHER_REVISIONS_DATA = new RevisionData[0];
+
+  @Mock private ApplyObject applyObject;
+  @Mock private ApplyObject.Batch batch;
+  @Mock private ReplicationConfig replicationConfig;
+
+  private final ExecutorService executor = Executors.newFixedThreadPool(2);
+
+  @After
+  public void tearDown() {
+    executor.shutdownNow();
+  }
+
+  @Test
+  public void shouldApplyEveryRefOnItsOwnWhenTheWindowIsNotConfigured() throws Exception {
+    RefUpdateState state = new RefUpdateState(REF_NAME, RefUpdate.Result.NEW);
+    when(applyObject.apply(PROJECT, new RefSpec(REF_NAME), REVISIONS_DATA)).thenReturn(state);
+
+    assertThat(groupCommits(0, 100).apply(PROJECT, REF_NAME, REVISIONS_DATA))
+        .isSameInstanceAs(state);
+    verify(applyObject, never()).newBatch(any(), anyBoolean());
+  }
+
+  @Test
+  public void shouldApplyTheConcurrentRefsOfAProjectInASingleBatch() throws Exception {
+    ApplyObjectGroupCommits objectUnderTest = groupCommits(60000, 2);
+    when(applyObject.newBatch(PROJECT, false)).thenReturn(batch);
+    // Either call can be the first to join the group, hence the results follow the order of the
+    // adds
+    List<String> addedRefs = new CopyOnWriteArrayList<>();
+    doAnswer(invocation -> addedRefs.add(invocation.getArgument(0))).when(batch).add(any(), any());
+    when(batch.commit())
+        .thenAnswer(
+            invocation ->
+                addedRefs.stream()
+                    .map(
+                        refName ->
+                            new RefUpdateState(
+                                refName,
+                                refName.equals(REF_NAME)
+                                    ? RefUpdate.Result.NEW
+                                    : RefUpdate.Result.LOCK_FAILURE))
+                    .collect(Collectors.toList()));
+
+    Future<RefUpdateState> first =
+        executor.submit(() -> objectUnderTest.apply(PROJECT, REF_NAME, REVISIONS_DATA));
+    verify(batch, never()).commit();
+    Future<RefUpdateState> second =
+        executor.submit(() -> objectUnderTest.apply(PROJECT, OTHER_REF_NAME, OTHER_REVISIONS_DATA));
+
+    assertThat(first.get().getResult()).isEqualTo(RefUpdate.Result.NEW);
+    assertThat(second.get().getResult()).isEqualTo(RefUpdate.Result.LOCK_FAILURE);
+    verify(applyObject, times(1)).newBatch(PROJECT, false);
+    verify(batch).add(REF_NAME, REVISIONS_DATA);
+    verify(batch).add(OTHER_REF_NAME, OTHER_REVISIONS_DATA);
+    verify(batch).close();
+  }
+
+  @Test
+  public void shouldApplyASingleRefOnceTheWindowIsElapsed() throws Exception {
+    when(applyObject.newBatch(PROJECT, false)).thenReturn(batch);
+    when(batch.commit()).thenReturn(List.of(new RefUpdateState(REF_NAME, RefUpdate.Result.NEW)));
+
+    RefUpdateState state = groupCommits(10, 2).apply(PROJECT, REF_NAME, REVISIONS_DATA);
+
+    assertThat(state.getResult()).isEqualTo(RefUpdate.Result.NEW);
+  }
+
+  @Test
+  public void shouldFailOnlyTheRefsThatCannotBeApplied() throws Exception {
+    ApplyObjectGroupCommits objectUnderTest = groupCommits(60000, 2);
+    when(applyObject.newBatch(PROJECT, false)).thenReturn(batch);
+    doThrow(new MissingParentObjectException(PROJECT, REF_NAME, ObjectId.zeroId()))
+        .when(batch)
+        .add(eq(REF_NAME), any());
+    when(batch.commit())
+        .thenReturn(List.of(new RefUpdateState(OTHER_REF_NAME, RefUpdate.Result.NEW)));
+
+    Future<RefUpdateState> failing =
+        executor.submit(() -> objectUnderTest.apply(PROJECT, REF_NAME, REVISIONS_DATA));
+    Future<RefUpdateState> other =
+        executor.submit(() -> objectUnderTest.apply(PROJECT, OTHER_REF_NAME, OTHER_REVISIONS_DATA));
+
+    assertThat(other.get().getResult()).isEqualTo(RefUpdate.Result.NEW);
+    ExecutionException e = assertThrows(ExecutionException.class, failing::get);
+    assertThat(e).hasCauseThat().isInstanceOf(MissingParentObjectException.class);
+  }
+
+  @Test
+  public void shouldFailTheRefsWithAMissingLatestPatchSet() throws Exception {
+    when(applyObject.newBatch(PROJECT, false)).thenReturn(batch);
+    RefUpdateState state = new RefUpdateState(REF_NAME, RefUpdate.Result.REJECTED_OTHER_REASON);
+    when(batch.commit()).thenReturn(List.of(state));
+    when(batch.getMissingLatestPatchSet(state))
+        .thenReturn(
+            Optional.of(
+                new MissingLatestPatchSetException(PROJECT, REF_NAME, "Missing patch-set ref")));
+
+    assertThrows(
+        MissingLatestPatchSetException.class,
+        () -> groupCommits(10, 2).apply(PROJECT, REF_NAME, REVISIONS_DATA));
+  }
+
+  @Test
+  public void shouldWaitForTheGroupBeingCommittedBeyondTheTimeout() throws Exception {
+    ApplyObjectGroupCommits objectUnderTest = groupCommits(200, 2, 10);
+    CountDownLatch committing = new CountDownLatch(1);
+    CountDownLatch release = new CountDownLatch(1);
+    // The first ref added is the one of the call committing the group on behalf of the other
+    List<String> addedRefs = new CopyOnWriteArrayList<>();
+    doAnswer(invocation -> addedRefs.add(invocation.getArgument(0))).when(batch).add(any(), any());
+    when(applyObject.newBatch(PROJECT, false)).thenReturn(batch);
+    when(batch.commit())
+        .thenAnswer(
+            invocation -> {
+              committing.countDown();
+              release.await();
+              return addedRefs.stream()
+                  .map(refName -> new RefUpdateState(refName, RefUpdate.Result.NEW))
+                  .collect(Collectors.toList());
+            });
+
+    Map<String, Future<RefUpdateState>> results =
+        Map.of(
+            REF_NAME,
+            executor.submit(() -> objectUnderTest.apply(PROJECT, REF_NAME, REVISIONS_DATA)),
+            OTHER_REF_NAME,
+            executor.submit(
+                () -> objectUnderTest.apply(PROJECT, OTHER_REF_NAME, OTHER_REVISIONS_DATA)));
+    committing.await();
+
+    Future<RefUpdateState> other = results.get(addedRefs.get(1));
+    assertThrows(TimeoutException.class, () -> other.get(500, MILLISECONDS));
+    release.countDown();
+    assertThat(other.get().getResult()).isEqualTo(RefUpdate.Result.NEW);
+    assertThat(results.get(addedRefs.get(0)).get().getResult()).isEqualTo(RefUpdate.Result.NEW);
+  }
+
+  @Test
+  public void shouldFailTheGroupWhosePreviousGroupIsNotCommittedInTime() throws Exception {
+    ApplyObjectGroupCommits objectUnderTest = groupCommits(1000, 1, 10);
+    CountDownLatch committing = new CountDownLatch(1);
+    CountDownLatch release = new CountDownLatch(1);
+    when(applyObject.newBatch(PROJECT, false)).thenReturn(batch);
+    when(batch.commit())
+        .thenAnswer(
+            invocation -> {
+              committing.countDown();
+              release.await();
+              return List.of(new RefUpdateState(REF_NAME, RefUpdate.Result.NEW));
+            });
+
+    Future<RefUpdateState> first =
+        executor.submit(() -> objectUnderTest.apply(PROJECT, REF_NAME, REVISIONS_DATA));
+    committing.await();
+    Future<RefUpdateState> second =
+        executor.submit(() -> objectUnderTest.apply(PROJECT, OTHER_REF_NAME, OTHER_REVISIONS_DATA));
+
+    ExecutionException e = assertThrows(ExecutionException.class, second::get);
+    assertThat(e).hasCauseThat().isInstanceOf(IOException.class);
+    verify(batch, never()).add(OTHER_REF_NAME, OTHER_REVISIONS_DATA);
+    release.countDown();
+    assertThat(first.get().getResult()).isEqualTo(RefUpdate.Result.NEW);
+    verify(applyObject, times(1)).newBatch(PROJECT, false);
+  }
+
+  private ApplyObjectGroupCommits groupCommits(long windowMs, int maxRefs) {
+    return groupCommits(windowMs, maxRefs, 60000);
+  }
+
+  private ApplyObjectGroupCommits groupCommits(long windowMs, int maxRefs, long timeoutMs) {
+    Config cfg = new Config();
+    cfg.setLong(
+        "replication", null, ApplyObjectGroupCommits.CONFIG_GROUP_COMMIT_TIMEOUT, timeoutMs);
+    cfg.setLong("replication", null, ApplyObjectGroupCommits.CONFIG_GROUP_COMMIT_WINDOW, windowMs);
+    cfg.setInt("replication", null, ApplyObjectGroupCommits.CONFIG_GROUP_COMMIT_MAX_REFS, maxRefs);
+    when(replicationConfig.getConfig()).thenReturn(cfg);
+    return new ApplyObjectGroupCommits(applyObject, replicationConfig);
+  }
+}
@@ -45,15 +45,26 @@ import com.googlesource.gerrit.plugins.replication.api.ConfigResource;
 import com.googlesource.gerrit.plugins.replication.api.ReplicationConfig;
 import com.googlesource.gerrit.plugins.replication.api.ReplicationConfigOverrides;
 import com.googlesource.gerrit.plugins.replication.pull.FetchRefSpec;
+import com.googlesource.gerrit.plugins.replication.pull.RevisionDataCacheModule;
 import com.googlesource.gerrit.plugins.replication.pull.RevisionReader;
+import com.googlesource.gerrit.plugins.replication.pull.api.data.ApplyPackInput.RefUpdateInput;
 import com.googlesource.gerrit.plugins.replication.pull.api.data.RevisionData;
 import com.googlesource.gerrit.plugins.replication.pull.api.data.RevisionObjectData;
 import com.googlesource.gerrit.plugins.replication.pull.api.exception.MissingLatestPatchSetException;
 import com.googlesource.gerrit.plugins.replication.pull.api.exception.MissingParentObjectException;
+import java.io.ByteArrayInputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
 import java.util.List;
 import java.util.Optional;
+import java.util.Set;
 import java.util.stream.Collectors;
 import org.eclipse.jgit.junit.TestRepository;
+import org.eclipse.jgit.lib.CommitBuilder;
+import org.eclipse.jgit.lib.ObjectId;
+import org.eclipse.jgit.lib.ObjectInserter;
+import org.eclipse.jgit.lib.PersonIdent;
+import org.eclipse.jgit.lib.RefUpdate;
 import org.eclipse.jgit.lib.Repository;
 import org.junit.Before;
 import org.junit.Test;
@@ -104,6 +115,191 @@ public class ApplyObjectIT extends LightweightPluginDaemonTest {
     }
   }
 
+  @Test
+  public void shouldApplyRefMetaObjectAndPatchSetInASingleBatch() throws Exception {
+    String testRepoProjectName = project + TEST_REPLICATION_SUFFIX;
+    testRepo = cloneProject(createTestProject(testRepoProjectName));
+
+    Result pushResult = createChange();
+    Change.Id changeId = pushResult.getChange().getId();
+    String refName = RefNames.changeMetaRef(changeId);
+    String patchSetRefName = RefNames.patchSetRef(PatchSet.id(changeId, 1));
+    NameKey testRepoKey = Project.nameKey(testRepoProjectName);
+
+    Optional<RevisionData> revisionData;
+    Optional<RevisionData> patchSetRevisionData;
+    try (Repository repo = repoManager.openRepository(testRepoKey)) {
+      revisionData = reader.read(testRepoKey, repo.exactRef(refName).getObjectId(), refName, 0);
+      patchSetRevisionData =
+          reader.read(
+              testRepoKey, repo.exactRef(patchSetRefName).getObjectId(), patchSetRefName, 0);
+    }
+
+    List<RefUpdateState> refUpdateStates;
+    try (ApplyObject.Batch batch = objectUnderTest.newBatch(project)) {
+      batch.add(patchSetRefName, toArray(patchSetRevisionData));
+      batch.add(refName, toArray(revisionData));
+      refUpdateStates = batch.commit();
+    }
+
+    assertThat(refUpdateStates.stream().map(RefUpdateState::getResult).collect(Collectors.toList()))
+        .containsExactly(RefUpdate.Result.NEW, RefUpdate.Result.NEW);
+    try (Repository repo = repoManager.openRepository(project);
+        TestRepository<Repository> testRepo = new TestRepository<>(repo); ) {
+      Optional<RevisionData> newRevisionData =
+          reader.read(project, repo.exactRef(refName).getObjectId(), refName, 0);
+      compareObjects(revisionData.get(), newRevisionData);
+      testRepo.fsck();
+    }
+  }
+
+  @Test
+  public void shouldApplyRefMetaObjectBeforeItsPatchSetInASingleBatch() throws Exception {
+    String testRepoProjectName = project + TEST_REPLICATION_SUFFIX;
+    testRepo = cloneProject(createTestProject(testRepoProjectName));
+
+    Result pushResult = createChange();
+    Change.Id changeId = pushResult.getChange().getId();
+    String refName = RefNames.changeMetaRef(changeId);
+    String patchSetRefName = RefNames.patchSetRef(PatchSet.id(changeId, 1));
+    NameKey testRepoKey = Project.nameKey(testRepoProjectName);
+
+    Optional<RevisionData> revisionData;
+    Optional<RevisionData> patchSetRevisionData;
+    try (Repository repo = repoManager.openRepository(testRepoKey)) {
+      revisionData = reader.read(testRepoKey, repo.exactRef(refName).getObjectId(), refName, 0);
+      patchSetRevisionData =
+          reader.read(
+              testRepoKey, repo.exactRef(patchSetRefName).getObjectId(), patchSetRefName, 0);
+    }
+
+    List<RefUpdateState> refUpdateStates;
+    try (ApplyObject.Batch batch = objectUnderTest.newBatch(project)) {
+      batch.add(refName, toArray(revisionData));
+      batch.add(patchSetRefName, toArray(patchSetRevisionData));
+      refUpdateStates = batch.commit();
+    }
+
+    assertThat(refUpdateStates.stream().map(RefUpdateState::getResult).collect(Collectors.toList()))
+        .containsExactly(RefUpdate.Result.NEW, RefUpdate.Result.NEW);
+  }
+
+  @Test
+  public void shouldRejectRefMetaObjectWhenPatchSetIsMissingFromTheBatch() throws Exception {
+    String testRepoProjectName = project + TEST_REPLICATION_SUFFIX;
+    testRepo = cloneProject(createTestProject(testRepoProjectName));
+
+    Result pushResult = createChange();
+    Change.Id changeId = pushResult.getChange().getId();
+    String refName = RefNames.changeMetaRef(changeId);
+    NameKey testRepoKey = Project.nameKey(testRepoProjectName);
+
+    Optional<RevisionData> revisionData;
+    try (Repository repo = repoManager.openRepository(testRepoKey)) {
+      revisionData = reader.read(testRepoKey, repo.exactRef(refName).getObjectId(), refName, 0);
+    }
+
+    List<RefUpdateState> refUpdateStates;
+    Optional<MissingLatestPatchSetException> missingPatchSet;
+    try (ApplyObject.Batch batch = objectUnderTest.newBatch(project)) {
+      batch.add(refName, toArray(revisionData));
+      refUpdateStates = batch.commit();
+      missingPatchSet = batch.getMissingLatestPatchSet(refUpdateStates.get(0));
+    }
+
+    assertThat(refUpdateStates.stream().map(RefUpdateState::getResult).collect(Collectors.toList()))
+        .containsExactly(RefUpdate.Result.REJECTED_OTHER_REASON);
+    assertThat(missingPatchSet).isPresent();
+    try (Repository repo = repoManager.openRepository(project)) {
+      assertThat(repo.exactRef(refName)).isNull();
+    }
+  }
+
+  @Test
+  public void shouldRejectRefMetaObjectWhenItsPatchSetFailsInANonAtomicBatch() throws Exception {
+    String testRepoProjectName = project + TEST_REPLICATION_SUFFIX;
+    testRepo = cloneProject(createTestProject(testRepoProjectName));
+
+    Result pushResult = createChange();
+    Change.Id changeId = pushResult.getChange().getId();
+    String refName = RefNames.changeMetaRef(changeId);
+    String patchSetRefName = RefNames.patchSetRef(PatchSet.id(changeId, 1));
+    NameKey testRepoKey = Project.nameKey(testRepoProjectName);
+
+    Optional<RevisionData> revisionData;
+    Optional<RevisionData> patchSetRevisionData;
+    try (Repository repo = repoManager.openRepository(testRepoKey)) {
+      revisionData = reader.read(testRepoKey, repo.exactRef(refName).getObjectId(), refName, 0);
+      patchSetRevisionData =
+          reader.read(
+              testRepoKey, repo.exactRef(patchSetRefName).getObjectId(), patchSetRefName, 0);
+    }
+
+    List<RefUpdateState> refUpdateStates;
+    Optional<MissingLatestPatchSetException> missingPatchSet;
+    try (Repository repo = repoManager.openRepository(project);
+        ApplyObject.Batch batch = objectUnderTest.newBatch(project, false)) {
+      batch.add(refName, toArray(revisionData));
+      batch.add(patchSetRefName, toArray(patchSetRevisionData));
+      Path patchSetRefLock = repo.getDirectory().toPath().resolve(patchSetRefName + ".lock");
+      Files.createDirectories(patchSetRefLock.getParent());
+      Files.createFile(patchSetRefLock);
+      refUpdateStates = batch.commit();
+      missingPatchSet = batch.getMissingLatestPatchSet(refUpdateStates.get(0));
+      Files.delete(patchSetRefLock);
+    }
+
+    assertThat(refUpdateStates.stream().map(RefUpdateState::getResult).collect(Collectors.toList()))
+        .containsExactly(RefUpdate.Result.REJECTED_OTHER_REASON, RefUpdate.Result.LOCK_FAILURE)
+        .inOrder();
+    assertThat(missingPatchSet).isPresent();
+    try (Repository repo = repoManager.openRepository(project)) {
+      assertThat(repo.exactRef(refName)).isNull();
+    }
+  }
+
+  @Test
+  public void shouldApplyTheOtherRefsOfTheBatchWhenARefFails() throws Exception {
+    String testRepoProjectName = project + TEST_REPLICATION_SUFFIX;
+    testRepo = cloneProject(createTestProject(testRepoProjectName));
+
+    String refName = RefNames.patchSetRef(PatchSet.id(createChange().getChange().getId(), 1));
+    String failingRefName =
+        RefNames.patchSetRef(PatchSet.id(createChange().getChange().getId(), 1));
+    NameKey testRepoKey = Project.nameKey(testRepoProjectName);
+
+    ObjectId objectId;
+    Optional<RevisionData> revisionData;
+    Optional<RevisionData> failingRevisionData;
+    try (Repository repo = repoManager.openRepository(testRepoKey)) {
+      objectId = repo.exactRef(refName).getObjectId();
+      revisionData = reader.read(testRepoKey, objectId, refName, 0);
+      failingRevisionData =
+          reader.read(
+              testRepoKey, repo.exactRef(failingRefName).getObjectId(), failingRefName, 0);
+    }
+
+    List<RefUpdateState> refUpdateStates;
+    try (Repository repo = repoManager.openRepository(project);
+        ApplyObject.Batch batch = objectUnderTest.newBatch(project)) {
+      batch.add(refName, toArray(revisionData));
+      batch.add(failingRefName, toArray(failingRevisionData));
+      Path failingRefLock = repo.getDirectory().toPath().resolve(failingRefName + ".lock");
+      Files.createDirectories(failingRefLock.getParent());
+      Files.createFile(failingRefLock);
+      refUpdateStates = batch.commit();
+      Files.delete(failingRefLock);
+    }
+
+    assertThat(refUpdateStates.stream().map(RefUpdateState::getResult).collect(Collectors.toList()))
+        .containsExactly(RefUpdate.Result.NEW, RefUpdate.Result.LOCK_FAILURE)
+        .inOrder();
+    try (Repository repo = repoManager.openRepository(project)) {
+      assertThat(repo.exactRef(refName).getObjectId()).isEqualTo(objectId);
+      assertThat(repo.exactRef(failingRefName)).isNull();
+    }
+  }
+
   @Test
   public void shouldApplyRefSequencesChanges() throws Exception {
     String testRepoProjectName = project + TEST_REPLICATION_SUFFIX;
@@ -213,6 +409,122 @@ public class ApplyObjectIT extends LightweightPluginDaemonTest {
     }
   }
 
+  @Test
+  public void shouldInsertThePackOfRefMetaObjectAndPatchSet() throws Exception {
+    String testRepoProjectName = project + TEST_REPLICATION_SUFFIX;
+    NameKey testRepoKey = createTestProject(testRepoProjectName);
+    testRepo = cloneProject(testRepoKey);
+
+    Result pushResult = createChange();
+    Change.Id changeId = pushResult.getChange().getId();
+    String refName = RefNames.changeMetaRef(changeId);
+    String patchSetRefName = RefNames.patchSetRef(PatchSet.id(changeId, 1));
+
+    List<RefUpdateInput> refs;
+    byte[] pack;
+    try (Repository repo = repoManager.openRepository(testRepoKey)) {
+      ObjectId metaObjectId = repo.exactRef(refName).getObjectId();
+      ObjectId patchSetObjectId = repo.exactRef(patchSetRefName).getObjectId();
+      ObjectId initialObjectId = pushResult.getCommit().getParent(0).getId();
+      refs =
+          List.of(
+              new RefUpdateInput(patchSetRefName, patchSetObjectId.getName(), List.of()),
+              new RefUpdateInput(refName, metaObjectId.getName(), List.of()));
+      pack =
+          reader.readThinPack(
+              testRepoKey, Set.of(metaObjectId, patchSetObjectId, initialObjectId), Set.of());
+    }
+
+    objectUnderTest.insertPack(project, refs, new ByteArrayInputStream(pack));
+    for (RefUpdateInput ref : refs) {
+      assertThat(
+              objectUnderTest
+                  .updateRef(project, ref.getRefName(), ObjectId.fromString(ref.getObjectId()))
+                  .getResult())
+          .isEqualTo(RefUpdate.Result.NEW);
+    }
+
+    try (Repository repo = repoManager.openRepository(project);
+        TestRepository<Repository> testRepo = new TestRepository<>(repo)) {
+      testRepo.fsck();
+    }
+  }
+
+  @Test
+  public void shouldRejectThePackOfRefMetaObjectWhenPatchSetIsMissing() throws Exception {
+    String testRepoProjectName = project + TEST_REPLICATION_SUFFIX;
+    NameKey testRepoKey = createTestProject(testRepoProjectName);
+    testRepo = cloneProject(testRepoKey);
+
+    Result pushResult = createChange();
+    String refName = RefNames.changeMetaRef(pushResult.getChange().getId());
+
+    List<RefUpdateInput> refs;
+    byte[] pack;
+    try (Repository repo = repoManager.openRepository(testRepoKey)) {
+      ObjectId metaObjectId = repo.exactRef(refName).getObjectId();
+      refs = List.of(new RefUpdateInput(refName, metaObjectId.getName(), List.of()));
+      pack = reader.readThinPack(testRepoKey, Set.of(metaObjectId), Set.of());
+    }
+
+    assertThrows(
+        MissingLatestPatchSetException.class,
+        () -> objectUnderTest.insertPack(project, refs, new ByteArrayInputStream(pack)));
+  }
+
+  @Test
+  public void shouldReturnOnlyTheMissingObjects() throws Exception {
+    String testRepoProjectName = project + TEST_REPLICATION_SUFFIX;
+    NameKey testRepoKey = createTestProject(testRepoProjectName);
+    testRepo = cloneProject(testRepoKey);
+
+    Result pushResult = createChange();
+    ObjectId changeCommitId = pushResult.getCommit().getId();
+    ObjectId missingObjectId = ObjectId.fromString("b5d7bcf1d1c5b0f0726d10a16c8315f06f900bfb");
+
+    assertThat(
+            objectUnderTest.missingObjects(testRepoKey, List.of(changeCommitId, missingObjectId)))
+        .containsExactly(missingObjectId);
+  }
+
+  @Test
+  public void shouldUpdateANewBranchToAnExistingCommitIfPresent() throws Exception {
+    ObjectId commitId;
+    try (Repository repo = repoManager.openRepository(project);
+        TestRepository<Repository> testRepo = new TestRepository<>(repo)) {
+      commitId = testRepo.branch("refs/heads/master").commit().add("file", "content").create();
+    }
+
+    Optional<RefUpdateState> refUpdateState =
+        objectUnderTest.updateRefIfPresent(project, "refs/heads/new-branch", commitId);
+
+    assertThat(refUpdateState.map(RefUpdateState::getResult)).hasValue(RefUpdate.Result.NEW);
+  }
+
+  @Test
+  public void shouldNotUpdateARefIfPresentWhenTheTreeOfItsObjectIsMissing() throws Exception {
+    ObjectId incompleteCommitId;
+    try (Repository repo = repoManager.openRepository(project);
+        ObjectInserter inserter = repo.newObjectInserter()) {
+      CommitBuilder commit = new CommitBuilder();
+      PersonIdent ident = new PersonIdent("Test", "test@example.com");
+      commit.setTreeId(ObjectId.fromString("b5d7bcf1d1c5b0f0726d10a16c8315f06f900bfb"));
+      commit.setParentId(repo.exactRef("refs/heads/master").getObjectId());
+      commit.setAuthor(ident);
+      commit.setCommitter(ident);
+      commit.setMessage("Incomplete commit");
+      incompleteCommitId = inserter.insert(commit);
+      inserter.flush();
+    }
+
+    assertThat(objectUnderTest.updateRefIfPresent(project, "refs/heads/master", incompleteCommitId))
+        .isEmpty();
+    try (Repository repo = repoManager.openRepository(project)) {
+      assertThat(repo.exactRef("refs/heads/master").getObjectId())
+          .isNotEqualTo(incompleteCommitId);
+    }
+  }
+
   private void compareObjects(RevisionData expected, Optional<RevisionData> actualOption) {
     assertThat(actualOption.isPresent()).isTrue();
     RevisionData actual = actualOption.get();
@@ -263,6 +575,7 @@ public class ApplyObjectIT extends LightweightPluginDaemonTest {
       DynamicItem.itemOf(binder(), ReplicationConfigOverrides.class);
       bind(ConfigResource.class).to(FileConfigResource.class);
       bind(ReplicationConfig.class).to(ReplicationConfigImpl.class);
+      install(new RevisionDataCacheModule());
       bind(RevisionReader.class).in(Scopes.SINGLETON);
       bind(ApplyObject.class);
     }
@@ -0,0 +1,225 @@
+// Copyright (C) 2025 The Android Open Source Project
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+// http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.googlesource.gerrit.plugins.replication.pull.fetch;
+
+import static com.google.common.truth.Truth.assertThat;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+import org.eclipse.jgit.internal.storage.dfs.DfsRepositoryDescription;
+import org.eclipse.jgit.internal.storage.dfs.InMemoryRepository;
+import org.eclipse.jgit.internal.storage.file.FileRepository;
+import org.eclipse.jgit.lib.CommitBuilder;
+import org.eclipse.jgit.lib.Constants;
+import org.eclipse.jgit.lib.FileMode;
+import org.eclipse.jgit.lib.ObjectId;
+import org.eclipse.jgit.lib.PersonIdent;
+import org.eclipse.jgit.lib.Repository;
+import org.eclipse.jgit.lib.TreeFormatter;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+public class ApplyObjectInserterTest {
+  @Rule public TemporaryFolder tempFolder = new TemporaryFolder();
+
+  private Repository repo;
+
+  @Before
+  public void setup() throws Exception {
+    repo = new FileRepository(new File(tempFolder.getRoot(), "test.git"));
+    repo.create(true);
+  }
+
+  @After
+  public void tearDown() {
+    repo.close();
+  }
+
+  @Test
+  public void shouldWriteTheObjectsIntoASinglePackInsteadOfLooseObjects() throws Exception {
+    ObjectId firstBlobId;
+    ObjectId secondBlobId;
+    try (ApplyObjectInserter inserter = new ApplyObjectInserter(repo, 0)) {
+      firstBlobId = inserter.insert(Constants.OBJ_BLOB, bytes("first"));
+      secondBlobId = inserter.insert(Constants.OBJ_BLOB, bytes("second"));
+      assertThat(inserter.getReader().has(firstBlobId)).isTrue();
+
+      assertThat(inserter.flush()).isEqualTo(2);
+    }
+
+    assertThat(repo.getObjectDatabase().has(firstBlobId)).isTrue();
+    assertThat(repo.getObjectDatabase().has(secondBlobId)).isTrue();
+    assertThat(objectFiles("pack", ".pack")).hasSize(1);
+    assertThat(looseObjectFiles()).isEmpty();
+  }
+
+  @Test
+  public void shouldWriteABatchOfUpToTheDefaultUnpackLimitObjectsAsLooseObjects()
+      throws Exception {
+    assertThat(ApplyObject.DEFAULT_UNPACK_LIMIT).isEqualTo(3);
+    ObjectId commitId;
+    try (ApplyObjectInserter inserter =
+        new ApplyObjectInserter(repo, ApplyObject.DEFAULT_UNPACK_LIMIT)) {
+      ObjectId blobId = inserter.insert(Constants.OBJ_BLOB, bytes("content"));
+      ObjectId treeId = inserter.insert(Constants.OBJ_TREE, tree(blobId));
+      commitId = inserter.insert(Constants.OBJ_COMMIT, commit(treeId));
+      inserter.insert(Constants.OBJ_BLOB, bytes("content"));
+      assertThat(inserter.has(commitId)).isTrue();
+
+      assertThat(inserter.flush()).isEqualTo(0);
+    }
+
+    assertThat(repo.getObjectDatabase().has(commitId)).isTrue();
+    assertThat(objectFiles("pack", ".pack")).isEmpty();
+    assertThat(looseObjectFiles()).hasSize(3);
+  }
+
+  @Test
+  public void shouldWriteABatchOfMoreThanTheDefaultUnpackLimitObjectsIntoASinglePack()
+      throws Exception {
+    assertThat(ApplyObject.DEFAULT_UNPACK_LIMIT).isEqualTo(3);
+    ObjectId previousBlobId;
+    ObjectId commitId;
+    try (ApplyObjectInserter inserter =
+        new ApplyObjectInserter(repo, ApplyObject.DEFAULT_UNPACK_LIMIT)) {
+      previousBlobId = inserter.insert(Constants.OBJ_BLOB, bytes("previous content"));
+      ObjectId blobId = inserter.insert(Constants.OBJ_BLOB, bytes("content"));
+      ObjectId treeId = inserter.insert(Constants.OBJ_TREE, tree(blobId));
+      commitId = inserter.insert(Constants.OBJ_COMMIT, commit(treeId));
+      assertThat(inserter.has(previousBlobId)).isTrue();
+
+      assertThat(inserter.flush()).isEqualTo(4);
+    }
+
+    assertThat(repo.getObjectDatabase().has(previousBlobId)).isTrue();
+    assertThat(repo.getObjectDatabase().has(commitId)).isTrue();
+    assertThat(objectFiles("pack", ".pack")).hasSize(1);
+    assertThat(looseObjectFiles()).isEmpty();
+  }
+
+  @Test
+  public void shouldWriteAllTheObjectsIntoAPackBeyondTheUnpackLimit() throws Exception {
+    try (ApplyObjectInserter inserter = new ApplyObjectInserter(repo, 2)) {
+      ObjectId firstBlobId = inserter.insert(Constants.OBJ_BLOB, bytes("first"));
+      inserter.insert(Constants.OBJ_BLOB, bytes("second"));
+      ObjectId thirdBlobId = inserter.insert(Constants.OBJ_BLOB, bytes("third"));
+      assertThat(inserter.has(firstBlobId)).isTrue();
+      assertThat(inserter.has(thirdBlobId)).isTrue();
+
+      assertThat(inserter.flush()).isEqualTo(3);
+    }
+
+    assertThat(objectFiles("pack", ".pack")).hasSize(1);
+    assertThat(looseObjectFiles()).isEmpty();
+  }
+
+  @Test
+  public void shouldNotWriteTheObjectsUpToTheUnpackLimitBeforeTheFlush() throws Exception {
+    try (ApplyObjectInserter inserter = new ApplyObjectInserter(repo, 2)) {
+      ObjectId blobId = inserter.insert(Constants.OBJ_BLOB, bytes("blob"));
+
+      assertThat(inserter.has(blobId)).isTrue();
+      assertThat(repo.getObjectDatabase().has(blobId)).isFalse();
+
+      inserter.flush();
+      assertThat(repo.getObjectDatabase().has(blobId)).isTrue();
+    }
+  }
+
+  @Test
+  public void shouldApplyTheUnpackLimitToEveryFlush() throws Exception {
+    try (ApplyObjectInserter inserter = new ApplyObjectInserter(repo, 1)) {
+      inserter.insert(Constants.OBJ_BLOB, bytes("first"));
+      inserter.flush();
+
+      inserter.insert(Constants.OBJ_BLOB, bytes("second"));
+
+      assertThat(inserter.flush()).isEqualTo(0);
+    }
+
+    assertThat(objectFiles("pack", ".pack")).isEmpty();
+    assertThat(looseObjectFiles()).hasSize(2);
+  }
+
+  @Test
+  public void shouldNotCountTheObjectsAlreadyPresent() throws Exception {
+    try (ApplyObjectInserter inserter = new ApplyObjectInserter(repo, 0)) {
+      inserter.insert(Constants.OBJ_BLOB, bytes("existing"));
+      inserter.flush();
+
+      inserter.insert(Constants.OBJ_BLOB, bytes("existing"));
+      inserter.insert(Constants.OBJ_BLOB, bytes("new"));
+      inserter.insert(Constants.OBJ_BLOB, bytes("new"));
+
+      assertThat(inserter.flush()).isEqualTo(1);
+    }
+  }
+
+  @Test
+  public void shouldUseTheDefaultInserterForNonFileRepositories() throws Exception {
+    try (Repository inMemoryRepo = new InMemoryRepository(new DfsRepositoryDescription("test"));
+        ApplyObjectInserter inserter = new ApplyObjectInserter(inMemoryRepo, 0)) {
+      ObjectId blobId = inserter.insert(Constants.OBJ_BLOB, bytes("blob"));
+
+      assertThat(inserter.flush()).isEqualTo(0);
+      assertThat(inMemoryRepo.getObjectDatabase().has(blobId)).isTrue();
+    }
+  }
+
+  private List<Path> looseObjectFiles() throws IOException {
+    return objectFiles("", "").stream()
+        .filter(path -> path.getParent().getFileName().toString().matches("[0-9a-f]{2}"))
+        .collect(Collectors.toList());
+  }
+
+  private List<Path> objectFiles(String subdir, String suffix) throws IOException {
+    Path objects = repo.getDirectory().toPath().resolve("objects").resolve(subdir);
+    try (Stream<Path> files = Files.walk(objects)) {
+      return files
+          .filter(Files::isRegularFile)
+          .filter(path -> path.toString().endsWith(suffix))
+          .collect(Collectors.toList());
+    }
+  }
+
+  private static byte[] tree(ObjectId blobId) {
+    TreeFormatter tree = new TreeFormatter();
+    tree.append("file", FileMode.REGULAR_FILE, blobId);
+    return tree.toByteArray();
+  }
+
+  private static byte[] commit(ObjectId treeId) throws IOException {
+    CommitBuilder commit = new CommitBuilder();
+    PersonIdent ident = new PersonIdent("Test", "test@example.com");
+    commit.setTreeId(treeId);
+    commit.setAuthor(ident);
+    commit.setCommitter(ident);
+    commit.setMessage("Test commit");
+    return commit.build();
+  }
+
+  private static byte[] bytes(String content) {
+    return content.getBytes(StandardCharsets.UTF_8);
+  }
+}
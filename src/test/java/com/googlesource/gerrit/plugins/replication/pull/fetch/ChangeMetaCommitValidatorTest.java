@@ -0,0 +1,111 @@
+// Copyright (C) 2025 The Android Open Source Project
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+// http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.googlesource.gerrit.plugins.replication.pull.fetch;
+
+import static com.google.common.truth.Truth.assertThat;
+
+import java.util.Optional;
+import java.util.Set;
+import org.eclipse.jgit.internal.storage.dfs.DfsRepositoryDescription;
+import org.eclipse.jgit.internal.storage.dfs.InMemoryRepository;
+import org.eclipse.jgit.junit.TestRepository;
+import org.eclipse.jgit.revwalk.RevCommit;
+import org.eclipse.jgit.revwalk.RevWalk;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+public class ChangeMetaCommitValidatorTest {
+  private static final String META_REF = "refs/changes/01/1/meta";
+  private static final String PATCH_SET_REF = "refs/changes/01/1/2";
+
+  private TestRepository<InMemoryRepository> testRepo;
+  private RevWalk walk;
+  private ChangeMetaCommitValidator objectUnderTest;
+
+  @Before
+  public void setup() throws Exception {
+    testRepo = new TestRepository<>(new InMemoryRepository(new DfsRepositoryDescription("test")));
+    walk = new RevWalk(testRepo.getRepository());
+    objectUnderTest = new ChangeMetaCommitValidator(testRepo.getRepository(), walk);
+  }
+
+  @After
+  public void tearDown() {
+    walk.close();
+    testRepo.close();
+  }
+
+  @Test
+  public void shouldBeValidWhenLatestPatchSetRefIsPresent() throws Exception {
+    testRepo.branch(PATCH_SET_REF).commit().create();
+
+    assertThat(objectUnderTest.missingLatestPatchSetRef(Set.of(), META_REF, metaCommit(2)))
+        .isEmpty();
+  }
+
+  @Test
+  public void shouldBeValidWhenLatestPatchSetRefIsPending() throws Exception {
+    assertThat(
+            objectUnderTest.missingLatestPatchSetRef(
+                Set.of(PATCH_SET_REF), META_REF, metaCommit(2)))
+        .isEmpty();
+  }
+
+  @Test
+  public void shouldReturnTheMissingLatestPatchSetRef() throws Exception {
+    testRepo.branch("refs/changes/01/1/1").commit().create();
+
+    assertThat(objectUnderTest.missingLatestPatchSetRef(Set.of(), META_REF, metaCommit(1, 2)))
+        .isEqualTo(Optional.of(PATCH_SET_REF));
+    StringBuilder error = new StringBuilder();
+    assertThat(objectUnderTest.isValid(META_REF, metaCommit(2), error::append)).isFalse();
+    assertThat(error.toString()).contains(PATCH_SET_REF);
+  }
+
+  @Test
+  public void shouldIgnoreCommitsOfRefsOtherThanChangeMeta() throws Exception {
+    assertThat(
+            objectUnderTest.missingLatestPatchSetRef(Set.of(), "refs/heads/master", metaCommit(2)))
+        .isEmpty();
+  }
+
+  @Test
+  public void shouldResolveEveryPatchSetRefOnlyOnce() throws Exception {
+    testRepo.branch(PATCH_SET_REF).commit().create();
+    assertThat(objectUnderTest.isPresent(PATCH_SET_REF)).isTrue();
+
+    testRepo.delete(PATCH_SET_REF);
+
+    assertThat(objectUnderTest.isPresent(PATCH_SET_REF)).isTrue();
+  }
+
+  @Test
+  public void shouldResolveAgainThePatchSetRefsNotFound() throws Exception {
+    assertThat(objectUnderTest.isPresent(PATCH_SET_REF)).isFalse();
+
+    testRepo.branch(PATCH_SET_REF).commit().create();
+
+    assertThat(objectUnderTest.isPresent(PATCH_SET_REF)).isTrue();
+  }
+
+  private RevCommit metaCommit(int... patchSets) throws Exception {
+    StringBuilder message = new StringBuilder("Update patch set\n\n");
+    for (int patchSet : patchSets) {
+      message.append("Patch-set: ").append(patchSet).append("\n");
+    }
+    return testRepo.commit().message(message.toString()).create();
+  }
+}